@@ -0,0 +1,69 @@
+import proj3.jmh.Targets;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Implements the benchmarks' Targets interface with proj3's default-package classes. It
+ * is itself in the default package, so that it can name them.
+ */
+public class JmhTargets implements Targets {
+    @Override
+    public Object graph(String osmPath) {
+        return new GraphDB(osmPath);
+    }
+
+    @Override
+    public void writeSyntheticCity(File file, int side, long seed) throws IOException {
+        SyntheticOsm.write(file, side, 0, seed);
+    }
+
+    @Override
+    public int size(Object graph) {
+        return ((GraphDB) graph).size();
+    }
+
+    @Override
+    public double lon(Object graph, int i) {
+        return ((GraphDB) graph).lonAt(i);
+    }
+
+    @Override
+    public double lat(Object graph, int i) {
+        return ((GraphDB) graph).latAt(i);
+    }
+
+    @Override
+    public long closest(Object graph, double lon, double lat) {
+        return ((GraphDB) graph).closest(lon, lat);
+    }
+
+    @Override
+    public List<Long> shortestPath(Object graph, double stlon, double stlat, double destlon,
+                                   double destlat) {
+        return Router.shortestPath((GraphDB) graph, stlon, stlat, destlon, destlat);
+    }
+
+    @Override
+    public List<?> routeDirections(Object graph, List<Long> route) {
+        return Router.routeDirections((GraphDB) graph, route);
+    }
+
+    @Override
+    public Object rasterer() {
+        return new Rasterer();
+    }
+
+    @Override
+    public Map<String, Object> getMapRaster(Object rasterer, Map<String, Double> params) {
+        return ((Rasterer) rasterer).getMapRaster(params);
+    }
+
+    @Override
+    public double[] rootBox() {
+        return new double[] {MapServer.ROOT_ULLON, MapServer.ROOT_ULLAT, MapServer.ROOT_LRLON,
+            MapServer.ROOT_LRLAT};
+    }
+}
@@ -0,0 +1,17 @@
+package proj3.jmh;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/** Each benchmark thread's position in the list of queries, so queries are cycled. */
+@State(Scope.Thread)
+public class Cursor {
+    private int next;
+
+    /** Returns the next query index below n, wrapping around. */
+    int next(int n) {
+        int i = next;
+        next = i + 1 == n ? 0 : i + 1;
+        return i;
+    }
+}
@@ -0,0 +1,53 @@
+package proj3.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GraphDB construction, closest, shortestPath and routeDirections on the graph of a
+ * GraphState. Each call answers one query, cycling through the state's routes.
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GraphBenchmarks {
+    private static final Targets TARGETS = Targets.INSTANCE;
+
+    /** Parsing and cleaning the whole OSM file, as on a server start without snapshot. */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public Object construct(GraphState state) {
+        return TARGETS.graph(state.osmPath);
+    }
+
+    @Benchmark
+    public long closest(GraphState state, Cursor cursor) {
+        double[] r = state.routes[cursor.next(state.routes.length)];
+        return TARGETS.closest(state.g, r[0], r[1]);
+    }
+
+    @Benchmark
+    public List<Long> shortestPath(GraphState state, Cursor cursor) {
+        double[] r = state.routes[cursor.next(state.routes.length)];
+        return TARGETS.shortestPath(state.g, r[0], r[1], r[2], r[3]);
+    }
+
+    @Benchmark
+    public List<?> routeDirections(GraphState state, Cursor cursor) {
+        return TARGETS.routeDirections(state.g,
+            state.paths.get(cursor.next(state.paths.size())));
+    }
+}
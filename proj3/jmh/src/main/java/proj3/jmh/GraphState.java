@@ -0,0 +1,99 @@
+package proj3.jmh;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A graph loaded once per trial, with the routes to query it with. The graph is either an
+ * OSM file, e.g. -p graph=../library-sp18/data/berkeley-2018.osm.xml, or by default a
+ * synthetic city of side x side intersections. Routes come from path_params.txt when it is
+ * present, and are otherwise drawn between random vertices.
+ */
+@State(Scope.Benchmark)
+public class GraphState {
+    /** Number of random routes and locations when there is no params file. */
+    static final int QUERIES = 256;
+
+    @Param({"synthetic"})
+    public String graph;
+
+    @Param({"300"})
+    public int side;
+
+    @Param({"path_params.txt"})
+    public String pathParams;
+
+    String osmPath;
+    private File synthetic;
+    Object g;
+    /** {stlon, stlat, destlon, destlat} of each route. */
+    double[][] routes;
+    /** The vertices of each route, for routeDirections. */
+    List<List<Long>> paths;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Targets targets = Targets.INSTANCE;
+        if (graph.equals("synthetic")) {
+            synthetic = File.createTempFile("synthetic", ".osm.xml");
+            targets.writeSyntheticCity(synthetic, side, 61);
+            osmPath = synthetic.getPath();
+        } else {
+            osmPath = graph;
+        }
+        g = targets.graph(osmPath);
+        routes = readRoutes(Paths.get(pathParams));
+        if (routes == null) {
+            Random random = new Random(9);
+            int n = targets.size(g);
+            routes = new double[QUERIES][];
+            for (int i = 0; i < QUERIES; i += 1) {
+                int s = random.nextInt(n);
+                int t = random.nextInt(n);
+                routes[i] = new double[] {targets.lon(g, s), targets.lat(g, s),
+                    targets.lon(g, t), targets.lat(g, t)};
+            }
+        }
+        paths = new ArrayList<>();
+        for (double[] r : routes) {
+            paths.add(targets.shortestPath(g, r[0], r[1], r[2], r[3]));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (synthetic != null && !synthetic.delete()) {
+            synthetic.deleteOnExit();
+        }
+    }
+
+    /** Reads the routes of path_params.txt, or returns null if the file is not there. */
+    private static double[][] readRoutes(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        List<double[]> routes = new ArrayList<>();
+        /* Two comment lines, then four numbers per route. */
+        for (int i = 2; i + 3 < lines.size(); i += 4) {
+            routes.add(new double[] {Double.parseDouble(lines.get(i)),
+                Double.parseDouble(lines.get(i + 1)), Double.parseDouble(lines.get(i + 2)),
+                Double.parseDouble(lines.get(i + 3))});
+        }
+        return routes.toArray(new double[0][]);
+    }
+}
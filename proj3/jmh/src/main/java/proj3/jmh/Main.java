@@ -0,0 +1,25 @@
+package proj3.jmh;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs JMH, writing machine-readable results to jmh-result.json unless the arguments pick
+ * another format (-rf) or file (-rff). Every other argument is passed to JMH as it is, e.g.
+ * "GraphBenchmarks.shortestPath -p side=600".
+ */
+public class Main {
+    public static void main(String[] args) throws Exception {
+        List<String> jmhArgs = new ArrayList<>(Arrays.asList(args));
+        if (!jmhArgs.contains("-rf")) {
+            jmhArgs.add("-rf");
+            jmhArgs.add("json");
+        }
+        if (!jmhArgs.contains("-rff")) {
+            jmhArgs.add("-rff");
+            jmhArgs.add("jmh-result.json");
+        }
+        org.openjdk.jmh.Main.main(jmhArgs.toArray(new String[0]));
+    }
+}
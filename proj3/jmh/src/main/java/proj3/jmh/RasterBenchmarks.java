@@ -0,0 +1,103 @@
+package proj3.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rasterer.getMapRaster over the queries of raster_params.txt, or over random pans and
+ * zooms of the root box when that file is not present.
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RasterBenchmarks {
+    private static final Targets TARGETS = Targets.INSTANCE;
+
+    /** A Rasterer and its queries, set up once per trial. */
+    @State(Scope.Benchmark)
+    public static class RasterState {
+        @Param({"raster_params.txt"})
+        public String rasterParams;
+
+        Object rasterer;
+        List<Map<String, Double>> queries;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            rasterer = TARGETS.rasterer();
+            queries = readQueries(Paths.get(rasterParams));
+            if (queries.isEmpty()) {
+                double[] root = TARGETS.rootBox();
+                double w = root[2] - root[0];
+                double h = root[1] - root[3];
+                Random random = new Random(61);
+                for (int i = 0; i < GraphState.QUERIES; i += 1) {
+                    double scale = Math.pow(2, -random.nextInt(8));
+                    double ullon = root[0] + random.nextDouble() * w * (1 - scale);
+                    double ullat = root[1] - random.nextDouble() * h * (1 - scale);
+                    queries.add(query(ullon, ullat, ullon + w * scale, ullat - h * scale,
+                        1000, 800));
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public Map<String, Object> getMapRaster(RasterState state, Cursor cursor) {
+        return TARGETS.getMapRaster(state.rasterer,
+            state.queries.get(cursor.next(state.queries.size())));
+    }
+
+    /** Reads the queries of raster_params.txt, or none if the file is not there. */
+    private static List<Map<String, Double>> readQueries(Path path) throws IOException {
+        List<Map<String, Double>> queries = new ArrayList<>();
+        if (!Files.exists(path)) {
+            return queries;
+        }
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        /* Two comment lines, then ullon, ullat, lrlon, lrlat, w and h per query. */
+        for (int i = 2; i + 5 < lines.size(); i += 6) {
+            queries.add(query(Double.parseDouble(lines.get(i)),
+                Double.parseDouble(lines.get(i + 1)), Double.parseDouble(lines.get(i + 2)),
+                Double.parseDouble(lines.get(i + 3)), Double.parseDouble(lines.get(i + 4)),
+                Double.parseDouble(lines.get(i + 5))));
+        }
+        return queries;
+    }
+
+    private static Map<String, Double> query(double ullon, double ullat, double lrlon,
+                                             double lrlat, double w, double h) {
+        Map<String, Double> params = new HashMap<>();
+        params.put("ullon", ullon);
+        params.put("ullat", ullat);
+        params.put("lrlon", lrlon);
+        params.put("lrlat", lrlat);
+        params.put("w", w);
+        params.put("h", h);
+        return params;
+    }
+}
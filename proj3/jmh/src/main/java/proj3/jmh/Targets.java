@@ -0,0 +1,59 @@
+package proj3.jmh;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The proj3 operations the benchmarks measure. proj3's classes are in the default package,
+ * which code in a named package cannot refer to, so they are implemented by JmhTargets in
+ * the default package and passed around here as Objects. Each call costs one interface
+ * dispatch and a cast, which is negligible next to the work measured.
+ */
+public interface Targets {
+    /** The implementation, loaded once by name. */
+    Targets INSTANCE = load();
+
+    /** Parses an OSM file into a cleaned GraphDB, without any snapshot. */
+    Object graph(String osmPath);
+
+    /** Writes a synthetic side x side city to file; see SyntheticOsm. */
+    void writeSyntheticCity(File file, int side, long seed) throws IOException;
+
+    /** Returns the number of vertices of a graph. */
+    int size(Object graph);
+
+    /** Returns the longitude of vertex index i. */
+    double lon(Object graph, int i);
+
+    /** Returns the latitude of vertex index i. */
+    double lat(Object graph, int i);
+
+    /** GraphDB.closest. */
+    long closest(Object graph, double lon, double lat);
+
+    /** Router.shortestPath, with the server's default algorithm. */
+    List<Long> shortestPath(Object graph, double stlon, double stlat, double destlon,
+                            double destlat);
+
+    /** Router.routeDirections. */
+    List<?> routeDirections(Object graph, List<Long> route);
+
+    /** Returns a new Rasterer. */
+    Object rasterer();
+
+    /** Rasterer.getMapRaster. */
+    Map<String, Object> getMapRaster(Object rasterer, Map<String, Double> params);
+
+    /** Returns {ullon, ullat, lrlon, lrlat} of the root tile, MapServer.ROOT_*. */
+    double[] rootBox();
+
+    static Targets load() {
+        try {
+            return (Targets) Class.forName("JmhTargets").newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("JmhTargets is missing from the classpath.", e);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * A fixed number of threads for the CPU-heavy part of requests, such as compositing and
+ * encoding rasters, behind a bounded queue. Request threads do their blocking reads
+ * themselves and then hand the CPU work here and wait, so however many requests are in
+ * flight, no more renders run at once than the pool has threads, and request threads
+ * stay cheap to add.
+ *
+ * When every thread is busy and the queue is full, call throws RejectedExecutionException
+ * at once instead of queueing work that would finish too late to be useful. MapServer
+ * answers such requests with 503, so clients back off while the pool catches up.
+ */
+public class ComputePool {
+    private final ThreadPoolExecutor executor;
+    private final int queueLimit;
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Starts the pool's threads, which are daemons and so never keep the server running.
+     * @param threads Number of threads, usually the number of cores.
+     * @param queueLimit Number of tasks that may wait for a thread before work is rejected.
+     */
+    public ComputePool(int threads, int queueLimit) {
+        if (threads <= 0 || queueLimit < 0) {
+            throw new IllegalArgumentException("A compute pool needs at least one thread and "
+                + "a queue limit of at least 0.");
+        }
+        this.queueLimit = queueLimit;
+        AtomicInteger count = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            queueLimit == 0 ? new SynchronousQueue<>()
+                : new ArrayBlockingQueue<>(queueLimit), r -> {
+                    Thread t = new Thread(r, "compute-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        executor.prestartAllCoreThreads();
+    }
+
+    /**
+     * Runs work on a pool thread and waits for its result.
+     * @param work The work. Exceptions it throws are rethrown to the caller.
+     * @return What work returned.
+     * @throws RejectedExecutionException If the pool and its queue are full, or the pool
+     *                                    has been shut down.
+     */
+    public <T> T call(Supplier<T> work) {
+        CompletableFuture<T> result;
+        try {
+            result = CompletableFuture.supplyAsync(work, executor);
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            throw e;
+        }
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /** Stops the threads once queued work is done. Later calls are rejected. */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    public int threads() {
+        return executor.getCorePoolSize();
+    }
+
+    public int queueLimit() {
+        return queueLimit;
+    }
+
+    /** Tasks running right now. */
+    public int active() {
+        return executor.getActiveCount();
+    }
+
+    /** Tasks waiting for a thread. */
+    public int queued() {
+        return executor.getQueue().size();
+    }
+
+    /** Tasks finished since the pool started. */
+    public long completed() {
+        return executor.getCompletedTaskCount();
+    }
+
+    /** Calls turned away because the pool was full. */
+    public long rejected() {
+        return rejected.get();
+    }
+}
@@ -0,0 +1,431 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A contraction hierarchy over a cleaned GraphDB. Preprocessing contracts the vertices one
+ * at a time, least important first. Contracting v removes it from the remaining graph and
+ * adds a shortcut u-w for each pair of neighbors whose only shortest path runs through v.
+ * The order of contraction is the rank of a vertex.
+ *
+ * Every road is two-way, so one upward graph serves both directions of a query: the edges
+ * of vertex v are those it had, to higher-ranked vertices, at the moment it was contracted.
+ * A shortest path always climbs from s to some top vertex and descends to t, so a
+ * bidirectional Dijkstra that only follows upward edges finds it while settling a few
+ * hundred vertices. Each shortcut records the vertex it bypasses, so a path through
+ * shortcuts can be unpacked into the original edges.
+ *
+ * The upward graph is stored in CSR form, like GraphDB: the upward edges of v are
+ * [upOffsets[v], upOffsets[v + 1]).
+ */
+public class ContractionHierarchy {
+    /** Witness searches give up after settling this many vertices. */
+    private static final int WITNESS_SETTLE_LIMIT = 500;
+
+    /** The order in which each vertex was contracted. */
+    private final int[] rank;
+    private final int[] upOffsets;
+    private final int[] upTargets;
+    private final double[] upWeights;
+    /** The vertex a shortcut bypasses, or -1 for an edge of the original graph. */
+    private final int[] upMiddles;
+
+    private ContractionHierarchy(int[] rank, int[] upOffsets, int[] upTargets,
+                                 double[] upWeights, int[] upMiddles) {
+        this.rank = rank;
+        this.upOffsets = upOffsets;
+        this.upTargets = upTargets;
+        this.upWeights = upWeights;
+        this.upMiddles = upMiddles;
+    }
+
+    /**
+     * Contracts every vertex of a cleaned graph. Vertices are ordered by edge difference
+     * (shortcuts added minus edges removed) plus the number of their neighbors already
+     * contracted, which spreads contraction evenly over the map. Priorities are updated
+     * lazily: a vertex is only contracted if its priority, computed again when it reaches
+     * the front of the queue, is still the smallest, and then with the shortcuts found
+     * while computing it.
+     * @param g The cleaned graph.
+     * @return The hierarchy.
+     */
+    public static ContractionHierarchy build(GraphDB g) {
+        return new Contractor(g).run();
+    }
+
+    /** Returns the number of vertices. */
+    int size() {
+        return rank.length;
+    }
+
+    /** Returns the number of upward edges, original and shortcut. */
+    int upEdgeCount() {
+        return upTargets.length;
+    }
+
+    /** Returns the number of shortcuts among the upward edges. */
+    int shortcutCount() {
+        int count = 0;
+        for (int middle : upMiddles) {
+            if (middle >= 0) {
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    /** Returns the approximate size of the hierarchy's arrays, in bytes. */
+    long sizeInBytes() {
+        return 4L * (rank.length + upOffsets.length + 2 * upTargets.length)
+            + 8L * upWeights.length;
+    }
+
+    int rank(int v) {
+        return rank[v];
+    }
+
+    int upStart(int v) {
+        return upOffsets[v];
+    }
+
+    int upEnd(int v) {
+        return upOffsets[v + 1];
+    }
+
+    int upTarget(int e) {
+        return upTargets[e];
+    }
+
+    double upWeight(int e) {
+        return upWeights[e];
+    }
+
+    /**
+     * Expands a path that may use shortcuts into the path over original edges.
+     * @param path Vertex indices, consecutive ones joined by an upward edge of either.
+     * @return The vertex indices of the same path in the original graph.
+     */
+    int[] unpack(int[] path) {
+        if (path.length == 0) {
+            return path;
+        }
+        int[] result = new int[Math.max(16, path.length * 2)];
+        int size = 0;
+        result[size] = path[0];
+        size += 1;
+        /* Segments still to expand, as a stack of (from, to) pairs, nearest on top. */
+        int[] stack = new int[16];
+        for (int i = 1; i < path.length; i += 1) {
+            stack[0] = path[i - 1];
+            stack[1] = path[i];
+            int top = 2;
+            while (top > 0) {
+                int to = stack[top - 1];
+                int from = stack[top - 2];
+                top -= 2;
+                int middle = middle(from, to);
+                if (middle < 0) {
+                    if (size == result.length) {
+                        result = Arrays.copyOf(result, size * 2);
+                    }
+                    result[size] = to;
+                    size += 1;
+                } else {
+                    if (top + 4 > stack.length) {
+                        stack = Arrays.copyOf(stack, stack.length * 2);
+                    }
+                    stack[top] = middle;
+                    stack[top + 1] = to;
+                    stack[top + 2] = from;
+                    stack[top + 3] = middle;
+                    top += 4;
+                }
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /** Returns the middle of the upward edge between u and w, stored at the lower of the two. */
+    private int middle(int u, int w) {
+        int low = rank[u] < rank[w] ? u : w;
+        int high = low == u ? w : u;
+        for (int e = upOffsets[low]; e < upOffsets[low + 1]; e += 1) {
+            if (upTargets[e] == high) {
+                return upMiddles[e];
+            }
+        }
+        throw new IllegalStateException("No edge between " + u + " and " + w);
+    }
+
+    /**
+     * Writes the hierarchy's arrays to out, in the layout read expects.
+     * @param out The stream to write to.
+     * @throws IOException If writing fails.
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(rank.length);
+        out.writeInt(upTargets.length);
+        for (int r : rank) {
+            out.writeInt(r);
+        }
+        for (int offset : upOffsets) {
+            out.writeInt(offset);
+        }
+        for (int target : upTargets) {
+            out.writeInt(target);
+        }
+        for (double weight : upWeights) {
+            out.writeDouble(weight);
+        }
+        for (int middle : upMiddles) {
+            out.writeInt(middle);
+        }
+    }
+
+    /**
+     * Creates a hierarchy from arrays written by write, starting at the buffer's current
+     * position.
+     * @param buf The buffer to read from.
+     * @return The hierarchy.
+     */
+    static ContractionHierarchy read(ByteBuffer buf) {
+        int n = buf.getInt();
+        int m = buf.getInt();
+        int[] rank = new int[n];
+        int[] upOffsets = new int[n + 1];
+        int[] upTargets = new int[m];
+        double[] upWeights = new double[m];
+        int[] upMiddles = new int[m];
+        buf.asIntBuffer().get(rank);
+        buf.position(buf.position() + 4 * n);
+        buf.asIntBuffer().get(upOffsets);
+        buf.position(buf.position() + 4 * (n + 1));
+        buf.asIntBuffer().get(upTargets);
+        buf.position(buf.position() + 4 * m);
+        buf.asDoubleBuffer().get(upWeights);
+        buf.position(buf.position() + 8 * m);
+        buf.asIntBuffer().get(upMiddles);
+        buf.position(buf.position() + 4 * m);
+        return new ContractionHierarchy(rank, upOffsets, upTargets, upWeights, upMiddles);
+    }
+
+    /**
+     * The state of preprocessing: the remaining graph as growable adjacency lists, which
+     * vertices are contracted, and the upward edges recorded so far.
+     */
+    private static class Contractor {
+        private final int n;
+        private final int[][] neighbors;
+        private final double[][] weights;
+        private final int[][] middles;
+        private final int[] degree;
+        /** Number of neighbors of each vertex contracted before it. */
+        private final int[] deleted;
+        private final int[] rank;
+        private final int[][] upTargets;
+        private final double[][] upWeights;
+        private final int[][] upMiddles;
+        private final SearchSpace witness;
+        /** The shortcuts found by the last call to findShortcuts, as (u, w, length). */
+        private int[] shortcutEnds = new int[64];
+        private double[] shortcutLengths = new double[32];
+        private int shortcutCount;
+
+        Contractor(GraphDB g) {
+            n = g.size();
+            neighbors = new int[n][];
+            weights = new double[n][];
+            middles = new int[n][];
+            degree = new int[n];
+            deleted = new int[n];
+            rank = new int[n];
+            Arrays.fill(rank, -1);
+            upTargets = new int[n][];
+            upWeights = new double[n][];
+            upMiddles = new int[n][];
+            witness = new SearchSpace(n);
+            for (int v = 0; v < n; v += 1) {
+                int capacity = Math.max(2, g.edgeEnd(v) - g.edgeStart(v));
+                neighbors[v] = new int[capacity];
+                weights[v] = new double[capacity];
+                middles[v] = new int[capacity];
+            }
+            for (int v = 0; v < n; v += 1) {
+                for (int e = g.edgeStart(v); e < g.edgeEnd(v); e += 1) {
+                    if (g.edgeTarget(e) != v) {
+                        addArc(v, g.edgeTarget(e), g.edgeWeight(e), -1);
+                    }
+                }
+            }
+        }
+
+        ContractionHierarchy run() {
+            MinHeap queue = new MinHeap(n);
+            for (int v = 0; v < n; v += 1) {
+                queue.push(v, priority(v));
+            }
+            int next = 0;
+            while (!queue.isEmpty()) {
+                int v = queue.pop();
+                if (rank[v] >= 0) {
+                    continue;
+                }
+                double p = priority(v);
+                if (!queue.isEmpty() && p > queue.peekKey()) {
+                    queue.push(v, p);
+                    continue;
+                }
+                contract(v);
+                rank[v] = next;
+                next += 1;
+            }
+            return toHierarchy();
+        }
+
+        /** Finds the shortcuts contracting v needs and returns its priority. */
+        private double priority(int v) {
+            findShortcuts(v);
+            return shortcutCount - degree[v] + deleted[v];
+        }
+
+        /**
+         * Removes v from the remaining graph, adding the shortcuts found by the last call to
+         * priority(v) and recording v's edges as its upward edges.
+         */
+        private void contract(int v) {
+            for (int i = 0; i < shortcutCount; i += 1) {
+                int u = shortcutEnds[2 * i];
+                int w = shortcutEnds[2 * i + 1];
+                addArc(u, w, shortcutLengths[i], v);
+                addArc(w, u, shortcutLengths[i], v);
+            }
+            int d = degree[v];
+            upTargets[v] = Arrays.copyOf(neighbors[v], d);
+            upWeights[v] = Arrays.copyOf(weights[v], d);
+            upMiddles[v] = Arrays.copyOf(middles[v], d);
+            for (int i = 0; i < d; i += 1) {
+                int u = neighbors[v][i];
+                removeArc(u, v);
+                deleted[u] += 1;
+            }
+            neighbors[v] = null;
+            weights[v] = null;
+            middles[v] = null;
+        }
+
+        /**
+         * Finds the shortcuts contracting v needs: for every pair of neighbors u, w, one
+         * unless a witness search from u that avoids v finds a path to w no longer than the
+         * path through v.
+         */
+        private void findShortcuts(int v) {
+            int d = degree[v];
+            int[] nbrs = neighbors[v];
+            double[] ws = weights[v];
+            double maxWeight = 0;
+            for (int i = 0; i < d; i += 1) {
+                maxWeight = Math.max(maxWeight, ws[i]);
+            }
+            shortcutCount = 0;
+            for (int i = 0; i < d - 1; i += 1) {
+                int u = nbrs[i];
+                searchWitnesses(u, v, ws[i] + maxWeight);
+                for (int j = i + 1; j < d; j += 1) {
+                    int w = nbrs[j];
+                    double via = ws[i] + ws[j];
+                    if (witness.dist(w) > via) {
+                        if (shortcutCount == shortcutLengths.length) {
+                            shortcutEnds = Arrays.copyOf(shortcutEnds, 4 * shortcutCount);
+                            shortcutLengths = Arrays.copyOf(shortcutLengths, 2 * shortcutCount);
+                        }
+                        shortcutEnds[2 * shortcutCount] = u;
+                        shortcutEnds[2 * shortcutCount + 1] = w;
+                        shortcutLengths[shortcutCount] = via;
+                        shortcutCount += 1;
+                    }
+                }
+            }
+        }
+
+        /** Dijkstra from source in the remaining graph without skip, up to limit miles. */
+        private void searchWitnesses(int source, int skip, double limit) {
+            witness.reset(n);
+            witness.reach(source, 0, -1);
+            witness.fringe.push(source, 0);
+            while (!witness.fringe.isEmpty() && witness.settledCount() < WITNESS_SETTLE_LIMIT) {
+                int x = witness.fringe.pop();
+                if (witness.isSettled(x)) {
+                    continue;
+                }
+                witness.settle(x);
+                double dx = witness.dist(x);
+                if (dx > limit) {
+                    break;
+                }
+                for (int i = 0; i < degree[x]; i += 1) {
+                    int y = neighbors[x][i];
+                    double dy = dx + weights[x][i];
+                    if (y != skip && dy < witness.dist(y)) {
+                        witness.reach(y, dy, x);
+                        witness.fringe.push(y, dy);
+                    }
+                }
+            }
+        }
+
+        /** Adds the arc u-w, or shortens the existing one if the new one is shorter. */
+        private void addArc(int u, int w, double weight, int middle) {
+            for (int i = 0; i < degree[u]; i += 1) {
+                if (neighbors[u][i] == w) {
+                    if (weight < weights[u][i]) {
+                        weights[u][i] = weight;
+                        middles[u][i] = middle;
+                    }
+                    return;
+                }
+            }
+            int d = degree[u];
+            if (d == neighbors[u].length) {
+                neighbors[u] = Arrays.copyOf(neighbors[u], d * 2);
+                weights[u] = Arrays.copyOf(weights[u], d * 2);
+                middles[u] = Arrays.copyOf(middles[u], d * 2);
+            }
+            neighbors[u][d] = w;
+            weights[u][d] = weight;
+            middles[u][d] = middle;
+            degree[u] = d + 1;
+        }
+
+        private void removeArc(int u, int w) {
+            int last = degree[u] - 1;
+            for (int i = 0; i <= last; i += 1) {
+                if (neighbors[u][i] == w) {
+                    neighbors[u][i] = neighbors[u][last];
+                    weights[u][i] = weights[u][last];
+                    middles[u][i] = middles[u][last];
+                    degree[u] = last;
+                    return;
+                }
+            }
+        }
+
+        private ContractionHierarchy toHierarchy() {
+            int[] offsets = new int[n + 1];
+            for (int v = 0; v < n; v += 1) {
+                offsets[v + 1] = offsets[v] + upTargets[v].length;
+            }
+            int m = offsets[n];
+            int[] targets = new int[m];
+            double[] ws = new double[m];
+            int[] mids = new int[m];
+            for (int v = 0; v < n; v += 1) {
+                int d = upTargets[v].length;
+                System.arraycopy(upTargets[v], 0, targets, offsets[v], d);
+                System.arraycopy(upWeights[v], 0, ws, offsets[v], d);
+                System.arraycopy(upMiddles[v], 0, mids, offsets[v], d);
+            }
+            return new ContractionHierarchy(rank, offsets, targets, ws, mids);
+        }
+    }
+}
@@ -3,7 +3,9 @@ import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
 import java.util.Arrays;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -32,12 +34,50 @@ public class GraphBuildingHandler extends DefaultHandler {
      * roads, but in practice we walk all over them with such impunity that we forget cars can
      * actually drive on them.
      */
-    private static final Set<String> ALLOWED_HIGHWAY_TYPES = new HashSet<>(Arrays.asList
-            ("motorway", "trunk", "primary", "secondary", "tertiary", "unclassified",
-                    "residential", "living_street", "motorway_link", "trunk_link", "primary_link",
-                    "secondary_link", "tertiary_link"));
+    static final Set<String> ALLOWED_HIGHWAY_TYPES;
+    /**
+     * The speed, in miles per hour, assumed for each allowed highway type when a way has no
+     * usable maxspeed tag. These are typical Californian limits for each class of road.
+     */
+    static final Map<String, Double> HIGHWAY_SPEEDS_MPH;
+    /** Miles per hour in one kilometre per hour, the unit of a bare maxspeed value. */
+    private static final double MPH_PER_KMH = 0.621371;
+    private static final double MPH_PER_KNOT = 1.15078;
+
+    static {
+        Map<String, Double> speeds = new LinkedHashMap<>();
+        speeds.put("motorway", 65.0);
+        speeds.put("trunk", 55.0);
+        speeds.put("primary", 40.0);
+        speeds.put("secondary", 35.0);
+        speeds.put("tertiary", 30.0);
+        speeds.put("unclassified", 25.0);
+        speeds.put("residential", 25.0);
+        speeds.put("living_street", 10.0);
+        speeds.put("motorway_link", 45.0);
+        speeds.put("trunk_link", 40.0);
+        speeds.put("primary_link", 30.0);
+        speeds.put("secondary_link", 30.0);
+        speeds.put("tertiary_link", 25.0);
+        HIGHWAY_SPEEDS_MPH = Collections.unmodifiableMap(speeds);
+        ALLOWED_HIGHWAY_TYPES = HIGHWAY_SPEEDS_MPH.keySet();
+    }
+
     private String activeState = "";
     private final GraphDB g;
+    /** OSM id of the node being parsed, which any name tag inside it belongs to. */
+    private long nodeId;
+    /** OSM id and name of the way being parsed; "" until a name tag is seen. */
+    private long wayId;
+    private String wayName;
+    /** OSM ids of the nodes of the way being parsed, in order. */
+    private long[] wayNodes = new long[64];
+    private int wayNodeCount;
+    /** Whether the way being parsed has an allowed highway tag. */
+    private boolean validWay;
+    /** Default speed of the way's highway type, and its maxspeed tag, NaN until seen. */
+    private double highwaySpeed;
+    private double maxSpeed;
 
     /**
      * Create a new GraphBuildingHandler.
@@ -68,51 +108,45 @@ public class GraphBuildingHandler extends DefaultHandler {
         if (qName.equals("node")) {
             /* We encountered a new <node...> tag. */
             activeState = "node";
-//            System.out.println("Node id: " + attributes.getValue("id"));
-//            System.out.println("Node lon: " + attributes.getValue("lon"));
-//            System.out.println("Node lat: " + attributes.getValue("lat"));
-
-            /* TODO Use the above information to save a "node" to somewhere. */
-            /* Hint: A graph-like structure would be nice. */
-
+            nodeId = Long.parseLong(attributes.getValue("id"));
+            g.addNode(nodeId,
+                    Double.parseDouble(attributes.getValue("lon")),
+                    Double.parseDouble(attributes.getValue("lat")));
         } else if (qName.equals("way")) {
             /* We encountered a new <way...> tag. */
             activeState = "way";
-//            System.out.println("Beginning a way...");
+            wayId = Long.parseLong(attributes.getValue("id"));
+            wayName = "";
+            wayNodeCount = 0;
+            validWay = false;
+            highwaySpeed = Double.NaN;
+            maxSpeed = Double.NaN;
         } else if (activeState.equals("way") && qName.equals("nd")) {
-            /* While looking at a way, we found a <nd...> tag. */
-            //System.out.println("Id of a node in this way: " + attributes.getValue("ref"));
-
-            /* TODO Use the above id to make "possible" connections between the nodes in this way */
-            /* Hint1: It would be useful to remember what was the last node in this way. */
-            /* Hint2: Not all ways are valid. So, directly connecting the nodes here would be
-            cumbersome since you might have to remove the connections if you later see a tag that
-            makes this way invalid. Instead, think of keeping a list of possible connections and
-            remember whether this way is valid or not. */
-
+            /* While looking at a way, we found a <nd...> tag. The way may still turn out to
+            be invalid, so its nodes are only connected once the whole way has been seen. */
+            if (wayNodeCount == wayNodes.length) {
+                wayNodes = Arrays.copyOf(wayNodes, wayNodeCount * 2);
+            }
+            wayNodes[wayNodeCount] = Long.parseLong(attributes.getValue("ref"));
+            wayNodeCount += 1;
         } else if (activeState.equals("way") && qName.equals("tag")) {
             /* While looking at a way, we found a <tag...> tag. */
             String k = attributes.getValue("k");
             String v = attributes.getValue("v");
             if (k.equals("maxspeed")) {
-                //System.out.println("Max Speed: " + v);
-                /* TODO set the max speed of the "current way" here. */
+                maxSpeed = parseMaxspeed(v);
             } else if (k.equals("highway")) {
-                //System.out.println("Highway type: " + v);
-                /* TODO Figure out whether this way and its connections are valid. */
-                /* Hint: Setting a "flag" is good enough! */
+                validWay = ALLOWED_HIGHWAY_TYPES.contains(v);
+                highwaySpeed = validWay ? HIGHWAY_SPEEDS_MPH.get(v) : Double.NaN;
             } else if (k.equals("name")) {
-                //System.out.println("Way Name: " + v);
+                wayName = v;
             }
 //            System.out.println("Tag with k=" + k + ", v=" + v + ".");
         } else if (activeState.equals("node") && qName.equals("tag") && attributes.getValue("k")
                 .equals("name")) {
-            /* While looking at a node, we found a <tag...> with k="name". */
-            /* TODO Create a location. */
-            /* Hint: Since we found this <tag...> INSIDE a node, we should probably remember which
-            node this tag belongs to. Remember XML is parsed top-to-bottom, so probably it's the
-            last node that you looked at (check the first if-case). */
-//            System.out.println("Node's name: " + attributes.getValue("v"));
+            /* While looking at a node, we found a <tag...> with k="name". XML is parsed
+            top-to-bottom, so the tag belongs to the last node we started. */
+            g.addLocation(nodeId, attributes.getValue("v"));
         }
     }
 
@@ -131,10 +165,48 @@ public class GraphBuildingHandler extends DefaultHandler {
     public void endElement(String uri, String localName, String qName) throws SAXException {
         if (qName.equals("way")) {
             /* We are done looking at a way. (We finished looking at the nodes, speeds, etc...)*/
-            /* Hint1: If you have stored the possible connections for this way, here's your
-            chance to actually connect the nodes together if the way is valid. */
-//            System.out.println("Finishing a way...");
+            if (validWay) {
+                g.addWay(wayId, wayNodes, wayNodeCount, speed(highwaySpeed, maxSpeed),
+                        wayName);
+            }
+            activeState = "";
+        } else if (qName.equals("node")) {
+            activeState = "";
         }
     }
 
+    /**
+     * Parses the value of a maxspeed tag. A bare number is in kilometres per hour; "mph" and
+     * "knots" suffixes are understood. Symbolic values such as "signals" or "walk" and
+     * anything else unparseable yield NaN.
+     * @param v The tag value, e.g. "25 mph" or "50".
+     * @return The speed in miles per hour, or NaN.
+     */
+    static double parseMaxspeed(String v) {
+        String s = v.trim();
+        double factor = MPH_PER_KMH;
+        if (s.endsWith("mph")) {
+            factor = 1;
+            s = s.substring(0, s.length() - 3).trim();
+        } else if (s.endsWith("knots")) {
+            factor = MPH_PER_KNOT;
+            s = s.substring(0, s.length() - 5).trim();
+        } else if (s.endsWith("km/h")) {
+            s = s.substring(0, s.length() - 4).trim();
+        }
+        try {
+            return Double.parseDouble(s) * factor;
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Returns the speed of a way: its maxspeed if that is a usable positive number, else the
+     * default speed of its highway type.
+     */
+    static double speed(double highwaySpeed, double maxSpeed) {
+        return maxSpeed > 0 && maxSpeed < Double.POSITIVE_INFINITY ? maxSpeed : highwaySpeed;
+    }
+
 }
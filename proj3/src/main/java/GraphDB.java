@@ -1,12 +1,20 @@
 import org.xml.sax.SAXException;
 
-import java.io.File;
-import java.io.FileInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
 
 /**
  * Graph for storing all of the intersection (vertex) and road (edge) information.
@@ -15,31 +23,290 @@ import java.util.ArrayList;
  * methods. You'll also need to include instance variables and methods for
  * modifying the graph (e.g. addNode and addEdge).
  *
+ * The graph is stored in compressed sparse row (CSR) form. clean() renumbers the surviving
+ * OSM ids to dense vertex indices 0..n-1 in increasing id order, so that ids[i] is the OSM
+ * id of vertex i and an OSM id is found again by binary search. The neighbors of vertex i
+ * are targets[offsets[i]] .. targets[offsets[i + 1] - 1], and weights holds the length in
+ * miles of each of those edges. Every road is two-way, so each edge appears once in the
+ * adjacency of both of its endpoints.
+ *
+ * Besides the public OSM-id API, the package-private index methods (size, index, id,
+ * lonAt, edgeStart, ...) let the router run entirely on primitive ints and doubles.
+ * Named nodes are kept separately as locations 0..locationCount()-1, for search.
+ *
+ * For directions, each edge also records the way it came from and its compass bearing.
+ * Ways are numbered 0..wayCount()-1 in the order they were added, and their names are
+ * interned, so two edges are on equally named roads exactly when their name indices match.
+ *
+ * A cleaned graph is never modified. apply returns a new graph with an OSM change applied,
+ * so that a server can swap graphs while requests are still routing over the old one.
+ *
  * @author Alan Yao, Josh Hug
  */
 public class GraphDB {
-    /** Your instance variables for storing the graph. You should consider
-     * creating helper classes, e.g. Node, Edge, etc. */
+    /** OSM id of each vertex, sorted ascending. */
+    private long[] ids;
+    private double[] lons;
+    private double[] lats;
+    /** Vertex i's edges are the half-open range [offsets[i], offsets[i + 1]). */
+    private int[] offsets;
+    /** The vertex at the far end of each edge. */
+    private int[] targets;
+    /** The great-circle length of each edge, in miles. */
+    private double[] weights;
+    /** The speed limit of each edge, in miles per hour. */
+    private float[] speeds;
+    /** The initial bearing of each edge from its source to its target, in degrees. */
+    private float[] bearings;
+    /** The way each edge belongs to, or NO_WAY for edges added without one. */
+    private int[] edgeWays;
+    /** The OSM id of each way. */
+    private long[] wayIds;
+    /** The index in names of each way's name. */
+    private int[] wayNames;
+    /** The distinct way names; names[0] is "", the name of unnamed ways and of NO_WAY. */
+    private String[] names;
+    /**
+     * Named OSM nodes, in file order. Unlike vertices, these survive clean() whether or
+     * not they lie on a road, since most named places do not.
+     */
+    private long[] locationIds = new long[0];
+    private double[] locationLons = new double[0];
+    private double[] locationLats = new double[0];
+    private String[] locationNames = new String[0];
+    /** The locations by cleaned name and by word of their name. */
+    private NameIndex nameIndex;
+    /**
+     * Nodes that are on no road, sorted by id. They are not vertices, but an OSM change
+     * may turn them into some, by adding a road through them without repeating the nodes.
+     * Most nodes of an extract are on no road, so these take several times the memory of
+     * the vertices; a graph that will never be changed drops them with dropParked.
+     */
+    private long[] parkedIds = new long[0];
+    private double[] parkedLons = new double[0];
+    private double[] parkedLats = new double[0];
+    /** Speed of edges added without one, in miles per hour: a typical residential limit. */
+    static final double DEFAULT_SPEED_MPH = 25;
+    /** The way of an edge added with addEdge rather than as part of a way. */
+    static final int NO_WAY = -1;
+    /** Spatial index over the vertices, answering closest() queries. */
+    private KdTree spatialIndex;
+    /** Optional contraction hierarchy for fast routing, or null if none was built. */
+    private volatile ContractionHierarchy hierarchy;
+    /** Optional landmark distances for the ALT heuristic, or null if none were built. */
+    private volatile Landmarks landmarks;
+    /** Optional cell partition for routing with little memory, or null if none was built. */
+    private volatile PartitionedGraph partition;
+
+    /** Nodes and ways seen so far while parsing; dropped once clean() has run. */
+    private Builder builder;
 
     /**
-     * Example constructor shows how to create and start an XML parser.
-     * You do not need to modify this constructor, but you're welcome to do so.
+     * Builds the graph of an OSM file with the streaming OsmReader, which also reads
+     * gzipped files.
      * @param dbPath Path to the XML file to be parsed.
      */
     public GraphDB(String dbPath) {
+        this();
         try {
-            File inputFile = new File(dbPath);
-            FileInputStream inputStream = new FileInputStream(inputFile);
-            // GZIPInputStream stream = new GZIPInputStream(inputStream);
+            OsmReader.read(dbPath, this);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        clean();
+    }
 
+    /**
+     * Builds the graph of an OSM file with a SAX parser and GraphBuildingHandler. This is
+     * slower than the GraphDB(String) constructor, but checks that the file is valid XML.
+     * @param dbPath Path to the XML file to be parsed.
+     * @return The cleaned graph.
+     */
+    static GraphDB parseWithSax(String dbPath) {
+        GraphDB g = new GraphDB();
+        try (InputStream inputStream = OsmReader.open(dbPath)) {
             SAXParserFactory factory = SAXParserFactory.newInstance();
             SAXParser saxParser = factory.newSAXParser();
-            GraphBuildingHandler gbh = new GraphBuildingHandler(this);
+            GraphBuildingHandler gbh = new GraphBuildingHandler(g);
             saxParser.parse(inputStream, gbh);
         } catch (ParserConfigurationException | SAXException | IOException e) {
             e.printStackTrace();
         }
-        clean();
+        g.clean();
+        return g;
+    }
+
+    /**
+     * Creates an empty graph to be filled in with addNode and addEdge, and then finished
+     * with clean().
+     */
+    GraphDB() {
+        builder = new Builder();
+    }
+
+    /**
+     * Writes the cleaned graph's arrays to out, in the layout readArrays expects.
+     * @param out The stream to write to.
+     * @throws IOException If writing fails.
+     */
+    void writeArrays(DataOutputStream out) throws IOException {
+        checkParked();
+        out.writeInt(ids.length);
+        out.writeInt(targets.length);
+        for (long id : ids) {
+            out.writeLong(id);
+        }
+        for (int v = 0; v < ids.length; v += 1) {
+            out.writeDouble(lons[v]);
+        }
+        for (int v = 0; v < ids.length; v += 1) {
+            out.writeDouble(lats[v]);
+        }
+        for (int offset : offsets) {
+            out.writeInt(offset);
+        }
+        for (int target : targets) {
+            out.writeInt(target);
+        }
+        for (double weight : weights) {
+            out.writeDouble(weight);
+        }
+        for (float speed : speeds) {
+            out.writeFloat(speed);
+        }
+        for (float bearing : bearings) {
+            out.writeFloat(bearing);
+        }
+        for (int way : edgeWays) {
+            out.writeInt(way);
+        }
+        out.writeInt(wayIds.length);
+        for (long wayId : wayIds) {
+            out.writeLong(wayId);
+        }
+        for (int name : wayNames) {
+            out.writeInt(name);
+        }
+        out.writeInt(names.length);
+        for (String name : names) {
+            writeString(out, name);
+        }
+        out.writeInt(locationIds.length);
+        for (int i = 0; i < locationIds.length; i += 1) {
+            out.writeLong(locationIds[i]);
+            out.writeDouble(locationLons[i]);
+            out.writeDouble(locationLats[i]);
+            writeString(out, locationNames[i]);
+        }
+        out.writeInt(parkedIds.length);
+        for (long id : parkedIds) {
+            out.writeLong(id);
+        }
+        for (int i = 0; i < parkedIds.length; i += 1) {
+            out.writeDouble(parkedLons[i]);
+        }
+        for (int i = 0; i < parkedIds.length; i += 1) {
+            out.writeDouble(parkedLats[i]);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Creates a cleaned graph from arrays written by writeArrays, starting at the buffer's
+     * current position. The arrays are bulk-copied out of the buffer.
+     * @param buf The buffer to read from, typically a memory-mapped snapshot file.
+     * @param keepParked Whether to read the parked nodes, without which the graph cannot
+     *                   be changed, or to skip them.
+     * @return The graph.
+     */
+    static GraphDB readArrays(ByteBuffer buf, boolean keepParked) {
+        GraphDB g = new GraphDB();
+        g.builder = null;
+        int n = buf.getInt();
+        int m = buf.getInt();
+        g.ids = new long[n];
+        g.lons = new double[n];
+        g.lats = new double[n];
+        g.offsets = new int[n + 1];
+        g.targets = new int[m];
+        g.weights = new double[m];
+        g.speeds = new float[m];
+        g.bearings = new float[m];
+        g.edgeWays = new int[m];
+        buf.asLongBuffer().get(g.ids);
+        buf.position(buf.position() + 8 * n);
+        buf.asDoubleBuffer().get(g.lons);
+        buf.position(buf.position() + 8 * n);
+        buf.asDoubleBuffer().get(g.lats);
+        buf.position(buf.position() + 8 * n);
+        buf.asIntBuffer().get(g.offsets);
+        buf.position(buf.position() + 4 * (n + 1));
+        buf.asIntBuffer().get(g.targets);
+        buf.position(buf.position() + 4 * m);
+        buf.asDoubleBuffer().get(g.weights);
+        buf.position(buf.position() + 8 * m);
+        buf.asFloatBuffer().get(g.speeds);
+        buf.position(buf.position() + 4 * m);
+        buf.asFloatBuffer().get(g.bearings);
+        buf.position(buf.position() + 4 * m);
+        buf.asIntBuffer().get(g.edgeWays);
+        buf.position(buf.position() + 4 * m);
+        int ways = buf.getInt();
+        g.wayIds = new long[ways];
+        g.wayNames = new int[ways];
+        buf.asLongBuffer().get(g.wayIds);
+        buf.position(buf.position() + 8 * ways);
+        buf.asIntBuffer().get(g.wayNames);
+        buf.position(buf.position() + 4 * ways);
+        g.names = new String[buf.getInt()];
+        for (int i = 0; i < g.names.length; i += 1) {
+            g.names[i] = readString(buf);
+        }
+        int locations = buf.getInt();
+        g.locationIds = new long[locations];
+        g.locationLons = new double[locations];
+        g.locationLats = new double[locations];
+        g.locationNames = new String[locations];
+        for (int i = 0; i < locations; i += 1) {
+            g.locationIds[i] = buf.getLong();
+            g.locationLons[i] = buf.getDouble();
+            g.locationLats[i] = buf.getDouble();
+            g.locationNames[i] = readString(buf);
+        }
+        int parked = buf.getInt();
+        if (keepParked) {
+            g.parkedIds = new long[parked];
+            g.parkedLons = new double[parked];
+            g.parkedLats = new double[parked];
+            buf.asLongBuffer().get(g.parkedIds);
+            buf.position(buf.position() + 8 * parked);
+            buf.asDoubleBuffer().get(g.parkedLons);
+            buf.position(buf.position() + 8 * parked);
+            buf.asDoubleBuffer().get(g.parkedLats);
+            buf.position(buf.position() + 8 * parked);
+        } else {
+            g.dropParked();
+            buf.position(buf.position() + 24 * parked);
+        }
+        /* A snapshot is not parsed, so the name index is built from the locations. */
+        NameIndex.Builder names = new NameIndex.Builder();
+        for (int i = 0; i < locations; i += 1) {
+            names.add(g.locationIds[i], g.locationNames[i]);
+        }
+        g.nameIndex = names.build(g.locationIds);
+        g.spatialIndex = new KdTree(g.lons, g.lats);
+        return g;
     }
 
     /**
@@ -48,16 +315,579 @@ public class GraphDB {
      * @return Cleaned string.
      */
     static String cleanString(String s) {
-        return s.replaceAll("[^a-zA-Z ]", "").toLowerCase();
+        /* Same as s.replaceAll("[^a-zA-Z ]", "").toLowerCase(), without the regex, since
+         * autocomplete cleans a prefix on every keystroke. */
+        char[] cleaned = new char[s.length()];
+        int length = 0;
+        for (int i = 0; i < s.length(); i += 1) {
+            char c = s.charAt(i);
+            if ((c >= 'a' && c <= 'z') || c == ' ') {
+                cleaned[length] = c;
+                length += 1;
+            } else if (c >= 'A' && c <= 'Z') {
+                cleaned[length] = (char) (c + ('a' - 'A'));
+                length += 1;
+            }
+        }
+        return new String(cleaned, 0, length);
+    }
+
+    /**
+     * Adds a node to the graph. Nodes that are still unconnected when the graph is cleaned
+     * are dropped.
+     * @param id The OSM id of the node.
+     * @param lon The longitude of the node.
+     * @param lat The latitude of the node.
+     */
+    void addNode(long id, double lon, double lat) {
+        builder.addNode(id, lon, lat);
+    }
+
+    /**
+     * Names a previously added node, making it a location that can be searched for.
+     * Names of nodes that were never added are ignored.
+     * @param id The OSM id of the node.
+     * @param name The name of the node.
+     */
+    void addLocation(long id, String name) {
+        builder.addLocation(id, name);
+    }
+
+    /**
+     * Adds a two-way edge between two previously added nodes, with the default speed.
+     * Edges that mention a node that was never added, as happens for ways that leave the
+     * extract, are ignored.
+     * @param v The OSM id of one endpoint.
+     * @param w The OSM id of the other endpoint.
+     */
+    void addEdge(long v, long w) {
+        addEdge(v, w, DEFAULT_SPEED_MPH);
+    }
+
+    /**
+     * Adds a two-way edge between two previously added nodes.
+     * @param v The OSM id of one endpoint.
+     * @param w The OSM id of the other endpoint.
+     * @param speed The speed limit of the edge in miles per hour.
+     */
+    void addEdge(long v, long w, double speed) {
+        builder.addEdge(v, w, (float) speed);
+    }
+
+    /**
+     * Adds an unnamed way with the default speed. See addWay(long, long[], int, double,
+     * String).
+     */
+    void addWay(long[] refs, int count) {
+        addWay(refs, count, DEFAULT_SPEED_MPH);
+    }
+
+    /**
+     * Adds an unnamed way with an id of -1. See addWay(long, long[], int, double, String).
+     */
+    void addWay(long[] refs, int count, double speed) {
+        addWay(-1, refs, count, speed, "");
+    }
+
+    /**
+     * Adds a way, connecting each pair of consecutive nodes on it once the graph is
+     * cleaned. The ids are copied, so the caller may reuse refs.
+     * @param id The OSM id of the way.
+     * @param refs The OSM ids of the nodes on the way, in order.
+     * @param count The number of ids in refs that belong to the way.
+     * @param speed The speed limit of the way in miles per hour.
+     * @param name The name of the way, or "" if it has none.
+     */
+    void addWay(long id, long[] refs, int count, double speed, String name) {
+        builder.addWay(id, refs, count, (float) speed, name);
     }
 
     /**
      *  Remove nodes with no connections from the graph.
      *  While this does not guarantee that any two nodes in the remaining graph are connected,
      *  we can reasonably assume this since typically roads are connected.
+     *
+     *  This is also where the parsed nodes and edges are packed into the CSR arrays.
      */
-    private void clean() {
-        // TODO: Your code here.
+    void clean() {
+        Builder b = builder;
+        b.resolveWays();
+        int[] degree = new int[b.nodeCount];
+        for (int e = 0; e < b.edgeCount; e += 1) {
+            degree[b.edgeFrom[e]] += 1;
+            degree[b.edgeTo[e]] += 1;
+        }
+
+        /* Keep connected nodes, renumbered in increasing OSM id order, and park the rest. */
+        int n = 0;
+        long[] kept = new long[b.nodeCount];
+        long[] parked = new long[b.nodeCount];
+        for (int i = 0; i < b.nodeCount; i += 1) {
+            if (degree[i] > 0) {
+                kept[n] = b.ids[i];
+                n += 1;
+            } else {
+                parked[i - n] = b.ids[i];
+            }
+        }
+        ids = Arrays.copyOf(kept, n);
+        Arrays.sort(ids);
+        parkedIds = Arrays.copyOf(parked, b.nodeCount - n);
+        Arrays.sort(parkedIds);
+        parkedLons = new double[parkedIds.length];
+        parkedLats = new double[parkedIds.length];
+        for (int i = 0; i < parkedIds.length; i += 1) {
+            int old = b.index.get(parkedIds[i]);
+            parkedLons[i] = b.lons[old];
+            parkedLats[i] = b.lats[old];
+        }
+
+        int[] newIndex = new int[b.nodeCount];
+        lons = new double[n];
+        lats = new double[n];
+        offsets = new int[n + 1];
+        for (int v = 0; v < n; v += 1) {
+            int old = b.index.get(ids[v]);
+            newIndex[old] = v;
+            lons[v] = b.lons[old];
+            lats[v] = b.lats[old];
+            offsets[v + 1] = offsets[v] + degree[old];
+        }
+
+        targets = new int[2 * b.edgeCount];
+        weights = new double[2 * b.edgeCount];
+        speeds = new float[2 * b.edgeCount];
+        bearings = new float[2 * b.edgeCount];
+        edgeWays = new int[2 * b.edgeCount];
+        int[] next = Arrays.copyOf(offsets, n);
+        for (int e = 0; e < b.edgeCount; e += 1) {
+            int v = newIndex[b.edgeFrom[e]];
+            int w = newIndex[b.edgeTo[e]];
+            double length = distance(lons[v], lats[v], lons[w], lats[w]);
+            targets[next[v]] = w;
+            weights[next[v]] = length;
+            speeds[next[v]] = b.edgeSpeed[e];
+            bearings[next[v]] = (float) bearing(lons[v], lats[v], lons[w], lats[w]);
+            edgeWays[next[v]] = b.edgeWay[e];
+            next[v] += 1;
+            targets[next[w]] = v;
+            weights[next[w]] = length;
+            speeds[next[w]] = b.edgeSpeed[e];
+            bearings[next[w]] = (float) bearing(lons[w], lats[w], lons[v], lats[v]);
+            edgeWays[next[w]] = b.edgeWay[e];
+            next[w] += 1;
+        }
+        wayIds = Arrays.copyOf(b.wayIds, b.wayCount);
+        wayNames = Arrays.copyOf(b.wayNames, b.wayCount);
+        names = Arrays.copyOf(b.names, b.nameCount);
+        cleanLocations(b);
+        nameIndex = b.locationIndex.build(locationIds);
+        builder = null;
+        spatialIndex = new KdTree(lons, lats);
+    }
+
+    /** Copies the named nodes out of the builder, with their coordinates. */
+    private void cleanLocations(Builder b) {
+        int count = 0;
+        locationIds = new long[b.locationCount];
+        locationLons = new double[b.locationCount];
+        locationLats = new double[b.locationCount];
+        locationNames = new String[b.locationCount];
+        for (int i = 0; i < b.locationCount; i += 1) {
+            int node = b.index.get(b.locationIds[i]);
+            if (node != LongIntHashMap.MISSING) {
+                locationIds[count] = b.locationIds[i];
+                locationLons[count] = b.lons[node];
+                locationLats[count] = b.lats[node];
+                locationNames[count] = b.locationNames[i];
+                count += 1;
+            }
+        }
+        locationIds = Arrays.copyOf(locationIds, count);
+        locationLons = Arrays.copyOf(locationLons, count);
+        locationLats = Arrays.copyOf(locationLats, count);
+        locationNames = Arrays.copyOf(locationNames, count);
+    }
+
+    /**
+     * Returns a new graph with an OSM change applied, leaving this graph untouched for the
+     * requests still routing over it. Only the roads the change touches are resolved
+     * again, and edge lengths and bearings are only computed for edges with a new or moved
+     * endpoint. The rest still costs time linear in the size of the graph, however small
+     * the change: every CSR array is copied, and the spatial index is rebuilt whole if any
+     * vertex was added, removed or moved. The name index is only rebuilt if a named node
+     * changed. The contraction hierarchy, landmarks and partition are not carried over,
+     * since the change may have made them wrong.
+     *
+     * Changed roads are resolved as clean() resolves parsed ones. A road through a node that
+     * is in neither the graph nor the change skips that node's edges, and nodes that are
+     * left on no road are parked.
+     * @param change The change.
+     * @return The changed graph.
+     * @throws IllegalStateException If the graph is not cleaned or its parked nodes were
+     *                               dropped.
+     */
+    GraphDB apply(OsmChange change) {
+        if (builder != null) {
+            throw new IllegalStateException("Only a cleaned graph can be changed.");
+        }
+        checkParked();
+        Map<Long, OsmChange.Node> changedNodes = change.nodes();
+        Map<Long, OsmChange.Way> changedWays = change.ways();
+        int n = ids.length;
+
+        /* Vertices the change deletes or moves. */
+        boolean[] deleted = new boolean[n];
+        boolean[] moved = new boolean[n];
+        double[] vertexLons = lons;
+        double[] vertexLats = lats;
+        for (OsmChange.Node node : changedNodes.values()) {
+            int v = index(node.id);
+            if (v < 0) {
+                continue;
+            }
+            if (node.deleted) {
+                deleted[v] = true;
+            } else if (node.lon != lons[v] || node.lat != lats[v]) {
+                if (vertexLons == lons) {
+                    vertexLons = lons.clone();
+                    vertexLats = lats.clone();
+                }
+                vertexLons[v] = node.lon;
+                vertexLats[v] = node.lat;
+                moved[v] = true;
+            }
+        }
+
+        /* Changed ways lose their old edges, and the others are renumbered without them. */
+        GraphDB g = new GraphDB();
+        g.builder = null;
+        int[] wayRemap = new int[wayIds.length];
+        int ways = 0;
+        for (int i = 0; i < wayIds.length; i += 1) {
+            wayRemap[i] = changedWays.containsKey(wayIds[i]) ? NO_WAY : ways;
+            ways += wayRemap[i] == NO_WAY ? 0 : 1;
+        }
+        int addedWays = 0;
+        for (OsmChange.Way way : changedWays.values()) {
+            addedWays += way.deleted ? 0 : 1;
+        }
+        g.wayIds = new long[ways + addedWays];
+        g.wayNames = new int[ways + addedWays];
+        for (int i = 0; i < wayIds.length; i += 1) {
+            if (wayRemap[i] != NO_WAY) {
+                g.wayIds[wayRemap[i]] = wayIds[i];
+                g.wayNames[wayRemap[i]] = wayNames[i];
+            }
+        }
+
+        /* The edges of the changed roads, by OSM id, as Builder.resolveWays finds them. */
+        int pairs = 0;
+        for (OsmChange.Way way : changedWays.values()) {
+            pairs += Math.max(way.refs.length - 1, 0);
+        }
+        long[] addedFrom = new long[pairs];
+        long[] addedTo = new long[pairs];
+        float[] addedSpeed = new float[pairs];
+        int[] addedWay = new int[pairs];
+        int added = 0;
+        HashMap<String, Integer> interned = null;
+        g.names = names;
+        int way = ways;
+        for (OsmChange.Way w : changedWays.values()) {
+            if (w.deleted) {
+                continue;
+            }
+            if (interned == null) {
+                interned = new HashMap<>();
+                for (int i = 0; i < names.length; i += 1) {
+                    interned.put(names[i], i);
+                }
+            }
+            Integer name = interned.get(w.name);
+            if (name == null) {
+                name = g.names.length;
+                g.names = Arrays.copyOf(g.names, name + 1);
+                g.names[name] = w.name;
+                interned.put(w.name, name);
+            }
+            g.wayIds[way] = w.id;
+            g.wayNames[way] = name;
+            for (int r = 1; r < w.refs.length; r += 1) {
+                if (w.refs[r - 1] != w.refs[r] && exists(w.refs[r - 1], changedNodes)
+                        && exists(w.refs[r], changedNodes)) {
+                    addedFrom[added] = w.refs[r - 1];
+                    addedTo[added] = w.refs[r];
+                    addedSpeed[added] = (float) w.speed;
+                    addedWay[added] = way;
+                    added += 1;
+                }
+            }
+            way += 1;
+        }
+
+        /* The degree of each vertex after the change, and the nodes that become vertices. */
+        int[] degree = new int[n];
+        for (int v = 0; v < n; v += 1) {
+            if (deleted[v]) {
+                continue;
+            }
+            for (int e = offsets[v]; e < offsets[v + 1]; e += 1) {
+                degree[v] += isDropped(e, deleted, wayRemap) ? 0 : 1;
+            }
+        }
+        TreeMap<Long, Integer> newVertices = new TreeMap<>();
+        for (int a = 0; a < added; a += 1) {
+            for (long id : new long[] {addedFrom[a], addedTo[a]}) {
+                int v = index(id);
+                if (v >= 0) {
+                    degree[v] += 1;
+                } else {
+                    newVertices.merge(id, 1, Integer::sum);
+                }
+            }
+        }
+
+        /* Merge the surviving vertices with the new ones, in increasing id order. */
+        int kept = 0;
+        for (int v = 0; v < n; v += 1) {
+            kept += degree[v] > 0 && !deleted[v] ? 1 : 0;
+        }
+        int n2 = kept + newVertices.size();
+        g.ids = new long[n2];
+        g.lons = new double[n2];
+        g.lats = new double[n2];
+        g.offsets = new int[n2 + 1];
+        int[] oldToNew = new int[n];
+        Arrays.fill(oldToNew, -1);
+        Iterator<Map.Entry<Long, Integer>> fresh = newVertices.entrySet().iterator();
+        Map.Entry<Long, Integer> next = fresh.hasNext() ? fresh.next() : null;
+        int v = 0;
+        for (int k = 0; k < n2; k += 1) {
+            while (v < n && (deleted[v] || degree[v] == 0)) {
+                v += 1;
+            }
+            if (next == null || (v < n && ids[v] < next.getKey())) {
+                g.ids[k] = ids[v];
+                g.lons[k] = vertexLons[v];
+                g.lats[k] = vertexLats[v];
+                g.offsets[k + 1] = g.offsets[k] + degree[v];
+                oldToNew[v] = k;
+                v += 1;
+            } else {
+                long id = next.getKey();
+                OsmChange.Node node = changedNodes.get(id);
+                int p = Arrays.binarySearch(parkedIds, id);
+                g.ids[k] = id;
+                g.lons[k] = node != null ? node.lon : parkedLons[p];
+                g.lats[k] = node != null ? node.lat : parkedLats[p];
+                g.offsets[k + 1] = g.offsets[k] + next.getValue();
+                next = fresh.hasNext() ? fresh.next() : null;
+            }
+        }
+
+        /* Copy the surviving edges, then add the new ones after them. */
+        int m2 = g.offsets[n2];
+        g.targets = new int[m2];
+        g.weights = new double[m2];
+        g.speeds = new float[m2];
+        g.bearings = new float[m2];
+        g.edgeWays = new int[m2];
+        int[] slots = Arrays.copyOf(g.offsets, n2);
+        for (int u = 0; u < n; u += 1) {
+            int w = oldToNew[u];
+            if (w < 0) {
+                continue;
+            }
+            for (int e = offsets[u]; e < offsets[u + 1]; e += 1) {
+                if (isDropped(e, deleted, wayRemap)) {
+                    continue;
+                }
+                int t = targets[e];
+                int slot = slots[w];
+                g.targets[slot] = oldToNew[t];
+                if (moved[u] || moved[t]) {
+                    g.weights[slot] = distance(g.lons[w], g.lats[w], vertexLons[t],
+                        vertexLats[t]);
+                    g.bearings[slot] = (float) bearing(g.lons[w], g.lats[w], vertexLons[t],
+                        vertexLats[t]);
+                } else {
+                    g.weights[slot] = weights[e];
+                    g.bearings[slot] = bearings[e];
+                }
+                g.speeds[slot] = speeds[e];
+                g.edgeWays[slot] = edgeWays[e] == NO_WAY ? NO_WAY : wayRemap[edgeWays[e]];
+                slots[w] += 1;
+            }
+        }
+        for (int a = 0; a < added; a += 1) {
+            int x = Arrays.binarySearch(g.ids, addedFrom[a]);
+            int y = Arrays.binarySearch(g.ids, addedTo[a]);
+            double length = distance(g.lons[x], g.lats[x], g.lons[y], g.lats[y]);
+            for (int end = 0; end < 2; end += 1) {
+                int from = end == 0 ? x : y;
+                int to = end == 0 ? y : x;
+                int slot = slots[from];
+                g.targets[slot] = to;
+                g.weights[slot] = length;
+                g.speeds[slot] = addedSpeed[a];
+                g.bearings[slot] = (float) bearing(g.lons[from], g.lats[from], g.lons[to],
+                    g.lats[to]);
+                g.edgeWays[slot] = addedWay[a];
+                slots[from] += 1;
+            }
+        }
+
+        applyLocations(g, changedNodes);
+        applyParked(g, changedNodes, deleted, degree, vertexLons, vertexLats, newVertices);
+        boolean sameVertices = n2 == n && kept == n && vertexLons == lons;
+        g.spatialIndex = sameVertices ? spatialIndex : new KdTree(g.lons, g.lats);
+        return g;
+    }
+
+    /** Returns whether edge e goes to a deleted vertex or belongs to a changed way. */
+    private boolean isDropped(int e, boolean[] deleted, int[] wayRemap) {
+        return deleted[targets[e]]
+            || (edgeWays[e] != NO_WAY && wayRemap[edgeWays[e]] == NO_WAY);
+    }
+
+    /** Returns whether the node with an OSM id exists once changedNodes are applied. */
+    private boolean exists(long id, Map<Long, OsmChange.Node> changedNodes) {
+        OsmChange.Node node = changedNodes.get(id);
+        if (node != null) {
+            return !node.deleted;
+        }
+        return index(id) >= 0 || Arrays.binarySearch(parkedIds, id) >= 0;
+    }
+
+    /**
+     * Gives g this graph's locations with changedNodes applied: a deleted or unnamed node
+     * stops being a location, and a named one is renamed, moved or added. The arrays and
+     * the name index are shared if no changed node is or becomes a location.
+     */
+    private void applyLocations(GraphDB g, Map<Long, OsmChange.Node> changedNodes) {
+        LongIntHashMap locationOf = new LongIntHashMap(changedNodes.isEmpty() ? 0
+            : locationIds.length);
+        boolean changed = false;
+        for (int i = 0; i < locationIds.length && !changedNodes.isEmpty(); i += 1) {
+            locationOf.put(locationIds[i], i);
+        }
+        for (OsmChange.Node node : changedNodes.values()) {
+            changed |= node.name != null || locationOf.get(node.id) != LongIntHashMap.MISSING;
+        }
+        if (!changed) {
+            g.locationIds = locationIds;
+            g.locationLons = locationLons;
+            g.locationLats = locationLats;
+            g.locationNames = locationNames;
+            g.nameIndex = nameIndex;
+            return;
+        }
+        int capacity = locationIds.length + changedNodes.size();
+        g.locationIds = new long[capacity];
+        g.locationLons = new double[capacity];
+        g.locationLats = new double[capacity];
+        g.locationNames = new String[capacity];
+        int count = 0;
+        NameIndex.Builder index = new NameIndex.Builder();
+        for (int i = 0; i < locationIds.length; i += 1) {
+            OsmChange.Node node = changedNodes.get(locationIds[i]);
+            if (node == null) {
+                g.setLocation(count, locationIds[i], locationLons[i], locationLats[i],
+                    locationNames[i]);
+            } else if (!node.deleted && node.name != null) {
+                g.setLocation(count, node.id, node.lon, node.lat, node.name);
+            } else {
+                continue;
+            }
+            index.add(g.locationIds[count], g.locationNames[count]);
+            count += 1;
+        }
+        for (OsmChange.Node node : changedNodes.values()) {
+            if (!node.deleted && node.name != null
+                    && locationOf.get(node.id) == LongIntHashMap.MISSING) {
+                g.setLocation(count, node.id, node.lon, node.lat, node.name);
+                index.add(node.id, node.name);
+                count += 1;
+            }
+        }
+        g.locationIds = Arrays.copyOf(g.locationIds, count);
+        g.locationLons = Arrays.copyOf(g.locationLons, count);
+        g.locationLats = Arrays.copyOf(g.locationLats, count);
+        g.locationNames = Arrays.copyOf(g.locationNames, count);
+        g.nameIndex = index.build(g.locationIds);
+    }
+
+    private void setLocation(int i, long id, double lon, double lat, String name) {
+        locationIds[i] = id;
+        locationLons[i] = lon;
+        locationLats[i] = lat;
+        locationNames[i] = name;
+    }
+
+    /**
+     * Gives g this graph's parked nodes with a change applied. Nodes that are now on a road
+     * are no longer parked; vertices left on no road, and changed nodes that are on none,
+     * are. The arrays are shared if none of that happens.
+     */
+    private void applyParked(GraphDB g, Map<Long, OsmChange.Node> changedNodes,
+                             boolean[] deleted, int[] degree, double[] vertexLons,
+                             double[] vertexLats, TreeMap<Long, Integer> newVertices) {
+        /* The new coordinates of each node whose parking changes, or null to unpark it. */
+        TreeMap<Long, double[]> changes = new TreeMap<>();
+        for (OsmChange.Node node : changedNodes.values()) {
+            if (index(node.id) < 0) {
+                changes.put(node.id, node.deleted ? null : new double[] {node.lon, node.lat});
+            }
+        }
+        for (int v = 0; v < ids.length; v += 1) {
+            if (degree[v] == 0 && !deleted[v]) {
+                changes.put(ids[v], new double[] {vertexLons[v], vertexLats[v]});
+            }
+        }
+        for (long id : newVertices.keySet()) {
+            changes.put(id, null);
+        }
+        if (changes.isEmpty()) {
+            g.parkedIds = parkedIds;
+            g.parkedLons = parkedLons;
+            g.parkedLats = parkedLats;
+            return;
+        }
+        int capacity = parkedIds.length + changes.size();
+        g.parkedIds = new long[capacity];
+        g.parkedLons = new double[capacity];
+        g.parkedLats = new double[capacity];
+        int count = 0;
+        int p = 0;
+        for (Map.Entry<Long, double[]> change : changes.entrySet()) {
+            long id = change.getKey();
+            while (p < parkedIds.length && parkedIds[p] < id) {
+                g.setParked(count, parkedIds[p], parkedLons[p], parkedLats[p]);
+                count += 1;
+                p += 1;
+            }
+            if (p < parkedIds.length && parkedIds[p] == id) {
+                p += 1;
+            }
+            if (change.getValue() != null) {
+                g.setParked(count, id, change.getValue()[0], change.getValue()[1]);
+                count += 1;
+            }
+        }
+        for (; p < parkedIds.length; p += 1) {
+            g.setParked(count, parkedIds[p], parkedLons[p], parkedLats[p]);
+            count += 1;
+        }
+        g.parkedIds = Arrays.copyOf(g.parkedIds, count);
+        g.parkedLons = Arrays.copyOf(g.parkedLons, count);
+        g.parkedLats = Arrays.copyOf(g.parkedLats, count);
+    }
+
+    private void setParked(int i, long id, double lon, double lat) {
+        parkedIds[i] = id;
+        parkedLons[i] = lon;
+        parkedLats[i] = lat;
     }
 
     /**
@@ -65,8 +895,7 @@ public class GraphDB {
      * @return An iterable of id's of all vertices in the graph.
      */
     Iterable<Long> vertices() {
-        //YOUR CODE HERE, this currently returns only an empty list.
-        return new ArrayList<Long>();
+        return () -> new IdIterator(ids, 0, ids.length, null);
     }
 
     /**
@@ -75,7 +904,8 @@ public class GraphDB {
      * @return An iterable of the ids of the neighbors of v.
      */
     Iterable<Long> adjacent(long v) {
-        return null;
+        int i = checkedIndex(v);
+        return () -> new IdIterator(ids, offsets[i], offsets[i + 1], targets);
     }
 
     /**
@@ -136,7 +966,71 @@ public class GraphDB {
      * @return The id of the node in the graph closest to the target.
      */
     long closest(double lon, double lat) {
-        return 0;
+        return ids[closestIndex(lon, lat)];
+    }
+
+    /** Returns the contraction hierarchy of the graph, or null if there is none. */
+    ContractionHierarchy hierarchy() {
+        return hierarchy;
+    }
+
+    /** Attaches a contraction hierarchy built over this graph, letting Router use it. */
+    void setHierarchy(ContractionHierarchy hierarchy) {
+        if (hierarchy != null && hierarchy.size() != size()) {
+            throw new IllegalArgumentException("Hierarchy has " + hierarchy.size()
+                + " vertices, graph has " + size());
+        }
+        this.hierarchy = hierarchy;
+    }
+
+    /** Returns the cell partition of the graph, or null if there is none. */
+    PartitionedGraph partition() {
+        return partition;
+    }
+
+    /** Attaches a cell partition written from this graph, letting Router use it. */
+    void setPartition(PartitionedGraph partition) {
+        this.partition = partition;
+    }
+
+    /** Returns the landmarks of the graph, or null if there are none. */
+    Landmarks landmarks() {
+        return landmarks;
+    }
+
+    /** Attaches landmarks built over this graph, letting Router use them. */
+    void setLandmarks(Landmarks landmarks) {
+        if (landmarks != null && landmarks.size() != size()) {
+            throw new IllegalArgumentException("Landmarks cover " + landmarks.size()
+                + " vertices, graph has " + size());
+        }
+        this.landmarks = landmarks;
+    }
+
+    /** Returns the index of the vertex closest to the given longitude and latitude. */
+    int closestIndex(double lon, double lat) {
+        int best = spatialIndex.nearest(lon, lat);
+        if (best < 0) {
+            throw new NoSuchElementException("The graph has no vertices.");
+        }
+        return best;
+    }
+
+    /** Finds the same vertex as closestIndex by checking every vertex. */
+    int closestIndexLinear(double lon, double lat) {
+        int best = -1;
+        double bestDist = Double.POSITIVE_INFINITY;
+        for (int v = 0; v < ids.length; v += 1) {
+            double d = distance(lon, lat, lons[v], lats[v]);
+            if (d < bestDist) {
+                bestDist = d;
+                best = v;
+            }
+        }
+        if (best < 0) {
+            throw new NoSuchElementException("The graph has no vertices.");
+        }
+        return best;
     }
 
     /**
@@ -145,7 +1039,7 @@ public class GraphDB {
      * @return The longitude of the vertex.
      */
     double lon(long v) {
-        return 0;
+        return lons[checkedIndex(v)];
     }
 
     /**
@@ -154,6 +1048,361 @@ public class GraphDB {
      * @return The latitude of the vertex.
      */
     double lat(long v) {
-        return 0;
+        return lats[checkedIndex(v)];
+    }
+
+    /* Index-based access, used by the router to avoid boxing OSM ids. */
+
+    /** Returns the number of vertices. */
+    int size() {
+        return ids.length;
+    }
+
+    /** Returns the dense index of the vertex with OSM id v, or -1 if there is none. */
+    int index(long v) {
+        int i = Arrays.binarySearch(ids, v);
+        return i >= 0 ? i : -1;
+    }
+
+    /** Returns the OSM id of vertex index i. */
+    long id(int i) {
+        return ids[i];
+    }
+
+    double lonAt(int i) {
+        return lons[i];
+    }
+
+    double latAt(int i) {
+        return lats[i];
+    }
+
+    /** Returns the first edge index of vertex i. */
+    int edgeStart(int i) {
+        return offsets[i];
+    }
+
+    /** Returns one past the last edge index of vertex i. */
+    int edgeEnd(int i) {
+        return offsets[i + 1];
+    }
+
+    /** Returns the vertex index at the far end of edge e. */
+    int edgeTarget(int e) {
+        return targets[e];
+    }
+
+    /** Returns the length of edge e in miles. */
+    double edgeWeight(int e) {
+        return weights[e];
+    }
+
+    /** Returns the speed limit of edge e in miles per hour. */
+    double edgeSpeed(int e) {
+        return speeds[e];
+    }
+
+    /** Returns the time to drive edge e at its speed limit, in minutes. */
+    double edgeMinutes(int e) {
+        return weights[e] / speeds[e] * 60;
+    }
+
+    /** Returns the initial bearing of edge e, in degrees clockwise from north. */
+    double edgeBearing(int e) {
+        return bearings[e];
+    }
+
+    /** Returns the way edge e belongs to, or NO_WAY. */
+    int edgeWay(int e) {
+        return edgeWays[e];
+    }
+
+    /** Returns the index of the name of edge e's way, 0 if it is unnamed or has no way. */
+    int edgeName(int e) {
+        return edgeWays[e] == NO_WAY ? 0 : wayNames[edgeWays[e]];
+    }
+
+    /** Returns the number of ways. */
+    int wayCount() {
+        return wayIds.length;
+    }
+
+    /** Returns the OSM id of way i. */
+    long wayId(int i) {
+        return wayIds[i];
+    }
+
+    /** Returns the index of the name of way i. */
+    int wayName(int i) {
+        return wayNames[i];
+    }
+
+    /** Returns the way name with index i, "" for unnamed ways. */
+    String name(int i) {
+        return names[i];
+    }
+
+    /** Returns the great-circle distance in miles between vertex indices i and j. */
+    double distanceAt(int i, int j) {
+        return distance(lons[i], lats[i], lons[j], lats[j]);
+    }
+
+    /** Returns the number of named nodes. */
+    int locationCount() {
+        return locationIds.length;
+    }
+
+    /** Returns the OSM id of named node i. */
+    long locationId(int i) {
+        return locationIds[i];
+    }
+
+    double locationLon(int i) {
+        return locationLons[i];
+    }
+
+    double locationLat(int i) {
+        return locationLats[i];
+    }
+
+    /** Returns the name of named node i, as it appears in the OSM file. */
+    String locationName(int i) {
+        return locationNames[i];
+    }
+
+    /** Returns the index of the named nodes by name and by word. */
+    NameIndex nameIndex() {
+        return nameIndex;
+    }
+
+    /**
+     * Forgets the nodes that are on no road, which only apply and writeArrays need, to free
+     * their memory. The graph can no longer be changed or written.
+     */
+    void dropParked() {
+        parkedIds = null;
+        parkedLons = null;
+        parkedLats = null;
+    }
+
+    private void checkParked() {
+        if (parkedIds == null) {
+            throw new IllegalStateException("This graph's parked nodes were dropped.");
+        }
+    }
+
+    /** Returns the number of nodes that are on no road, or 0 if they were dropped. */
+    int parkedCount() {
+        return parkedIds == null ? 0 : parkedIds.length;
+    }
+
+    /** Returns the OSM id of parked node i; parked nodes are sorted by id. */
+    long parkedId(int i) {
+        return parkedIds[i];
+    }
+
+    private int checkedIndex(long v) {
+        int i = index(v);
+        if (i < 0) {
+            throw new IllegalArgumentException("No vertex with id " + v + " in the graph.");
+        }
+        return i;
+    }
+
+    /**
+     * Iterates over OSM ids, either of ids[lo..hi) or, given a targets array, of the
+     * vertices targets[lo..hi) point to.
+     */
+    private static class IdIterator implements Iterator<Long> {
+        private final long[] ids;
+        private final int[] targets;
+        private final int hi;
+        private int next;
+
+        IdIterator(long[] ids, int lo, int hi, int[] targets) {
+            this.ids = ids;
+            this.targets = targets;
+            this.next = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < hi;
+        }
+
+        @Override
+        public Long next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int i = targets == null ? next : targets[next];
+            next += 1;
+            return ids[i];
+        }
+    }
+
+    /**
+     * Growable primitive arrays holding everything added before clean(). Nodes keep the
+     * order in which they were added; edges refer to nodes by that order.
+     */
+    private static class Builder {
+        private final LongIntHashMap index = new LongIntHashMap(1 << 16);
+        private long[] ids = new long[1024];
+        private double[] lons = new double[1024];
+        private double[] lats = new double[1024];
+        private int nodeCount;
+        private int[] edgeFrom = new int[1024];
+        private int[] edgeTo = new int[1024];
+        private float[] edgeSpeed = new float[1024];
+        private int[] edgeWay = new int[1024];
+        private int edgeCount;
+        private long[] locationIds = new long[64];
+        private String[] locationNames = new String[64];
+        private int locationCount;
+        /** Indexes each name as it is added, rather than in a second pass over them. */
+        private final NameIndex.Builder locationIndex = new NameIndex.Builder();
+        /** The node ids of all pending ways, back to back. */
+        private long[] wayRefs = new long[1024];
+        private int wayRefCount;
+        /** Way i's ids are wayRefs[wayEnds[i - 1] .. wayEnds[i]), with wayEnds[-1] = 0. */
+        private int[] wayEnds = new int[256];
+        private float[] waySpeeds = new float[256];
+        private long[] wayIds = new long[256];
+        private int[] wayNames = new int[256];
+        private int wayCount;
+        /** Distinct way names, and the index of each in names. */
+        private String[] names = {""};
+        private int nameCount = 1;
+        private final HashMap<String, Integer> nameIndex = new HashMap<>();
+
+        Builder() {
+            nameIndex.put("", 0);
+        }
+
+        void addNode(long id, double lon, double lat) {
+            int i = index.get(id);
+            if (i == LongIntHashMap.MISSING) {
+                if (nodeCount == ids.length) {
+                    ids = Arrays.copyOf(ids, nodeCount * 2);
+                    lons = Arrays.copyOf(lons, nodeCount * 2);
+                    lats = Arrays.copyOf(lats, nodeCount * 2);
+                }
+                i = nodeCount;
+                nodeCount += 1;
+                index.put(id, i);
+            }
+            ids[i] = id;
+            lons[i] = lon;
+            lats[i] = lat;
+        }
+
+        void addEdge(long v, long w, float speed) {
+            addEdgeIndices(index.get(v), index.get(w), speed, NO_WAY);
+        }
+
+        void addLocation(long id, String name) {
+            if (locationCount == locationIds.length) {
+                locationIds = Arrays.copyOf(locationIds, locationCount * 2);
+                locationNames = Arrays.copyOf(locationNames, locationCount * 2);
+            }
+            locationIds[locationCount] = id;
+            locationNames[locationCount] = name;
+            locationCount += 1;
+            locationIndex.add(id, name);
+        }
+
+        private void addEdgeIndices(int i, int j, float speed, int way) {
+            if (i == LongIntHashMap.MISSING || j == LongIntHashMap.MISSING || i == j) {
+                return;
+            }
+            if (edgeCount == edgeFrom.length) {
+                edgeFrom = Arrays.copyOf(edgeFrom, edgeCount * 2);
+                edgeTo = Arrays.copyOf(edgeTo, edgeCount * 2);
+                edgeSpeed = Arrays.copyOf(edgeSpeed, edgeCount * 2);
+                edgeWay = Arrays.copyOf(edgeWay, edgeCount * 2);
+            }
+            edgeFrom[edgeCount] = i;
+            edgeTo[edgeCount] = j;
+            edgeSpeed[edgeCount] = speed;
+            edgeWay[edgeCount] = way;
+            edgeCount += 1;
+        }
+
+        void addWay(long id, long[] refs, int count, float speed, String name) {
+            if (count < 2) {
+                return;
+            }
+            while (wayRefCount + count > wayRefs.length) {
+                wayRefs = Arrays.copyOf(wayRefs, wayRefs.length * 2);
+            }
+            if (wayCount == wayEnds.length) {
+                wayEnds = Arrays.copyOf(wayEnds, wayCount * 2);
+                waySpeeds = Arrays.copyOf(waySpeeds, wayCount * 2);
+                wayIds = Arrays.copyOf(wayIds, wayCount * 2);
+                wayNames = Arrays.copyOf(wayNames, wayCount * 2);
+            }
+            System.arraycopy(refs, 0, wayRefs, wayRefCount, count);
+            wayRefCount += count;
+            wayEnds[wayCount] = wayRefCount;
+            waySpeeds[wayCount] = speed;
+            wayIds[wayCount] = id;
+            wayNames[wayCount] = intern(name);
+            wayCount += 1;
+        }
+
+        /** Returns the index of name in names, adding it if it is new. */
+        private int intern(String name) {
+            Integer i = nameIndex.get(name);
+            if (i == null) {
+                if (nameCount == names.length) {
+                    names = Arrays.copyOf(names, nameCount * 2);
+                }
+                i = nameCount;
+                names[nameCount] = name;
+                nameCount += 1;
+                nameIndex.put(name, i);
+            }
+            return i;
+        }
+
+        /**
+         * Turns every pending way into edges between its consecutive nodes. Looking up
+         * node ids is the expensive part, and the id index is no longer written to, so the
+         * ways are resolved in parallel: a way whose ids start at wayRefs[start] owns the
+         * edge slots starting at start - i, one per consecutive pair. Pairs that mention
+         * an unknown node or repeat a node leave a -1 in their slot, which is skipped when
+         * the slots are appended to the edge list.
+         */
+        void resolveWays() {
+            int slots = wayRefCount - wayCount;
+            int[] from = new int[slots];
+            int[] to = new int[slots];
+            IntStream.range(0, wayCount).parallel().forEach(i -> {
+                int start = i == 0 ? 0 : wayEnds[i - 1];
+                int slot = start - i;
+                int prev = index.get(wayRefs[start]);
+                for (int r = start + 1; r < wayEnds[i]; r += 1) {
+                    int next = index.get(wayRefs[r]);
+                    from[slot] = prev;
+                    to[slot] = next;
+                    slot += 1;
+                    prev = next;
+                }
+            });
+            int way = 0;
+            for (int e = 0; e < slots; e += 1) {
+                /* Way i's slots end where its ids do, less one per way so far. */
+                while (e >= wayEnds[way] - way - 1) {
+                    way += 1;
+                }
+                addEdgeIndices(from[e], to[e], waySpeeds[way], way);
+            }
+            /* The way ids and names stay, for clean() to copy out. */
+            wayRefs = null;
+            wayEnds = null;
+            waySpeeds = null;
+            wayRefCount = 0;
+        }
     }
 }
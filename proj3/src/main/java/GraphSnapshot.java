@@ -0,0 +1,325 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A versioned binary snapshot of a cleaned GraphDB, so that the server only has to parse
+ * and clean the OSM XML once. A snapshot lives next to its OSM file, with SUFFIX appended
+ * to the name, and is laid out as:
+ *
+ * <pre>
+ *     int  MAGIC
+ *     int  VERSION
+ *     long length of the OSM file it was built from
+ *     long last-modified time of the OSM file it was built from
+ *     ...  the graph arrays, as written by GraphDB.writeArrays
+ * </pre>
+ *
+ * A snapshot is stale, and the XML is parsed again, if its magic or version do not match
+ * or the OSM file has changed size or modification time since the snapshot was written.
+ *
+ * The optional contraction hierarchy is kept in a second file, with HIERARCHY_SUFFIX
+ * appended to the OSM file's name, under the same kind of header with HIERARCHY_MAGIC.
+ * The optional cell partition is kept likewise, with PARTITION_SUFFIX and PARTITION_MAGIC;
+ * only its overlay is read at startup, and its cells as routes need them.
+ */
+public class GraphSnapshot {
+    public static final String SUFFIX = ".snapshot";
+    public static final String HIERARCHY_SUFFIX = ".ch";
+    public static final String PARTITION_SUFFIX = ".cells";
+    static final int MAGIC = 0x42474442;
+    static final int HIERARCHY_MAGIC = 0x42434801;
+    /** Bumped when partitions built by older code would route wrongly. */
+    static final int PARTITION_MAGIC = 0x42504702;
+    /** Bump whenever the layout written by GraphDB.writeArrays changes. */
+    static final int VERSION = 5;
+
+    /**
+     * Loads the graph for an OSM file, from its snapshot if there is a fresh one, otherwise
+     * by parsing the XML and then writing a snapshot for the next boot. Failing to write
+     * the snapshot is reported but is not fatal.
+     * @param dbPath Path to the OSM XML file.
+     * @return The cleaned graph.
+     */
+    public static GraphDB load(String dbPath) {
+        return load(dbPath, true);
+    }
+
+    /**
+     * Like load(dbPath), but for a graph that will never be changed, keepParked false drops
+     * the nodes that are on no road. The snapshot keeps them either way.
+     */
+    public static GraphDB load(String dbPath, boolean keepParked) {
+        File source = new File(dbPath);
+        File snapshot = new File(dbPath + SUFFIX);
+        try {
+            GraphDB g = read(snapshot, source, keepParked);
+            if (g != null) {
+                return g;
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Ignoring unreadable graph snapshot " + snapshot + ": " + e);
+        }
+
+        GraphDB g = new GraphDB(dbPath);
+        try {
+            write(g, snapshot, source);
+        } catch (IOException e) {
+            System.out.println("Could not write graph snapshot " + snapshot + ": " + e);
+        }
+        if (!keepParked) {
+            g.dropParked();
+        }
+        return g;
+    }
+
+    /**
+     * Writes a snapshot of g, recording the size and modification time of source. The
+     * snapshot is written to a temporary file first and then renamed over the old one, so
+     * a crash never leaves a truncated snapshot behind.
+     * @param g The cleaned graph.
+     * @param snapshot The snapshot file to write.
+     * @param source The OSM file g was built from.
+     * @throws IOException If writing fails.
+     */
+    public static void write(GraphDB g, File snapshot, File source) throws IOException {
+        File tmp = new File(snapshot.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            writeHeader(out, MAGIC, source);
+            g.writeArrays(out);
+        }
+        replace(tmp, snapshot);
+    }
+
+    /**
+     * Loads the contraction hierarchy of an OSM file's graph from its file if there is a
+     * fresh one, otherwise builds it and writes the file for the next boot, and attaches it
+     * to g. Failing to write the file is reported but is not fatal.
+     * @param g The graph, as returned by load(dbPath).
+     * @param dbPath Path to the OSM XML file.
+     * @return The hierarchy.
+     */
+    public static ContractionHierarchy loadHierarchy(GraphDB g, String dbPath) {
+        File source = new File(dbPath);
+        File file = new File(dbPath + HIERARCHY_SUFFIX);
+        try {
+            ContractionHierarchy ch = readHierarchy(file, source);
+            if (ch != null) {
+                g.setHierarchy(ch);
+                return ch;
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Ignoring unreadable contraction hierarchy " + file + ": " + e);
+        }
+
+        long start = System.nanoTime();
+        ContractionHierarchy ch = ContractionHierarchy.build(g);
+        System.out.println(String.format("Contracted %d vertices in %.1f s: %d shortcuts, %d KB",
+            ch.size(), (System.nanoTime() - start) / 1e9, ch.shortcutCount(),
+            ch.sizeInBytes() >> 10));
+        g.setHierarchy(ch);
+        try {
+            writeHierarchy(ch, file, source);
+        } catch (IOException e) {
+            System.out.println("Could not write contraction hierarchy " + file + ": " + e);
+        }
+        return ch;
+    }
+
+    /**
+     * Writes a contraction hierarchy, recording the size and modification time of source.
+     * @param ch The hierarchy.
+     * @param file The file to write.
+     * @param source The OSM file the hierarchy's graph was built from.
+     * @throws IOException If writing fails.
+     */
+    public static void writeHierarchy(ContractionHierarchy ch, File file, File source)
+            throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            writeHeader(out, HIERARCHY_MAGIC, source);
+            ch.write(out);
+        }
+        replace(tmp, file);
+    }
+
+    /**
+     * Reads a contraction hierarchy written by writeHierarchy.
+     * @param file The hierarchy file.
+     * @param source The OSM file the hierarchy should have been built from.
+     * @return The hierarchy, or null if there is no file or it is stale.
+     * @throws IOException If the file exists but cannot be read.
+     */
+    public static ContractionHierarchy readHierarchy(File file, File source) throws IOException {
+        ByteBuffer buf = map(file);
+        if (buf == null || !isFresh(buf, HIERARCHY_MAGIC, source)) {
+            return null;
+        }
+        return ContractionHierarchy.read(buf);
+    }
+
+    /**
+     * Opens the cell partition of an OSM file's graph from its file if there is a fresh one
+     * with the same maximum cell size, otherwise partitions g and writes the file first, and
+     * attaches it to g.
+     * @param g The graph, as returned by load(dbPath).
+     * @param dbPath Path to the OSM XML file.
+     * @param maxCellSize The most vertices to put in one cell.
+     * @param budgetBytes The most bytes of cells to keep in memory.
+     * @return The partition, or null if it could be neither read nor written.
+     */
+    public static PartitionedGraph loadPartition(GraphDB g, String dbPath, int maxCellSize,
+                                                 long budgetBytes) {
+        File source = new File(dbPath);
+        File file = new File(dbPath + PARTITION_SUFFIX);
+        try {
+            PartitionedGraph pg = readPartition(file, source, maxCellSize, budgetBytes);
+            if (pg != null) {
+                g.setPartition(pg);
+                return pg;
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Ignoring unreadable cell partition " + file + ": " + e);
+        }
+
+        try {
+            long start = System.nanoTime();
+            writePartition(g, maxCellSize, file, source);
+            PartitionedGraph pg = readPartition(file, source, maxCellSize, budgetBytes);
+            System.out.println(String.format("Partitioned %d vertices in %.1f s: %d cells, "
+                + "%d overlay nodes, %d KB overlay", g.size(), (System.nanoTime() - start) / 1e9,
+                pg.cellCount(), pg.overlaySize(), pg.overlayBytes() >> 10));
+            g.setPartition(pg);
+            return pg;
+        } catch (IOException e) {
+            System.out.println("Could not write cell partition " + file + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Partitions g into cells and writes them, recording the size and modification time of
+     * source.
+     * @param g The cleaned graph.
+     * @param maxCellSize The most vertices to put in one cell.
+     * @param file The file to write.
+     * @param source The OSM file g was built from.
+     * @throws IOException If writing fails.
+     */
+    public static void writePartition(GraphDB g, int maxCellSize, File file, File source)
+            throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            writeHeader(out, PARTITION_MAGIC, source);
+            PartitionedGraph.write(g, maxCellSize, out);
+        }
+        replace(tmp, file);
+    }
+
+    /**
+     * Opens a cell partition written by writePartition. Unlike the other files it is not
+     * mapped: the file stays open, and cells are read from it on demand.
+     * @param file The partition file.
+     * @param source The OSM file the partition's graph should have been built from.
+     * @param maxCellSize The maximum cell size the partition should have been built with.
+     * @param budgetBytes The most bytes of cells to keep in memory.
+     * @return The partition, or null if there is no file or it is stale.
+     * @throws IOException If the file exists but cannot be read.
+     */
+    public static PartitionedGraph readPartition(File file, File source, int maxCellSize,
+                                                 long budgetBytes) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            byte[] header = new byte[28];
+            if (raf.length() < header.length) {
+                raf.close();
+                return null;
+            }
+            raf.readFully(header);
+            ByteBuffer buf = ByteBuffer.wrap(header);
+            if (!isFresh(buf, PARTITION_MAGIC, source) || buf.getInt() != maxCellSize) {
+                raf.close();
+                return null;
+            }
+            return PartitionedGraph.open(raf, 24, budgetBytes);
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    private static void writeHeader(DataOutputStream out, int magic, File source)
+            throws IOException {
+        out.writeInt(magic);
+        out.writeInt(VERSION);
+        out.writeLong(source.length());
+        out.writeLong(source.lastModified());
+    }
+
+    /** Renames tmp over target, so a crash never leaves a truncated file behind. */
+    private static void replace(File tmp, File target) throws IOException {
+        if (!tmp.renameTo(target)) {
+            target.delete();
+            if (!tmp.renameTo(target)) {
+                throw new IOException("Could not rename " + tmp + " to " + target);
+            }
+        }
+    }
+
+    /**
+     * Memory-maps a snapshot and reads the graph out of it.
+     * @param snapshot The snapshot file.
+     * @param source The OSM file the snapshot should have been built from.
+     * @return The graph, or null if there is no snapshot or it is stale.
+     * @throws IOException If the snapshot exists but cannot be read.
+     */
+    public static GraphDB read(File snapshot, File source) throws IOException {
+        return read(snapshot, source, true);
+    }
+
+    /** Like read(snapshot, source), skipping the parked nodes unless keepParked. */
+    static GraphDB read(File snapshot, File source, boolean keepParked) throws IOException {
+        ByteBuffer buf = map(snapshot);
+        if (buf == null || !isFresh(buf, MAGIC, source)) {
+            return null;
+        }
+        return GraphDB.readArrays(buf, keepParked);
+    }
+
+    /** Memory-maps a whole file, or returns null if it does not exist or is too large. */
+    private static ByteBuffer map(File file) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                /* A single mapping is limited to 2 GB. */
+                return null;
+            }
+            /* The mapping stays valid after the channel is closed. */
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /** Reads the header at the start of buf and checks it against the OSM file. */
+    private static boolean isFresh(ByteBuffer buf, int magic, File source) {
+        if (buf.remaining() < 24 || buf.getInt() != magic || buf.getInt() != VERSION) {
+            return false;
+        }
+        long length = buf.getLong();
+        long lastModified = buf.getLong();
+        return length == source.length() && lastModified == source.lastModified();
+    }
+}
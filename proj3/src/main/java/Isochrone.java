@@ -0,0 +1,108 @@
+import java.util.Arrays;
+
+/**
+ * The vertices reachable from a start vertex within a driving time, as found by
+ * Router.isochrone, in order of travel time. The hull gives a compact outline of the area
+ * for drawing, at the cost of also covering any unreachable pockets inside it.
+ */
+public class Isochrone {
+    private final int[] vertices;
+    private final double[] minutes;
+
+    Isochrone(int[] vertices, double[] minutes) {
+        this.vertices = vertices;
+        this.minutes = minutes;
+    }
+
+    /** Returns the number of reachable vertices. */
+    public int size() {
+        return vertices.length;
+    }
+
+    /** Returns the vertex index of the i-th closest reachable vertex. */
+    int vertex(int i) {
+        return vertices[i];
+    }
+
+    /** Returns the travel time to the i-th closest reachable vertex, in minutes. */
+    double minutes(int i) {
+        return minutes[i];
+    }
+
+    /**
+     * Returns the convex hull of the reachable vertices, found with Andrew's monotone chain
+     * in O(n log n) in the worst case.
+     * @param g The graph the vertices belong to.
+     * @return The {longitude, latitude} of each corner, counterclockwise, without repeating
+     * the first corner. Fewer than three reachable vertices are returned as they are.
+     */
+    public double[][] hull(GraphDB g) {
+        int n = vertices.length;
+        double[] lons = new double[n];
+        double[] lats = new double[n];
+        int left = 0;
+        int bottom = 0;
+        int right = 0;
+        int top = 0;
+        for (int i = 0; i < n; i += 1) {
+            lons[i] = g.lonAt(vertices[i]);
+            lats[i] = g.latAt(vertices[i]);
+            left = lons[i] < lons[left] ? i : left;
+            right = lons[i] > lons[right] ? i : right;
+            bottom = lats[i] < lats[bottom] ? i : bottom;
+            top = lats[i] > lats[top] ? i : top;
+        }
+        /* Points strictly inside the quadrilateral of the four extreme points cannot be
+         * corners, and on a road network that is nearly all of them, so only the rest are
+         * sorted (the Akl-Toussaint heuristic). */
+        Integer[] order = new Integer[n];
+        int m = 0;
+        for (int i = 0; i < n; i += 1) {
+            if (cross(lons, lats, left, bottom, i) <= 0 || cross(lons, lats, bottom, right, i) <= 0
+                    || cross(lons, lats, right, top, i) <= 0
+                    || cross(lons, lats, top, left, i) <= 0) {
+                order[m] = i;
+                m += 1;
+            }
+        }
+        /* Sort by longitude, then latitude. */
+        Arrays.sort(order, 0, m, (a, b) -> lons[a] != lons[b]
+            ? Double.compare(lons[a], lons[b]) : Double.compare(lats[a], lats[b]));
+        if (m < 3) {
+            double[][] corners = new double[m][];
+            for (int i = 0; i < m; i += 1) {
+                corners[i] = new double[] {lons[order[i]], lats[order[i]]};
+            }
+            return corners;
+        }
+
+        int[] chain = new int[2 * m];
+        int k = 0;
+        for (int i = 0; i < m; i += 1) {
+            while (k >= 2 && cross(lons, lats, chain[k - 2], chain[k - 1], order[i]) <= 0) {
+                k -= 1;
+            }
+            chain[k] = order[i];
+            k += 1;
+        }
+        int lower = k + 1;
+        for (int i = m - 2; i >= 0; i -= 1) {
+            while (k >= lower && cross(lons, lats, chain[k - 2], chain[k - 1], order[i]) <= 0) {
+                k -= 1;
+            }
+            chain[k] = order[i];
+            k += 1;
+        }
+        /* The last corner is the first one again. */
+        double[][] corners = new double[k - 1][];
+        for (int i = 0; i < k - 1; i += 1) {
+            corners[i] = new double[] {lons[chain[i]], lats[chain[i]]};
+        }
+        return corners;
+    }
+
+    /** Returns the z component of (b - a) x (c - a); positive if a, b, c turn left. */
+    private static double cross(double[] x, double[] y, int a, int b, int c) {
+        return (x[b] - x[a]) * (y[c] - y[a]) - (y[b] - y[a]) * (x[c] - x[a]);
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ * A static 3-d tree for nearest-vertex queries. Each vertex is projected onto the unit
+ * sphere as an (x, y, z) point. The straight-line (chord) distance between two points on
+ * the sphere grows with the great-circle distance between them, so the vertex nearest in
+ * this projection is exactly the one nearest by GraphDB.distance, unlike a tree over raw
+ * longitudes and latitudes.
+ *
+ * The tree is implicit: the points are reordered so that the root of the subtree over
+ * positions [lo, hi) is at the middle position, every point before it is on the low side of
+ * its splitting plane and every point after it on the high side. Queries allocate nothing.
+ */
+public class KdTree {
+    private final double[] xs;
+    private final double[] ys;
+    private final double[] zs;
+    /** The vertex index of the point at each tree position. */
+    private final int[] vertices;
+
+    /**
+     * Builds the tree over vertices 0..lons.length-1.
+     * @param lons Longitude of each vertex.
+     * @param lats Latitude of each vertex.
+     */
+    public KdTree(double[] lons, double[] lats) {
+        int n = lons.length;
+        xs = new double[n];
+        ys = new double[n];
+        zs = new double[n];
+        vertices = new int[n];
+        for (int v = 0; v < n; v += 1) {
+            double phi = Math.toRadians(lats[v]);
+            double lambda = Math.toRadians(lons[v]);
+            xs[v] = Math.cos(phi) * Math.cos(lambda);
+            ys[v] = Math.cos(phi) * Math.sin(lambda);
+            zs[v] = Math.sin(phi);
+            vertices[v] = v;
+        }
+        build(0, n, 0);
+    }
+
+    public int size() {
+        return vertices.length;
+    }
+
+    /**
+     * Returns the index of the vertex nearest to a location, or -1 if the tree is empty.
+     * @param lon The longitude of the location.
+     * @param lat The latitude of the location.
+     */
+    public int nearest(double lon, double lat) {
+        if (vertices.length == 0) {
+            return -1;
+        }
+        double phi = Math.toRadians(lat);
+        double lambda = Math.toRadians(lon);
+        double x = Math.cos(phi) * Math.cos(lambda);
+        double y = Math.cos(phi) * Math.sin(lambda);
+        double z = Math.sin(phi);
+        return vertices[nearest(0, vertices.length, 0, x, y, z, 0)];
+    }
+
+    /** Returns the tree position nearest to (x, y, z) among [lo, hi) and best. */
+    private int nearest(int lo, int hi, int axis, double x, double y, double z, int best) {
+        if (lo >= hi) {
+            return best;
+        }
+        int mid = (lo + hi) >>> 1;
+        if (distance2(mid, x, y, z) < distance2(best, x, y, z)) {
+            best = mid;
+        }
+        double diff = (axis == 0 ? x : axis == 1 ? y : z) - coordinate(mid, axis);
+        int next = axis == 2 ? 0 : axis + 1;
+        if (diff < 0) {
+            best = nearest(lo, mid, next, x, y, z, best);
+            if (diff * diff < distance2(best, x, y, z)) {
+                best = nearest(mid + 1, hi, next, x, y, z, best);
+            }
+        } else {
+            best = nearest(mid + 1, hi, next, x, y, z, best);
+            if (diff * diff < distance2(best, x, y, z)) {
+                best = nearest(lo, mid, next, x, y, z, best);
+            }
+        }
+        return best;
+    }
+
+    private double distance2(int i, double x, double y, double z) {
+        double dx = xs[i] - x;
+        double dy = ys[i] - y;
+        double dz = zs[i] - z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private double coordinate(int i, int axis) {
+        return axis == 0 ? xs[i] : axis == 1 ? ys[i] : zs[i];
+    }
+
+    /** Arranges positions [lo, hi) into a subtree splitting on axis at its middle. */
+    private void build(int lo, int hi, int axis) {
+        if (hi - lo <= 1) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi - 1, mid, axis);
+        int next = axis == 2 ? 0 : axis + 1;
+        build(lo, mid, next);
+        build(mid + 1, hi, next);
+    }
+
+    /**
+     * Quickselect: partially sorts positions [lo, hi] by coordinate axis so that position k
+     * holds the point that would be there if they were fully sorted.
+     */
+    private void select(int lo, int hi, int k, int axis) {
+        while (lo < hi) {
+            double pivot = coordinate((lo + hi) >>> 1, axis);
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (coordinate(i, axis) < pivot) {
+                    i += 1;
+                }
+                while (coordinate(j, axis) > pivot) {
+                    j -= 1;
+                }
+                if (i <= j) {
+                    swap(i, j);
+                    i += 1;
+                    j -= 1;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        double t = xs[i];
+        xs[i] = xs[j];
+        xs[j] = t;
+        t = ys[i];
+        ys[i] = ys[j];
+        ys[j] = t;
+        t = zs[i];
+        zs[i] = zs[j];
+        zs[j] = t;
+        int v = vertices[i];
+        vertices[i] = vertices[j];
+        vertices[j] = v;
+    }
+}
@@ -0,0 +1,148 @@
+import java.util.Arrays;
+
+/**
+ * Landmark distances for the ALT heuristic (A*, Landmarks and the Triangle inequality).
+ * For a landmark L and any vertices v and t, the triangle inequality gives
+ * dist(v, t) >= |dist(L, t) - dist(L, v)|, so the largest such difference over all
+ * landmarks is a lower bound on the remaining distance. On road networks it is usually much
+ * tighter than the great-circle distance, because it already accounts for the detours that
+ * rivers, hills and missing links force on every route.
+ *
+ * Landmarks are chosen by farthest selection: each one is the vertex farthest, along the
+ * roads, from the landmarks chosen before it, which places them around the edge of the map.
+ * The distances are stored as floats, vertex-major, so the k distances of one vertex share a
+ * cache line.
+ */
+public class Landmarks {
+    /** Landmark count used when none is configured. */
+    public static final int DEFAULT_COUNT = 16;
+    /**
+     * Relative error of a float, used to shrink each bound so that rounding the stored
+     * distances can never make it overestimate.
+     */
+    private static final double FLOAT_SLACK = 1.2e-7;
+
+    private final int[] landmarks;
+    /** distances[v * k + i] is the distance in miles from landmark i to vertex v. */
+    private final float[] distances;
+
+    private Landmarks(int[] landmarks, float[] distances) {
+        this.landmarks = landmarks;
+        this.distances = distances;
+    }
+
+    /**
+     * Chooses k landmarks of a cleaned graph and computes their distances to every vertex.
+     * @param g The cleaned graph.
+     * @param k The number of landmarks, at most the number of vertices.
+     * @return The landmarks.
+     */
+    public static Landmarks build(GraphDB g, int k) {
+        int n = g.size();
+        if (k < 1 || k > n) {
+            throw new IllegalArgumentException("Cannot choose " + k + " landmarks among "
+                + n + " vertices.");
+        }
+        int[] landmarks = new int[k];
+        float[] distances = new float[n * k];
+        /* The distance from each vertex to its nearest landmark so far. */
+        double[] nearest = new double[n];
+        double[] dist = new double[n];
+        MinHeap fringe = new MinHeap(n);
+
+        /* Start from the vertex farthest from vertex 0, as if 0 were a landmark. */
+        dijkstra(g, 0, dist, fringe);
+        System.arraycopy(dist, 0, nearest, 0, n);
+        for (int i = 0; i < k; i += 1) {
+            int landmark = farthest(nearest);
+            landmarks[i] = landmark;
+            dijkstra(g, landmark, dist, fringe);
+            for (int v = 0; v < n; v += 1) {
+                distances[v * k + i] = (float) dist[v];
+                nearest[v] = i == 0 ? dist[v] : Math.min(nearest[v], dist[v]);
+            }
+        }
+        return new Landmarks(landmarks, distances);
+    }
+
+    /** Returns the vertex with the largest finite distance to its nearest landmark. */
+    private static int farthest(double[] nearest) {
+        int best = 0;
+        for (int v = 1; v < nearest.length; v += 1) {
+            if (nearest[v] > nearest[best] && nearest[v] != Double.POSITIVE_INFINITY) {
+                best = v;
+            }
+        }
+        return best;
+    }
+
+    /** Fills dist with the distance from source to every vertex, infinity if unreachable. */
+    private static void dijkstra(GraphDB g, int source, double[] dist, MinHeap fringe) {
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        fringe.clear();
+        dist[source] = 0;
+        fringe.push(source, 0);
+        while (!fringe.isEmpty()) {
+            double d = fringe.peekKey();
+            int v = fringe.pop();
+            if (d > dist[v]) {
+                continue;
+            }
+            for (int e = g.edgeStart(v); e < g.edgeEnd(v); e += 1) {
+                int w = g.edgeTarget(e);
+                double dw = d + g.edgeWeight(e);
+                if (dw < dist[w]) {
+                    dist[w] = dw;
+                    fringe.push(w, dw);
+                }
+            }
+        }
+    }
+
+    /** Returns the number of landmarks. */
+    public int count() {
+        return landmarks.length;
+    }
+
+    /** Returns the number of vertices the distances cover. */
+    int size() {
+        return distances.length / landmarks.length;
+    }
+
+    /** Returns the vertex index of landmark i. */
+    int landmark(int i) {
+        return landmarks[i];
+    }
+
+    /** Returns the size of the distance table, in bytes. */
+    long sizeInBytes() {
+        return 4L * distances.length;
+    }
+
+    /**
+     * Returns a lower bound on the distance in miles from v to t. Landmarks that cannot
+     * reach both vertices are skipped; if exactly one of v and t is reachable from a
+     * landmark, the two are in different components and the bound is infinite.
+     */
+    double lowerBound(int v, int t) {
+        int k = landmarks.length;
+        int vi = v * k;
+        int ti = t * k;
+        double best = 0;
+        for (int i = 0; i < k; i += 1) {
+            double dv = distances[vi + i];
+            double dt = distances[ti + i];
+            if (dv == Double.POSITIVE_INFINITY || dt == Double.POSITIVE_INFINITY) {
+                if (dv != dt) {
+                    return Double.POSITIVE_INFINITY;
+                }
+                continue;
+            }
+            double bound = Math.abs(dt - dv) - FLOAT_SLACK * (dt + dv);
+            if (bound > best) {
+                best = bound;
+            }
+        }
+        return best;
+    }
+}
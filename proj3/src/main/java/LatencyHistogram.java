@@ -0,0 +1,79 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of durations with fixed, roughly logarithmic buckets: 1, 2.5 and 5
+ * times each power of ten from 10 microseconds to 10 seconds, plus an overflow bucket.
+ * Recording is a short scan of the bounds and two LongAdder increments, so request threads
+ * never wait on each other or on a reader; a reader sees each counter at some recent value,
+ * which is all a periodic scrape needs.
+ */
+public class LatencyHistogram {
+    /** Upper bounds of the buckets, in nanoseconds. The last bucket has no bound. */
+    static final long[] BOUNDS_NANOS;
+
+    static {
+        long[] steps = {10_000L, 25_000L, 50_000L};
+        BOUNDS_NANOS = new long[19];
+        for (int i = 0; i < BOUNDS_NANOS.length; i += 1) {
+            long power = 1;
+            for (int j = 0; j < i / 3; j += 1) {
+                power *= 10;
+            }
+            BOUNDS_NANOS[i] = steps[i % 3] * power;
+        }
+    }
+
+    /** counts[i] is the number of durations in bucket i, not cumulative. */
+    private final LongAdder[] counts = new LongAdder[BOUNDS_NANOS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < counts.length; i += 1) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    /** Records one duration, in nanoseconds. */
+    public void record(long nanos) {
+        int i = 0;
+        while (i < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[i]) {
+            i += 1;
+        }
+        counts[i].increment();
+        sumNanos.add(nanos);
+    }
+
+    /** Records the time elapsed since startNanos, a System.nanoTime() reading. */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /** Returns the number of buckets, including the overflow bucket. */
+    public int bucketCount() {
+        return counts.length;
+    }
+
+    /** Returns the number of durations recorded in bucket i. */
+    public long bucket(int i) {
+        return counts[i].sum();
+    }
+
+    /** Returns the upper bound of bucket i in nanoseconds, or Long.MAX_VALUE for the last. */
+    public long bound(int i) {
+        return i < BOUNDS_NANOS.length ? BOUNDS_NANOS[i] : Long.MAX_VALUE;
+    }
+
+    /** Returns the number of durations recorded. */
+    public long count() {
+        long count = 0;
+        for (LongAdder c : counts) {
+            count += c.sum();
+        }
+        return count;
+    }
+
+    /** Returns the total of the durations recorded, in nanoseconds. */
+    public long sumNanos() {
+        return sumNanos.sum();
+    }
+}
@@ -0,0 +1,130 @@
+import java.util.Arrays;
+
+/**
+ * A map from primitive long keys to primitive int values, using open addressing with linear
+ * probing. It exists so that OSM ids can be mapped to dense vertex indices without boxing
+ * every id into a Long and every index into an Integer, which for a large extract costs
+ * more than the graph itself. Keys cannot be removed.
+ *
+ * Not thread safe for writes; concurrent reads of a map that is no longer written to are
+ * fine.
+ */
+public class LongIntHashMap {
+    /** Value returned by get for a key that is not in the map. */
+    public static final int MISSING = -1;
+
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final double MAX_LOAD = 0.5;
+
+    private long[] keys;
+    private int[] values;
+    private int size;
+    private boolean hasEmptyKey;
+    private int emptyKeyValue;
+
+    /** Creates a map sized to hold expectedSize keys without resizing. */
+    public LongIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / MAX_LOAD)) - 1)
+                << 1;
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        values = new int[capacity];
+    }
+
+    public LongIntHashMap() {
+        this(16);
+    }
+
+    /**
+     * Returns the value for key, or MISSING if the key is not present.
+     * @param key The key to look up.
+     * @return The associated value, or MISSING.
+     */
+    public int get(long key) {
+        if (key == EMPTY) {
+            return hasEmptyKey ? emptyKeyValue : MISSING;
+        }
+        int mask = keys.length - 1;
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key) {
+                return values[i];
+            } else if (k == EMPTY) {
+                return MISSING;
+            }
+        }
+    }
+
+    /** Returns true if key is in the map. */
+    public boolean containsKey(long key) {
+        if (key == EMPTY) {
+            return hasEmptyKey;
+        }
+        int mask = keys.length - 1;
+        for (int i = slot(key, mask); keys[i] != EMPTY; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Associates value with key, replacing any previous value.
+     * @param key The key.
+     * @param value The value.
+     */
+    public void put(long key, int value) {
+        if (key == EMPTY) {
+            if (!hasEmptyKey) {
+                size += 1;
+            }
+            hasEmptyKey = true;
+            emptyKeyValue = value;
+            return;
+        }
+        if (size + 1 > keys.length * MAX_LOAD) {
+            resize(keys.length << 1);
+        }
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while (keys[i] != EMPTY && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        if (keys[i] == EMPTY) {
+            keys[i] = key;
+            size += 1;
+        }
+        values[i] = value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        values = new int[capacity];
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j += 1) {
+            long k = oldKeys[j];
+            if (k != EMPTY) {
+                int i = slot(k, mask);
+                while (keys[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = k;
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    /** Spreads the bits of a key so that sequential OSM ids do not cluster. */
+    private static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
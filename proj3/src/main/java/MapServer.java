@@ -4,12 +4,25 @@ import java.awt.BasicStroke;
 import java.awt.Color;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 import java.awt.image.BufferedImage;
 import javax.imageio.ImageIO;
 import java.io.IOException;
@@ -17,6 +30,7 @@ import java.io.IOException;
 
 /* Maven is used to pull in these dependencies. */
 import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
 
 import static spark.Spark.*;
 
@@ -40,12 +54,37 @@ public class MapServer {
     public static final int TILE_SIZE = 256;
     /** HTTP failed response. */
     private static final int HALT_RESPONSE = 403;
+    /**
+     * The most sources, and the most targets, one /route_matrix request may have. Each
+     * source is a search, so an unbounded matrix could keep every core busy.
+     */
+    private static final int MAX_MATRIX_LOCATIONS = 100;
     /** Route stroke information: typically roads are not more than 5px wide. */
     public static final float ROUTE_STROKE_WIDTH_PX = 5.0f;
     /** Route stroke information: Cyan with half transparency. */
     public static final Color ROUTE_STROKE_COLOR = new Color(108, 181, 230, 200);
     /** The tile images are in the IMG_ROOT folder. */
     private static final String IMG_ROOT = "../library-sp18/data/proj3_imgs/";
+    /**
+     * Set this system property to a pack built by TilePack (-Dmapserver.tilepack=tiles.pack)
+     * to read tiles from the memory-mapped pack rather than from IMG_ROOT.
+     */
+    private static final String TILE_PACK_PROPERTY = "mapserver.tilepack";
+    /** The tile pack in use, or null to read each tile from its own file. */
+    private static volatile TilePack tilePack;
+    /** Decoded tiles are kept in memory, shared by all request threads. */
+    private static final TileCache TILE_CACHE = new TileCache(TileCache.DEFAULT_BUDGET_BYTES,
+        MapServer::loadTile);
+    /**
+     * Encoded rasters, shared by identical concurrent requests and kept for
+     * mapserver.raster.ttl.ms milliseconds.
+     */
+    private static final RasterCache RASTERS = new RasterCache(RasterCache.DEFAULT_BUDGET_BYTES,
+        TimeUnit.MILLISECONDS.toNanos(Long.getLong("mapserver.raster.ttl.ms",
+            TimeUnit.NANOSECONDS.toMillis(RasterCache.DEFAULT_TTL_NANOS))), System::nanoTime);
+    /** Stitches render grids together, decoding and drawing rows of tiles in parallel. */
+    private static final TileCompositor COMPOSITOR = new TileCompositor(
+        tile -> getImage(IMG_ROOT + tile), ForkJoinPool.commonPool());
     /**
      * The OSM XML file path. Downloaded from <a href="http://download.bbbike.org/osm/">here</a>
      * using custom region selection.
@@ -70,6 +109,20 @@ public class MapServer {
     private static final String[] REQUIRED_ROUTE_REQUEST_PARAMS = {"start_lat", "start_lon",
         "end_lat", "end_lon"};
 
+    /**
+     * Each isochrone request to the server will have the following parameters
+     * as keys in the params map:<br>
+     * lon : start point longitude,<br> lat : start point latitude,<br>
+     * minutes : the driving time budget.
+     **/
+    private static final String[] REQUIRED_ISOCHRONE_REQUEST_PARAMS = {"lon", "lat",
+        "minutes"};
+    /**
+     * A full /search may carry the client's viewport, as in a raster request, to list the
+     * nearest matches first.
+     */
+    private static final String[] VIEWPORT_PARAMS = {"ullat", "ullon", "lrlat", "lrlon"};
+
     /**
      * The result of rastering must be a map containing all of the
      * fields listed in the comments for getMapRaster in Rasterer.java.
@@ -77,9 +130,113 @@ public class MapServer {
     private static final String[] REQUIRED_RASTER_RESULT_PARAMS = {"render_grid", "raster_ul_lon",
         "raster_ul_lat", "raster_lr_lon", "raster_lr_lat", "depth", "query_success"};
 
+    /**
+     * The binary raster endpoint cannot carry the result fields in its body, so each scalar
+     * field is sent as a response header instead. Each row maps a result field to its header.
+     * Underscores are avoided since some proxies silently drop headers containing them.
+     **/
+    private static final String[][] RASTER_RESULT_HEADERS = {
+        {"raster_ul_lon", "X-Raster-UL-Lon"}, {"raster_ul_lat", "X-Raster-UL-Lat"},
+        {"raster_lr_lon", "X-Raster-LR-Lon"}, {"raster_lr_lat", "X-Raster-LR-Lat"},
+        {"raster_width", "X-Raster-Width"}, {"raster_height", "X-Raster-Height"},
+        {"depth", "X-Raster-Depth"}, {"query_success", "X-Raster-Query-Success"}};
+
+    /**
+     * Set this system property to true (-Dmapserver.contract=true) to build or load a
+     * contraction hierarchy at startup and route with it by default.
+     */
+    private static final String CONTRACT_PROPERTY = "mapserver.contract";
+    /**
+     * Set this system property to a landmark count (-Dmapserver.landmarks=16) to choose
+     * that many ALT landmarks at startup and route with them by default. 0 disables ALT.
+     */
+    private static final String LANDMARKS_PROPERTY = "mapserver.landmarks";
+    /**
+     * Set this system property to a maximum cell size (-Dmapserver.partition=4096) to build
+     * or load a cell partition at startup and route over it by default. The full graph
+     * stays in memory too, so this costs the overlay and up to
+     * PartitionedGraph.DEFAULT_CACHE_BYTES of cached cells on top of it.
+     */
+    private static final String PARTITION_PROPERTY = "mapserver.partition";
+    /**
+     * Set this system property to a directory (-Dmapserver.changes=diffs) to apply the OSM
+     * change files in it (*.osc, *.osc.gz) to the graph, in name order, at startup and then
+     * as they appear. Files are applied again on every start, since the snapshot only
+     * covers the OSM file itself; applying a change twice has no further effect. The
+     * landmarks, contraction hierarchy and partition asked for above are rebuilt for each
+     * changed graph in the background, and routing uses A* until they are ready. Unless
+     * this is set, the graph does not keep the nodes that are on no road, which changes
+     * need and which take several times the memory of the routing graph.
+     */
+    private static final String CHANGES_PROPERTY = "mapserver.changes";
+    /** How often, in milliseconds, the changes directory is checked for new files. */
+    private static final String CHANGES_POLL_PROPERTY = "mapserver.changes.poll.ms";
     private static Rasterer rasterer;
-    private static GraphDB graph;
-    private static List<Long> route = new LinkedList<>();
+    /**
+     * The graph requests route over. An OSM change replaces it with a changed copy, so a
+     * request reads it once and keeps using the graph it got, even if it is replaced.
+     */
+    private static volatile GraphDB graph;
+    /**
+     * Paths of the change files applied so far, and the duration of the last one. Only
+     * applyChanges adds to the set, but /metrics reads its size without waiting for it.
+     */
+    private static final Set<String> APPLIED_CHANGES = ConcurrentHashMap.newKeySet();
+    /**
+     * Change files that could not be read or applied, as "path@length:modified" so that a
+     * file is tried again once it is rewritten.
+     */
+    private static final Set<String> REJECTED_CHANGES = new HashSet<>();
+    private static volatile long lastChangeNanos;
+    /** The routing structures every graph should have, from the properties above. */
+    private static int landmarkCount;
+    private static boolean contract;
+    private static int cellSize;
+    /**
+     * Builds the routing structures of changed graphs, one at a time, and closes the
+     * partitions of replaced graphs once no request can still be reading them.
+     */
+    private static final ScheduledExecutorService PREPARER =
+        Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "graph-prepare");
+            t.setDaemon(true);
+            return t;
+        });
+    private static final AtomicBoolean PREPARE_PENDING = new AtomicBoolean();
+    /** Polls the mapserver.changes directory, if it is set. Replaced by each initialize. */
+    private static ScheduledExecutorService changeWatcher;
+    /** How long a replaced partition stays open for the requests still routing over it. */
+    private static final long RETIRE_DELAY_SECONDS = 60;
+    /** The current route of each client, so that clients never see each other's routes. */
+    private static final RouteSessions ROUTES = new RouteSessions();
+    /**
+     * Clients are told apart by this cookie, which /route sets if it is missing. Clients
+     * that do not keep cookies can pass the token as the SESSION_PARAM query parameter.
+     */
+    private static final String SESSION_COOKIE = "route_session";
+    private static final String SESSION_PARAM = "session";
+    /** System properties for the number of autocomplete results, and how they are ranked. */
+    private static final String AUTOCOMPLETE_LIMIT_PROPERTY = "mapserver.autocomplete.limit";
+    private static final String AUTOCOMPLETE_RANK_PROPERTY = "mapserver.autocomplete.rank";
+    private static volatile PrefixIndex locationIndex;
+    private static int autocompleteLimit;
+    private static PrefixIndex.Rank autocompleteRank;
+    /** System property for the maximum number of request threads, 200 by default. */
+    private static final String THREADS_PROPERTY = "mapserver.threads";
+    /**
+     * System properties for the compute pool that composites and encodes rasters: its number
+     * of threads, by default 0 to render on the request threads, and how many rasters may
+     * wait for one of its threads, 4 per thread by default, before rasters are answered
+     * with 503 (-Dmapserver.compute.threads=4 -Dmapserver.compute.queue=16).
+     */
+    private static final String COMPUTE_THREADS_PROPERTY = "mapserver.compute.threads";
+    private static final String COMPUTE_QUEUE_PROPERTY = "mapserver.compute.queue";
+    /** The pool rasters are rendered on, or null to render them on request threads. */
+    private static volatile ComputePool compute;
+    /** Phase timings, cache statistics and heap gauges, served on /metrics. */
+    static final Metrics METRICS = new Metrics();
+    private static final LongAdder RASTER_FAILURES = new LongAdder();
+    private static boolean metricsRegistered;
     /* Define any static variables here. Do not define any instance variables of MapServer. */
 
 
@@ -89,12 +246,357 @@ public class MapServer {
      * This is for testing purposes, and you may fail tests otherwise.
      **/
     public static void initialize() {
-        graph = new GraphDB(OSM_DB_PATH);
+        /* Only a graph that OSM changes will be applied to needs the nodes on no road. */
+        initialize(GraphSnapshot.load(OSM_DB_PATH,
+            System.getProperty(CHANGES_PROPERTY) != null));
+    }
+
+    /** Initializes the server to route over g rather than the graph of OSM_DB_PATH. */
+    static void initialize(GraphDB g) {
+        graph = g;
+        landmarkCount = Integer.getInteger(LANDMARKS_PROPERTY, 0);
+        contract = Boolean.getBoolean(CONTRACT_PROPERTY);
+        cellSize = Integer.getInteger(PARTITION_PROPERTY, 0);
+        autocompleteLimit = Integer.getInteger(AUTOCOMPLETE_LIMIT_PROPERTY,
+                PrefixIndex.DEFAULT_TOP_K);
+        autocompleteRank = PrefixIndex.Rank.parse(System.getProperty(AUTOCOMPLETE_RANK_PROPERTY));
+        locationIndex = new PrefixIndex(graph, autocompleteRank, Math.max(autocompleteLimit, 1));
         rasterer = new Rasterer();
+        int computeThreads = Integer.getInteger(COMPUTE_THREADS_PROPERTY, 0);
+        if (computeThreads > 0 && compute == null) {
+            compute = new ComputePool(computeThreads,
+                Integer.getInteger(COMPUTE_QUEUE_PROPERTY, 4 * computeThreads));
+        }
+        String packPath = System.getProperty(TILE_PACK_PROPERTY);
+        tilePack = null;
+        if (packPath != null) {
+            try {
+                tilePack = TilePack.open(new File(packPath));
+            } catch (IOException e) {
+                System.err.println("Reading tiles from " + IMG_ROOT + ": " + e.getMessage());
+            }
+        }
+        /* The tiles may now come from elsewhere. */
+        clearCaches();
+        stopWatchingChanges();
+        String changesPath = System.getProperty(CHANGES_PROPERTY);
+        if (changesPath != null) {
+            File changes = new File(changesPath);
+            applyChanges(changes);
+            watchChanges(changes, Long.getLong(CHANGES_POLL_PROPERTY, 10_000));
+        }
+        if (graph == g) {
+            /* No change was applied, so the structures can be read from, or written to, the
+             * files next to the OSM file. Otherwise they are already being built for the
+             * changed graph, and building them for g would be wasted. */
+            try {
+                prepare(g, false);
+            } catch (IOException e) {
+                System.err.println("Could not build routing structures: " + e);
+            }
+        }
+        registerMetrics();
+    }
+
+    /** Drops the decoded tiles and encoded rasters, so that each is read or drawn again. */
+    static void clearCaches() {
+        TILE_CACHE.clear();
+        RASTERS.clear();
+    }
+
+    /**
+     * Returns the server to its state before initialize, with no graph, tile pack, cached
+     * images, routes or change watcher, for tests that share the server with later ones.
+     */
+    static void reset() {
+        stopWatchingChanges();
+        graph = null;
+        locationIndex = null;
+        tilePack = null;
+        clearCaches();
+        ROUTES.clear();
+    }
+
+    /** Polls a directory for OSM change files, replacing the watcher of any other. */
+    private static synchronized void watchChanges(File changes, long poll) {
+        stopWatchingChanges();
+        changeWatcher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "osm-changes");
+            t.setDaemon(true);
+            return t;
+        });
+        /* An exception escaping the task would cancel every later poll. */
+        changeWatcher.scheduleWithFixedDelay(() -> {
+            try {
+                applyChanges(changes);
+            } catch (RuntimeException e) {
+                System.err.println("Checking " + changes + " for OSM changes: " + e);
+            }
+        }, poll, poll, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops polling for OSM change files. A poll already under way finishes, since
+     * interrupting it could leave a good change file set aside as unreadable.
+     */
+    static synchronized void stopWatchingChanges() {
+        if (changeWatcher != null) {
+            changeWatcher.shutdown();
+            changeWatcher = null;
+        }
+    }
+
+    /**
+     * Attaches to g the landmarks, contraction hierarchy and partition that the properties
+     * ask for. The graph of the OSM file reads them from the files next to it, or writes
+     * those files; a changed graph gets new ones, its partition in a temporary file. A
+     * changed graph that has been replaced by the time one is built gets no more of them.
+     * @param g The graph.
+     * @param changed Whether g has OSM changes applied.
+     * @throws IOException If a changed graph's partition cannot be written.
+     */
+    private static void prepare(GraphDB g, boolean changed) throws IOException {
+        if (landmarkCount > 0) {
+            g.setLandmarks(Landmarks.build(g, Math.min(landmarkCount, g.size())));
+        }
+        if (contract && (!changed || graph == g)) {
+            if (changed) {
+                g.setHierarchy(ContractionHierarchy.build(g));
+            } else {
+                GraphSnapshot.loadHierarchy(g, OSM_DB_PATH);
+            }
+        }
+        if (cellSize > 0 && (!changed || graph == g)) {
+            if (changed) {
+                File source = new File(OSM_DB_PATH);
+                File file = File.createTempFile("graph", GraphSnapshot.PARTITION_SUFFIX);
+                GraphSnapshot.writePartition(g, cellSize, file, source);
+                g.setPartition(GraphSnapshot.readPartition(file, source, cellSize,
+                    PartitionedGraph.DEFAULT_CACHE_BYTES));
+                /* The partition keeps the file open, so it can go now where that is allowed. */
+                if (!file.delete()) {
+                    file.deleteOnExit();
+                }
+                if (graph != g) {
+                    retire(g.partition());
+                }
+            } else {
+                GraphSnapshot.loadPartition(g, OSM_DB_PATH, cellSize,
+                    PartitionedGraph.DEFAULT_CACHE_BYTES);
+            }
+        }
+    }
+
+    /** Returns whether g has every routing structure the properties ask for. */
+    private static boolean isPrepared(GraphDB g) {
+        return (landmarkCount == 0 || g.landmarks() != null)
+            && (!contract || g.hierarchy() != null)
+            && (cellSize == 0 || g.partition() != null);
+    }
+
+    /**
+     * Returns the search that routes over g by default: the fastest one that g has the
+     * structures for.
+     */
+    static Router.Algorithm defaultAlgorithm(GraphDB g) {
+        if (g.partition() != null) {
+            return Router.Algorithm.PARTITIONED;
+        } else if (g.hierarchy() != null) {
+            return Router.Algorithm.CH;
+        } else if (g.landmarks() != null) {
+            return Router.Algorithm.ALT;
+        }
+        return Router.Algorithm.ASTAR;
+    }
+
+    /**
+     * Builds the routing structures of the current graph on PREPARER, unless it has them or
+     * a build is already waiting to start, which will build them for the graph current then.
+     */
+    private static void prepareInBackground() {
+        if (isPrepared(graph) || !PREPARE_PENDING.compareAndSet(false, true)) {
+            return;
+        }
+        PREPARER.execute(() -> {
+            PREPARE_PENDING.set(false);
+            GraphDB g = graph;
+            long start = System.nanoTime();
+            try {
+                prepare(g, true);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Could not rebuild routing structures: " + e);
+                return;
+            }
+            if (graph == g) {
+                System.out.println(String.format("Rebuilt routing structures in %.1f s; "
+                    + "routing with %s", (System.nanoTime() - start) / 1e9,
+                    defaultAlgorithm(g)));
+            }
+        });
+    }
+
+    /** Closes a replaced graph's partition once the requests routing over it are done. */
+    private static void retire(PartitionedGraph pg) {
+        if (pg == null) {
+            return;
+        }
+        PREPARER.schedule(() -> {
+            try {
+                pg.close();
+            } catch (IOException e) {
+                System.err.println("Closing a replaced cell partition: " + e);
+            }
+        }, RETIRE_DELAY_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Applies the change files in dir that have not been applied yet, in name order. A file
+     * that cannot be read or applied is reported and set aside until it is rewritten, and
+     * the files after it are still applied, so one bad file neither stops the server from
+     * starting nor holds up later changes. Change files should be written under another
+     * name and then renamed into dir, so that a half-written file is never read.
+     */
+    static synchronized void applyChanges(File dir) {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".osc")
+            || name.endsWith(".osc.gz"));
+        if (files == null) {
+            System.err.println("Cannot list OSM changes in " + dir);
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            String version = file.getPath() + "@" + file.length() + ":" + file.lastModified();
+            if (APPLIED_CHANGES.contains(file.getPath()) || REJECTED_CHANGES.contains(version)) {
+                continue;
+            }
+            try {
+                applyChange(OsmChange.read(file.getPath()));
+            } catch (IOException | RuntimeException e) {
+                REJECTED_CHANGES.add(version);
+                System.err.println("Skipping OSM change " + file + " until it changes: " + e);
+                continue;
+            }
+            APPLIED_CHANGES.add(file.getPath());
+            System.out.println(String.format("Applied %s in %.1f ms", file.getName(),
+                lastChangeNanos / 1e6));
+        }
+    }
+
+    /** Returns the graph requests are routed over right now. */
+    static GraphDB graph() {
+        return graph;
+    }
+
+    /**
+     * Replaces the graph with a copy that has an OSM change applied. Requests that already
+     * read the old graph finish on it; requests that start after this returns see the new
+     * one. The new graph has no landmarks, contraction hierarchy or partition, so routing
+     * uses A* until prepareInBackground has rebuilt them.
+     * @param change The change.
+     */
+    static synchronized void applyChange(OsmChange change) {
+        long start = System.nanoTime();
+        GraphDB old = graph;
+        GraphDB next = old.apply(change);
+        if (next.nameIndex() != old.nameIndex()) {
+            locationIndex = new PrefixIndex(next, autocompleteRank,
+                Math.max(autocompleteLimit, 1));
+        }
+        graph = next;
+        lastChangeNanos = System.nanoTime() - start;
+        METRICS.record(Metrics.Phase.APPLY_CHANGE, start);
+        if (defaultAlgorithm(old) != Router.Algorithm.ASTAR) {
+            System.out.println("Routing with A* until the routing structures are rebuilt for "
+                + "the changed graph");
+        }
+        retire(old.partition());
+        prepareInBackground();
+    }
+
+    /** Adds the cache, session and heap gauges to METRICS, once. */
+    private static synchronized void registerMetrics() {
+        if (metricsRegistered) {
+            return;
+        }
+        metricsRegistered = true;
+        METRICS.counter("mapserver_tile_cache_hits_total", "Tile lookups served from memory.",
+            TILE_CACHE::hits);
+        METRICS.counter("mapserver_tile_cache_misses_total", "Tile lookups decoded from disk.",
+            TILE_CACHE::misses);
+        METRICS.counter("mapserver_tile_cache_evictions_total",
+            "Tiles dropped to stay within the cache budget.", TILE_CACHE::evictions);
+        METRICS.gauge("mapserver_tile_cache_hit_ratio",
+            "Fraction of tile lookups served from memory since startup.", () -> {
+                double hits = TILE_CACHE.hits();
+                double total = hits + TILE_CACHE.misses();
+                return total == 0 ? Double.NaN : hits / total;
+            });
+        METRICS.gauge("mapserver_tile_cache_bytes", "Approximate bytes of decoded tiles held.",
+            TILE_CACHE::usedBytes);
+        METRICS.gauge("mapserver_tile_pack_tiles", "Tiles in the memory-mapped pack, or 0.",
+            () -> tilePack == null ? 0 : tilePack.size());
+        METRICS.counter("mapserver_raster_cache_hits_total",
+            "Rasters served from recently encoded images.", RASTERS::hits);
+        METRICS.counter("mapserver_raster_cache_coalesced_total",
+            "Rasters that waited for an identical request's image.", RASTERS::coalesced);
+        METRICS.counter("mapserver_raster_cache_misses_total", "Rasters encoded.",
+            RASTERS::misses);
+        METRICS.gauge("mapserver_raster_cache_bytes", "Bytes of encoded rasters held.",
+            RASTERS::usedBytes);
+        METRICS.gauge("mapserver_route_sessions", "Clients with a stored route.",
+            ROUTES::size);
+        METRICS.gauge("mapserver_route_sessions_bytes", "Approximate bytes of stored routes.",
+            ROUTES::usedBytes);
+        METRICS.counter("mapserver_route_sessions_evictions_total",
+            "Routes dropped for being idle or to stay within budget.", ROUTES::evictions);
+        METRICS.counter("mapserver_partition_cell_misses_total",
+            "Cells of the partition read from disk.", () -> {
+                PartitionedGraph pg = graph.partition();
+                return pg == null ? 0 : pg.misses();
+            });
+        METRICS.gauge("mapserver_partition_cell_bytes", "Approximate bytes of cells held.",
+            () -> {
+                PartitionedGraph pg = graph.partition();
+                return pg == null ? 0 : pg.usedBytes();
+            });
+        METRICS.gauge("mapserver_graph_vertices", "Vertices of the graph routes are found in.",
+            () -> graph.size());
+        METRICS.gauge("mapserver_routing_prepared", "1 if the graph has all its routing "
+            + "structures, 0 while they are rebuilt after an OSM change.",
+            () -> isPrepared(graph) ? 1 : 0);
+        METRICS.counter("mapserver_osm_changes_total", "OSM change files applied.",
+            APPLIED_CHANGES::size);
+        METRICS.gauge("mapserver_compute_active", "Rasters being rendered on the compute pool.",
+            () -> compute == null ? 0 : compute.active());
+        METRICS.gauge("mapserver_compute_queued", "Rasters waiting for a compute pool thread.",
+            () -> compute == null ? 0 : compute.queued());
+        METRICS.counter("mapserver_compute_rejected_total",
+            "Rasters answered with 503 because the compute pool was full.",
+            () -> compute == null ? 0 : compute.rejected());
+        METRICS.counter("mapserver_raster_failures_total",
+            "Raster queries that Rasterer could not answer.", RASTER_FAILURES::sum);
+        METRICS.heapGauges();
     }
 
     public static void main(String[] args) {
         initialize();
+        serve();
+    }
+
+    /**
+     * Starts serving the endpoints on Spark's port, 4567 unless port() has set another.
+     * Call initialize first.
+     */
+    static void serve() {
+        threadPool(Integer.getInteger(THREADS_PROPERTY, 200));
+        /* A full compute pool turns rasters away, so that a burst is shed at once rather
+         * than queued until every client has timed out. */
+        exception(RejectedExecutionException.class, (e, req, res) -> {
+            res.status(503);
+            res.type("text/plain");
+            res.header("Retry-After", "1");
+            res.body("Too many rasters in progress; retry shortly.");
+        });
         staticFileLocation("/page");
         /* Allow for all origin requests (since this is not an authenticated server, we do not
          * care about CSRF).  */
@@ -109,16 +611,14 @@ public class MapServer {
         get("/raster", (req, res) -> {
             HashMap<String, Double> params =
                     getRequestParams(req, REQUIRED_RASTER_REQUEST_PARAMS);
-            /* The png image is written to the ByteArrayOutputStream */
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
             /* getMapRaster() does almost all the work for this API call */
-            Map<String, Object> rasteredImgParams = rasterer.getMapRaster(params);
+            Map<String, Object> rasteredImgParams = getMapRaster(params);
 
             boolean rasterSuccess = validateRasteredImgParams(rasteredImgParams);
 
             if (rasterSuccess) {
-                writeImagesToOutputStream(rasteredImgParams, os);
-                String encodedImage = Base64.getEncoder().encodeToString(os.toByteArray());
+                byte[] png = getRasterImage(rasteredImgParams, routeLayer(req));
+                String encodedImage = Base64.getEncoder().encodeToString(png);
                 rasteredImgParams.put("b64_encoded_image_data", encodedImage);
             }
 
@@ -127,13 +627,84 @@ public class MapServer {
             return gson.toJson(rasteredImgParams);
         });
 
+        /* Binary raster endpoint: the PNG is streamed as the response body, and the fields
+         * that /raster returns in its Json are sent as headers. This skips the Base64 copy of
+         * the image and the Json string that wraps it. */
+        get("/raster.png", (req, res) -> {
+            HashMap<String, Double> params =
+                    getRequestParams(req, REQUIRED_RASTER_REQUEST_PARAMS);
+            Map<String, Object> rasteredImgParams = getMapRaster(params);
+            if (!validateRasteredImgParams(rasteredImgParams)) {
+                halt(HALT_RESPONSE, "Rastering failed.");
+            }
+            putRasterDimensions(rasteredImgParams);
+            StringBuilder exposed = new StringBuilder();
+            for (String[] field : RASTER_RESULT_HEADERS) {
+                res.header(field[1], String.valueOf(rasteredImgParams.get(field[0])));
+                exposed.append(exposed.length() == 0 ? "" : ", ").append(field[1]);
+            }
+            res.header("Access-Control-Expose-Headers", exposed.toString());
+            res.type("image/png");
+            byte[] png = getRasterImage(rasteredImgParams, routeLayer(req));
+            OutputStream os = res.raw().getOutputStream();
+            os.write(png);
+            os.flush();
+            return res.raw();
+        });
+
+        /* Metadata for a raster query, without any image data. Pairs with /raster.png for
+         * clients that cannot read response headers. */
+        get("/raster_meta", (req, res) -> {
+            HashMap<String, Double> params =
+                    getRequestParams(req, REQUIRED_RASTER_REQUEST_PARAMS);
+            Map<String, Object> rasteredImgParams = getMapRaster(params);
+            if (validateRasteredImgParams(rasteredImgParams)) {
+                putRasterDimensions(rasteredImgParams);
+            }
+            Gson gson = new Gson();
+            return gson.toJson(rasteredImgParams);
+        });
+
+        /* The client's route as simplified polylines clipped to a raster, for clients that
+         * draw the route themselves over a base raster (/raster with layers=base). Takes
+         * the /raster parameters; polylines are lists of [lon, lat] points. */
+        get("/route_overlay", (req, res) -> {
+            HashMap<String, Double> params =
+                    getRequestParams(req, REQUIRED_RASTER_REQUEST_PARAMS);
+            Map<String, Object> rasteredImgParams = getMapRaster(params);
+            Map<String, Object> overlayParams = new HashMap<>();
+            boolean success = validateRasteredImgParams(rasteredImgParams);
+            overlayParams.put("overlay_success", success);
+            if (success) {
+                putRasterDimensions(rasteredImgParams);
+                overlayParams.put("polylines", getRouteOverlay(rasteredImgParams,
+                        ROUTES.get(sessionToken(req))));
+                for (String[] field : RASTER_RESULT_HEADERS) {
+                    overlayParams.put(field[0], rasteredImgParams.get(field[0]));
+                }
+            }
+            Gson gson = new Gson();
+            return gson.toJson(overlayParams);
+        });
+
         /* Define the routing endpoint for HTTP GET requests. */
         get("/route", (req, res) -> {
             HashMap<String, Double> params =
                     getRequestParams(req, REQUIRED_ROUTE_REQUEST_PARAMS);
-            route = Router.shortestPath(graph, params.get("start_lon"), params.get("start_lat"),
-                    params.get("end_lon"), params.get("end_lat"));
-            String directions = getDirectionsText();
+            /* An optional "algorithm" parameter picks the search, e.g. bidirectional. */
+            GraphDB g = graph;
+            Router.Algorithm algorithm = Router.Algorithm.parse(req.queryParams("algorithm"),
+                    defaultAlgorithm(g));
+            long start = System.nanoTime();
+            int from = g.closestIndex(params.get("start_lon"), params.get("start_lat"));
+            int to = g.closestIndex(params.get("end_lon"), params.get("end_lat"));
+            METRICS.record(Metrics.Phase.CLOSEST, start);
+            start = System.nanoTime();
+            int[] path = Router.shortestPath(g, from, to, algorithm);
+            List<Long> route = Router.toIds(g, path);
+            METRICS.record(Metrics.Phase.SHORTEST_PATH, start);
+            ROUTES.put(sessionToken(req, res), route);
+            String directions = getDirectionsText(g, path);
             Map<String, Object> routeParams = new HashMap<>();
             routeParams.put("routing_success", !route.isEmpty());
             routeParams.put("directions_success", directions.length() > 0);
@@ -142,9 +713,74 @@ public class MapServer {
             return gson.toJson(routeParams);
         });
 
+        /* Many-to-many distances: sources and targets are lists of "lon,lat" pairs separated
+         * by ';'. distances[i][j] is the route length in miles from source i to target j,
+         * or null if there is no route. Unlike /route, this does not change the client's
+         * route. There may be at most MAX_MATRIX_LOCATIONS of each. */
+        get("/route_matrix", (req, res) -> {
+            double[][] sources = getLocationsParam(req, "sources");
+            double[][] targets = getLocationsParam(req, "targets");
+            if (sources.length > MAX_MATRIX_LOCATIONS || targets.length > MAX_MATRIX_LOCATIONS) {
+                halt(HALT_RESPONSE, "Request failed - at most " + MAX_MATRIX_LOCATIONS
+                        + " sources and " + MAX_MATRIX_LOCATIONS + " targets.");
+            }
+            double[][] distances = Router.distanceMatrix(graph, sources, targets);
+            Double[][] json = new Double[distances.length][];
+            for (int i = 0; i < distances.length; i += 1) {
+                json[i] = new Double[distances[i].length];
+                for (int j = 0; j < distances[i].length; j += 1) {
+                    double d = distances[i][j];
+                    json[i][j] = d == Double.POSITIVE_INFINITY ? null : d;
+                }
+            }
+            Map<String, Object> matrixParams = new HashMap<>();
+            matrixParams.put("matrix_success", true);
+            matrixParams.put("distances", json);
+            Gson gson = new GsonBuilder().serializeNulls().create();
+            return gson.toJson(matrixParams);
+        });
+
+        /* The area reachable within a number of minutes of driving at the speed limits.
+         * With format=nodes, returns the reachable vertices as parallel arrays of ids, lons,
+         * lats and minutes; otherwise their convex hull as a list of [lon, lat] corners. */
+        get("/isochrone", (req, res) -> {
+            HashMap<String, Double> params =
+                    getRequestParams(req, REQUIRED_ISOCHRONE_REQUEST_PARAMS);
+            GraphDB g = graph;
+            Isochrone reached = Router.isochrone(g, params.get("lon"), params.get("lat"),
+                    params.get("minutes"));
+            Map<String, Object> isochroneParams = new HashMap<>();
+            isochroneParams.put("isochrone_success", reached.size() > 0);
+            if ("nodes".equals(req.queryParams("format"))) {
+                int n = reached.size();
+                long[] ids = new long[n];
+                double[] lons = new double[n];
+                double[] lats = new double[n];
+                double[] minutes = new double[n];
+                for (int i = 0; i < n; i += 1) {
+                    int v = reached.vertex(i);
+                    ids[i] = g.id(v);
+                    lons[i] = g.lonAt(v);
+                    lats[i] = g.latAt(v);
+                    minutes[i] = reached.minutes(i);
+                }
+                isochroneParams.put("ids", ids);
+                isochroneParams.put("lons", lons);
+                isochroneParams.put("lats", lats);
+                isochroneParams.put("minutes", minutes);
+            } else {
+                isochroneParams.put("polygon", reached.hull(g));
+            }
+            Gson gson = new Gson();
+            return gson.toJson(isochroneParams);
+        });
+
         /* Define the API endpoint for clearing the current route. */
         get("/clear_route", (req, res) -> {
-            clearRoute();
+            String token = sessionToken(req);
+            if (token != null) {
+                ROUTES.remove(token);
+            }
             return true;
         });
 
@@ -153,17 +789,35 @@ public class MapServer {
             Set<String> reqParams = req.queryParams();
             String term = req.queryParams("term");
             Gson gson = new Gson();
-            /* Search for actual location data. */
+            long start = System.nanoTime();
+            /* Search for actual location data. With match=words, every location whose name
+             * has all the words of the term matches, rather than just the exact name. */
             if (reqParams.contains("full")) {
-                List<Map<String, Object>> data = getLocations(term);
+                double lon = (ROOT_ULLON + ROOT_LRLON) / 2;
+                double lat = (ROOT_ULLAT + ROOT_LRLAT) / 2;
+                if (reqParams.containsAll(Arrays.asList(VIEWPORT_PARAMS))) {
+                    Map<String, Double> viewport = getRequestParams(req, VIEWPORT_PARAMS);
+                    lon = (viewport.get("ullon") + viewport.get("lrlon")) / 2;
+                    lat = (viewport.get("ullat") + viewport.get("lrlat")) / 2;
+                }
+                List<Map<String, Object>> data = getLocations(term,
+                        "words".equals(req.queryParams("match")), lon, lat);
+                METRICS.record(Metrics.Phase.SEARCH, start);
                 return gson.toJson(data);
             } else {
                 /* Search for prefix matching strings. */
                 List<String> matches = getLocationsByPrefix(term);
+                METRICS.record(Metrics.Phase.SEARCH, start);
                 return gson.toJson(matches);
             }
         });
 
+        /* Metrics in the Prometheus text format, for scraping. */
+        get("/metrics", (req, res) -> {
+            res.type(Metrics.CONTENT_TYPE);
+            return METRICS.scrape();
+        });
+
         /* Define map application redirect */
         get("/", (request, response) -> {
             response.redirect("/map.html", 301);
@@ -180,6 +834,7 @@ public class MapServer {
      */
     private static HashMap<String, Double> getRequestParams(
             spark.Request req, String[] requiredParams) {
+        long start = System.nanoTime();
         Set<String> reqParams = req.queryParams();
         HashMap<String, Double> params = new HashMap<>();
         for (String param : requiredParams) {
@@ -194,35 +849,52 @@ public class MapServer {
                 }
             }
         }
+        METRICS.record(Metrics.Phase.REQUEST_PARSING, start);
         return params;
     }
 
+    /**
+     * Parses a request parameter holding a list of locations, "lon,lat;lon,lat;...".
+     * Halts the request if the parameter is missing or malformed.
+     * @return The {longitude, latitude} of each location.
+     */
+    private static double[][] getLocationsParam(spark.Request req, String name) {
+        String value = req.queryParams(name);
+        if (value == null || value.isEmpty()) {
+            halt(HALT_RESPONSE, "Request failed - parameters missing.");
+        }
+        String[] pairs = value.split(";");
+        double[][] locations = new double[pairs.length][];
+        for (int i = 0; i < pairs.length; i += 1) {
+            String[] lonLat = pairs[i].split(",");
+            try {
+                if (lonLat.length != 2) {
+                    throw new NumberFormatException(pairs[i]);
+                }
+                locations[i] = new double[]{Double.parseDouble(lonLat[0].trim()),
+                    Double.parseDouble(lonLat[1].trim())};
+            } catch (NumberFormatException e) {
+                halt(HALT_RESPONSE, "Incorrect parameters - provide lon,lat pairs.");
+            }
+        }
+        return locations;
+    }
+
     /**
      * Writes the images corresponding to rasteredImgParams to the output stream.
      * In Spring 2016, students had to do this on their own, but in 2017,
      * we have made this into provided code since it was just a bit too low level.
      */
     private static void writeImagesToOutputStream(Map<String, Object> rasteredImageParams,
-                                                  ByteArrayOutputStream os) {
+                                                  List<Long> route, OutputStream os) {
         String[][] renderGrid = (String[][]) rasteredImageParams.get("render_grid");
-        int numVertTiles = renderGrid.length;
-        int numHorizTiles = renderGrid[0].length;
-
-        BufferedImage img = new BufferedImage(numHorizTiles * MapServer.TILE_SIZE,
-                numVertTiles * MapServer.TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+        long start = System.nanoTime();
+        /* On a compute pool thread the tiles are drawn on that thread, as forking them onto
+         * the common pool would let rasters use more cores than the compute pool has. */
+        BufferedImage img = compute == null ? COMPOSITOR.composite(renderGrid)
+                : COMPOSITOR.compositeSequential(renderGrid);
+        METRICS.record(Metrics.Phase.COMPOSITE, start);
         Graphics graphic = img.getGraphics();
-        int x = 0, y = 0;
-
-        for (int r = 0; r < numVertTiles; r += 1) {
-            for (int c = 0; c < numHorizTiles; c += 1) {
-                graphic.drawImage(getImage(IMG_ROOT + renderGrid[r][c]), x, y, null);
-                x += MapServer.TILE_SIZE;
-                if (x >= img.getWidth()) {
-                    x = 0;
-                    y += MapServer.TILE_SIZE;
-                }
-            }
-        }
 
         /* If there is a route, draw it. */
         double ullon = (double) rasteredImageParams.get("raster_ul_lon"); //tiles.get(0).ulp;
@@ -230,62 +902,210 @@ public class MapServer {
         double lrlon = (double) rasteredImageParams.get("raster_lr_lon"); //tiles.get(0).ulp;
         double lrlat = (double) rasteredImageParams.get("raster_lr_lat"); //tiles.get(0).ulp;
 
-        final double wdpp = (lrlon - ullon) / img.getWidth();
-        final double hdpp = (ullat - lrlat) / img.getHeight();
         if (route != null && !route.isEmpty()) {
             Graphics2D g2d = (Graphics2D) graphic;
             g2d.setColor(MapServer.ROUTE_STROKE_COLOR);
             g2d.setStroke(new BasicStroke(MapServer.ROUTE_STROKE_WIDTH_PX,
                     BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-            route.stream().reduce((v, w) -> {
-                g2d.drawLine((int) ((graph.lon(v) - ullon) * (1 / wdpp)),
-                             (int) ((ullat - graph.lat(v)) * (1 / hdpp)),
-                             (int) ((graph.lon(w) - ullon) * (1 / wdpp)),
-                             (int) ((ullat - graph.lat(w)) * (1 / hdpp)));
-                return w;
-            });
+            /* Only the simplified part of the route that shows is drawn. */
+            for (double[] line : RouteOverlay.polylines(graph, route, ullon, ullat, lrlon, lrlat,
+                    img.getWidth(), img.getHeight(), ROUTE_STROKE_WIDTH_PX,
+                    RouteOverlay.DEFAULT_TOLERANCE_PX)) {
+                int n = line.length / 2;
+                int[] xs = new int[n];
+                int[] ys = new int[n];
+                for (int i = 0; i < n; i += 1) {
+                    xs[i] = (int) line[2 * i];
+                    ys[i] = (int) line[2 * i + 1];
+                }
+                g2d.drawPolyline(xs, ys, n);
+            }
         }
 
         rasteredImageParams.put("raster_width", img.getWidth());
         rasteredImageParams.put("raster_height", img.getHeight());
 
+        start = System.nanoTime();
         try {
             ImageIO.write(img, "png", os);
         } catch (IOException e) {
             e.printStackTrace();
         }
+        METRICS.record(Metrics.Phase.PNG_ENCODE, start);
+
+    }
 
+    /**
+     * Returns the route to draw on a raster: the client's route, or none if the request
+     * asks for only the base tiles with layers=base. Base rasters are the same for every
+     * client, so RASTERS shares them between all of them.
+     */
+    private static List<Long> routeLayer(spark.Request req) {
+        if ("base".equals(req.queryParams("layers"))) {
+            return Collections.emptyList();
+        }
+        return ROUTES.get(sessionToken(req));
+    }
+
+    /**
+     * Returns the part of a route that shows on a validated raster result with its
+     * dimensions, simplified at the raster's resolution.
+     * @return The polylines, each a list of {longitude, latitude} points.
+     */
+    private static List<double[][]> getRouteOverlay(Map<String, Object> rasteredImageParams,
+                                                    List<Long> route) {
+        double ullon = (double) rasteredImageParams.get("raster_ul_lon");
+        double ullat = (double) rasteredImageParams.get("raster_ul_lat");
+        double lrlon = (double) rasteredImageParams.get("raster_lr_lon");
+        double lrlat = (double) rasteredImageParams.get("raster_lr_lat");
+        int width = (int) rasteredImageParams.get("raster_width");
+        int height = (int) rasteredImageParams.get("raster_height");
+        double wdpp = (lrlon - ullon) / width;
+        double hdpp = (ullat - lrlat) / height;
+        List<double[][]> polylines = new ArrayList<>();
+        for (double[] line : RouteOverlay.polylines(graph, route, ullon, ullat, lrlon, lrlat,
+                width, height, ROUTE_STROKE_WIDTH_PX, RouteOverlay.DEFAULT_TOLERANCE_PX)) {
+            double[][] points = new double[line.length / 2][];
+            for (int i = 0; i < points.length; i += 1) {
+                points[i] = new double[] {ullon + line[2 * i] * wdpp,
+                    ullat - line[2 * i + 1] * hdpp};
+            }
+            polylines.add(points);
+        }
+        return polylines;
+    }
+
+    /**
+     * Returns the PNG for a validated raster result with a route drawn on it. Identical
+     * concurrent requests share one rendering through RASTERS, which also keeps each image
+     * for a short time; the key is the raster's depth and bounds, which determine its tiles,
+     * and the route's fingerprint. Also adds the raster's dimensions to rasteredImageParams.
+     */
+    private static byte[] getRasterImage(Map<String, Object> rasteredImageParams,
+                                         List<Long> route) {
+        putRasterDimensions(rasteredImageParams);
+        String key = rasteredImageParams.get("depth") + ":"
+                + rasteredImageParams.get("raster_ul_lon") + ":"
+                + rasteredImageParams.get("raster_ul_lat") + ":"
+                + rasteredImageParams.get("raster_lr_lon") + ":"
+                + rasteredImageParams.get("raster_lr_lat") + ":"
+                + Long.toHexString(RasterCache.fingerprint(route));
+        return RASTERS.get(key, () -> renderRaster(rasteredImageParams, route));
+    }
+
+    /**
+     * Renders the PNG for a validated raster result. With a compute pool, the tiles are read
+     * on the calling request thread, where waiting for the disk takes no compute thread, and
+     * the pool composites and encodes them.
+     * @throws RejectedExecutionException If the compute pool is full.
+     */
+    private static byte[] renderRaster(Map<String, Object> rasteredImageParams,
+                                       List<Long> route) {
+        ComputePool pool = compute;
+        if (pool == null) {
+            return encodeRaster(rasteredImageParams, route);
+        }
+        for (String[] row : (String[][]) rasteredImageParams.get("render_grid")) {
+            for (String tile : row) {
+                getImage(IMG_ROOT + tile);
+            }
+        }
+        long queued = System.nanoTime();
+        return pool.call(() -> {
+            METRICS.record(Metrics.Phase.COMPUTE_WAIT, queued);
+            return encodeRaster(rasteredImageParams, route);
+        });
+    }
+
+    private static byte[] encodeRaster(Map<String, Object> rasteredImageParams,
+                                       List<Long> route) {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        writeImagesToOutputStream(rasteredImageParams, route, os);
+        return os.toByteArray();
+    }
+
+    /**
+     * Adds the "raster_width" and "raster_height" fields, in pixels, of the image that
+     * writeImagesToOutputStream will produce for these rastered parameters.
+     */
+    private static void putRasterDimensions(Map<String, Object> rasteredImageParams) {
+        String[][] renderGrid = (String[][]) rasteredImageParams.get("render_grid");
+        rasteredImageParams.put("raster_width", renderGrid[0].length * MapServer.TILE_SIZE);
+        rasteredImageParams.put("raster_height", renderGrid.length * MapServer.TILE_SIZE);
     }
 
     private static BufferedImage getImage(String imgPath) {
-        BufferedImage tileImg = null;
-        if (tileImg == null) {
-            try {
-                File in = new File(imgPath);
-                tileImg = ImageIO.read(in);
-            } catch (IOException | NullPointerException e) {
-                e.printStackTrace();
+        long start = System.nanoTime();
+        BufferedImage img = TILE_CACHE.get(imgPath);
+        METRICS.record(Metrics.Phase.TILE_LOAD, start);
+        return img;
+    }
+
+    /**
+     * Decodes a tile for TILE_CACHE from the tile pack, if there is one and it has the tile,
+     * or else from its file.
+     */
+    private static BufferedImage loadTile(String imgPath) {
+        TilePack pack = tilePack;
+        if (pack != null && imgPath.startsWith(IMG_ROOT)) {
+            BufferedImage img = pack.image(imgPath.substring(IMG_ROOT.length()));
+            if (img != null) {
+                return img;
             }
         }
-        return tileImg;
+        return TileCache.read(imgPath);
+    }
+
+    /** Runs Rasterer.getMapRaster, timing it. */
+    private static Map<String, Object> getMapRaster(Map<String, Double> params) {
+        long start = System.nanoTime();
+        Map<String, Object> rasteredImgParams = rasterer.getMapRaster(params);
+        METRICS.record(Metrics.Phase.GET_MAP_RASTER, start);
+        return rasteredImgParams;
     }
 
     /**
-     * Clear the current found route, if it exists.
+     * Clear the current found route of every client.
      */
     public static void clearRoute() {
-        route = new LinkedList<Long>();
+        ROUTES.clear();
+    }
+
+    /**
+     * Returns the session token a request carries, from its query string or its cookie.
+     * @return The token, or null if the request has none.
+     */
+    private static String sessionToken(spark.Request req) {
+        String token = req.queryParams(SESSION_PARAM);
+        return token != null ? token : req.cookie(SESSION_COOKIE);
     }
 
     /**
-     * In linear time, collect all the names of OSM locations that prefix-match the query string.
+     * Returns the session token a request carries, starting a new session with a fresh
+     * token in a cookie if it has none.
+     */
+    private static String sessionToken(spark.Request req, spark.Response res) {
+        String token = sessionToken(req);
+        if (token == null) {
+            token = RouteSessions.newToken();
+            res.cookie("/", SESSION_COOKIE, token, -1, false);
+        }
+        return token;
+    }
+
+    /**
+     * Collect the names of the best-ranked OSM locations that prefix-match the query string,
+     * at most mapserver.autocomplete.limit of them, without scanning every location.
      * @param prefix Prefix string to be searched for. Could be any case, with our without
      *               punctuation.
      * @return A <code>List</code> of the full names of locations whose cleaned name matches the
      * cleaned <code>prefix</code>.
      */
     public static List<String> getLocationsByPrefix(String prefix) {
-        return new LinkedList<>();
+        if (prefix == null) {
+            return new LinkedList<>();
+        }
+        return locationIndex.complete(prefix, autocompleteLimit);
     }
 
     /**
@@ -301,24 +1121,70 @@ public class MapServer {
      * "id" : Number, The id of the node. <br>
      */
     public static List<Map<String, Object>> getLocations(String locationName) {
-        return new LinkedList<>();
+        return getLocations(locationName, false, (ROOT_ULLON + ROOT_LRLON) / 2,
+                (ROOT_ULLAT + ROOT_LRLAT) / 2);
+    }
+
+    /**
+     * Collect the locations matching a query from the graph's name index, nearest first.
+     * @param query The name, or words of the name, of the locations searched for.
+     * @param allWords Whether to match every location whose cleaned name contains each word
+     *                 of the cleaned query, rather than only those whose cleaned name is the
+     *                 cleaned query.
+     * @param lon Longitude to sort the locations by distance from, e.g. the viewport center.
+     * @param lat Latitude to sort the locations by distance from.
+     * @return The locations, as described for getLocations(String).
+     */
+    static List<Map<String, Object>> getLocations(String query, boolean allWords, double lon,
+                                                  double lat) {
+        List<Map<String, Object>> result = new ArrayList<>();
+        if (query == null) {
+            return result;
+        }
+        GraphDB g = graph;
+        NameIndex index = g.nameIndex();
+        long[] ids = allWords ? index.allTokens(query) : index.exact(query);
+        int[] locations = new int[ids.length];
+        double[] distances = new double[ids.length];
+        for (int i = 0; i < ids.length; i += 1) {
+            int location = index.location(ids[i]);
+            locations[i] = location;
+            distances[i] = GraphDB.distance(lon, lat, g.locationLon(location),
+                    g.locationLat(location));
+        }
+        Integer[] order = new Integer[ids.length];
+        for (int i = 0; i < ids.length; i += 1) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(distances[a], distances[b]));
+        for (int i : order) {
+            int location = locations[i];
+            Map<String, Object> match = new HashMap<>();
+            match.put("lat", g.locationLat(location));
+            match.put("lon", g.locationLon(location));
+            match.put("name", g.locationName(location));
+            match.put("id", g.locationId(location));
+            result.add(match);
+        }
+        return result;
     }
 
     /**
-     * Validates that Rasterer has returned a result that can be rendered.
+     * Validates that Rasterer has returned a result that can be rendered. Failures are
+     * counted in RASTER_FAILURES rather than logged, since clients cause most of them.
      * @param rip : Parameters provided by the rasterer
      */
     private static boolean validateRasteredImgParams(Map<String, Object> rip) {
         for (String p : REQUIRED_RASTER_RESULT_PARAMS) {
             if (!rip.containsKey(p)) {
-                System.out.println("Your rastering result is missing the " + p + " field.");
+                RASTER_FAILURES.increment();
                 return false;
             }
         }
         if (rip.containsKey("query_success")) {
             boolean success = (boolean) rip.get("query_success");
             if (!success) {
-                System.out.println("query_success was reported as a failure");
+                RASTER_FAILURES.increment();
                 return false;
             }
         }
@@ -326,11 +1192,13 @@ public class MapServer {
     }
 
     /**
-     * Takes the route of this MapServer and converts it into an HTML friendly
+     * Takes a route found by this MapServer and converts it into an HTML friendly
      * String to be passed to the frontend.
      */
-    private static String getDirectionsText() {
-        List<Router.NavigationDirection> directions = Router.routeDirections(graph, route);
+    private static String getDirectionsText(GraphDB g, int[] path) {
+        long start = System.nanoTime();
+        List<Router.NavigationDirection> directions = Router.routeDirections(g, path);
+        METRICS.record(Metrics.Phase.ROUTE_DIRECTIONS, start);
         if (directions == null || directions.isEmpty()) {
           return "";
         }
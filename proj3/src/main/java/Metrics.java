@@ -0,0 +1,166 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Server metrics in the Prometheus text exposition format, so that /metrics can be scraped
+ * by Prometheus or read with curl. There is one LatencyHistogram per phase of request
+ * handling, exported as mapserver_phase_seconds with a phase label, plus any number of
+ * gauges and counters that are read from their owners, such as TileCache, only when the
+ * metrics are written.
+ *
+ * Recording a phase never takes a lock; only registering a gauge and writing the metrics
+ * synchronize on this object.
+ */
+public class Metrics {
+    /** Content type of the text exposition format. */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final String PHASE_METRIC = "mapserver_phase_seconds";
+
+    /** The timed phases of request handling. */
+    public enum Phase {
+        /** Validating and converting query parameters. */
+        REQUEST_PARSING,
+        /** Rasterer.getMapRaster: choosing the tiles of a raster. */
+        GET_MAP_RASTER,
+        /** Fetching one tile image, from the cache or decoded from disk. */
+        TILE_LOAD,
+        /** Stitching the tiles of a raster into one image, tile loads included. */
+        COMPOSITE,
+        /** Encoding a raster, route included, as PNG. */
+        PNG_ENCODE,
+        /** Waiting in the compute pool's queue for a thread to render a raster. */
+        COMPUTE_WAIT,
+        /** Snapping a location to its closest vertex. */
+        CLOSEST,
+        /** Searching for a route between two vertices. */
+        SHORTEST_PATH,
+        /** Turning a route into navigation directions. */
+        ROUTE_DIRECTIONS,
+        /** Answering an autocomplete or location search. */
+        SEARCH,
+        /** Applying an OSM change file to a copy of the graph. */
+        APPLY_CHANGE;
+
+        /** Returns the phase's label value, e.g. "get_map_raster". */
+        public String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final LatencyHistogram[] phases = new LatencyHistogram[Phase.values().length];
+    private final List<Sample> samples = new ArrayList<>();
+
+    /** A gauge or counter, read when the metrics are written. */
+    private static class Sample {
+        final String name;
+        final String help;
+        final String type;
+        final DoubleSupplier value;
+
+        Sample(String name, String help, String type, DoubleSupplier value) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.value = value;
+        }
+    }
+
+    public Metrics() {
+        for (int i = 0; i < phases.length; i += 1) {
+            phases[i] = new LatencyHistogram();
+        }
+    }
+
+    /** Returns the histogram of a phase. */
+    public LatencyHistogram histogram(Phase phase) {
+        return phases[phase.ordinal()];
+    }
+
+    /**
+     * Records the time a phase took.
+     * @param phase The phase.
+     * @param startNanos The System.nanoTime() reading taken when the phase began.
+     */
+    public void record(Phase phase, long startNanos) {
+        phases[phase.ordinal()].recordSince(startNanos);
+    }
+
+    /**
+     * Adds a gauge, a value that can go up and down such as a cache's size.
+     * @param name The metric name, e.g. "mapserver_tile_cache_bytes".
+     * @param help One line describing the metric.
+     * @param value Reads the current value.
+     */
+    public synchronized void gauge(String name, String help, DoubleSupplier value) {
+        samples.add(new Sample(name, help, "gauge", value));
+    }
+
+    /**
+     * Adds a counter, a value that only goes up such as a number of cache hits. By
+     * convention its name ends in "_total".
+     */
+    public synchronized void counter(String name, String help, DoubleSupplier value) {
+        samples.add(new Sample(name, help, "counter", value));
+    }
+
+    /**
+     * Adds the standard heap gauges: bytes used, committed and the maximum heap size.
+     */
+    public void heapGauges() {
+        Runtime runtime = Runtime.getRuntime();
+        gauge("jvm_heap_used_bytes", "Bytes of heap in use.",
+            () -> runtime.totalMemory() - runtime.freeMemory());
+        gauge("jvm_heap_committed_bytes", "Bytes of heap reserved from the OS.",
+            runtime::totalMemory);
+        gauge("jvm_heap_max_bytes", "Largest size the heap may grow to.", runtime::maxMemory);
+    }
+
+    /** Returns every metric in the text exposition format. */
+    public synchronized String scrape() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# HELP ").append(PHASE_METRIC)
+            .append(" Time spent in each phase of request handling.\n");
+        sb.append("# TYPE ").append(PHASE_METRIC).append(" histogram\n");
+        for (Phase phase : Phase.values()) {
+            LatencyHistogram h = histogram(phase);
+            String label = "{phase=\"" + phase.label() + "\"";
+            long cumulative = 0;
+            for (int i = 0; i < h.bucketCount(); i += 1) {
+                cumulative += h.bucket(i);
+                String le = i == h.bucketCount() - 1 ? "+Inf" : seconds(h.bound(i));
+                sb.append(PHASE_METRIC).append("_bucket").append(label)
+                    .append(",le=\"").append(le).append("\"} ").append(cumulative).append('\n');
+            }
+            sb.append(PHASE_METRIC).append("_sum").append(label).append("} ")
+                .append(seconds(h.sumNanos())).append('\n');
+            sb.append(PHASE_METRIC).append("_count").append(label).append("} ")
+                .append(cumulative).append('\n');
+        }
+        for (Sample s : samples) {
+            sb.append("# HELP ").append(s.name).append(' ').append(s.help).append('\n');
+            sb.append("# TYPE ").append(s.name).append(' ').append(s.type).append('\n');
+            sb.append(s.name).append(' ').append(number(s.value.getAsDouble())).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /** Formats a duration in nanoseconds as seconds, without trailing zeros. */
+    private static String seconds(long nanos) {
+        return number(nanos / 1e9);
+    }
+
+    /** Formats a sample value, using the exposition format's spellings of NaN and Inf. */
+    private static String number(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        } else if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+}
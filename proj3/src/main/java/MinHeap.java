@@ -0,0 +1,88 @@
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of int items keyed by double priorities, stored in two parallel
+ * primitive arrays. There is no decrease-key: an item whose priority improves is pushed
+ * again, and searches skip the stale copy when it is popped. For graph searches this is
+ * usually faster than an indexed heap, and it never boxes a vertex or a priority.
+ */
+class MinHeap {
+    private int[] items;
+    private double[] keys;
+    private int size;
+
+    MinHeap() {
+        this(64);
+    }
+
+    MinHeap(int capacity) {
+        items = new int[Math.max(1, capacity)];
+        keys = new double[items.length];
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** Removes every item, keeping the arrays for reuse. */
+    void clear() {
+        size = 0;
+    }
+
+    /** Adds item with the given priority. */
+    void push(int item, double key) {
+        if (size == items.length) {
+            items = Arrays.copyOf(items, size * 2);
+            keys = Arrays.copyOf(keys, size * 2);
+        }
+        int i = size;
+        size += 1;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (keys[parent] <= key) {
+                break;
+            }
+            items[i] = items[parent];
+            keys[i] = keys[parent];
+            i = parent;
+        }
+        items[i] = item;
+        keys[i] = key;
+    }
+
+    /** Returns the smallest priority in the heap. The heap must not be empty. */
+    double peekKey() {
+        return keys[0];
+    }
+
+    /** Removes and returns the item with the smallest priority. The heap must not be empty. */
+    int pop() {
+        int top = items[0];
+        size -= 1;
+        int item = items[size];
+        double key = keys[size];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && keys[child + 1] < keys[child]) {
+                child += 1;
+            }
+            if (key <= keys[child]) {
+                break;
+            }
+            items[i] = items[child];
+            keys[i] = keys[child];
+            i = child;
+        }
+        items[i] = item;
+        keys[i] = key;
+        return top;
+    }
+}
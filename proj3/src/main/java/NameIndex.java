@@ -0,0 +1,279 @@
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * An inverted index over the names of a GraphDB's locations. Each distinct cleaned name
+ * (see GraphDB.cleanString) and each distinct word of a cleaned name is a key, mapped to a
+ * posting list of the OSM ids of the nodes that have it, sorted ascending. All posting
+ * lists of one kind are stored back to back in a single long[], with an int[] of offsets,
+ * so a lookup is a binary search over the keys and a copy of one range.
+ *
+ * The index is filled in by a Builder while the OSM file is parsed, one name at a time, and
+ * frozen when the graph is cleaned.
+ */
+public class NameIndex {
+    /** The distinct cleaned names, sorted, and their postings. */
+    private final String[] names;
+    private final int[] nameStart;
+    private final long[] namePostings;
+    /** The distinct words of the cleaned names, sorted, and their postings. */
+    private final String[] tokens;
+    private final int[] tokenStart;
+    private final long[] tokenPostings;
+    /** The location index of each indexed node id. */
+    private final LongIntHashMap locations;
+
+    private NameIndex(Postings names, Postings tokens, LongIntHashMap locations) {
+        this.names = names.keys;
+        this.nameStart = names.starts;
+        this.namePostings = names.ids;
+        this.tokens = tokens.keys;
+        this.tokenStart = tokens.starts;
+        this.tokenPostings = tokens.ids;
+        this.locations = locations;
+    }
+
+    /** Returns the number of distinct cleaned names. */
+    public int size() {
+        return names.length;
+    }
+
+    /** Returns the number of distinct words. */
+    public int tokenCount() {
+        return tokens.length;
+    }
+
+    /**
+     * Returns the nodes whose cleaned name is exactly the cleaned name given.
+     * @param name The name, in any case and with or without punctuation.
+     * @return OSM ids, ascending.
+     */
+    public long[] exact(String name) {
+        return postings(names, nameStart, namePostings, GraphDB.cleanString(name));
+    }
+
+    /**
+     * Returns the nodes whose cleaned name contains every word of the cleaned query, in any
+     * order. The posting lists are intersected shortest first, so the cost follows the
+     * rarest word rather than the most common one.
+     * @param query The words, in any case and with or without punctuation.
+     * @return OSM ids, ascending; none if the query has no words.
+     */
+    public long[] allTokens(String query) {
+        String[] words = words(GraphDB.cleanString(query));
+        if (words.length == 0) {
+            return new long[0];
+        }
+        long[][] lists = new long[words.length][];
+        for (int i = 0; i < words.length; i += 1) {
+            lists[i] = postings(tokens, tokenStart, tokenPostings, words[i]);
+        }
+        Arrays.sort(lists, (a, b) -> Integer.compare(a.length, b.length));
+        long[] result = lists[0];
+        for (int i = 1; i < lists.length && result.length > 0; i += 1) {
+            result = intersect(result, lists[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the location index in the graph of a node returned by exact or allTokens.
+     * @param id The OSM id of the node.
+     * @return The index of its location, or -1 if it has none.
+     */
+    public int location(long id) {
+        int i = locations.get(id);
+        return i == LongIntHashMap.MISSING ? -1 : i;
+    }
+
+    /** Returns a copy of the postings of key, or an empty array if there is no such key. */
+    private static long[] postings(String[] keys, int[] starts, long[] ids, String key) {
+        int k = Arrays.binarySearch(keys, key);
+        if (k < 0) {
+            return new long[0];
+        }
+        return Arrays.copyOfRange(ids, starts[k], starts[k + 1]);
+    }
+
+    /**
+     * Returns the ids in both sorted lists, walking the shorter one and galloping through
+     * the longer one, so a short list costs little against a long one.
+     */
+    static long[] intersect(long[] shorter, long[] longer) {
+        long[] result = new long[shorter.length];
+        int n = 0;
+        int lo = 0;
+        for (long id : shorter) {
+            /* Double the step until it passes id, then binary search the last step. */
+            int step = 1;
+            int hi = lo;
+            while (hi < longer.length && longer[hi] < id) {
+                lo = hi + 1;
+                hi += step;
+                step *= 2;
+            }
+            int i = Arrays.binarySearch(longer, lo, Math.min(hi + 1, longer.length), id);
+            if (i >= 0) {
+                result[n] = id;
+                n += 1;
+                lo = i + 1;
+            } else {
+                lo = -i - 1;
+            }
+            if (lo >= longer.length) {
+                break;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Splits a cleaned name into its words, dropping empty ones. */
+    static String[] words(String cleaned) {
+        String[] words = new String[cleaned.length() / 2 + 1];
+        int n = 0;
+        int start = 0;
+        for (int i = 0; i <= cleaned.length(); i += 1) {
+            if (i == cleaned.length() || cleaned.charAt(i) == ' ') {
+                if (i > start) {
+                    words[n] = cleaned.substring(start, i);
+                    n += 1;
+                }
+                start = i + 1;
+            }
+        }
+        return Arrays.copyOf(words, n);
+    }
+
+    /**
+     * Collects (name, id) pairs as names are parsed. Keys are numbered in the order they
+     * are first seen, and each pair is appended as a key number and an id, so adding a
+     * name is a hash lookup per word and no list is allocated per key.
+     */
+    static class Builder {
+        private final Postings.Collector names = new Postings.Collector();
+        private final Postings.Collector tokens = new Postings.Collector();
+
+        /**
+         * Indexes a named node. Names that clean to the empty string are ignored.
+         * @param id The OSM id of the node.
+         * @param name The name as it appears in the OSM file.
+         */
+        void add(long id, String name) {
+            String cleaned = GraphDB.cleanString(name);
+            if (cleaned.isEmpty()) {
+                return;
+            }
+            names.add(cleaned, id);
+            for (String word : words(cleaned)) {
+                tokens.add(word, id);
+            }
+        }
+
+        /**
+         * Freezes the index.
+         * @param locationIds The OSM id of each of the graph's locations, in location order.
+         *                    Ids that are not among them are dropped from the postings.
+         * @return The index.
+         */
+        NameIndex build(long[] locationIds) {
+            LongIntHashMap locations = new LongIntHashMap(locationIds.length);
+            for (int i = locationIds.length - 1; i >= 0; i -= 1) {
+                locations.put(locationIds[i], i);
+            }
+            return new NameIndex(names.build(locations), tokens.build(locations), locations);
+        }
+    }
+
+    /** Sorted keys, each with a sorted, duplicate-free range of ids in one long[]. */
+    private static class Postings {
+        String[] keys;
+        int[] starts;
+        long[] ids;
+
+        /** Growable (key number, id) pairs. */
+        private static class Collector {
+            private final HashMap<String, Integer> numbers = new HashMap<>();
+            private String[] keys = new String[64];
+            private int[] pairKeys = new int[256];
+            private long[] pairIds = new long[256];
+            private int pairCount;
+
+            void add(String key, long id) {
+                Integer k = numbers.get(key);
+                if (k == null) {
+                    k = numbers.size();
+                    numbers.put(key, k);
+                    if (k == keys.length) {
+                        keys = Arrays.copyOf(keys, k * 2);
+                    }
+                    keys[k] = key;
+                }
+                if (pairCount == pairIds.length) {
+                    pairKeys = Arrays.copyOf(pairKeys, pairCount * 2);
+                    pairIds = Arrays.copyOf(pairIds, pairCount * 2);
+                }
+                pairKeys[pairCount] = k;
+                pairIds[pairCount] = id;
+                pairCount += 1;
+            }
+
+            /** Buckets the pairs by key in alphabetical order, then sorts each bucket. */
+            Postings build(LongIntHashMap locations) {
+                int k = numbers.size();
+                Integer[] byKey = new Integer[k];
+                for (int i = 0; i < k; i += 1) {
+                    byKey[i] = i;
+                }
+                Arrays.sort(byKey, (a, b) -> keys[a].compareTo(keys[b]));
+                int[] rank = new int[k];
+                for (int i = 0; i < k; i += 1) {
+                    rank[byKey[i]] = i;
+                }
+
+                int[] counts = new int[k + 1];
+                for (int p = 0; p < pairCount; p += 1) {
+                    counts[rank[pairKeys[p]] + 1] += 1;
+                }
+                for (int i = 0; i < k; i += 1) {
+                    counts[i + 1] += counts[i];
+                }
+                long[] bucketed = new long[pairCount];
+                int[] next = Arrays.copyOf(counts, k);
+                for (int p = 0; p < pairCount; p += 1) {
+                    int r = rank[pairKeys[p]];
+                    bucketed[next[r]] = pairIds[p];
+                    next[r] += 1;
+                }
+
+                Postings postings = new Postings();
+                postings.keys = new String[k];
+                postings.starts = new int[k + 1];
+                postings.ids = new long[pairCount];
+                int keyCount = 0;
+                int n = 0;
+                for (int r = 0; r < k; r += 1) {
+                    Arrays.sort(bucketed, counts[r], counts[r + 1]);
+                    int start = n;
+                    for (int i = counts[r]; i < counts[r + 1]; i += 1) {
+                        long id = bucketed[i];
+                        boolean repeat = n > start && postings.ids[n - 1] == id;
+                        if (!repeat && locations.get(id) != LongIntHashMap.MISSING) {
+                            postings.ids[n] = id;
+                            n += 1;
+                        }
+                    }
+                    if (n > start) {
+                        postings.keys[keyCount] = keys[byKey[r]];
+                        postings.starts[keyCount] = start;
+                        keyCount += 1;
+                    }
+                }
+                postings.starts[keyCount] = n;
+                postings.keys = Arrays.copyOf(postings.keys, keyCount);
+                postings.starts = Arrays.copyOf(postings.starts, keyCount + 1);
+                postings.ids = Arrays.copyOf(postings.ids, n);
+                return postings;
+            }
+        }
+    }
+}
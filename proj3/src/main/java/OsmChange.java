@@ -0,0 +1,229 @@
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+/**
+ * The node and way changes of an OSM change file (.osc), as published in the minutely,
+ * hourly and daily replication diffs, ready for GraphDB.apply. Only the last change to
+ * each node and each way is kept, so applying a file is the same as applying its changes
+ * one by one, and applying it twice is the same as applying it once.
+ *
+ * Created and modified elements are both treated as the element's new state. A way that
+ * is not, or is no longer, a road that GraphBuildingHandler would keep is recorded as
+ * deleted, which removes it from the graph if it was there. Relations are ignored.
+ *
+ * See <a href="https://wiki.openstreetmap.org/wiki/OsmChange">the osmChange format</a>.
+ */
+public class OsmChange {
+    /** The new state of a node, or its deletion. */
+    static class Node {
+        final long id;
+        final boolean deleted;
+        final double lon;
+        final double lat;
+        /** The node's name, or null if it has none. */
+        final String name;
+
+        Node(long id, boolean deleted, double lon, double lat, String name) {
+            this.id = id;
+            this.deleted = deleted;
+            this.lon = lon;
+            this.lat = lat;
+            this.name = name;
+        }
+    }
+
+    /** The new state of a way, or its deletion. */
+    static class Way {
+        final long id;
+        final boolean deleted;
+        final long[] refs;
+        final double speed;
+        final String name;
+
+        Way(long id, boolean deleted, long[] refs, double speed, String name) {
+            this.id = id;
+            this.deleted = deleted;
+            this.refs = refs;
+            this.speed = speed;
+            this.name = name;
+        }
+    }
+
+    private final Map<Long, Node> nodes = new LinkedHashMap<>();
+    private final Map<Long, Way> ways = new LinkedHashMap<>();
+
+    /** Creates an empty change, to be filled in with the put and delete methods. */
+    OsmChange() {
+    }
+
+    /**
+     * Reads an OSM change file.
+     * @param path Path to an .osc or .osc.gz file.
+     * @return The changes.
+     * @throws IOException If the file cannot be read or is not a valid OSM change.
+     */
+    public static OsmChange read(String path) throws IOException {
+        try (InputStream in = OsmReader.open(path)) {
+            return read(in);
+        }
+    }
+
+    /**
+     * Reads an OSM change document.
+     * @param in The XML.
+     * @return The changes.
+     * @throws IOException If the stream cannot be read, is not valid XML, or has an element
+     *                     without a valid id, coordinate or reference.
+     */
+    public static OsmChange read(InputStream in) throws IOException {
+        OsmChange change = new OsmChange();
+        try {
+            SAXParserFactory.newInstance().newSAXParser().parse(in, change.new Handler());
+        } catch (ParserConfigurationException | SAXException | RuntimeException e) {
+            /* A missing or malformed id, lon, lat or ref gets here as a RuntimeException
+             * from the handler, which SAX passes through as it is. */
+            throw new IOException("Malformed OSM change: " + e, e);
+        }
+        return change;
+    }
+
+    /** Records a created or modified node. */
+    void putNode(long id, double lon, double lat, String name) {
+        nodes.remove(id);
+        nodes.put(id, new Node(id, false, lon, lat, name));
+    }
+
+    /** Records a deleted node. */
+    void deleteNode(long id) {
+        nodes.remove(id);
+        nodes.put(id, new Node(id, true, Double.NaN, Double.NaN, null));
+    }
+
+    /** Records a created or modified road, through the first count nodes of refs. */
+    void putWay(long id, long[] refs, int count, double speed, String name) {
+        ways.remove(id);
+        ways.put(id, new Way(id, false, Arrays.copyOf(refs, count), speed, name));
+    }
+
+    /** Records a deleted way, or one that is no longer a road. */
+    void deleteWay(long id) {
+        ways.remove(id);
+        ways.put(id, new Way(id, true, new long[0], Double.NaN, ""));
+    }
+
+    /** Returns the changed nodes by id, in the order of their last change. */
+    Map<Long, Node> nodes() {
+        return Collections.unmodifiableMap(nodes);
+    }
+
+    /** Returns the changed ways by id, in the order of their last change. */
+    Map<Long, Way> ways() {
+        return Collections.unmodifiableMap(ways);
+    }
+
+    /** Returns whether the change has neither node nor way changes. */
+    public boolean isEmpty() {
+        return nodes.isEmpty() && ways.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "OsmChange[" + nodes.size() + " nodes, " + ways.size() + " ways]";
+    }
+
+    /**
+     * Fills in the change from SAX events. Like GraphBuildingHandler, it only looks at
+     * node, way, nd and tag elements, and at whether they are inside a delete element.
+     */
+    private class Handler extends DefaultHandler {
+        private boolean deleting;
+        private String activeState = "";
+        private long id;
+        private double lon;
+        private double lat;
+        private String name;
+        private long[] refs = new long[64];
+        private int refCount;
+        private boolean validWay;
+        private double highwaySpeed;
+        private double maxSpeed;
+
+        @Override
+        public void startElement(String uri, String localName, String qName,
+                                 Attributes attributes) throws SAXException {
+            if (qName.equals("delete")) {
+                deleting = true;
+            } else if (qName.equals("create") || qName.equals("modify")) {
+                deleting = false;
+            } else if (qName.equals("node")) {
+                activeState = "node";
+                id = Long.parseLong(attributes.getValue("id"));
+                name = null;
+                if (!deleting) {
+                    lon = Double.parseDouble(attributes.getValue("lon"));
+                    lat = Double.parseDouble(attributes.getValue("lat"));
+                }
+            } else if (qName.equals("way")) {
+                activeState = "way";
+                id = Long.parseLong(attributes.getValue("id"));
+                name = "";
+                refCount = 0;
+                validWay = false;
+                highwaySpeed = Double.NaN;
+                maxSpeed = Double.NaN;
+            } else if (activeState.equals("way") && qName.equals("nd")) {
+                if (refCount == refs.length) {
+                    refs = Arrays.copyOf(refs, refCount * 2);
+                }
+                refs[refCount] = Long.parseLong(attributes.getValue("ref"));
+                refCount += 1;
+            } else if (activeState.equals("way") && qName.equals("tag")) {
+                String k = attributes.getValue("k");
+                String v = attributes.getValue("v");
+                if (k.equals("maxspeed")) {
+                    maxSpeed = GraphBuildingHandler.parseMaxspeed(v);
+                } else if (k.equals("highway")) {
+                    validWay = GraphBuildingHandler.ALLOWED_HIGHWAY_TYPES.contains(v);
+                    highwaySpeed = validWay ? GraphBuildingHandler.HIGHWAY_SPEEDS_MPH.get(v)
+                        : Double.NaN;
+                } else if (k.equals("name")) {
+                    name = v;
+                }
+            } else if (activeState.equals("node") && qName.equals("tag")
+                    && "name".equals(attributes.getValue("k"))) {
+                name = attributes.getValue("v");
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName)
+                throws SAXException {
+            if (qName.equals("node")) {
+                if (deleting) {
+                    deleteNode(id);
+                } else {
+                    putNode(id, lon, lat, name);
+                }
+                activeState = "";
+            } else if (qName.equals("way")) {
+                if (deleting || !validWay || refCount < 2) {
+                    deleteWay(id);
+                } else {
+                    putWay(id, refs, refCount, GraphBuildingHandler.speed(highwaySpeed,
+                        maxSpeed), name);
+                }
+                activeState = "";
+            }
+        }
+    }
+}
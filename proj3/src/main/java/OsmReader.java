@@ -0,0 +1,494 @@
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A streaming OSM XML reader that fills a GraphDB with the same nodes and ways as
+ * GraphBuildingHandler does, but several times faster. It scans the raw bytes of the file
+ * itself instead of going through a SAX parser, so element and attribute names are
+ * compared as bytes, and ids and coordinates are parsed straight out of the read buffer
+ * without ever becoming Strings. Ways are only buffered here; GraphDB.clean() resolves
+ * their node ids into edges in a second, parallel phase.
+ *
+ * This is not a general XML parser. It understands exactly what OSM files use: elements,
+ * attributes in single or double quotes, comments, and the XML declaration. Only node
+ * names become Strings, and only they are entity-decoded.
+ *
+ * Files ending in .gz, or starting with the gzip magic number, are decompressed on the fly.
+ */
+public class OsmReader {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int EOF = -1;
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7,
+        1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15};
+
+    private static final int OTHER = 0, NODE = 1, WAY = 2, ND = 3, TAG = 4;
+    private static final byte[] NODE_NAME = bytes("node");
+    private static final byte[] WAY_NAME = bytes("way");
+    private static final byte[] ND_NAME = bytes("nd");
+    private static final byte[] TAG_NAME = bytes("tag");
+    private static final byte[] ID = bytes("id");
+    private static final byte[] LAT = bytes("lat");
+    private static final byte[] LON = bytes("lon");
+    private static final byte[] REF = bytes("ref");
+    private static final byte[] K = bytes("k");
+    private static final byte[] V = bytes("v");
+    private static final byte[] HIGHWAY = bytes("highway");
+    private static final byte[] NAME = bytes("name");
+    private static final byte[] MAXSPEED = bytes("maxspeed");
+    private static final byte[][] ALLOWED_HIGHWAY_TYPES;
+    /** The default speed of each of ALLOWED_HIGHWAY_TYPES, in miles per hour. */
+    private static final double[] HIGHWAY_SPEEDS;
+
+    static {
+        int n = GraphBuildingHandler.HIGHWAY_SPEEDS_MPH.size();
+        ALLOWED_HIGHWAY_TYPES = new byte[n][];
+        HIGHWAY_SPEEDS = new double[n];
+        int i = 0;
+        for (Map.Entry<String, Double> type
+                : GraphBuildingHandler.HIGHWAY_SPEEDS_MPH.entrySet()) {
+            ALLOWED_HIGHWAY_TYPES[i] = bytes(type.getKey());
+            HIGHWAY_SPEEDS[i] = type.getValue();
+            i += 1;
+        }
+    }
+
+    private final InputStream in;
+    private final GraphDB g;
+    private final byte[] buf = new byte[BUFFER_SIZE];
+    private int pos;
+    private int limit;
+
+    /** Scratch space for the element or attribute name being read. */
+    private final byte[] name = new byte[64];
+    private int nameLength;
+    /** Scratch space for the attribute value being read, and the k of the current tag. */
+    private byte[] value = new byte[256];
+    private int valueLength;
+    private byte[] key = new byte[64];
+    private int keyLength;
+
+    /** OSM id of the open node element, or -1 outside of one. */
+    private long nodeId = -1;
+    /** OSM id and name of the open way element; "" until a name tag is seen. */
+    private long wayId;
+    private String wayName = "";
+    private long[] wayNodes = new long[64];
+    private int wayNodeCount;
+    private boolean validWay;
+    private double highwaySpeed = Double.NaN;
+    private double maxSpeed = Double.NaN;
+
+    private OsmReader(InputStream in, GraphDB g) {
+        this.in = in;
+        this.g = g;
+    }
+
+    /**
+     * Reads every node and way of an OSM file into g. The caller still has to clean g.
+     * @param dbPath Path to an .osm.xml or .osm.xml.gz file.
+     * @param g The graph to fill.
+     * @throws IOException If the file cannot be read.
+     */
+    public static void read(String dbPath, GraphDB g) throws IOException {
+        try (InputStream in = open(dbPath)) {
+            new OsmReader(in, g).parse();
+        }
+    }
+
+    /**
+     * Opens an OSM file for reading, decompressing it if it is gzipped.
+     * @param dbPath Path to the file.
+     * @return A stream of the XML bytes.
+     * @throws IOException If the file cannot be opened.
+     */
+    public static InputStream open(String dbPath) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(dbPath), BUFFER_SIZE);
+        in.mark(2);
+        int b0 = in.read();
+        int b1 = in.read();
+        in.reset();
+        if (dbPath.endsWith(".gz") || (b0 == 0x1f && b1 == 0x8b)) {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        }
+        return in;
+    }
+
+    private void parse() throws IOException {
+        while (skipPast('<')) {
+            int b = next();
+            if (b == '/') {
+                readName(name);
+                if (is(name, nameLength, WAY_NAME)) {
+                    endWay();
+                } else if (is(name, nameLength, NODE_NAME)) {
+                    nodeId = -1;
+                }
+                skipPast('>');
+            } else if (b == '!') {
+                skipMarkup();
+            } else if (b == '?') {
+                skipPast('>');
+            } else if (b != EOF) {
+                pos -= 1;
+                readName(name);
+                int element = classify();
+                if (element == OTHER) {
+                    skipPast('>');
+                } else {
+                    readElement(element);
+                }
+            }
+        }
+    }
+
+    /** Reads the attributes of a node, way, nd or tag element, up to its closing '>'. */
+    private void readElement(int element) throws IOException {
+        long id = 0;
+        double lat = Double.NaN;
+        double lon = Double.NaN;
+        keyLength = 0;
+        boolean open = true;
+        if (element == WAY) {
+            wayName = "";
+            wayNodeCount = 0;
+            validWay = false;
+            highwaySpeed = Double.NaN;
+            maxSpeed = Double.NaN;
+            nodeId = -1;
+        }
+        while (true) {
+            int b = skipWhitespace();
+            if (b == '>' || b == EOF) {
+                break;
+            } else if (b == '/') {
+                skipPast('>');
+                open = false;
+                break;
+            }
+            pos -= 1;
+            readName(name);
+            if (skipWhitespace() != '=') {
+                throw new IOException("Malformed attribute in OSM file.");
+            }
+            int quote = skipWhitespace();
+            /* Attributes the graph does not use, such as user and timestamp, are skipped
+             * without being copied out of the read buffer. */
+            if ((element == NODE || element == WAY) && is(name, nameLength, ID)) {
+                readValue(quote);
+                id = parseLong();
+            } else if (element == NODE && is(name, nameLength, LAT)) {
+                readValue(quote);
+                lat = parseDouble();
+            } else if (element == NODE && is(name, nameLength, LON)) {
+                readValue(quote);
+                lon = parseDouble();
+            } else if (element == ND && is(name, nameLength, REF)) {
+                readValue(quote);
+                addWayNode(parseLong());
+            } else if (element == TAG && is(name, nameLength, K)) {
+                readValue(quote);
+                if (key.length < valueLength) {
+                    key = new byte[value.length];
+                }
+                System.arraycopy(value, 0, key, 0, valueLength);
+                keyLength = valueLength;
+            } else if (element == TAG && is(name, nameLength, V)) {
+                readValue(quote);
+                tag();
+            } else {
+                skipPast(quote);
+            }
+        }
+        if (element == WAY) {
+            wayId = id;
+        } else if (element == NODE) {
+            g.addNode(id, lon, lat);
+            /* Only a node with child elements can have a name tag. */
+            nodeId = open ? id : -1;
+        }
+    }
+
+    /** Handles a tag whose k has been read into key and whose v is in value. */
+    private void tag() {
+        if (nodeId >= 0) {
+            if (is(key, keyLength, NAME)) {
+                g.addLocation(nodeId, decodeEntities(valueString()));
+            }
+        } else if (is(key, keyLength, HIGHWAY)) {
+            validWay = false;
+            highwaySpeed = Double.NaN;
+            for (int i = 0; i < ALLOWED_HIGHWAY_TYPES.length; i += 1) {
+                if (is(value, valueLength, ALLOWED_HIGHWAY_TYPES[i])) {
+                    validWay = true;
+                    highwaySpeed = HIGHWAY_SPEEDS[i];
+                    break;
+                }
+            }
+        } else if (is(key, keyLength, MAXSPEED)) {
+            maxSpeed = GraphBuildingHandler.parseMaxspeed(valueString());
+        } else if (is(key, keyLength, NAME)) {
+            wayName = decodeEntities(valueString());
+        }
+    }
+
+    private void addWayNode(long ref) {
+        if (wayNodeCount == wayNodes.length) {
+            long[] bigger = new long[wayNodeCount * 2];
+            System.arraycopy(wayNodes, 0, bigger, 0, wayNodeCount);
+            wayNodes = bigger;
+        }
+        wayNodes[wayNodeCount] = ref;
+        wayNodeCount += 1;
+    }
+
+    private void endWay() {
+        if (validWay) {
+            g.addWay(wayId, wayNodes, wayNodeCount,
+                GraphBuildingHandler.speed(highwaySpeed, maxSpeed), wayName);
+        }
+        wayName = "";
+        wayNodeCount = 0;
+        validWay = false;
+        highwaySpeed = Double.NaN;
+        maxSpeed = Double.NaN;
+    }
+
+    private int classify() {
+        if (is(name, nameLength, NODE_NAME)) {
+            return NODE;
+        } else if (is(name, nameLength, ND_NAME)) {
+            return ND;
+        } else if (is(name, nameLength, TAG_NAME)) {
+            return TAG;
+        } else if (is(name, nameLength, WAY_NAME)) {
+            return WAY;
+        }
+        return OTHER;
+    }
+
+    /* Byte-level scanning. */
+
+    private boolean fill() throws IOException {
+        int n = in.read(buf, 0, buf.length);
+        while (n == 0) {
+            n = in.read(buf, 0, buf.length);
+        }
+        pos = 0;
+        limit = Math.max(n, 0);
+        return n > 0;
+    }
+
+    private int next() throws IOException {
+        if (pos == limit && !fill()) {
+            return EOF;
+        }
+        int b = buf[pos];
+        pos += 1;
+        return b;
+    }
+
+    /** Consumes bytes up to and including the next c. Returns false at end of input. */
+    private boolean skipPast(int c) throws IOException {
+        while (true) {
+            for (int i = pos; i < limit; i += 1) {
+                if (buf[i] == c) {
+                    pos = i + 1;
+                    return true;
+                }
+            }
+            if (!fill()) {
+                return false;
+            }
+        }
+    }
+
+    /** Skips a comment or declaration whose leading "&lt;!" has been consumed. */
+    private void skipMarkup() throws IOException {
+        int b = next();
+        if (b == '-' && next() == '-') {
+            int dashes = 0;
+            for (b = next(); b != EOF; b = next()) {
+                if (b == '>' && dashes >= 2) {
+                    return;
+                }
+                dashes = b == '-' ? dashes + 1 : 0;
+            }
+        } else if (b != '>') {
+            skipPast('>');
+        }
+    }
+
+    /** Consumes whitespace and returns the first byte after it. */
+    private int skipWhitespace() throws IOException {
+        int b = next();
+        while (b == ' ' || b == '\n' || b == '\t' || b == '\r') {
+            b = next();
+        }
+        return b;
+    }
+
+    /** Reads a name into dest, stopping before the first byte that cannot be in a name. */
+    private void readName(byte[] dest) throws IOException {
+        nameLength = 0;
+        while (true) {
+            if (pos == limit && !fill()) {
+                return;
+            }
+            byte b = buf[pos];
+            if (b == ' ' || b == '=' || b == '>' || b == '/' || b == '\n' || b == '\t'
+                    || b == '\r') {
+                return;
+            }
+            if (nameLength < dest.length) {
+                dest[nameLength] = b;
+                nameLength += 1;
+            }
+            pos += 1;
+        }
+    }
+
+    /** Reads an attribute value into value, up to and including its closing quote. */
+    private void readValue(int quote) throws IOException {
+        valueLength = 0;
+        while (true) {
+            int end = pos;
+            while (end < limit && buf[end] != quote) {
+                end += 1;
+            }
+            int n = end - pos;
+            if (valueLength + n > value.length) {
+                byte[] bigger = new byte[Math.max(value.length * 2, valueLength + n)];
+                System.arraycopy(value, 0, bigger, 0, valueLength);
+                value = bigger;
+            }
+            System.arraycopy(buf, pos, value, valueLength, n);
+            valueLength += n;
+            if (end < limit) {
+                pos = end + 1;
+                return;
+            }
+            if (!fill()) {
+                return;
+            }
+        }
+    }
+
+    /* Number parsing straight from the value buffer. */
+
+    private long parseLong() {
+        int i = 0;
+        boolean negative = valueLength > 0 && value[0] == '-';
+        if (negative) {
+            i = 1;
+        }
+        long result = 0;
+        for (; i < valueLength; i += 1) {
+            int digit = value[i] - '0';
+            if (digit < 0 || digit > 9 || result > (Long.MAX_VALUE - digit) / 10) {
+                return Long.parseLong(valueString());
+            }
+            result = result * 10 + digit;
+        }
+        return negative ? -result : result;
+    }
+
+    /**
+     * Parses a plain decimal such as -122.2578391. With at most 15 significant digits, the
+     * digits form an integer that a double holds exactly, and dividing it by an exactly
+     * representable power of ten rounds correctly, giving the same result as
+     * Double.parseDouble. Anything else is handed to Double.parseDouble.
+     */
+    private double parseDouble() {
+        int i = 0;
+        boolean negative = valueLength > 0 && value[0] == '-';
+        if (negative) {
+            i = 1;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (; i < valueLength; i += 1) {
+            byte b = value[i];
+            if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else if (b >= '0' && b <= '9' && digits < 15) {
+                mantissa = mantissa * 10 + (b - '0');
+                digits += 1;
+                if (fractionDigits >= 0) {
+                    fractionDigits += 1;
+                }
+            } else {
+                return Double.parseDouble(valueString());
+            }
+        }
+        if (digits == 0) {
+            return Double.parseDouble(valueString());
+        }
+        double result = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+        return negative ? -result : result;
+    }
+
+    private String valueString() {
+        return new String(value, 0, valueLength, StandardCharsets.UTF_8);
+    }
+
+    /** Replaces the predefined XML entities and character references in s. */
+    static String decodeEntities(String s) {
+        int amp = s.indexOf('&');
+        if (amp < 0) {
+            return s;
+        }
+        StringBuilder sb = new StringBuilder(s.length());
+        int start = 0;
+        while (amp >= 0) {
+            int semi = s.indexOf(';', amp);
+            if (semi < 0) {
+                break;
+            }
+            sb.append(s, start, amp);
+            String entity = s.substring(amp + 1, semi);
+            if (entity.equals("amp")) {
+                sb.append('&');
+            } else if (entity.equals("lt")) {
+                sb.append('<');
+            } else if (entity.equals("gt")) {
+                sb.append('>');
+            } else if (entity.equals("quot")) {
+                sb.append('"');
+            } else if (entity.equals("apos")) {
+                sb.append('\'');
+            } else if (entity.startsWith("#x") || entity.startsWith("#X")) {
+                sb.appendCodePoint(Integer.parseInt(entity.substring(2), 16));
+            } else if (entity.startsWith("#")) {
+                sb.appendCodePoint(Integer.parseInt(entity.substring(1)));
+            } else {
+                sb.append(s, amp, semi + 1);
+            }
+            start = semi + 1;
+            amp = s.indexOf('&', start);
+        }
+        sb.append(s, start, s.length());
+        return sb.toString();
+    }
+
+    private static boolean is(byte[] a, int length, byte[] b) {
+        if (length != b.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i += 1) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
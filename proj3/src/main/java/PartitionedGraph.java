@@ -0,0 +1,774 @@
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * A road graph split into spatial cells, which can route over extracts too large to keep
+ * in memory at once. The cells are leaves of a k-d split of the vertices, alternating
+ * between longitude and latitude, until each holds at most maxCellSize vertices. A vertex
+ * with an edge into another cell is a boundary vertex.
+ *
+ * Only the overlay is held in memory. It has one node per boundary vertex. Each node has
+ * edges to the boundary vertices of its own cell, weighted by the shortest distance
+ * between them within the cell. It also has the original edges to boundary vertices of
+ * other cells. The vertices and edges of each cell are kept in the file, and are read on
+ * demand into a least-recently-used cache with a byte budget. A route only needs:
+ * - the cells of its two ends;
+ * - the overlay;
+ * - the cells whose overlay edges it uses, when the path is unpacked.
+ *
+ * That holds for Router.shortestPath(PartitionedGraph, ...), which needs no GraphDB.
+ * MapServer keeps its full GraphDB and KdTree on the heap regardless, to snap locations
+ * and to map vertices into cells. There, a partition adds the overlay and the cell cache
+ * to the graph's memory rather than replacing it. It pays off in route time.
+ *
+ * The file is laid out as follows, after GraphSnapshot's header:
+ *
+ * <pre>
+ *     int     maxCellSize, cell count C, overlay node count B, overlay edge count E
+ *     C *     (min lon, min lat, max lon, max lat) of each cell's vertices
+ *     C + 1 * int  first overlay node of each cell; a cell's nodes are contiguous
+ *     C + 1 * long offset of each cell's data from the end of the overlay
+ *     B *     int  local index in its cell of each overlay node
+ *     B + 1 * int  overlay edge offsets, then E * int targets, then E * double weights
+ *     C *     cell data: int n, int m, n * long OSM ids, ascending, n * double lons,
+ *             n * double lats, n + 1 * int offsets, m * int local targets,
+ *             m * double weights
+ * </pre>
+ */
+public class PartitionedGraph implements Closeable {
+    /** Default number of vertices per cell; a cell is searched in well under a millisecond. */
+    public static final int DEFAULT_CELL_SIZE = 4096;
+    /** Default budget for cached cells: 64 MB, a few hundred default-sized cells. */
+    public static final long DEFAULT_CACHE_BYTES = 64L * 1024 * 1024;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    /** File position of the first cell's data. */
+    private final long cellBase;
+    private final int maxCellSize;
+
+    private final double[] minLons;
+    private final double[] minLats;
+    private final double[] maxLons;
+    private final double[] maxLats;
+    private final long[] cellOffsets;
+
+    /* The overlay. Overlay nodes boundaryStart[c] .. boundaryStart[c + 1] - 1 are in cell c. */
+    private final int[] boundaryStart;
+    private final int[] boundaryLocal;
+    private final int[] overlayCell;
+    private final int[] overlayOffsets;
+    private final int[] overlayTargets;
+    private final double[] overlayWeights;
+
+    /* The cell cache, guarded by its own monitor. */
+    private final long budgetBytes;
+    private long usedBytes;
+    private final LinkedHashMap<Integer, Cell> cells;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private PartitionedGraph(RandomAccessFile file, long position, long budgetBytes)
+            throws IOException {
+        if (budgetBytes <= 0) {
+            throw new IllegalArgumentException("Cell cache budget must be positive.");
+        }
+        this.file = file;
+        this.channel = file.getChannel();
+        this.budgetBytes = budgetBytes;
+        this.cells = new LinkedHashMap<>(16, 0.75f, true);
+
+        ByteBuffer counts = read(position, 16);
+        maxCellSize = counts.getInt();
+        int c = counts.getInt();
+        int b = counts.getInt();
+        int e = counts.getInt();
+        long overlayBytes = 32L * c + 12L * (c + 1) + 8L * b + 4 + 12L * e;
+        if (overlayBytes > Integer.MAX_VALUE) {
+            throw new IOException("Overlay of " + overlayBytes + " bytes is too large.");
+        }
+        ByteBuffer buf = read(position + 16, (int) overlayBytes);
+        minLons = new double[c];
+        minLats = new double[c];
+        maxLons = new double[c];
+        maxLats = new double[c];
+        for (int i = 0; i < c; i += 1) {
+            minLons[i] = buf.getDouble();
+            minLats[i] = buf.getDouble();
+            maxLons[i] = buf.getDouble();
+            maxLats[i] = buf.getDouble();
+        }
+        boundaryStart = new int[c + 1];
+        cellOffsets = new long[c + 1];
+        boundaryLocal = new int[b];
+        overlayOffsets = new int[b + 1];
+        overlayTargets = new int[e];
+        overlayWeights = new double[e];
+        buf.asIntBuffer().get(boundaryStart);
+        buf.position(buf.position() + 4 * (c + 1));
+        buf.asLongBuffer().get(cellOffsets);
+        buf.position(buf.position() + 8 * (c + 1));
+        buf.asIntBuffer().get(boundaryLocal);
+        buf.position(buf.position() + 4 * b);
+        buf.asIntBuffer().get(overlayOffsets);
+        buf.position(buf.position() + 4 * (b + 1));
+        buf.asIntBuffer().get(overlayTargets);
+        buf.position(buf.position() + 4 * e);
+        buf.asDoubleBuffer().get(overlayWeights);
+        cellBase = position + 16 + overlayBytes;
+
+        overlayCell = new int[b];
+        for (int i = 0; i < c; i += 1) {
+            Arrays.fill(overlayCell, boundaryStart[i], boundaryStart[i + 1], i);
+        }
+    }
+
+    /**
+     * Opens a partitioned graph written by write. The file stays open until close().
+     * @param file The file, positioned anywhere.
+     * @param position Where write started writing in the file.
+     * @param budgetBytes The most bytes of cells to keep in memory.
+     * @return The graph.
+     * @throws IOException If the overlay cannot be read.
+     */
+    static PartitionedGraph open(RandomAccessFile file, long position, long budgetBytes)
+            throws IOException {
+        return new PartitionedGraph(file, position, budgetBytes);
+    }
+
+    /** Reads length bytes at position of the file. */
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) {
+                throw new EOFException("Partitioned graph file is truncated.");
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /** Returns the number of cells. */
+    public int cellCount() {
+        return minLons.length;
+    }
+
+    /** Returns the most vertices a cell was allowed when the graph was partitioned. */
+    public int maxCellSize() {
+        return maxCellSize;
+    }
+
+    /** Returns the number of overlay nodes, the boundary vertices of all cells. */
+    public int overlaySize() {
+        return boundaryLocal.length;
+    }
+
+    /** Returns the approximate heap footprint of the overlay, which is always loaded. */
+    public long overlayBytes() {
+        return 40L * cellCount() + 16L * overlaySize() + 12L * overlayTargets.length;
+    }
+
+    /* Overlay access, used by Router. */
+
+    int overlayStart(int k) {
+        return overlayOffsets[k];
+    }
+
+    int overlayEnd(int k) {
+        return overlayOffsets[k + 1];
+    }
+
+    int overlayTarget(int e) {
+        return overlayTargets[e];
+    }
+
+    double overlayWeight(int e) {
+        return overlayWeights[e];
+    }
+
+    /** Returns the cell of overlay node k. */
+    int overlayCell(int k) {
+        return overlayCell[k];
+    }
+
+    /** Returns the index within its cell of the vertex of overlay node k. */
+    int overlayLocal(int k) {
+        return boundaryLocal[k];
+    }
+
+    /** Returns the first overlay node of cell c; its nodes run up to that of cell c + 1. */
+    int boundaryStart(int c) {
+        return boundaryStart[c];
+    }
+
+    /* Locating vertices. A vertex is named by a long packing its cell and local index. */
+
+    static long vertex(int cell, int local) {
+        return (long) cell << 32 | local;
+    }
+
+    static int cellOf(long vertex) {
+        return (int) (vertex >>> 32);
+    }
+
+    static int localOf(long vertex) {
+        return (int) vertex;
+    }
+
+    /**
+     * Returns the vertex closest to a location, loading only the cells whose bounding box
+     * could hold a closer vertex than the best found so far.
+     * @param lon The longitude of the location.
+     * @param lat The latitude of the location.
+     * @return The packed cell and local index of the vertex.
+     */
+    long closest(double lon, double lat) {
+        int c = cellCount();
+        Integer[] byBound = new Integer[c];
+        double[] bounds = new double[c];
+        for (int i = 0; i < c; i += 1) {
+            byBound[i] = i;
+            bounds[i] = GraphDB.distance(lon, lat,
+                    Math.max(minLons[i], Math.min(maxLons[i], lon)),
+                    Math.max(minLats[i], Math.min(maxLats[i], lat)));
+        }
+        Arrays.sort(byBound, (a, b) -> Double.compare(bounds[a], bounds[b]));
+        long best = -1;
+        double bestDist = Double.POSITIVE_INFINITY;
+        for (int i : byBound) {
+            /* The distance to the clamped point is not exactly the least distance to a
+             * longitude-latitude box on the sphere, so leave a little slack. */
+            if (bounds[i] > bestDist * 1.01) {
+                break;
+            }
+            Cell cell = cell(i);
+            int v = cell.tree.nearest(lon, lat);
+            if (v < 0) {
+                continue;
+            }
+            double d = GraphDB.distance(lon, lat, cell.lons[v], cell.lats[v]);
+            if (d < bestDist) {
+                bestDist = d;
+                best = vertex(i, v);
+            }
+        }
+        if (best < 0) {
+            throw new NoSuchElementException("The graph has no vertices.");
+        }
+        return best;
+    }
+
+    /**
+     * Finds the vertex with an OSM id, given its location, loading only the cells whose
+     * bounding box holds the location.
+     * @return The packed cell and local index of the vertex, or -1 if there is none.
+     */
+    long locate(long id, double lon, double lat) {
+        for (int i = 0; i < cellCount(); i += 1) {
+            if (lon >= minLons[i] && lon <= maxLons[i] && lat >= minLats[i]
+                    && lat <= maxLats[i]) {
+                int v = Arrays.binarySearch(cell(i).ids, id);
+                if (v >= 0) {
+                    return vertex(i, v);
+                }
+            }
+        }
+        return -1;
+    }
+
+    /* The cell cache. */
+
+    /**
+     * Returns cell c, reading it from the file if it is not cached. Cells are read outside
+     * of the cache's lock, so two threads missing on one cell may both read it.
+     */
+    Cell cell(int c) {
+        Cell cell;
+        synchronized (this) {
+            cell = cells.get(c);
+        }
+        if (cell != null) {
+            hits.incrementAndGet();
+            return cell;
+        }
+        misses.incrementAndGet();
+        try {
+            cell = readCell(c);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read cell " + c, e);
+        }
+        put(c, cell);
+        return cell;
+    }
+
+    private Cell readCell(int c) throws IOException {
+        long length = cellOffsets[c + 1] - cellOffsets[c];
+        ByteBuffer buf = read(cellBase + cellOffsets[c], (int) length);
+        int n = buf.getInt();
+        int m = buf.getInt();
+        Cell cell = new Cell(n, m);
+        buf.asLongBuffer().get(cell.ids);
+        buf.position(buf.position() + 8 * n);
+        buf.asDoubleBuffer().get(cell.lons);
+        buf.position(buf.position() + 8 * n);
+        buf.asDoubleBuffer().get(cell.lats);
+        buf.position(buf.position() + 8 * n);
+        buf.asIntBuffer().get(cell.offsets);
+        buf.position(buf.position() + 4 * (n + 1));
+        buf.asIntBuffer().get(cell.targets);
+        buf.position(buf.position() + 4 * m);
+        buf.asDoubleBuffer().get(cell.weights);
+        Arrays.fill(cell.overlay, -1);
+        for (int k = boundaryStart[c]; k < boundaryStart[c + 1]; k += 1) {
+            cell.overlay[boundaryLocal[k]] = k;
+        }
+        cell.tree = new KdTree(cell.lons, cell.lats);
+        return cell;
+    }
+
+    private synchronized void put(int c, Cell cell) {
+        long size = cell.sizeInBytes();
+        if (size > budgetBytes) {
+            return;
+        }
+        Cell old = cells.put(c, cell);
+        if (old != null) {
+            usedBytes -= old.sizeInBytes();
+        }
+        usedBytes += size;
+        Iterator<Map.Entry<Integer, Cell>> it = cells.entrySet().iterator();
+        while (usedBytes > budgetBytes && it.hasNext()) {
+            Map.Entry<Integer, Cell> eldest = it.next();
+            usedBytes -= eldest.getValue().sizeInBytes();
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /** Drops every cached cell. The counters are left untouched. */
+    public synchronized void clearCells() {
+        cells.clear();
+        usedBytes = 0;
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    /** Returns the number of cells read from the file. */
+    public long misses() {
+        return misses.get();
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+
+    public synchronized int cachedCells() {
+        return cells.size();
+    }
+
+    public synchronized long usedBytes() {
+        return usedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PartitionedGraph[%d cells, %d overlay nodes, %d cached cells, "
+                + "%d/%d bytes, %d hits, %d misses, %d evictions]", cellCount(), overlaySize(),
+                cachedCells(), usedBytes(), budgetBytes, hits(), misses(), evictions());
+    }
+
+    /**
+     * The vertices and edges of one cell in CSR form, numbered 0..size()-1 by OSM id. Edges
+     * to other cells are left out; they are in the overlay.
+     */
+    static class Cell {
+        final long[] ids;
+        final double[] lons;
+        final double[] lats;
+        final int[] offsets;
+        final int[] targets;
+        final double[] weights;
+        /** The overlay node of each boundary vertex, or -1. */
+        final int[] overlay;
+        KdTree tree;
+
+        Cell(int n, int m) {
+            ids = new long[n];
+            lons = new double[n];
+            lats = new double[n];
+            offsets = new int[n + 1];
+            targets = new int[m];
+            weights = new double[m];
+            overlay = new int[n];
+        }
+
+        int size() {
+            return ids.length;
+        }
+
+        /** Approximate heap footprint, counting the k-d tree as another 40 bytes a vertex. */
+        long sizeInBytes() {
+            return 80L * ids.length + 12L * targets.length;
+        }
+    }
+
+    /* Partitioning. */
+
+    /** Search state for computing cliques, one per building thread. */
+    private static final ThreadLocal<SearchSpace> CLIQUE_SEARCH =
+        ThreadLocal.withInitial(() -> new SearchSpace(0));
+
+    /**
+     * Partitions a cleaned graph and writes it in the layout open reads. The cliques of
+     * the cells are computed in parallel, one Dijkstra search per boundary vertex that
+     * never leaves the vertex's cell.
+     * @param g The graph.
+     * @param maxCellSize The most vertices to put in one cell.
+     * @param out Where to write.
+     * @throws IOException If writing fails.
+     */
+    static void write(GraphDB g, int maxCellSize, DataOutputStream out) throws IOException {
+        if (maxCellSize <= 0) {
+            throw new IllegalArgumentException("Cells must hold at least one vertex.");
+        }
+        int n = g.size();
+        int[] order = new int[n];
+        for (int v = 0; v < n; v += 1) {
+            order[v] = v;
+        }
+        int[] cellStarts = new int[n + 1];
+        int c = n == 0 ? 0 : split(g, order, 0, n, maxCellSize, cellStarts, 0);
+        cellStarts[c] = n;
+
+        /* Number the vertices of each cell by OSM id, which is also their global order. */
+        int[] cellOf = new int[n];
+        int[] localOf = new int[n];
+        for (int i = 0; i < c; i += 1) {
+            Arrays.sort(order, cellStarts[i], cellStarts[i + 1]);
+            for (int p = cellStarts[i]; p < cellStarts[i + 1]; p += 1) {
+                cellOf[order[p]] = i;
+                localOf[order[p]] = p - cellStarts[i];
+            }
+        }
+
+        /* Boundary vertices become overlay nodes, cell by cell in local order. */
+        int[] overlayOf = new int[n];
+        int[] overlayVertex = new int[n];
+        int[] boundaryStart = new int[c + 1];
+        int b = 0;
+        for (int i = 0; i < c; i += 1) {
+            boundaryStart[i] = b;
+            for (int p = cellStarts[i]; p < cellStarts[i + 1]; p += 1) {
+                int v = order[p];
+                overlayOf[v] = -1;
+                for (int e = g.edgeStart(v); e < g.edgeEnd(v); e += 1) {
+                    if (cellOf[g.edgeTarget(e)] != i) {
+                        overlayOf[v] = b;
+                        overlayVertex[b] = v;
+                        b += 1;
+                        break;
+                    }
+                }
+            }
+        }
+        boundaryStart[c] = b;
+
+        double[][] cliques = new double[b][];
+        IntStream.range(0, b).parallel().forEach(k -> cliques[k] = clique(g, cellOf,
+            overlayOf, overlayVertex[k], boundaryStart[cellOf[overlayVertex[k]]],
+            boundaryStart[cellOf[overlayVertex[k]] + 1]));
+        IntStream.range(0, c).parallel().forEach(i -> prune(cliques, boundaryStart[i],
+            boundaryStart[i + 1]));
+        int[] overlayOffsets = new int[b + 1];
+        for (int k = 0; k < b; k += 1) {
+            int v = overlayVertex[k];
+            int edges = 0;
+            for (int j = 0; j < cliques[k].length; j += 1) {
+                edges += cliques[k][j] < Double.POSITIVE_INFINITY ? 1 : 0;
+            }
+            for (int e = g.edgeStart(v); e < g.edgeEnd(v); e += 1) {
+                edges += cellOf[g.edgeTarget(e)] != cellOf[v] ? 1 : 0;
+            }
+            overlayOffsets[k + 1] = overlayOffsets[k] + edges;
+        }
+
+        out.writeInt(maxCellSize);
+        out.writeInt(c);
+        out.writeInt(b);
+        out.writeInt(overlayOffsets[b]);
+        for (int i = 0; i < c; i += 1) {
+            double minLon = Double.POSITIVE_INFINITY;
+            double minLat = Double.POSITIVE_INFINITY;
+            double maxLon = Double.NEGATIVE_INFINITY;
+            double maxLat = Double.NEGATIVE_INFINITY;
+            for (int p = cellStarts[i]; p < cellStarts[i + 1]; p += 1) {
+                minLon = Math.min(minLon, g.lonAt(order[p]));
+                minLat = Math.min(minLat, g.latAt(order[p]));
+                maxLon = Math.max(maxLon, g.lonAt(order[p]));
+                maxLat = Math.max(maxLat, g.latAt(order[p]));
+            }
+            out.writeDouble(minLon);
+            out.writeDouble(minLat);
+            out.writeDouble(maxLon);
+            out.writeDouble(maxLat);
+        }
+        for (int start : boundaryStart) {
+            out.writeInt(start);
+        }
+        int[] cellEdges = new int[c];
+        long offset = 0;
+        for (int i = 0; i < c; i += 1) {
+            for (int p = cellStarts[i]; p < cellStarts[i + 1]; p += 1) {
+                int v = order[p];
+                for (int e = g.edgeStart(v); e < g.edgeEnd(v); e += 1) {
+                    cellEdges[i] += cellOf[g.edgeTarget(e)] == i ? 1 : 0;
+                }
+            }
+            out.writeLong(offset);
+            int size = cellStarts[i + 1] - cellStarts[i];
+            offset += 8 + 24L * size + 4L * (size + 1) + 12L * cellEdges[i];
+        }
+        out.writeLong(offset);
+        for (int k = 0; k < b; k += 1) {
+            out.writeInt(localOf[overlayVertex[k]]);
+        }
+        for (int overlayOffset : overlayOffsets) {
+            out.writeInt(overlayOffset);
+        }
+        /* The targets and then the weights of each node's clique edges and cut edges. */
+        for (int pass = 0; pass < 2; pass += 1) {
+            for (int k = 0; k < b; k += 1) {
+                int v = overlayVertex[k];
+                int first = boundaryStart[cellOf[v]];
+                for (int j = 0; j < cliques[k].length; j += 1) {
+                    if (cliques[k][j] < Double.POSITIVE_INFINITY) {
+                        if (pass == 0) {
+                            out.writeInt(first + j);
+                        } else {
+                            out.writeDouble(cliques[k][j]);
+                        }
+                    }
+                }
+                for (int e = g.edgeStart(v); e < g.edgeEnd(v); e += 1) {
+                    int w = g.edgeTarget(e);
+                    if (cellOf[w] == cellOf[v]) {
+                        continue;
+                    }
+                    if (pass == 0) {
+                        out.writeInt(overlayOf[w]);
+                    } else {
+                        out.writeDouble(g.edgeWeight(e));
+                    }
+                }
+            }
+        }
+
+        for (int i = 0; i < c; i += 1) {
+            writeCell(g, order, cellStarts[i], cellStarts[i + 1], cellEdges[i], cellOf,
+                localOf, out);
+        }
+    }
+
+    /** Writes the vertices order[lo..hi) of cell cellOf[order[lo]] and their inner edges. */
+    private static void writeCell(GraphDB g, int[] order, int lo, int hi, int edges,
+                                  int[] cellOf, int[] localOf, DataOutputStream out)
+            throws IOException {
+        int cell = cellOf[order[lo]];
+        out.writeInt(hi - lo);
+        out.writeInt(edges);
+        for (int p = lo; p < hi; p += 1) {
+            out.writeLong(g.id(order[p]));
+        }
+        for (int p = lo; p < hi; p += 1) {
+            out.writeDouble(g.lonAt(order[p]));
+        }
+        for (int p = lo; p < hi; p += 1) {
+            out.writeDouble(g.latAt(order[p]));
+        }
+        int offset = 0;
+        out.writeInt(offset);
+        for (int p = lo; p < hi; p += 1) {
+            int v = order[p];
+            for (int e = g.edgeStart(v); e < g.edgeEnd(v); e += 1) {
+                offset += cellOf[g.edgeTarget(e)] == cell ? 1 : 0;
+            }
+            out.writeInt(offset);
+        }
+        for (int pass = 0; pass < 2; pass += 1) {
+            for (int p = lo; p < hi; p += 1) {
+                int v = order[p];
+                for (int e = g.edgeStart(v); e < g.edgeEnd(v); e += 1) {
+                    int w = g.edgeTarget(e);
+                    if (cellOf[w] != cell) {
+                        continue;
+                    }
+                    if (pass == 0) {
+                        out.writeInt(localOf[w]);
+                    } else {
+                        out.writeDouble(g.edgeWeight(e));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the distances from boundary vertex v to overlay nodes first..end-1 of its
+     * cell, by a Dijkstra search that never leaves the cell. Unreachable nodes and v itself
+     * get infinity, so that they get no overlay edge.
+     */
+    private static double[] clique(GraphDB g, int[] cellOf, int[] overlayOf, int v,
+                                   int first, int end) {
+        double[] row = new double[end - first];
+        Arrays.fill(row, Double.POSITIVE_INFINITY);
+        SearchSpace space = CLIQUE_SEARCH.get();
+        space.reset(g.size());
+        space.reach(v, 0, -1);
+        space.fringe.push(v, 0);
+        int found = 0;
+        while (!space.fringe.isEmpty() && found < row.length) {
+            int u = space.fringe.pop();
+            if (space.isSettled(u)) {
+                continue;
+            }
+            space.settle(u);
+            if (overlayOf[u] >= 0) {
+                row[overlayOf[u] - first] = space.dist(u);
+                found += 1;
+            }
+            for (int e = g.edgeStart(u); e < g.edgeEnd(u); e += 1) {
+                int w = g.edgeTarget(e);
+                double d = space.dist(u) + g.edgeWeight(e);
+                if (cellOf[w] == cellOf[v] && d < space.dist(w)) {
+                    space.reach(w, d, u);
+                    space.fringe.push(w, d);
+                }
+            }
+        }
+        row[overlayOf[v] - first] = Double.POSITIVE_INFINITY;
+        return row;
+    }
+
+    /**
+     * Drops the clique edges of overlay nodes first..end-1, all in one cell, that are no
+     * shorter than a path of two clique edges through another of the cell's nodes, each
+     * strictly shorter than the dropped edge. Routes stay as short, since the two edges that
+     * replace a dropped one are kept or are in turn replaced by shorter ones. Requiring them
+     * to be shorter matters for distinct nodes at the same place, which OSM has: with a and
+     * b 0 apart, a-m could otherwise be dropped for a-b-m while b-m is dropped for b-a-m. On
+     * road networks this removes most of each clique, as the shortest path between two
+     * boundary vertices usually passes others.
+     */
+    private static void prune(double[][] cliques, int first, int end) {
+        int size = end - first;
+        boolean[][] dropped = new boolean[size][size];
+        for (int a = 0; a < size; a += 1) {
+            double[] fromA = cliques[first + a];
+            for (int b = 0; b < size; b += 1) {
+                for (int m = 0; m < size && fromA[b] < Double.POSITIVE_INFINITY; m += 1) {
+                    double viaM = cliques[first + m][b];
+                    if (m != a && m != b && fromA[m] < fromA[b] && viaM < fromA[b]
+                            && fromA[m] + viaM <= fromA[b]) {
+                        dropped[a][b] = true;
+                        break;
+                    }
+                }
+            }
+        }
+        for (int a = 0; a < size; a += 1) {
+            for (int b = 0; b < size; b += 1) {
+                if (dropped[a][b]) {
+                    cliques[first + a][b] = Double.POSITIVE_INFINITY;
+                }
+            }
+        }
+    }
+
+    /**
+     * Splits the vertices order[lo..hi) at the median of their wider extent until each
+     * part holds at most maxCellSize, recording the start of each part in cellStarts.
+     * @return The number of parts recorded so far.
+     */
+    private static int split(GraphDB g, int[] order, int lo, int hi, int maxCellSize,
+                             int[] cellStarts, int c) {
+        if (hi - lo <= maxCellSize) {
+            cellStarts[c] = lo;
+            return c + 1;
+        }
+        double minLon = Double.POSITIVE_INFINITY;
+        double minLat = Double.POSITIVE_INFINITY;
+        double maxLon = Double.NEGATIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        for (int p = lo; p < hi; p += 1) {
+            minLon = Math.min(minLon, g.lonAt(order[p]));
+            minLat = Math.min(minLat, g.latAt(order[p]));
+            maxLon = Math.max(maxLon, g.lonAt(order[p]));
+            maxLat = Math.max(maxLat, g.latAt(order[p]));
+        }
+        /* A degree of longitude is shorter than one of latitude away from the equator. */
+        double lonScale = Math.cos(Math.toRadians((minLat + maxLat) / 2));
+        boolean byLon = (maxLon - minLon) * lonScale >= maxLat - minLat;
+        int mid = (lo + hi) >>> 1;
+        select(g, order, lo, hi - 1, mid, byLon);
+        c = split(g, order, lo, mid, maxCellSize, cellStarts, c);
+        return split(g, order, mid, hi, maxCellSize, cellStarts, c);
+    }
+
+    /**
+     * Quickselect: partially sorts order[lo..hi] by longitude or latitude so that position
+     * k holds the vertex that would be there if they were fully sorted.
+     */
+    private static void select(GraphDB g, int[] order, int lo, int hi, int k, boolean byLon) {
+        while (lo < hi) {
+            double pivot = coordinate(g, order[(lo + hi) >>> 1], byLon);
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (coordinate(g, order[i], byLon) < pivot) {
+                    i += 1;
+                }
+                while (coordinate(g, order[j], byLon) > pivot) {
+                    j -= 1;
+                }
+                if (i <= j) {
+                    int tmp = order[i];
+                    order[i] = order[j];
+                    order[j] = tmp;
+                    i += 1;
+                    j -= 1;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private static double coordinate(GraphDB g, int v, boolean byLon) {
+        return byLon ? g.lonAt(v) : g.latAt(v);
+    }
+}
@@ -0,0 +1,370 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An autocomplete index over the locations of a GraphDB. Each distinct cleaned name (see
+ * GraphDB.cleanString) is a key, mapped to the locations that have it and through them to
+ * their original names and node ids.
+ *
+ * The keys are sorted and stored in a compressed (radix) trie: each trie node covers the
+ * keys [lo, hi) sharing a prefix of depth characters, and has one child per distinct
+ * next character. Nodes are laid out breadth first in parallel int arrays, so the children
+ * of a node are contiguous and a lookup binary-searches them by character. Nodes with a
+ * single child are merged into it, so there are fewer than two nodes per key.
+ *
+ * Every node also stores its best topK keys by rank, computed bottom-up when the index is
+ * built. A completion for up to topK results is therefore a walk down the trie plus a copy,
+ * however many names start with the prefix. Larger requests fall back to ranking the whole
+ * range of keys under the node.
+ */
+public class PrefixIndex {
+    /** Number of best keys kept at each trie node when none is configured. */
+    public static final int DEFAULT_TOP_K = 10;
+
+    /** How completions are ordered. Ties are broken alphabetically by cleaned name. */
+    public enum Rank {
+        /** Names shared by the most locations first, e.g. chains before one-off shops. */
+        COUNT,
+        /** Shortest names first, so the closest completion of the prefix comes first. */
+        LENGTH;
+
+        /** Returns the score of a key; higher scores are ranked first. */
+        double score(String key, int locations) {
+            return this == COUNT ? locations : -key.length();
+        }
+
+        /**
+         * Parses a rank name, ignoring case.
+         * @param name The name, or null.
+         * @return The rank, or COUNT if name is null or unknown.
+         */
+        public static Rank parse(String name) {
+            for (Rank r : values()) {
+                if (r.name().equalsIgnoreCase(name)) {
+                    return r;
+                }
+            }
+            return COUNT;
+        }
+    }
+
+    private final GraphDB g;
+    private final int topK;
+    /** The distinct cleaned names, sorted. */
+    private final String[] keys;
+    /** The locations of key i are locations[keyStart[i]] .. locations[keyStart[i + 1] - 1]. */
+    private final int[] keyStart;
+    private final int[] locations;
+    /** The distinct original names of each key, in file order. */
+    private final String[][] keyNames;
+    /** Position of each key in rank order, so comparing keys is comparing two ints. */
+    private final int[] order;
+    /** The key at each position in rank order; the inverse of order. */
+    private final int[] byRank;
+
+    /* The trie, one entry per node. Node 0 is the root. */
+    private final int[] nodeLo;
+    private final int[] nodeHi;
+    private final int[] nodeDepth;
+    /** The children of node v are nodes childStart[v] .. childStart[v + 1] - 1. */
+    private final int[] childStart;
+    /** The best keys of node v are top[topStart[v]] .. top[topStart[v + 1] - 1], best first. */
+    private final int[] topStart;
+    private final int[] top;
+
+    /**
+     * Indexes the locations of a cleaned graph. Locations whose name cleans to the empty
+     * string are left out.
+     * @param g The graph.
+     * @param rank How to order completions.
+     * @param topK How many completions to precompute at each trie node.
+     */
+    public PrefixIndex(GraphDB g, Rank rank, int topK) {
+        this.g = g;
+        this.topK = topK;
+
+        /* Group the locations by cleaned name. */
+        int count = g.locationCount();
+        String[] cleaned = new String[count];
+        Integer[] byName = new Integer[count];
+        int named = 0;
+        for (int i = 0; i < count; i += 1) {
+            cleaned[i] = GraphDB.cleanString(g.locationName(i));
+            if (!cleaned[i].isEmpty()) {
+                byName[named] = i;
+                named += 1;
+            }
+        }
+        byName = Arrays.copyOf(byName, named);
+        Arrays.sort(byName, Comparator.comparing((Integer i) -> cleaned[i]));
+        locations = new int[named];
+        String[] distinct = new String[named];
+        int[] starts = new int[named + 1];
+        int k = 0;
+        for (int i = 0; i < named; i += 1) {
+            locations[i] = byName[i];
+            if (i == 0 || !cleaned[byName[i]].equals(distinct[k - 1])) {
+                distinct[k] = cleaned[byName[i]];
+                starts[k] = i;
+                k += 1;
+            }
+        }
+        starts[k] = named;
+        keys = Arrays.copyOf(distinct, k);
+        keyStart = Arrays.copyOf(starts, k + 1);
+        keyNames = new String[k][];
+        for (int i = 0; i < k; i += 1) {
+            Set<String> originals = new LinkedHashSet<>();
+            for (int j = keyStart[i]; j < keyStart[i + 1]; j += 1) {
+                originals.add(g.locationName(locations[j]));
+            }
+            keyNames[i] = originals.toArray(new String[0]);
+        }
+
+        Integer[] ranked = new Integer[k];
+        double[] scores = new double[k];
+        for (int i = 0; i < k; i += 1) {
+            ranked[i] = i;
+            scores[i] = rank.score(keys[i], keyStart[i + 1] - keyStart[i]);
+        }
+        Arrays.sort(ranked, (a, b) -> scores[a] != scores[b]
+            ? Double.compare(scores[b], scores[a]) : Integer.compare(a, b));
+        order = new int[k];
+        byRank = new int[k];
+        for (int i = 0; i < k; i += 1) {
+            order[ranked[i]] = i;
+            byRank[i] = ranked[i];
+        }
+
+        Trie trie = new Trie();
+        nodeLo = trie.lo;
+        nodeHi = trie.hi;
+        nodeDepth = trie.depth;
+        childStart = trie.childStart;
+        topStart = trie.topStart;
+        top = trie.top;
+    }
+
+    /** Returns the number of distinct cleaned names. */
+    public int size() {
+        return keys.length;
+    }
+
+    /** Returns the number of trie nodes. */
+    int nodeCount() {
+        return nodeLo.length;
+    }
+
+    /**
+     * Returns the original names of the best locations whose cleaned name starts with the
+     * cleaned prefix. The names of one key are listed together, in file order.
+     * @param prefix The prefix, in any case and with or without punctuation.
+     * @param k The maximum number of names to return.
+     * @return Up to k distinct names, best first.
+     */
+    public List<String> complete(String prefix, int k) {
+        int[] best = topKeys(GraphDB.cleanString(prefix), k);
+        List<String> names = new ArrayList<>(k);
+        for (int key : best) {
+            for (int i = 0; i < keyNames[key].length && names.size() < k; i += 1) {
+                names.add(keyNames[key][i]);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Returns the locations whose cleaned name is exactly the cleaned name given.
+     * @param name The name, in any case and with or without punctuation.
+     * @return Indices of locations of the graph, in file order.
+     */
+    public int[] locationsNamed(String name) {
+        int key = Arrays.binarySearch(keys, GraphDB.cleanString(name));
+        if (key < 0) {
+            return new int[0];
+        }
+        return Arrays.copyOfRange(locations, keyStart[key], keyStart[key + 1]);
+    }
+
+    /** Returns the best k keys starting with the cleaned prefix, best first. */
+    int[] topKeys(String prefix, int k) {
+        int v = find(prefix);
+        if (v < 0 || k <= 0) {
+            return new int[0];
+        }
+        if (k <= topK) {
+            int n = Math.min(k, topStart[v + 1] - topStart[v]);
+            return Arrays.copyOfRange(top, topStart[v], topStart[v] + n);
+        }
+        /* More than was precomputed: rank every key under the node. */
+        int lo = nodeLo[v];
+        int hi = nodeHi[v];
+        int[] byOrder = new int[hi - lo];
+        for (int i = lo; i < hi; i += 1) {
+            byOrder[i - lo] = order[i];
+        }
+        Arrays.sort(byOrder);
+        int n = Math.min(k, byOrder.length);
+        int[] result = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            result[i] = byRank[byOrder[i]];
+        }
+        return result;
+    }
+
+    /** Returns the highest trie node under which every key starts with prefix, or -1. */
+    private int find(String prefix) {
+        if (keys.length == 0) {
+            return -1;
+        }
+        int v = 0;
+        int matched = 0;
+        while (true) {
+            String key = keys[nodeLo[v]];
+            int depth = nodeDepth[v];
+            int end = Math.min(depth, prefix.length());
+            for (int i = matched; i < end; i += 1) {
+                if (key.charAt(i) != prefix.charAt(i)) {
+                    return -1;
+                }
+            }
+            if (prefix.length() <= depth) {
+                return v;
+            }
+            matched = depth;
+            v = child(v, prefix.charAt(depth));
+            if (v < 0) {
+                return -1;
+            }
+        }
+    }
+
+    /** Returns the child of v whose keys have c after v's prefix, or -1 if there is none. */
+    private int child(int v, char c) {
+        int lo = childStart[v];
+        int hi = childStart[v + 1] - 1;
+        int depth = nodeDepth[v];
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            char m = keys[nodeLo[mid]].charAt(depth);
+            if (m < c) {
+                lo = mid + 1;
+            } else if (m > c) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Builds the trie arrays breadth first, then the best keys of each node bottom-up. */
+    private class Trie {
+        int[] lo = new int[16];
+        int[] hi = new int[16];
+        int[] depth = new int[16];
+        int[] childStart;
+        int[] topStart;
+        int[] top;
+        int size;
+
+        Trie() {
+            int n = keys.length;
+            int[] children = new int[16];
+            add(0, n);
+            for (int v = 0; v < size; v += 1) {
+                if (v + 1 >= children.length) {
+                    children = Arrays.copyOf(children, children.length * 2);
+                }
+                children[v] = size;
+                int d = depth[v];
+                int i = lo[v];
+                if (i < hi[v] && keys[i].length() == d) {
+                    /* The key that is the node's whole prefix sorts first. */
+                    i += 1;
+                }
+                while (i < hi[v]) {
+                    char c = keys[i].charAt(d);
+                    int j = i + 1;
+                    while (j < hi[v] && keys[j].charAt(d) == c) {
+                        j += 1;
+                    }
+                    add(i, j);
+                    i = j;
+                }
+            }
+            childStart = Arrays.copyOf(children, size + 1);
+            childStart[size] = size;
+            lo = Arrays.copyOf(lo, size);
+            hi = Arrays.copyOf(hi, size);
+            depth = Arrays.copyOf(depth, size);
+            buildTops();
+        }
+
+        /** Adds a node over keys [from, to), as deep as their common prefix. */
+        private void add(int from, int to) {
+            if (size == lo.length) {
+                lo = Arrays.copyOf(lo, size * 2);
+                hi = Arrays.copyOf(hi, size * 2);
+                depth = Arrays.copyOf(depth, size * 2);
+            }
+            lo[size] = from;
+            hi[size] = to;
+            depth[size] = from == to ? 0 : commonPrefix(keys[from], keys[to - 1]);
+            size += 1;
+        }
+
+        /**
+         * Children come after their parents, so walking the nodes backwards visits every
+         * child before its parent, and a node's best keys are the best of its own key and
+         * its children's best keys.
+         */
+        private void buildTops() {
+            int[][] tops = new int[size][];
+            int total = 0;
+            int[] candidates = new int[16];
+            for (int v = size - 1; v >= 0; v -= 1) {
+                int n = 0;
+                if (lo[v] < hi[v] && keys[lo[v]].length() == depth[v]) {
+                    candidates[n] = order[lo[v]];
+                    n += 1;
+                }
+                for (int c = childStart[v]; c < childStart[v + 1]; c += 1) {
+                    for (int key : tops[c]) {
+                        if (n == candidates.length) {
+                            candidates = Arrays.copyOf(candidates, n * 2);
+                        }
+                        candidates[n] = order[key];
+                        n += 1;
+                    }
+                }
+                Arrays.sort(candidates, 0, n);
+                n = Math.min(n, topK);
+                tops[v] = new int[n];
+                for (int i = 0; i < n; i += 1) {
+                    tops[v][i] = byRank[candidates[i]];
+                }
+                total += n;
+            }
+            topStart = new int[size + 1];
+            top = new int[total];
+            for (int v = 0; v < size; v += 1) {
+                topStart[v + 1] = topStart[v] + tops[v].length;
+                System.arraycopy(tops[v], 0, top, topStart[v], tops[v].length);
+            }
+        }
+    }
+
+    private static int commonPrefix(String a, String b) {
+        int n = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < n && a.charAt(i) == b.charAt(i)) {
+            i += 1;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,222 @@
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Encoded raster images, shared by identical concurrent requests. When many clients load
+ * the same view at once, the first request for a key composites and encodes the image
+ * while the others wait for its result instead of repeating the work (single flight). The
+ * result is then kept for a short time to live, so requests that arrive just after it was
+ * made are served from memory too.
+ *
+ * Keys should identify everything the image depends on: the raster's bounds and depth,
+ * from getMapRaster, and the route drawn on it, through fingerprint(). Memory is bounded by
+ * a byte budget; a finished image that does not fit after expired images are dropped is
+ * handed to its waiters but not kept.
+ */
+public class RasterCache {
+    /** Default budget of 32 MB of encoded images. */
+    public static final long DEFAULT_BUDGET_BYTES = 32L * 1024 * 1024;
+    /** Default time to live of 2 seconds. */
+    public static final long DEFAULT_TTL_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    private final long budgetBytes;
+    private final long ttlNanos;
+    private final LongSupplier clock;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong usedBytes = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /** An image being made, or made and kept until expiresAt. */
+    private static class Entry {
+        final CompletableFuture<byte[]> image = new CompletableFuture<>();
+        /** When the image stops being served; only meaningful once it is done. */
+        volatile long expiresAt;
+        /** The image's size once it is counted in usedBytes, else 0. */
+        volatile long keptBytes;
+    }
+
+    /**
+     * Create an empty cache with the default budget and time to live.
+     */
+    public RasterCache() {
+        this(DEFAULT_BUDGET_BYTES, DEFAULT_TTL_NANOS, System::nanoTime);
+    }
+
+    /**
+     * Create an empty cache.
+     * @param budgetBytes The maximum number of bytes of finished images to keep.
+     * @param ttlNanos How long a finished image is served after it was made.
+     * @param clock The source of System.nanoTime-style timestamps.
+     */
+    public RasterCache(long budgetBytes, long ttlNanos, LongSupplier clock) {
+        if (budgetBytes <= 0 || ttlNanos <= 0) {
+            throw new IllegalArgumentException("Raster budget and time to live must be "
+                + "positive.");
+        }
+        this.budgetBytes = budgetBytes;
+        this.ttlNanos = ttlNanos;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the image for a key: a fresh cached one, the result of a request already
+     * making it, or else one made by render on the calling thread.
+     * @param key Identifies the image.
+     * @param render Makes the image. Exceptions it throws reach every waiting caller, and
+     *               nothing is cached for the key.
+     * @return The encoded image, shared between callers; it must not be modified.
+     */
+    public byte[] get(String key, Supplier<byte[]> render) {
+        Entry mine = new Entry();
+        while (true) {
+            Entry entry = entries.putIfAbsent(key, mine);
+            if (entry == null) {
+                break;
+            }
+            if (!entry.image.isDone()) {
+                coalesced.incrementAndGet();
+                return join(entry);
+            }
+            if (clock.getAsLong() - entry.expiresAt < 0) {
+                hits.incrementAndGet();
+                return entry.image.join();
+            }
+            /* Expired: drop it and race to start the new one. */
+            if (entries.remove(key, entry)) {
+                release(entry);
+            }
+        }
+
+        misses.incrementAndGet();
+        byte[] image;
+        try {
+            image = render.get();
+        } catch (RuntimeException | Error e) {
+            entries.remove(key, mine);
+            mine.image.completeExceptionally(e);
+            throw e;
+        }
+        mine.expiresAt = clock.getAsLong() + ttlNanos;
+        keep(key, mine, image.length);
+        mine.image.complete(image);
+        return image;
+    }
+
+    /** Waits for another caller's image, rethrowing what its render threw. */
+    private static byte[] join(Entry entry) {
+        try {
+            return entry.image.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /** Counts a finished image against the budget, or unmaps it if it does not fit. */
+    private void keep(String key, Entry entry, long size) {
+        entry.keptBytes = size;
+        if (usedBytes.addAndGet(size) > budgetBytes) {
+            evictExpired();
+            if (usedBytes.get() > budgetBytes && entries.remove(key, entry)) {
+                release(entry);
+            }
+        }
+    }
+
+    /** Drops every finished image whose time to live has passed. */
+    private void evictExpired() {
+        long now = clock.getAsLong();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            Entry entry = e.getValue();
+            if (entry.image.isDone() && now - entry.expiresAt >= 0
+                    && entries.remove(e.getKey(), entry)) {
+                release(entry);
+            }
+        }
+    }
+
+    /**
+     * Drops every finished image, so that the next request for each makes it again. Images
+     * still being made are left for their waiters. The counters are left untouched.
+     */
+    public void clear() {
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            Entry entry = e.getValue();
+            if (entry.image.isDone() && entries.remove(e.getKey(), entry)) {
+                release(entry);
+            }
+        }
+    }
+
+    /** Uncounts an image that its caller has just removed from the map. */
+    private void release(Entry entry) {
+        usedBytes.addAndGet(-entry.keptBytes);
+    }
+
+    /**
+     * Returns a 64-bit fingerprint of a route, for raster keys. Distinct routes collide
+     * with probability about 2^-64.
+     */
+    public static long fingerprint(List<Long> route) {
+        long h = 0x9E3779B97F4A7C15L * (route.size() + 1);
+        for (long id : route) {
+            h = mix(h ^ id);
+        }
+        return h;
+    }
+
+    /** The SplitMix64 finalizer: a bijection that spreads every input bit over the output. */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /** Requests answered with a fresh cached image. */
+    public long hits() {
+        return hits.get();
+    }
+
+    /** Requests that waited for an identical request's image instead of making their own. */
+    public long coalesced() {
+        return coalesced.get();
+    }
+
+    /** Requests that made their image. */
+    public long misses() {
+        return misses.get();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long usedBytes() {
+        return usedBytes.get();
+    }
+
+    public long budgetBytes() {
+        return budgetBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RasterCache[%d images, %d/%d bytes, %d hits, %d coalesced, "
+                + "%d misses]", size(), usedBytes(), budgetBytes, hits(), coalesced(),
+                misses());
+    }
+}
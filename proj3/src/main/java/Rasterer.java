@@ -6,11 +6,46 @@ import java.util.Map;
  * a query result. The getMapRaster method must return a Map containing all
  * seven of the required fields, otherwise the front end code will probably
  * not draw the output correctly.
+ *
+ * The tile pyramid is a quadtree rooted at the MapServer ROOT box: the tiles at depth d
+ * split the root into a 2^d by 2^d grid, and tile d{d}_x{x}_y{y}.png is the x-th column
+ * and y-th row of that grid. Since the grid at each depth is regular, the quadtree never
+ * has to be walked node by node; the per-depth tile sizes, LonDPPs and file names are all
+ * computed once in the constructor, and a query only has to pick a depth and divide.
  */
 public class Rasterer {
+    /** Deepest level of the tile pyramid. */
+    public static final int MAX_DEPTH = 7;
+
+    private static final double ROOT_WIDTH = MapServer.ROOT_LRLON - MapServer.ROOT_ULLON;
+    private static final double ROOT_HEIGHT = MapServer.ROOT_ULLAT - MapServer.ROOT_LRLAT;
+
+    /** Longitudinal width of one tile at each depth. */
+    private final double[] tileWidth;
+    /** Latitudinal height of one tile at each depth. */
+    private final double[] tileHeight;
+    /** Longitudinal distance per pixel of the tiles at each depth, decreasing with depth. */
+    private final double[] lonDPP;
+    /** File name of every tile, indexed by depth, row (y) and column (x). */
+    private final String[][][] tileNames;
 
     public Rasterer() {
-        // YOUR CODE HERE
+        tileWidth = new double[MAX_DEPTH + 1];
+        tileHeight = new double[MAX_DEPTH + 1];
+        lonDPP = new double[MAX_DEPTH + 1];
+        tileNames = new String[MAX_DEPTH + 1][][];
+        for (int d = 0; d <= MAX_DEPTH; d += 1) {
+            int n = 1 << d;
+            tileWidth[d] = ROOT_WIDTH / n;
+            tileHeight[d] = ROOT_HEIGHT / n;
+            lonDPP[d] = tileWidth[d] / MapServer.TILE_SIZE;
+            tileNames[d] = new String[n][n];
+            for (int y = 0; y < n; y += 1) {
+                for (int x = 0; x < n; x += 1) {
+                    tileNames[d][y][x] = "d" + d + "_x" + x + "_y" + y + ".png";
+                }
+            }
+        }
     }
 
     /**
@@ -42,11 +77,70 @@ public class Rasterer {
      *                    forget to set this to true on success! <br>
      */
     public Map<String, Object> getMapRaster(Map<String, Double> params) {
-        // System.out.println(params);
+        double ullon = params.get("ullon");
+        double ullat = params.get("ullat");
+        double lrlon = params.get("lrlon");
+        double lrlat = params.get("lrlat");
+        double w = params.get("w");
+
         Map<String, Object> results = new HashMap<>();
-        System.out.println("Since you haven't implemented getMapRaster, nothing is displayed in "
-                           + "your browser.");
+        if (ullon >= lrlon || ullat <= lrlat || w <= 0
+                || lrlon <= MapServer.ROOT_ULLON || ullon >= MapServer.ROOT_LRLON
+                || lrlat >= MapServer.ROOT_ULLAT || ullat <= MapServer.ROOT_LRLAT) {
+            return failure(results);
+        }
+
+        int depth = depthFor((lrlon - ullon) / w);
+        int n = 1 << depth;
+        int xMin = clamp((int) ((ullon - MapServer.ROOT_ULLON) / tileWidth[depth]), n);
+        int xMax = clamp((int) ((lrlon - MapServer.ROOT_ULLON) / tileWidth[depth]), n);
+        int yMin = clamp((int) ((MapServer.ROOT_ULLAT - ullat) / tileHeight[depth]), n);
+        int yMax = clamp((int) ((MapServer.ROOT_ULLAT - lrlat) / tileHeight[depth]), n);
+
+        String[][] renderGrid = new String[yMax - yMin + 1][];
+        for (int y = yMin; y <= yMax; y += 1) {
+            String[] row = new String[xMax - xMin + 1];
+            System.arraycopy(tileNames[depth][y], xMin, row, 0, row.length);
+            renderGrid[y - yMin] = row;
+        }
+
+        results.put("render_grid", renderGrid);
+        results.put("raster_ul_lon", MapServer.ROOT_ULLON + xMin * tileWidth[depth]);
+        results.put("raster_ul_lat", MapServer.ROOT_ULLAT - yMin * tileHeight[depth]);
+        results.put("raster_lr_lon", MapServer.ROOT_ULLON + (xMax + 1) * tileWidth[depth]);
+        results.put("raster_lr_lat", MapServer.ROOT_ULLAT - (yMax + 1) * tileHeight[depth]);
+        results.put("depth", depth);
+        results.put("query_success", true);
         return results;
     }
 
+    /**
+     * Returns the shallowest depth whose LonDPP is at most queryLonDPP, or MAX_DEPTH if
+     * even the deepest tiles are coarser than the query.
+     */
+    int depthFor(double queryLonDPP) {
+        for (int d = 0; d < MAX_DEPTH; d += 1) {
+            if (lonDPP[d] <= queryLonDPP) {
+                return d;
+            }
+        }
+        return MAX_DEPTH;
+    }
+
+    /** Clamps a tile index into [0, n - 1]. */
+    private static int clamp(int i, int n) {
+        return Math.max(0, Math.min(n - 1, i));
+    }
+
+    /** Fills in placeholder values for a query that cannot be rastered. */
+    private static Map<String, Object> failure(Map<String, Object> results) {
+        results.put("render_grid", new String[][]{{}});
+        results.put("raster_ul_lon", 0.0);
+        results.put("raster_ul_lat", 0.0);
+        results.put("raster_lr_lon", 0.0);
+        results.put("raster_lr_lat", 0.0);
+        results.put("depth", 0);
+        results.put("query_success", false);
+        return results;
+    }
 }
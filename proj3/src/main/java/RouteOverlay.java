@@ -0,0 +1,204 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The part of a route that shows in a raster, as a few simplified polylines in the
+ * raster's pixel coordinates. The route is first clipped to the raster's box, widened by a
+ * margin so strokes that cross the edge are still drawn, which splits it into one polyline
+ * per pass through the box. Each polyline is then simplified with Douglas-Peucker, dropping
+ * the points that move it by less than a tolerance of a fraction of a pixel, so that a
+ * route drawn on a zoomed-out raster costs a few dozen line segments however long it is.
+ *
+ * Polylines are flat arrays of coordinates: x0, y0, x1, y1 and so on.
+ */
+public class RouteOverlay {
+    /** Simplification tolerance used by MapServer, in pixels. */
+    public static final double DEFAULT_TOLERANCE_PX = 0.5;
+
+    /**
+     * Returns the simplified, clipped polylines of a route on a raster.
+     * @param g The graph the route belongs to.
+     * @param route The OSM ids of the route's vertices, in order.
+     * @param ullon The longitude of the raster's left edge.
+     * @param ullat The latitude of the raster's top edge.
+     * @param lrlon The longitude of the raster's right edge.
+     * @param lrlat The latitude of the raster's bottom edge.
+     * @param width The raster's width in pixels.
+     * @param height The raster's height in pixels.
+     * @param margin How far outside the raster, in pixels, the route is still kept.
+     * @param tolerance The most, in pixels, simplification may move the route.
+     * @return The polylines, in pixel coordinates with y pointing down.
+     */
+    public static List<double[]> polylines(GraphDB g, List<Long> route, double ullon,
+                                           double ullat, double lrlon, double lrlat,
+                                           int width, int height, double margin,
+                                           double tolerance) {
+        double[] xs = new double[route.size()];
+        double[] ys = new double[route.size()];
+        double xScale = width / (lrlon - ullon);
+        double yScale = height / (ullat - lrlat);
+        int n = 0;
+        for (long id : route) {
+            /* A stored route may outlive vertices that an OSM change has since deleted. */
+            int v = g.index(id);
+            if (v >= 0) {
+                xs[n] = (g.lonAt(v) - ullon) * xScale;
+                ys[n] = (ullat - g.latAt(v)) * yScale;
+                n += 1;
+            }
+        }
+        List<double[]> clipped = clip(xs, ys, n, -margin, -margin, width + margin,
+                height + margin);
+        List<double[]> simplified = new ArrayList<>(clipped.size());
+        for (double[] line : clipped) {
+            simplified.add(simplify(line, tolerance));
+        }
+        return simplified;
+    }
+
+    /**
+     * Clips the polyline through (xs[i], ys[i]) to a box with the Liang-Barsky algorithm,
+     * keeping each stretch inside the box as a polyline of its own.
+     * @return The stretches inside the box, in order; empty if none.
+     */
+    static List<double[]> clip(double[] xs, double[] ys, int n, double minX, double minY,
+                               double maxX, double maxY) {
+        List<double[]> lines = new ArrayList<>();
+        double[] line = new double[16];
+        int length = 0;
+        boolean open = false;
+        for (int i = 0; i + 1 < n; i += 1) {
+            double x0 = xs[i];
+            double y0 = ys[i];
+            double dx = xs[i + 1] - x0;
+            double dy = ys[i + 1] - y0;
+            double[] t = {0, 1};
+            if (!clipT(-dx, x0 - minX, t) || !clipT(dx, maxX - x0, t)
+                    || !clipT(-dy, y0 - minY, t) || !clipT(dy, maxY - y0, t)) {
+                continue;
+            }
+            if (!open || t[0] > 0) {
+                if (length > 2) {
+                    lines.add(Arrays.copyOf(line, length));
+                }
+                line[0] = x0 + t[0] * dx;
+                line[1] = y0 + t[0] * dy;
+                length = 2;
+            }
+            if (length + 2 > line.length) {
+                line = Arrays.copyOf(line, line.length * 2);
+            }
+            line[length] = x0 + t[1] * dx;
+            line[length + 1] = y0 + t[1] * dy;
+            length += 2;
+            open = t[1] == 1;
+        }
+        if (length > 2) {
+            lines.add(Arrays.copyOf(line, length));
+        }
+        return lines;
+    }
+
+    /**
+     * Narrows the parameter range t = {enter, leave} of a segment to the side of one edge
+     * of the box, where p is the segment's direction across the edge and q the distance of
+     * its start inside the edge.
+     * @return false if the segment is wholly outside the edge.
+     */
+    private static boolean clipT(double p, double q, double[] t) {
+        if (p == 0) {
+            return q >= 0;
+        }
+        double r = q / p;
+        if (p < 0) {
+            if (r > t[1]) {
+                return false;
+            }
+            t[0] = Math.max(t[0], r);
+        } else {
+            if (r < t[0]) {
+                return false;
+            }
+            t[1] = Math.min(t[1], r);
+        }
+        return true;
+    }
+
+    /**
+     * Simplifies a polyline with the Douglas-Peucker algorithm: keeps its ends, and
+     * recursively keeps the point farthest from the chord between two kept points while
+     * that point is more than tolerance away from it. Uses an explicit stack, since long
+     * routes on a zoomed-out raster would recurse once per point in the worst case.
+     * @param line A flat polyline.
+     * @param tolerance The most the simplified polyline may stray from the original.
+     * @return The kept points, a flat polyline with the same ends.
+     */
+    static double[] simplify(double[] line, double tolerance) {
+        int n = line.length / 2;
+        if (n <= 2) {
+            return line;
+        }
+        boolean[] keep = new boolean[n];
+        keep[0] = true;
+        keep[n - 1] = true;
+        int[] stack = new int[64];
+        stack[0] = 0;
+        stack[1] = n - 1;
+        int top = 2;
+        double tolerance2 = tolerance * tolerance;
+        int kept = 2;
+        while (top > 0) {
+            int last = stack[top - 1];
+            int first = stack[top - 2];
+            top -= 2;
+            int farthest = -1;
+            double best = tolerance2;
+            for (int i = first + 1; i < last; i += 1) {
+                double d = segmentDistance2(line, i, first, last);
+                if (d > best) {
+                    best = d;
+                    farthest = i;
+                }
+            }
+            if (farthest < 0) {
+                continue;
+            }
+            keep[farthest] = true;
+            kept += 1;
+            if (top + 4 > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            stack[top] = first;
+            stack[top + 1] = farthest;
+            stack[top + 2] = farthest;
+            stack[top + 3] = last;
+            top += 4;
+        }
+        double[] simplified = new double[2 * kept];
+        int j = 0;
+        for (int i = 0; i < n; i += 1) {
+            if (keep[i]) {
+                simplified[j] = line[2 * i];
+                simplified[j + 1] = line[2 * i + 1];
+                j += 2;
+            }
+        }
+        return simplified;
+    }
+
+    /** Returns the squared distance from point p to the segment between points a and b. */
+    private static double segmentDistance2(double[] line, int p, int a, int b) {
+        double ax = line[2 * a];
+        double ay = line[2 * a + 1];
+        double dx = line[2 * b] - ax;
+        double dy = line[2 * b + 1] - ay;
+        double px = line[2 * p] - ax;
+        double py = line[2 * p + 1] - ay;
+        double length2 = dx * dx + dy * dy;
+        double t = length2 == 0 ? 0 : Math.max(0, Math.min(1, (px * dx + py * dy) / length2));
+        double ex = px - t * dx;
+        double ey = py - t * dy;
+        return ex * ex + ey * ey;
+    }
+}
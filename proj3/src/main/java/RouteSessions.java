@@ -0,0 +1,183 @@
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * The current route of each client, keyed by an opaque session token, so that one
+ * client's route is never drawn on another client's raster. Like TileCache, the sessions
+ * live in an access-ordered LinkedHashMap guarded by this object's monitor, and memory is
+ * bounded by a byte budget: the least recently used routes are dropped first when it is
+ * exceeded. Routes that have not been touched for the idle timeout are dropped as well,
+ * whenever the store is accessed.
+ *
+ * Stored routes are unmodifiable, so callers may read them without holding any lock.
+ */
+public class RouteSessions {
+    /** Default budget of 64 MB of routes. */
+    public static final long DEFAULT_BUDGET_BYTES = 64L * 1024 * 1024;
+    /** Default idle timeout of 30 minutes. */
+    public static final long DEFAULT_IDLE_NANOS = TimeUnit.MINUTES.toNanos(30);
+    /** Approximate heap cost of one boxed vertex id in a route. */
+    private static final long BYTES_PER_VERTEX = 24;
+    /** Approximate heap cost of a session with an empty route. */
+    private static final long BYTES_PER_SESSION = 128;
+
+    private static final SecureRandom TOKENS = new SecureRandom();
+
+    private final long budgetBytes;
+    private final long idleNanos;
+    private final LongSupplier clock;
+    private long usedBytes;
+    private final LinkedHashMap<String, Session> sessions;
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    /** A client's route and when it was last used. */
+    private static class Session {
+        final List<Long> route;
+        long lastUsed;
+
+        Session(List<Long> route, long lastUsed) {
+            this.route = route;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    /**
+     * Create an empty store with the default budget and idle timeout.
+     */
+    public RouteSessions() {
+        this(DEFAULT_BUDGET_BYTES, DEFAULT_IDLE_NANOS, System::nanoTime);
+    }
+
+    /**
+     * Create an empty store.
+     * @param budgetBytes The maximum approximate number of bytes of routes to keep.
+     * @param idleNanos How long a route is kept after it was last set or read.
+     * @param clock The source of System.nanoTime-style timestamps.
+     */
+    public RouteSessions(long budgetBytes, long idleNanos, LongSupplier clock) {
+        if (budgetBytes <= 0 || idleNanos <= 0) {
+            throw new IllegalArgumentException("Route budget and idle timeout must be positive.");
+        }
+        this.budgetBytes = budgetBytes;
+        this.idleNanos = idleNanos;
+        this.clock = clock;
+        /* An access-ordered LinkedHashMap iterates from least to most recently used. */
+        this.sessions = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /** Returns a new random session token, safe to put in a cookie or a query string. */
+    public static String newToken() {
+        return Long.toHexString(TOKENS.nextLong()) + Long.toHexString(TOKENS.nextLong());
+    }
+
+    /**
+     * Returns the route of a session.
+     * @param token The session token, or null.
+     * @return The unmodifiable route, or an empty list if the session has none.
+     */
+    public synchronized List<Long> get(String token) {
+        long now = clock.getAsLong();
+        evictIdle(now);
+        Session session = token == null ? null : sessions.get(token);
+        if (session == null) {
+            return Collections.emptyList();
+        }
+        session.lastUsed = now;
+        return session.route;
+    }
+
+    /**
+     * Sets the route of a session, evicting least recently used sessions until the budget
+     * is met. A route larger than the whole budget is not kept at all.
+     * @param token The session token.
+     * @param route The route, which is copied.
+     */
+    public void put(String token, List<Long> route) {
+        List<Long> copy = Collections.unmodifiableList(new ArrayList<>(route));
+        long size = sizeOf(copy);
+        synchronized (this) {
+            long now = clock.getAsLong();
+            evictIdle(now);
+            Session old = sessions.remove(token);
+            if (old != null) {
+                usedBytes -= sizeOf(old.route);
+            }
+            if (size > budgetBytes) {
+                return;
+            }
+            sessions.put(token, new Session(copy, now));
+            usedBytes += size;
+
+            Iterator<Session> it = sessions.values().iterator();
+            while (usedBytes > budgetBytes && it.hasNext()) {
+                usedBytes -= sizeOf(it.next().route);
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /** Forgets the route of a session. */
+    public synchronized void remove(String token) {
+        Session old = sessions.remove(token);
+        if (old != null) {
+            usedBytes -= sizeOf(old.route);
+        }
+    }
+
+    /** Forgets every session. The eviction counter is left untouched. */
+    public synchronized void clear() {
+        sessions.clear();
+        usedBytes = 0;
+    }
+
+    /** Drops the sessions, least recently used first, that have been idle too long. */
+    private void evictIdle(long now) {
+        Iterator<Session> it = sessions.values().iterator();
+        while (it.hasNext()) {
+            Session eldest = it.next();
+            if (now - eldest.lastUsed < idleNanos) {
+                return;
+            }
+            usedBytes -= sizeOf(eldest.route);
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /** Approximate heap footprint of a session holding route. */
+    static long sizeOf(List<Long> route) {
+        return BYTES_PER_SESSION + BYTES_PER_VERTEX * route.size();
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+
+    public synchronized int size() {
+        return sessions.size();
+    }
+
+    public synchronized long usedBytes() {
+        return usedBytes;
+    }
+
+    public long budgetBytes() {
+        return budgetBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RouteSessions[%d sessions, %d/%d bytes, %d evictions]",
+                size(), usedBytes(), budgetBytes, evictions());
+    }
+}
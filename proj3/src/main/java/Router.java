@@ -1,7 +1,12 @@
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.IntStream;
 
 /**
  * This class provides a shortestPath method for finding routes between two points
@@ -12,6 +17,74 @@ import java.util.regex.Pattern;
  * down to the priority you use to order your vertices.
  */
 public class Router {
+    /** The shortest-path algorithms shortestPath can run. All return the same paths. */
+    public enum Algorithm {
+        /** A* from the start, with the great-circle distance to the destination. */
+        ASTAR,
+        /**
+         * A* from the start, with the larger of the great-circle and landmark lower bounds.
+         * Falls back to ASTAR if no landmarks have been attached to the graph.
+         */
+        ALT,
+        /** A* from both ends at once, with the average of the two great-circle potentials. */
+        BIDIRECTIONAL,
+        /**
+         * Bidirectional Dijkstra over the graph's contraction hierarchy. Falls back to
+         * BIDIRECTIONAL if no hierarchy has been attached to the graph.
+         */
+        CH,
+        /**
+         * Two-level search over the graph's cell partition: Dijkstra inside the start and
+         * destination cells, then over the boundary overlay. Falls back to ASTAR if no
+         * partition has been attached to the graph.
+         */
+        PARTITIONED;
+
+        /**
+         * Parses an algorithm name, as sent by clients, ignoring case.
+         * @param name The name, or null.
+         * @return The algorithm, or ASTAR if name is null or unknown.
+         */
+        public static Algorithm parse(String name) {
+            return parse(name, ASTAR);
+        }
+
+        /**
+         * Parses an algorithm name, as sent by clients, ignoring case.
+         * @param name The name, or null.
+         * @param fallback The algorithm to use if name is null or unknown.
+         * @return The algorithm.
+         */
+        public static Algorithm parse(String name, Algorithm fallback) {
+            for (Algorithm a : values()) {
+                if (a.name().equalsIgnoreCase(name)) {
+                    return a;
+                }
+            }
+            return fallback;
+        }
+    }
+
+    /** Search state for each direction, reused by every query on the same thread. */
+    private static final ThreadLocal<SearchSpace> FORWARD =
+        ThreadLocal.withInitial(() -> new SearchSpace(0));
+    private static final ThreadLocal<SearchSpace> BACKWARD =
+        ThreadLocal.withInitial(() -> new SearchSpace(0));
+    /** Search state for the overlay of a partitioned graph, and for unpacking its paths. */
+    private static final ThreadLocal<SearchSpace> OVERLAY =
+        ThreadLocal.withInitial(() -> new SearchSpace(0));
+    private static final ThreadLocal<SearchSpace> UNPACK =
+        ThreadLocal.withInitial(() -> new SearchSpace(0));
+    /**
+     * The threads distance matrices are searched on. They are not the common pool, which
+     * composites rasters, so that a large matrix cannot hold up rendering.
+     */
+    private static final ForkJoinPool MATRIX_POOL = new ForkJoinPool(
+        Runtime.getRuntime().availableProcessors());
+    /** Vertices settled by the most recent search on each thread, for benchmarking. */
+    private static final ThreadLocal<int[]> LAST_SETTLED =
+        ThreadLocal.withInitial(() -> new int[1]);
+
     /**
      * Return a List of longs representing the shortest path from the node
      * closest to a start location and the node closest to the destination
@@ -25,7 +98,585 @@ public class Router {
      */
     public static List<Long> shortestPath(GraphDB g, double stlon, double stlat,
                                           double destlon, double destlat) {
-        return null; // FIXME
+        return shortestPath(g, stlon, stlat, destlon, destlat, Algorithm.ASTAR);
+    }
+
+    /**
+     * Like shortestPath, with a choice of search algorithm.
+     * @param algorithm The algorithm to search with.
+     */
+    public static List<Long> shortestPath(GraphDB g, double stlon, double stlat,
+                                          double destlon, double destlat, Algorithm algorithm) {
+        int s = g.closestIndex(stlon, stlat);
+        int t = g.closestIndex(destlon, destlat);
+        return toIds(g, shortestPath(g, s, t, algorithm));
+    }
+
+    /**
+     * The int-indexed fast path behind shortestPath: searches the CSR arrays of the graph
+     * directly and never boxes an id.
+     * @param g The graph to use.
+     * @param s The index of the start vertex.
+     * @param t The index of the destination vertex.
+     * @param algorithm The algorithm to search with.
+     * @return The vertex indices of the shortest path from s to t, or an empty array if t
+     * cannot be reached.
+     */
+    static int[] shortestPath(GraphDB g, int s, int t, Algorithm algorithm) {
+        switch (algorithm) {
+            case BIDIRECTIONAL:
+                return bidirectional(g, s, t);
+            case ALT:
+                Landmarks landmarks = g.landmarks();
+                return landmarks == null ? aStar(g, s, t) : alt(g, landmarks, s, t);
+            case CH:
+                ContractionHierarchy ch = g.hierarchy();
+                return ch == null ? bidirectional(g, s, t) : contracted(ch, s, t);
+            case PARTITIONED:
+                PartitionedGraph pg = g.partition();
+                return pg == null ? aStar(g, s, t) : partitioned(g, pg, s, t);
+            case ASTAR:
+            default:
+                return aStar(g, s, t);
+        }
+    }
+
+    /** Returns the number of vertices settled by the last search on this thread. */
+    static int lastSettledCount() {
+        return LAST_SETTLED.get()[0];
+    }
+
+    /** A* from s to t, using the great-circle distance to t as the heuristic. */
+    static int[] aStar(GraphDB g, int s, int t) {
+        SearchSpace space = FORWARD.get();
+        space.reset(g.size());
+        space.reach(s, 0, -1);
+        space.fringe.push(s, g.distanceAt(s, t));
+        int[] path = new int[0];
+        while (!space.fringe.isEmpty()) {
+            int v = space.fringe.pop();
+            if (space.isSettled(v)) {
+                continue;
+            }
+            space.settle(v);
+            if (v == t) {
+                path = space.pathTo(t);
+                break;
+            }
+            for (int e = g.edgeStart(v); e < g.edgeEnd(v); e += 1) {
+                int w = g.edgeTarget(e);
+                double d = space.dist(v) + g.edgeWeight(e);
+                if (d < space.dist(w)) {
+                    space.reach(w, d, v);
+                    space.fringe.push(w, d + g.distanceAt(w, t));
+                }
+            }
+        }
+        LAST_SETTLED.get()[0] = space.settledCount();
+        return path;
+    }
+
+    /** A* from s to t, with the best of the great-circle and landmark bounds to t. */
+    static int[] alt(GraphDB g, Landmarks landmarks, int s, int t) {
+        SearchSpace space = FORWARD.get();
+        space.reset(g.size());
+        space.reach(s, 0, -1);
+        space.fringe.push(s, altBound(g, landmarks, s, t));
+        int[] path = new int[0];
+        while (!space.fringe.isEmpty()) {
+            int v = space.fringe.pop();
+            if (space.isSettled(v)) {
+                continue;
+            }
+            space.settle(v);
+            if (v == t) {
+                path = space.pathTo(t);
+                break;
+            }
+            for (int e = g.edgeStart(v); e < g.edgeEnd(v); e += 1) {
+                int w = g.edgeTarget(e);
+                double d = space.dist(v) + g.edgeWeight(e);
+                if (d < space.dist(w)) {
+                    space.reach(w, d, v);
+                    space.fringe.push(w, d + altBound(g, landmarks, w, t));
+                }
+            }
+        }
+        LAST_SETTLED.get()[0] = space.settledCount();
+        return path;
+    }
+
+    private static double altBound(GraphDB g, Landmarks landmarks, int v, int t) {
+        return Math.max(g.distanceAt(v, t), landmarks.lowerBound(v, t));
+    }
+
+    /**
+     * Bidirectional A* from s and t. The forward search uses the potential
+     * p(v) = (dist(v, t) - dist(s, v)) / 2 and the backward search -p(v). Averaging the two
+     * great-circle heuristics this way keeps both potentials consistent and gives both
+     * searches the same reduced edge costs, so the usual bidirectional Dijkstra stopping
+     * rule applies: once the smallest forward and backward keys add up to at least the
+     * best path length mu seen so far, no better path can be found.
+     */
+    static int[] bidirectional(GraphDB g, int s, int t) {
+        if (s == t) {
+            LAST_SETTLED.get()[0] = 1;
+            return new int[]{s};
+        }
+        SearchSpace fwd = FORWARD.get();
+        SearchSpace bwd = BACKWARD.get();
+        fwd.reset(g.size());
+        bwd.reset(g.size());
+        fwd.reach(s, 0, -1);
+        bwd.reach(t, 0, -1);
+        fwd.fringe.push(s, potential(g, s, s, t));
+        bwd.fringe.push(t, -potential(g, t, s, t));
+
+        double mu = Double.POSITIVE_INFINITY;
+        int meet = -1;
+        while (!fwd.fringe.isEmpty() && !bwd.fringe.isEmpty()
+                && fwd.fringe.peekKey() + bwd.fringe.peekKey() < mu) {
+            boolean forward = fwd.fringe.size() <= bwd.fringe.size();
+            SearchSpace here = forward ? fwd : bwd;
+            SearchSpace there = forward ? bwd : fwd;
+            int v = here.fringe.pop();
+            if (here.isSettled(v)) {
+                continue;
+            }
+            here.settle(v);
+            for (int e = g.edgeStart(v); e < g.edgeEnd(v); e += 1) {
+                int w = g.edgeTarget(e);
+                double d = here.dist(v) + g.edgeWeight(e);
+                if (d < here.dist(w)) {
+                    here.reach(w, d, v);
+                    double p = potential(g, w, s, t);
+                    here.fringe.push(w, d + (forward ? p : -p));
+                }
+                if (there.isReached(w) && d + there.dist(w) < mu) {
+                    mu = d + there.dist(w);
+                    meet = w;
+                }
+            }
+        }
+        LAST_SETTLED.get()[0] = fwd.settledCount() + bwd.settledCount();
+        return join(fwd, bwd, meet);
+    }
+
+    /**
+     * Bidirectional Dijkstra over a contraction hierarchy. Both searches only follow
+     * upward edges, and each stops once its smallest key reaches the best meeting length mu.
+     * A vertex is stalled, and its edges not relaxed, if some higher neighbor already
+     * reaches it by a shorter path: it cannot then be on a shortest upward path.
+     */
+    static int[] contracted(ContractionHierarchy ch, int s, int t) {
+        SearchSpace fwd = FORWARD.get();
+        SearchSpace bwd = BACKWARD.get();
+        fwd.reset(ch.size());
+        bwd.reset(ch.size());
+        fwd.reach(s, 0, -1);
+        bwd.reach(t, 0, -1);
+        fwd.fringe.push(s, 0);
+        bwd.fringe.push(t, 0);
+
+        double mu = Double.POSITIVE_INFINITY;
+        int meet = -1;
+        boolean forward = true;
+        while (true) {
+            boolean fwdDone = fwd.fringe.isEmpty() || fwd.fringe.peekKey() >= mu;
+            boolean bwdDone = bwd.fringe.isEmpty() || bwd.fringe.peekKey() >= mu;
+            if (fwdDone && bwdDone) {
+                break;
+            }
+            forward = bwdDone || (!fwdDone && !forward);
+            SearchSpace here = forward ? fwd : bwd;
+            SearchSpace there = forward ? bwd : fwd;
+            int v = here.fringe.pop();
+            if (here.isSettled(v)) {
+                continue;
+            }
+            here.settle(v);
+            double dv = here.dist(v);
+            if (there.isReached(v) && dv + there.dist(v) < mu) {
+                mu = dv + there.dist(v);
+                meet = v;
+            }
+            if (isStalled(ch, here, v, dv)) {
+                continue;
+            }
+            for (int e = ch.upStart(v); e < ch.upEnd(v); e += 1) {
+                int w = ch.upTarget(e);
+                double d = dv + ch.upWeight(e);
+                if (d < here.dist(w)) {
+                    here.reach(w, d, v);
+                    here.fringe.push(w, d);
+                }
+            }
+        }
+        LAST_SETTLED.get()[0] = fwd.settledCount() + bwd.settledCount();
+        return ch.unpack(join(fwd, bwd, meet));
+    }
+
+    /**
+     * Joins the forward search's path to meet with the backward search's path from meet,
+     * or returns an empty path if the searches never met.
+     */
+    private static int[] join(SearchSpace fwd, SearchSpace bwd, int meet) {
+        if (meet < 0) {
+            return new int[0];
+        }
+        int[] head = fwd.pathTo(meet);
+        int[] tail = bwd.pathTo(meet);
+        int[] path = Arrays.copyOf(head, head.length + tail.length - 1);
+        for (int i = 0; i < tail.length - 1; i += 1) {
+            path[head.length + i] = tail[tail.length - 2 - i];
+        }
+        return path;
+    }
+
+    /** Returns whether a higher neighbor of v is reached by space with a shorter path to v. */
+    private static boolean isStalled(ContractionHierarchy ch, SearchSpace space, int v,
+                                     double dv) {
+        for (int e = ch.upStart(v); e < ch.upEnd(v); e += 1) {
+            if (space.dist(ch.upTarget(e)) + ch.upWeight(e) < dv) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Like shortestPath, over a partitioned graph whose cells are read from disk as needed.
+     * Only the overlay and the cells in use are held in memory. MapServer does not use
+     * this; it routes with Algorithm.PARTITIONED over a GraphDB that it keeps whole.
+     * @param pg The partitioned graph to use.
+     * @return A list of node id's in the order visited on the shortest path.
+     */
+    public static List<Long> shortestPath(PartitionedGraph pg, double stlon, double stlat,
+                                          double destlon, double destlat) {
+        long[] path = partitioned(pg, pg.closest(stlon, stlat), pg.closest(destlon, destlat));
+        List<Long> ids = new ArrayList<>(path.length);
+        for (long v : path) {
+            ids.add(pg.cell(PartitionedGraph.cellOf(v)).ids[PartitionedGraph.localOf(v)]);
+        }
+        return ids;
+    }
+
+    /** Routes between two vertices of g over its partition, returning vertex indices of g. */
+    private static int[] partitioned(GraphDB g, PartitionedGraph pg, int s, int t) {
+        long ps = pg.locate(g.id(s), g.lonAt(s), g.latAt(s));
+        long pt = pg.locate(g.id(t), g.lonAt(t), g.latAt(t));
+        if (ps < 0 || pt < 0) {
+            /* The partition was built from another graph. */
+            return aStar(g, s, t);
+        }
+        long[] packed = partitioned(pg, ps, pt);
+        int[] path = new int[packed.length];
+        for (int i = 0; i < packed.length; i += 1) {
+            long v = packed[i];
+            path[i] = g.index(pg.cell(PartitionedGraph.cellOf(v)).ids[
+                PartitionedGraph.localOf(v)]);
+        }
+        return path;
+    }
+
+    /**
+     * Two-level search between packed vertices of a partitioned graph. Dijkstra runs
+     * through the whole start cell from s, and the whole destination cell from t, giving
+     * the distances between each end and the boundary of its cell. Dijkstra over the
+     * overlay then starts from the start cell's boundary and stops once its smallest key
+     * reaches the best route found into the destination cell's boundary. Only the two end
+     * cells are loaded to find the length; the cells crossed by clique edges of the overlay
+     * path are loaded to unpack it, in parallel.
+     * @return The packed vertices of the shortest path from s to t, or an empty array if t
+     * cannot be reached.
+     */
+    static long[] partitioned(PartitionedGraph pg, long s, long t) {
+        int sc = PartitionedGraph.cellOf(s);
+        int tc = PartitionedGraph.cellOf(t);
+        PartitionedGraph.Cell source = pg.cell(sc);
+        PartitionedGraph.Cell target = pg.cell(tc);
+        SearchSpace fwd = FORWARD.get();
+        SearchSpace bwd = BACKWARD.get();
+        searchCell(source, PartitionedGraph.localOf(s), -1, fwd);
+        searchCell(target, PartitionedGraph.localOf(t), -1, bwd);
+
+        /* The best route that never leaves the cell, if both ends share one. */
+        double best = sc == tc ? fwd.dist(PartitionedGraph.localOf(t))
+            : Double.POSITIVE_INFINITY;
+        int meet = -1;
+        SearchSpace overlay = OVERLAY.get();
+        overlay.reset(pg.overlaySize());
+        for (int k = pg.boundaryStart(sc); k < pg.boundaryStart(sc + 1); k += 1) {
+            double d = fwd.dist(pg.overlayLocal(k));
+            if (d < Double.POSITIVE_INFINITY) {
+                overlay.reach(k, d, -1);
+                overlay.fringe.push(k, d);
+            }
+        }
+        while (!overlay.fringe.isEmpty() && overlay.fringe.peekKey() < best) {
+            int k = overlay.fringe.pop();
+            if (overlay.isSettled(k)) {
+                continue;
+            }
+            overlay.settle(k);
+            double dk = overlay.dist(k);
+            if (pg.overlayCell(k) == tc && dk + bwd.dist(pg.overlayLocal(k)) < best) {
+                best = dk + bwd.dist(pg.overlayLocal(k));
+                meet = k;
+            }
+            for (int e = pg.overlayStart(k); e < pg.overlayEnd(k); e += 1) {
+                int j = pg.overlayTarget(e);
+                double d = dk + pg.overlayWeight(e);
+                if (d < overlay.dist(j)) {
+                    overlay.reach(j, d, k);
+                    overlay.fringe.push(j, d);
+                }
+            }
+        }
+        LAST_SETTLED.get()[0] = fwd.settledCount() + bwd.settledCount()
+            + overlay.settledCount();
+        if (best == Double.POSITIVE_INFINITY) {
+            return new long[0];
+        }
+        if (meet < 0) {
+            return pack(sc, fwd.pathTo(PartitionedGraph.localOf(t)));
+        }
+
+        int[] nodes = overlay.pathTo(meet);
+        int[] head = fwd.pathTo(pg.overlayLocal(nodes[0]));
+        int[] tail = bwd.pathTo(pg.overlayLocal(meet));
+        /* Hop i runs from nodes[i] to nodes[i + 1], through its cell if they share one. */
+        long[][] hops = new long[nodes.length - 1][];
+        IntStream.range(0, hops.length).parallel().forEach(i -> hops[i] =
+            unpackHop(pg, nodes[i], nodes[i + 1]));
+
+        int length = head.length + tail.length - 1;
+        for (long[] hop : hops) {
+            length += hop.length - 1;
+        }
+        long[] path = new long[length];
+        int n = 0;
+        for (int v : head) {
+            path[n] = PartitionedGraph.vertex(sc, v);
+            n += 1;
+        }
+        for (long[] hop : hops) {
+            System.arraycopy(hop, 1, path, n, hop.length - 1);
+            n += hop.length - 1;
+        }
+        for (int i = tail.length - 2; i >= 0; i -= 1) {
+            path[n] = PartitionedGraph.vertex(tc, tail[i]);
+            n += 1;
+        }
+        return path;
+    }
+
+    /**
+     * Returns the packed vertices from overlay node a to overlay node b, which are joined by
+     * an overlay edge: either an edge between cells, or a shortest path within one cell.
+     */
+    private static long[] unpackHop(PartitionedGraph pg, int a, int b) {
+        int cell = pg.overlayCell(a);
+        if (cell != pg.overlayCell(b)) {
+            return new long[] {PartitionedGraph.vertex(cell, pg.overlayLocal(a)),
+                PartitionedGraph.vertex(pg.overlayCell(b), pg.overlayLocal(b))};
+        }
+        SearchSpace space = UNPACK.get();
+        searchCell(pg.cell(cell), pg.overlayLocal(a), pg.overlayLocal(b), space);
+        return pack(cell, space.pathTo(pg.overlayLocal(b)));
+    }
+
+    /**
+     * Dijkstra from local vertex s through one cell of a partitioned graph, until stop is
+     * settled or, if stop is -1, until the whole cell has been.
+     */
+    private static void searchCell(PartitionedGraph.Cell cell, int s, int stop,
+                                   SearchSpace space) {
+        space.reset(cell.size());
+        space.reach(s, 0, -1);
+        space.fringe.push(s, 0);
+        while (!space.fringe.isEmpty()) {
+            int v = space.fringe.pop();
+            if (space.isSettled(v)) {
+                continue;
+            }
+            space.settle(v);
+            if (v == stop) {
+                return;
+            }
+            for (int e = cell.offsets[v]; e < cell.offsets[v + 1]; e += 1) {
+                int w = cell.targets[e];
+                double d = space.dist(v) + cell.weights[e];
+                if (d < space.dist(w)) {
+                    space.reach(w, d, v);
+                    space.fringe.push(w, d);
+                }
+            }
+        }
+    }
+
+    /** Packs a path of local vertices of one cell. */
+    private static long[] pack(int cell, int[] locals) {
+        long[] path = new long[locals.length];
+        for (int i = 0; i < locals.length; i += 1) {
+            path[i] = PartitionedGraph.vertex(cell, locals[i]);
+        }
+        return path;
+    }
+
+    /** The forward potential of bidirectional A* at vertex v. */
+    private static double potential(GraphDB g, int v, int s, int t) {
+        return (g.distanceAt(v, t) - g.distanceAt(s, v)) / 2;
+    }
+
+    /**
+     * Returns the shortest-path distance, in miles, from each source location to each
+     * target location, snapping every location to its closest vertex once. Sources are
+     * searched in parallel on a pool of their own, one Dijkstra search per source that
+     * stops as soon as every target has been settled, so an N x M matrix costs N searches
+     * instead of N * M.
+     * @param g The graph to use.
+     * @param sources The {longitude, latitude} of each source.
+     * @param targets The {longitude, latitude} of each target.
+     * @return distances[i][j] is the distance from source i to target j, or infinity if
+     * target j cannot be reached from source i.
+     */
+    public static double[][] distanceMatrix(GraphDB g, double[][] sources, double[][] targets) {
+        int[] s = new int[sources.length];
+        for (int i = 0; i < s.length; i += 1) {
+            s[i] = g.closestIndex(sources[i][0], sources[i][1]);
+        }
+        int[] t = new int[targets.length];
+        for (int j = 0; j < t.length; j += 1) {
+            t[j] = g.closestIndex(targets[j][0], targets[j][1]);
+        }
+        return distanceMatrix(g, s, t);
+    }
+
+    /** The vertex-index form of distanceMatrix. */
+    static double[][] distanceMatrix(GraphDB g, int[] sources, int[] targets) {
+        int[] distinct = Arrays.copyOf(targets, targets.length);
+        Arrays.sort(distinct);
+        int m = 0;
+        for (int j = 0; j < distinct.length; j += 1) {
+            if (j == 0 || distinct[j] != distinct[m - 1]) {
+                distinct[m] = distinct[j];
+                m += 1;
+            }
+        }
+        int[] targetVertices = Arrays.copyOf(distinct, m);
+        double[][] distances = new double[sources.length][];
+        List<ForkJoinTask<?>> rows = new ArrayList<>(sources.length);
+        for (int i = 0; i < sources.length; i += 1) {
+            final int row = i;
+            rows.add(MATRIX_POOL.submit(() ->
+                distances[row] = distancesFrom(g, sources[row], targetVertices, targets)));
+        }
+        for (ForkJoinTask<?> row : rows) {
+            row.join();
+        }
+        return distances;
+    }
+
+    /**
+     * Dijkstra from s until every vertex in targetVertices is settled or nothing more can
+     * be reached.
+     * @param targetVertices The distinct target vertices, sorted.
+     * @param targets The target vertex of each column.
+     * @return The distance from s to each column's target.
+     */
+    private static double[] distancesFrom(GraphDB g, int s, int[] targetVertices, int[] targets) {
+        SearchSpace space = FORWARD.get();
+        space.reset(g.size());
+        space.reach(s, 0, -1);
+        space.fringe.push(s, 0);
+        int remaining = targetVertices.length;
+        while (remaining > 0 && !space.fringe.isEmpty()) {
+            int v = space.fringe.pop();
+            if (space.isSettled(v)) {
+                continue;
+            }
+            space.settle(v);
+            if (Arrays.binarySearch(targetVertices, v) >= 0) {
+                remaining -= 1;
+            }
+            for (int e = g.edgeStart(v); e < g.edgeEnd(v); e += 1) {
+                int w = g.edgeTarget(e);
+                double d = space.dist(v) + g.edgeWeight(e);
+                if (d < space.dist(w)) {
+                    space.reach(w, d, v);
+                    space.fringe.push(w, d);
+                }
+            }
+        }
+        LAST_SETTLED.get()[0] = space.settledCount();
+        double[] row = new double[targets.length];
+        for (int j = 0; j < targets.length; j += 1) {
+            row[j] = space.isSettled(targets[j]) ? space.dist(targets[j])
+                : Double.POSITIVE_INFINITY;
+        }
+        return row;
+    }
+
+    /**
+     * Returns every vertex that can be reached from the vertex closest to a location
+     * within a driving time, with each edge driven at its speed limit.
+     * @param g The graph to use.
+     * @param lon The longitude of the start.
+     * @param lat The latitude of the start.
+     * @param maxMinutes The time budget, in minutes.
+     * @return The reachable vertices, in order of travel time.
+     */
+    public static Isochrone isochrone(GraphDB g, double lon, double lat, double maxMinutes) {
+        return isochrone(g, g.closestIndex(lon, lat), maxMinutes);
+    }
+
+    /**
+     * The vertex-index form of isochrone. A Dijkstra search over edge travel times that
+     * stops at the first vertex beyond the budget, so it only touches the reached subgraph
+     * and the edges leaving it.
+     */
+    static Isochrone isochrone(GraphDB g, int s, double maxMinutes) {
+        SearchSpace space = FORWARD.get();
+        space.reset(g.size());
+        space.reach(s, 0, -1);
+        space.fringe.push(s, 0);
+        int[] vertices = new int[64];
+        double[] minutes = new double[64];
+        int count = 0;
+        while (!space.fringe.isEmpty() && space.fringe.peekKey() <= maxMinutes) {
+            int v = space.fringe.pop();
+            if (space.isSettled(v)) {
+                continue;
+            }
+            space.settle(v);
+            if (count == vertices.length) {
+                vertices = Arrays.copyOf(vertices, count * 2);
+                minutes = Arrays.copyOf(minutes, count * 2);
+            }
+            vertices[count] = v;
+            minutes[count] = space.dist(v);
+            count += 1;
+            for (int e = g.edgeStart(v); e < g.edgeEnd(v); e += 1) {
+                int w = g.edgeTarget(e);
+                double d = space.dist(v) + g.edgeMinutes(e);
+                if (d < space.dist(w)) {
+                    space.reach(w, d, v);
+                    space.fringe.push(w, d);
+                }
+            }
+        }
+        LAST_SETTLED.get()[0] = space.settledCount();
+        return new Isochrone(Arrays.copyOf(vertices, count), Arrays.copyOf(minutes, count));
+    }
+
+    /** Converts a path of vertex indices into the OSM ids of the vertices. */
+    static List<Long> toIds(GraphDB g, int[] path) {
+        List<Long> route = new ArrayList<>(path.length);
+        for (int v : path) {
+            route.add(g.id(v));
+        }
+        return route;
     }
 
     /**
@@ -37,7 +688,70 @@ public class Router {
      * route.
      */
     public static List<NavigationDirection> routeDirections(GraphDB g, List<Long> route) {
-        return null; // FIXME
+        int[] path = new int[route.size()];
+        for (int i = 0; i < path.length; i += 1) {
+            path[i] = g.index(route.get(i));
+            if (path[i] < 0) {
+                throw new IllegalArgumentException("No vertex with id " + route.get(i)
+                    + " in the graph.");
+            }
+        }
+        return routeDirections(g, path);
+    }
+
+    /**
+     * Creates the directions for a path of vertex indices in one pass over its edges. A
+     * new direction starts wherever the name of the road changes, turning by the change in
+     * bearing between the last edge on the old road and the first edge on the new one.
+     * Road names are compared by their interned indices.
+     */
+    static List<NavigationDirection> routeDirections(GraphDB g, int[] path) {
+        List<NavigationDirection> directions = new ArrayList<>();
+        NavigationDirection current = null;
+        int name = -1;
+        double bearing = 0;
+        for (int i = 1; i < path.length; i += 1) {
+            int e = edgeBetween(g, path[i - 1], path[i], name);
+            if (e < 0) {
+                throw new IllegalArgumentException("No edge from vertex " + g.id(path[i - 1])
+                    + " to vertex " + g.id(path[i]) + ".");
+            }
+            if (current == null || g.edgeName(e) != name) {
+                int direction = current == null ? NavigationDirection.START
+                    : NavigationDirection.turn(g.edgeBearing(e) - bearing);
+                current = new NavigationDirection();
+                current.direction = direction;
+                name = g.edgeName(e);
+                current.way = g.name(name);
+                directions.add(current);
+            }
+            current.distance += g.edgeWeight(e);
+            bearing = g.edgeBearing(e);
+        }
+        return directions;
+    }
+
+    /**
+     * Returns the shortest edge from v to w, preferring an edge on the road named name so
+     * that overlapping ways do not interrupt a direction, or -1 if v and w are not adjacent.
+     */
+    private static int edgeBetween(GraphDB g, int v, int w, int name) {
+        int best = -1;
+        for (int e = g.edgeStart(v); e < g.edgeEnd(v); e += 1) {
+            if (g.edgeTarget(e) != w) {
+                continue;
+            }
+            if (best < 0) {
+                best = e;
+                continue;
+            }
+            boolean onRoad = g.edgeName(e) == name;
+            if (onRoad != (g.edgeName(best) == name) ? onRoad
+                    : g.edgeWeight(e) < g.edgeWeight(best)) {
+                best = e;
+            }
+        }
+        return best;
     }
 
 
@@ -85,6 +799,28 @@ public class Router {
         /** The distance along this way I represent. */
         double distance;
 
+        /**
+         * Returns the direction for a change in bearing of degrees, where positive changes
+         * turn clockwise, to the right.
+         */
+        static int turn(double degrees) {
+            double d = degrees % 360;
+            if (d > 180) {
+                d -= 360;
+            } else if (d < -180) {
+                d += 360;
+            }
+            double abs = Math.abs(d);
+            if (abs <= 15) {
+                return STRAIGHT;
+            } else if (abs <= 30) {
+                return d < 0 ? SLIGHT_LEFT : SLIGHT_RIGHT;
+            } else if (abs <= 100) {
+                return d < 0 ? LEFT : RIGHT;
+            }
+            return d < 0 ? SHARP_LEFT : SHARP_RIGHT;
+        }
+
         /**
          * Create a default, anonymous NavigationDirection.
          */
@@ -0,0 +1,98 @@
+import java.util.Arrays;
+
+/**
+ * Per-vertex scratch state for one direction of a shortest-path search: tentative
+ * distances, parent pointers, which vertices are settled, and the fringe. A search space
+ * is reused from query to query instead of allocating arrays the size of the graph each
+ * time. Entries are tagged with the query's epoch, so reset() is O(1) and a query only
+ * costs time in proportion to the part of the graph it touches.
+ *
+ * Not thread safe; Router keeps one per thread.
+ */
+class SearchSpace {
+    private double[] dist;
+    private int[] parent;
+    /** reached[v] == epoch iff dist[v] and parent[v] are valid for this query. */
+    private int[] reached;
+    /** settled[v] == epoch iff v has been settled in this query. */
+    private int[] settled;
+    private int epoch;
+    private int settledCount;
+    final MinHeap fringe = new MinHeap();
+
+    SearchSpace(int n) {
+        allocate(n);
+    }
+
+    private void allocate(int n) {
+        dist = new double[n];
+        parent = new int[n];
+        reached = new int[n];
+        settled = new int[n];
+        epoch = 0;
+    }
+
+    /** Forgets the previous query, growing the arrays if the graph has n vertices. */
+    void reset(int n) {
+        if (dist.length < n) {
+            allocate(n);
+        }
+        epoch += 1;
+        if (epoch == Integer.MAX_VALUE) {
+            Arrays.fill(reached, 0);
+            Arrays.fill(settled, 0);
+            epoch = 1;
+        }
+        settledCount = 0;
+        fringe.clear();
+    }
+
+    /** Returns the tentative distance to v, or infinity if v has not been reached. */
+    double dist(int v) {
+        return reached[v] == epoch ? dist[v] : Double.POSITIVE_INFINITY;
+    }
+
+    /** Returns the vertex v was reached from, or -1 for a source. */
+    int parent(int v) {
+        return parent[v];
+    }
+
+    boolean isReached(int v) {
+        return reached[v] == epoch;
+    }
+
+    /** Records a new tentative distance and parent for v. */
+    void reach(int v, double d, int from) {
+        reached[v] = epoch;
+        dist[v] = d;
+        parent[v] = from;
+    }
+
+    boolean isSettled(int v) {
+        return settled[v] == epoch;
+    }
+
+    void settle(int v) {
+        settled[v] = epoch;
+        settledCount += 1;
+    }
+
+    /** Returns the number of vertices settled since the last reset. */
+    int settledCount() {
+        return settledCount;
+    }
+
+    /** Returns the path from the source to v, following parent pointers. */
+    int[] pathTo(int v) {
+        int length = 0;
+        for (int u = v; u != -1; u = parent[u]) {
+            length += 1;
+        }
+        int[] path = new int[length];
+        for (int u = v; u != -1; u = parent[u]) {
+            length -= 1;
+            path[length] = u;
+        }
+        return path;
+    }
+}
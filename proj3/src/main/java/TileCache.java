@@ -0,0 +1,171 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import javax.imageio.ImageIO;
+
+/**
+ * A bounded, least-recently-used cache of decoded tile images, keyed by tile file path.
+ * The cache is shared by all request threads, so every access to the underlying map is
+ * guarded by the cache's monitor. Tiles are decoded outside of the lock, which means two
+ * threads missing on the same tile at the same time may both decode it; the second one
+ * simply replaces the first entry.
+ *
+ * The bound is a byte budget rather than an entry count, since a decoded tile costs
+ * roughly width * height * 4 bytes no matter how small its PNG was on disk.
+ *
+ * Misses are decoded by a loader, which reads the key as a file path unless the cache was
+ * built with another one, e.g. one that decodes from a TilePack.
+ */
+public class TileCache {
+    /** Default budget of 256 MB, a little over 1000 decoded 256x256 tiles. */
+    public static final long DEFAULT_BUDGET_BYTES = 256L * 1024 * 1024;
+
+    private final long budgetBytes;
+    private long usedBytes;
+    private final LinkedHashMap<String, BufferedImage> tiles;
+    private final Function<String, BufferedImage> loader;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Create an empty cache that will hold at most budgetBytes of decoded pixels.
+     * @param budgetBytes The maximum number of bytes of decoded images to keep.
+     */
+    public TileCache(long budgetBytes) {
+        this(budgetBytes, TileCache::read);
+    }
+
+    /**
+     * Create an empty cache that decodes missing tiles with loader.
+     * @param budgetBytes The maximum number of bytes of decoded images to keep.
+     * @param loader Decodes the tile with a given key, returning null if it cannot.
+     */
+    public TileCache(long budgetBytes, Function<String, BufferedImage> loader) {
+        if (budgetBytes <= 0) {
+            throw new IllegalArgumentException("Tile cache budget must be positive.");
+        }
+        this.budgetBytes = budgetBytes;
+        this.usedBytes = 0;
+        this.loader = loader;
+        /* An access-ordered LinkedHashMap iterates from least to most recently used. */
+        this.tiles = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Returns the decoded image stored at imgPath, loading it on a miss.
+     * @param imgPath Path of the tile image file.
+     * @return The decoded tile, or null if the file could not be read.
+     */
+    public BufferedImage get(String imgPath) {
+        BufferedImage tileImg;
+        synchronized (this) {
+            tileImg = tiles.get(imgPath);
+        }
+        if (tileImg != null) {
+            hits.incrementAndGet();
+            return tileImg;
+        }
+        misses.incrementAndGet();
+        tileImg = load(imgPath);
+        if (tileImg != null) {
+            put(imgPath, tileImg);
+        }
+        return tileImg;
+    }
+
+    /**
+     * Decodes a tile with the loader, bypassing the cache.
+     * @param imgPath Key of the tile, by default the path of its image file.
+     * @return The decoded tile, or null if it could not be read.
+     */
+    BufferedImage load(String imgPath) {
+        return loader.apply(imgPath);
+    }
+
+    /**
+     * Reads and decodes a tile from disk.
+     * @param imgPath Path of the tile image file.
+     * @return The decoded tile, or null if the file could not be read.
+     */
+    static BufferedImage read(String imgPath) {
+        try {
+            return ImageIO.read(new File(imgPath));
+        } catch (IOException | NullPointerException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Inserts a decoded tile, evicting least recently used tiles until the budget is met.
+     * A single image larger than the whole budget is not cached at all.
+     */
+    synchronized void put(String imgPath, BufferedImage tileImg) {
+        long size = sizeOf(tileImg);
+        if (size > budgetBytes) {
+            return;
+        }
+        BufferedImage old = tiles.put(imgPath, tileImg);
+        if (old != null) {
+            usedBytes -= sizeOf(old);
+        }
+        usedBytes += size;
+
+        Iterator<Map.Entry<String, BufferedImage>> it = tiles.entrySet().iterator();
+        while (usedBytes > budgetBytes && it.hasNext()) {
+            Map.Entry<String, BufferedImage> eldest = it.next();
+            usedBytes -= sizeOf(eldest.getValue());
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /** Drops every cached tile. The hit, miss and eviction counters are left untouched. */
+    public synchronized void clear() {
+        tiles.clear();
+        usedBytes = 0;
+    }
+
+    /** Approximate heap footprint of a decoded image, assuming 4 bytes per pixel. */
+    static long sizeOf(BufferedImage img) {
+        return 4L * img.getWidth() * img.getHeight();
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+
+    public synchronized int size() {
+        return tiles.size();
+    }
+
+    public synchronized long usedBytes() {
+        return usedBytes;
+    }
+
+    public long budgetBytes() {
+        return budgetBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TileCache[%d tiles, %d/%d bytes, %d hits, %d misses, "
+                + "%d evictions]", size(), usedBytes(), budgetBytes, hits(), misses(),
+                evictions());
+    }
+}
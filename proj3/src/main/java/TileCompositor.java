@@ -0,0 +1,125 @@
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+
+/**
+ * Stitches the tiles of a render grid into a single image. Tiles can be drawn one by one
+ * on the calling thread, or split into stripes of rows, and a lone row into runs of tiles,
+ * that are decoded and drawn in parallel on a fork-join pool. Every stripe draws through
+ * its own Graphics into a disjoint block of the target image, so stripes never touch each
+ * other's pixels.
+ */
+public class TileCompositor {
+    /** Grids with fewer tiles than this are not worth forking for. */
+    public static final int MIN_PARALLEL_TILES = 4;
+
+    private final Function<String, BufferedImage> tiles;
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates a compositor that draws tiles obtained from the given source.
+     * @param tiles Maps a tile name in the render grid to its decoded image. May return null
+     *              for a missing tile, which is then left black.
+     * @param pool The pool parallel composites run on.
+     */
+    public TileCompositor(Function<String, BufferedImage> tiles, ForkJoinPool pool) {
+        this.tiles = tiles;
+        this.pool = pool;
+    }
+
+    /**
+     * Composites the grid on whichever path suits its size: in parallel for grids of at
+     * least MIN_PARALLEL_TILES tiles, sequentially otherwise.
+     * @param renderGrid The tile names, one row of the grid per array.
+     * @return The stitched image, TILE_SIZE pixels per tile on each side.
+     */
+    public BufferedImage composite(String[][] renderGrid) {
+        if (renderGrid.length * renderGrid[0].length >= MIN_PARALLEL_TILES
+                && pool.getParallelism() > 1) {
+            return compositeParallel(renderGrid);
+        }
+        return compositeSequential(renderGrid);
+    }
+
+    /** Draws every tile of the grid on the calling thread. */
+    public BufferedImage compositeSequential(String[][] renderGrid) {
+        BufferedImage img = blankImage(renderGrid);
+        drawTiles(img, renderGrid, 0, renderGrid.length, 0, renderGrid[0].length);
+        return img;
+    }
+
+    /** Draws the grid in stripes on the fork-join pool. */
+    public BufferedImage compositeParallel(String[][] renderGrid) {
+        BufferedImage img = blankImage(renderGrid);
+        pool.invoke(new StripeTask(img, renderGrid, 0, renderGrid.length, 0,
+                renderGrid[0].length));
+        return img;
+    }
+
+    private static BufferedImage blankImage(String[][] renderGrid) {
+        return new BufferedImage(renderGrid[0].length * MapServer.TILE_SIZE,
+                renderGrid.length * MapServer.TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+    }
+
+    /**
+     * Draws the tiles in grid rows [rowLo, rowHi) and columns [colLo, colHi) into their
+     * block of img, through a Graphics of its own.
+     */
+    private void drawTiles(BufferedImage img, String[][] renderGrid, int rowLo, int rowHi,
+                           int colLo, int colHi) {
+        Graphics graphic = img.createGraphics();
+        try {
+            for (int r = rowLo; r < rowHi; r += 1) {
+                int y = r * MapServer.TILE_SIZE;
+                for (int c = colLo; c < colHi; c += 1) {
+                    graphic.drawImage(tiles.apply(renderGrid[r][c]),
+                            c * MapServer.TILE_SIZE, y, null);
+                }
+            }
+        } finally {
+            graphic.dispose();
+        }
+    }
+
+    /**
+     * Splits a block of the grid in half by rows until each task owns a single row, and
+     * that row in half by columns until each task owns a single tile, then decodes and
+     * draws its tiles. Tasks are never serialized.
+     */
+    @SuppressWarnings("serial")
+    private class StripeTask extends RecursiveAction {
+        private final BufferedImage img;
+        private final String[][] renderGrid;
+        private final int rowLo;
+        private final int rowHi;
+        private final int colLo;
+        private final int colHi;
+
+        StripeTask(BufferedImage img, String[][] renderGrid, int rowLo, int rowHi, int colLo,
+                   int colHi) {
+            this.img = img;
+            this.renderGrid = renderGrid;
+            this.rowLo = rowLo;
+            this.rowHi = rowHi;
+            this.colLo = colLo;
+            this.colHi = colHi;
+        }
+
+        @Override
+        protected void compute() {
+            if (rowHi - rowLo > 1) {
+                int mid = (rowLo + rowHi) >>> 1;
+                invokeAll(new StripeTask(img, renderGrid, rowLo, mid, colLo, colHi),
+                          new StripeTask(img, renderGrid, mid, rowHi, colLo, colHi));
+            } else if (colHi - colLo > 1) {
+                int mid = (colLo + colHi) >>> 1;
+                invokeAll(new StripeTask(img, renderGrid, rowLo, rowHi, colLo, mid),
+                          new StripeTask(img, renderGrid, rowLo, rowHi, mid, colHi));
+            } else {
+                drawTiles(img, renderGrid, rowLo, rowHi, colLo, colHi);
+            }
+        }
+    }
+}
@@ -0,0 +1,242 @@
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import javax.imageio.ImageIO;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+/**
+ * All the tile images of a directory in one file, so that fetching a tile is a lookup and
+ * a slice of a memory-mapped buffer instead of an open, read and close of a small file.
+ * The page cache holds the tiles that are in use, and the tile bytes are never copied onto
+ * the heap; only decoding them into a BufferedImage allocates. The file is laid out as:
+ *
+ * <pre>
+ *     int  MAGIC
+ *     int  VERSION
+ *     int  number of tiles, n
+ *     n *  (short name length, UTF-8 name bytes, long offset, int length), sorted by name
+ *     ...  the tiles' PNG bytes, at their offsets from the start of the file
+ * </pre>
+ *
+ * Build a pack from the command line with: java TilePack imageDirectory packFile
+ */
+public class TilePack {
+    static final int MAGIC = 0x4254504B;
+    static final int VERSION = 1;
+    /** Bytes of an index entry besides its name: name length, offset and tile length. */
+    private static final int ENTRY_BYTES = 2 + 8 + 4;
+
+    private final MappedByteBuffer data;
+    /** The tile names, sorted, and the offset and length of each in data. */
+    private final String[] names;
+    private final long[] offsets;
+    private final int[] lengths;
+
+    private TilePack(MappedByteBuffer data, String[] names, long[] offsets, int[] lengths) {
+        this.data = data;
+        this.names = names;
+        this.offsets = offsets;
+        this.lengths = lengths;
+    }
+
+    /**
+     * Memory-maps a pack and reads its index.
+     * @param pack The pack file.
+     * @return The pack.
+     * @throws IOException If the file cannot be read, is not a pack, is corrupt or is too
+     *                     large to map.
+     */
+    public static TilePack open(File pack) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(pack, "r");
+             FileChannel channel = raf.getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(pack + " is too large to map in one piece.");
+            }
+            /* The mapping stays valid after the channel is closed. */
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+            if (data.remaining() < 12 || data.getInt() != MAGIC || data.getInt() != VERSION) {
+                throw new IOException(pack + " is not a version " + VERSION + " tile pack.");
+            }
+            int n = data.getInt();
+            /* Each index entry takes at least ENTRY_BYTES, even with an empty name. */
+            if (n < 0 || n > data.remaining() / ENTRY_BYTES) {
+                throw new IOException(pack + " has a corrupt tile count, " + n + ".");
+            }
+            String[] names = new String[n];
+            long[] offsets = new long[n];
+            int[] lengths = new int[n];
+            for (int i = 0; i < n; i += 1) {
+                if (data.remaining() < ENTRY_BYTES) {
+                    throw new IOException(pack + " is truncated.");
+                }
+                byte[] name = new byte[data.getShort() & 0xffff];
+                if (data.remaining() < name.length + ENTRY_BYTES - 2) {
+                    throw new IOException(pack + " is truncated.");
+                }
+                data.get(name);
+                names[i] = new String(name, StandardCharsets.UTF_8);
+                offsets[i] = data.getLong();
+                lengths[i] = data.getInt();
+                if (offsets[i] < 0 || lengths[i] < 0
+                        || offsets[i] + lengths[i] > data.capacity()) {
+                    throw new IOException(pack + " is truncated.");
+                }
+            }
+            return new TilePack(data, names, offsets, lengths);
+        }
+    }
+
+    /**
+     * Packs every .png file directly inside a directory, named by file name.
+     * @param dir The image directory.
+     * @param pack The pack file to write.
+     * @return The number of tiles packed.
+     * @throws IOException If reading or writing fails, a tile cannot be packed, or a tile
+     *                     changes size while it is packed.
+     */
+    public static int write(File dir, File pack) throws IOException {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".png"));
+        if (files == null) {
+            throw new IOException(dir + " is not a directory.");
+        }
+        Arrays.sort(files, (a, b) -> a.getName().compareTo(b.getName()));
+        byte[][] names = new byte[files.length][];
+        long[] lengths = new long[files.length];
+        long offset = 12;
+        for (int i = 0; i < files.length; i += 1) {
+            names[i] = files[i].getName().getBytes(StandardCharsets.UTF_8);
+            if (names[i].length > 0xffff) {
+                throw new IOException(files[i] + " has too long a name to pack.");
+            }
+            lengths[i] = files[i].length();
+            if (lengths[i] > Integer.MAX_VALUE) {
+                throw new IOException(files[i] + " is too large to pack.");
+            }
+            offset += names[i].length + ENTRY_BYTES;
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(pack), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(files.length);
+            for (int i = 0; i < files.length; i += 1) {
+                out.writeShort(names[i].length);
+                out.write(names[i]);
+                out.writeLong(offset);
+                out.writeInt((int) lengths[i]);
+                offset += lengths[i];
+            }
+            /* The offsets are already written, so a tile that changed size since would
+             * shift every tile after it. */
+            for (int i = 0; i < files.length; i += 1) {
+                if (Files.copy(files[i].toPath(), out) != lengths[i]) {
+                    throw new IOException(files[i] + " changed while it was packed.");
+                }
+            }
+        }
+        return files.length;
+    }
+
+    /** Returns the number of tiles. */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * Returns the PNG bytes of a tile as a read-only view of the mapped file.
+     * @param name The tile's file name, e.g. "d1_x0_y0.png".
+     * @return The bytes, or null if the pack has no such tile.
+     */
+    public ByteBuffer bytes(String name) {
+        int i = Arrays.binarySearch(names, name);
+        if (i < 0) {
+            return null;
+        }
+        ByteBuffer view = data.asReadOnlyBuffer();
+        view.position((int) offsets[i]);
+        view.limit((int) offsets[i] + lengths[i]);
+        return view.slice();
+    }
+
+    /**
+     * Decodes a tile.
+     * @param name The tile's file name.
+     * @return The decoded tile, or null if the pack has no such tile or it cannot be decoded.
+     */
+    public BufferedImage image(String name) {
+        ByteBuffer bytes = bytes(name);
+        if (bytes == null) {
+            return null;
+        }
+        try {
+            /* ImageIO.read(InputStream) would buffer the stream through a temporary file. */
+            return ImageIO.read(new MemoryCacheImageInputStream(new BufferInputStream(bytes)));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /** Reads a ByteBuffer from its position to its limit, without copying it first. */
+    private static class BufferInputStream extends InputStream {
+        private final ByteBuffer buf;
+
+        BufferInputStream(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int read() {
+            return buf.hasRemaining() ? buf.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buf.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buf.remaining()));
+            buf.position(buf.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buf.remaining();
+        }
+    }
+
+    /** Packs a directory of tiles: java TilePack imageDirectory packFile. */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Usage: java TilePack imageDirectory packFile");
+            return;
+        }
+        long start = System.nanoTime();
+        int n = write(new File(args[0]), new File(args[1]));
+        System.out.println(String.format("Packed %d tiles into %s in %.1f s.", n, args[1],
+                (System.nanoTime() - start) / 1e9));
+    }
+}
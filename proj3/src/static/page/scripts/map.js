@@ -332,7 +332,8 @@ $(function() {
                   async: true,
                   url: search,
                   dataType: 'json',
-                  data: { term: ui.item.value, full: true},
+                  data: { term: ui.item.value, full: true, ullat: params.ullat,
+                          ullon: params.ullon, lrlat: params.lrlat, lrlon: params.lrlon},
                   success: function(data) {
                       removeMarkers();
                       for (var i = 0; i < data.length; i++) {
@@ -0,0 +1,62 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measures autocomplete latency per keystroke, for 1, 2 and 3 character prefixes, over a
+ * large synthetic set of place names, against a linear scan of every location.
+ * Run from proj3/ with:
+ * java -cp target/classes:target/test-classes AutocompleteBenchmark [names]
+ */
+public class AutocompleteBenchmark {
+    private static final int QUERIES = 20000;
+    private static final int K = PrefixIndex.DEFAULT_TOP_K;
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        String[] names = GraphFixtures.placeNames(n, 7);
+        GraphDB g = GraphFixtures.places(names, 7);
+        long start = System.nanoTime();
+        PrefixIndex index = new PrefixIndex(g, PrefixIndex.Rank.COUNT, K);
+        System.out.println(String.format("%d names, %d keys, %d trie nodes, built in %.2f s",
+                n, index.size(), index.nodeCount(), (System.nanoTime() - start) / 1e9));
+
+        Random random = new Random(3);
+        for (int length = 1; length <= 3; length += 1) {
+            String[] prefixes = new String[QUERIES];
+            for (int i = 0; i < QUERIES; i += 1) {
+                String name = names[random.nextInt(n)];
+                prefixes[i] = name.substring(0, Math.min(length, name.length()));
+            }
+            long[] nanos = new long[QUERIES];
+            for (int round = 0; round < 2; round += 1) {
+                for (int i = 0; i < QUERIES; i += 1) {
+                    long t0 = System.nanoTime();
+                    index.complete(prefixes[i], K);
+                    nanos[i] = System.nanoTime() - t0;
+                }
+            }
+            Arrays.sort(nanos);
+
+            long scanStart = System.nanoTime();
+            int scans = 20;
+            for (int i = 0; i < scans; i += 1) {
+                scan(g, GraphDB.cleanString(prefixes[i]));
+            }
+            double scanMs = (System.nanoTime() - scanStart) / 1e6 / scans;
+            System.out.println(String.format("  %d-char prefix: trie p50 %6.2f us  p99 %6.2f us"
+                    + "   linear scan %8.2f ms", length, nanos[QUERIES / 2] / 1e3,
+                    nanos[QUERIES * 99 / 100] / 1e3, scanMs));
+        }
+    }
+
+    /** Counts the matches of a cleaned prefix by cleaning every name, as a baseline. */
+    private static int scan(GraphDB g, String prefix) {
+        int matches = 0;
+        for (int i = 0; i < g.locationCount(); i += 1) {
+            if (GraphDB.cleanString(g.locationName(i)).startsWith(prefix)) {
+                matches += 1;
+            }
+        }
+        return matches;
+    }
+}
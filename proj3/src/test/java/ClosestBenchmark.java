@@ -0,0 +1,51 @@
+import java.util.Random;
+
+/**
+ * Compares GraphDB.closest through the k-d tree with a linear scan over all vertices, on
+ * a synthetic street grid. The linear scan is far too slow to run a million times, so it
+ * runs on a prefix of the same queries and both are reported per query.
+ * Run with: java -cp target/classes:target/test-classes ClosestBenchmark [side] [linear]
+ */
+public class ClosestBenchmark {
+    private static final int QUERIES = 1_000_000;
+
+    public static void main(String[] args) {
+        int side = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+        int linearQueries = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        GraphDB g = GraphFixtures.grid(side, side, 0.1, 61);
+        double span = side * 0.0005;
+
+        Random random = new Random(7);
+        double[] lons = new double[QUERIES];
+        double[] lats = new double[QUERIES];
+        for (int i = 0; i < QUERIES; i += 1) {
+            lons[i] = MapServer.ROOT_ULLON + random.nextDouble() * span;
+            lats[i] = MapServer.ROOT_ULLAT - random.nextDouble() * span;
+        }
+
+        long checksum = 0;
+        for (int i = 0; i < QUERIES; i += 1) {
+            checksum += g.closestIndex(lons[i], lats[i]);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < QUERIES; i += 1) {
+            checksum += g.closestIndex(lons[i], lats[i]);
+        }
+        double treeNs = (System.nanoTime() - start) / (double) QUERIES;
+
+        int mismatches = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < linearQueries; i += 1) {
+            if (g.closestIndexLinear(lons[i], lats[i]) != g.closestIndex(lons[i], lats[i])) {
+                mismatches += 1;
+            }
+        }
+        double linearNs = (System.nanoTime() - start) / (double) linearQueries - treeNs;
+
+        System.out.println(String.format("%d vertices (checksum %d)", g.size(), checksum));
+        System.out.println(String.format("k-d tree:    %10.0f ns/query over %d queries",
+                treeNs, QUERIES));
+        System.out.println(String.format("linear scan: %10.0f ns/query over %d queries, "
+                + "%d disagreements", linearNs, linearQueries, mismatches));
+    }
+}
@@ -0,0 +1,87 @@
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import javax.imageio.ImageIO;
+
+/**
+ * Compares the sequential and parallel compositing paths of TileCompositor across render
+ * grid sizes. Every tile is decoded from PNG bytes on each use, which is what a cold
+ * TileCache costs; the real tiles are not needed, random noise tiles stand in for them.
+ * Run with: java -cp target/classes:target/test-classes CompositeBenchmark
+ */
+public class CompositeBenchmark {
+    private static final int[][] GRID_SIZES = {{1, 1}, {2, 2}, {3, 4}, {5, 6}, {8, 10}};
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 20;
+
+    public static void main(String[] args) throws IOException {
+        Map<String, byte[]> pngs = new HashMap<>();
+        Random random = new Random(61);
+        for (int y = 0; y < 8; y += 1) {
+            for (int x = 0; x < 10; x += 1) {
+                pngs.put(tileName(x, y), noisePng(random));
+            }
+        }
+
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        TileCompositor compositor = new TileCompositor(name -> decode(pngs.get(name)), pool);
+        System.out.println("Parallelism: " + pool.getParallelism());
+        System.out.println(String.format("%-8s %14s %14s %8s", "grid", "sequential ms",
+                "parallel ms", "speedup"));
+        for (int[] size : GRID_SIZES) {
+            String[][] grid = new String[size[0]][size[1]];
+            for (int r = 0; r < size[0]; r += 1) {
+                for (int c = 0; c < size[1]; c += 1) {
+                    grid[r][c] = tileName(c, r);
+                }
+            }
+            double seq = time(() -> compositor.compositeSequential(grid));
+            double par = time(() -> compositor.compositeParallel(grid));
+            System.out.println(String.format("%-8s %14.2f %14.2f %7.2fx",
+                    size[0] + "x" + size[1], seq, par, seq / par));
+        }
+    }
+
+    /** Returns the mean wall-clock time of one run of r, in milliseconds. */
+    private static double time(Runnable r) {
+        for (int i = 0; i < WARMUP_ROUNDS; i += 1) {
+            r.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i += 1) {
+            r.run();
+        }
+        return (System.nanoTime() - start) / 1e6 / ROUNDS;
+    }
+
+    private static String tileName(int x, int y) {
+        return "d4_x" + x + "_y" + y + ".png";
+    }
+
+    private static byte[] noisePng(Random random) throws IOException {
+        BufferedImage img = new BufferedImage(MapServer.TILE_SIZE, MapServer.TILE_SIZE,
+                BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < MapServer.TILE_SIZE; y += 1) {
+            for (int x = 0; x < MapServer.TILE_SIZE; x += 1) {
+                img.setRGB(x, y, random.nextInt(1 << 24) & 0xf0f0f0);
+            }
+        }
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        ImageIO.write(img, "png", os);
+        return os.toByteArray();
+    }
+
+    private static BufferedImage decode(byte[] png) {
+        try {
+            return ImageIO.read(new ByteArrayInputStream(png));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Reports the preprocessing time and memory overhead of a ContractionHierarchy, and the
+ * latency percentiles of routing with it against plain A*, on the Berkeley graph (when the
+ * data files are present) and on a synthetic grid.
+ * Run from proj3/ with: java -cp target/classes:target/test-classes ContractionBenchmark [side]
+ */
+public class ContractionBenchmark {
+    private static final String OSM_DB_PATH = "../library-sp18/data/berkeley-2018.osm.xml";
+    private static final int QUERIES = 2000;
+
+    public static void main(String[] args) {
+        int side = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        if (new File(OSM_DB_PATH).exists()) {
+            run("Berkeley", new GraphDB(OSM_DB_PATH));
+        } else {
+            System.out.println(OSM_DB_PATH + " not found, skipping Berkeley.");
+        }
+        run(side + "x" + side + " grid", GraphFixtures.grid(side, side, 0.15, 61));
+    }
+
+    private static void run(String label, GraphDB g) {
+        long graphBytes = 8L * g.size() * 3 + 4L * (g.size() + 1)
+            + 12L * g.edgeEnd(g.size() - 1);
+        long start = System.nanoTime();
+        ContractionHierarchy ch = ContractionHierarchy.build(g);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        g.setHierarchy(ch);
+        System.out.println(String.format("%s: %d vertices, contracted in %.2f s, %d shortcuts, "
+                + "%d KB hierarchy over a %d KB graph", label, g.size(), seconds,
+            ch.shortcutCount(), ch.sizeInBytes() >> 10, graphBytes >> 10));
+
+        Random random = new Random(4);
+        int[][] queries = new int[QUERIES][];
+        for (int i = 0; i < QUERIES; i += 1) {
+            queries[i] = new int[]{random.nextInt(g.size()), random.nextInt(g.size())};
+        }
+        for (Router.Algorithm algorithm : new Router.Algorithm[]{
+            Router.Algorithm.ASTAR, Router.Algorithm.CH}) {
+            for (int[] q : queries) {
+                Router.shortestPath(g, q[0], q[1], algorithm);
+            }
+            long[] nanos = new long[QUERIES];
+            long settled = 0;
+            for (int i = 0; i < QUERIES; i += 1) {
+                long t0 = System.nanoTime();
+                Router.shortestPath(g, queries[i][0], queries[i][1], algorithm);
+                nanos[i] = System.nanoTime() - t0;
+                settled += Router.lastSettledCount();
+            }
+            Arrays.sort(nanos);
+            System.out.println(String.format("  %-6s %9.0f settled  p50 %8.3f ms  p99 %8.3f ms",
+                algorithm, (double) settled / QUERIES, nanos[QUERIES / 2] / 1e6,
+                nanos[QUERIES * 99 / 100] / 1e6));
+        }
+    }
+}
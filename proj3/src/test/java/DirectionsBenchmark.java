@@ -0,0 +1,51 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures Router.routeDirections on long routes across a synthetic city, whose streets
+ * are one named way per row and column. The time per edge should stay flat as routes get
+ * longer, since directions are built in one pass over the precomputed edge ways, names
+ * and bearings.
+ * Run from proj3/ with:
+ * java -cp target/classes:target/test-classes DirectionsBenchmark [side] [routes]
+ */
+public class DirectionsBenchmark {
+    public static void main(String[] args) throws IOException {
+        int side = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+        int routes = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        File osm = File.createTempFile("city", ".osm.xml");
+        osm.deleteOnExit();
+        SyntheticOsm.write(osm, side, 0, 5);
+        GraphDB g = new GraphDB(osm.getPath());
+
+        /* Routes between opposite corners of the city, so that they are long. */
+        Random random = new Random(9);
+        List<List<Long>> paths = new ArrayList<>();
+        long edges = 0;
+        for (int i = 0; i < routes; i += 1) {
+            int s = g.closestIndex(g.lonAt(0) + random.nextDouble() * 1e-3,
+                    g.latAt(0) - random.nextDouble() * 1e-3);
+            int t = g.closestIndex(g.lonAt(g.size() - 1) - random.nextDouble() * 1e-3,
+                    g.latAt(g.size() - 1) + random.nextDouble() * 1e-3);
+            paths.add(Router.toIds(g, Router.shortestPath(g, s, t, Router.Algorithm.ASTAR)));
+            edges += Math.max(0, paths.get(i).size() - 1);
+        }
+        System.out.println(String.format("%d routes of %.0f edges on average, %d vertices, "
+                + "%d ways:", routes, (double) edges / routes, g.size(), g.wayCount()));
+
+        for (int round = 0; round < 10; round += 1) {
+            long directions = 0;
+            long start = System.nanoTime();
+            for (List<Long> path : paths) {
+                directions += Router.routeDirections(g, path).size();
+            }
+            double us = (System.nanoTime() - start) / 1e3;
+            System.out.println(String.format("  %8.1f us/route  %6.1f ns/edge  "
+                    + "(%.1f directions/route)", us / routes, us * 1e3 / edges,
+                    (double) directions / routes));
+        }
+    }
+}
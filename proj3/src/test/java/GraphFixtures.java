@@ -0,0 +1,138 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Small graphs for tests and benchmarks that cannot rely on the library-sp18 data files.
+ */
+public class GraphFixtures {
+    /**
+     * The tiny-clean graph used by TestRouterTiny: node "ab" sits at longitude 0.a and
+     * latitude 38.b. The footway and the node 77 are invalid and must be cleaned away.
+     */
+    public static final String TINY_OSM = "<?xml version='1.0' encoding='UTF-8'?>\n"
+        + "<osm version=\"0.6\">\n"
+        + "  <node id=\"11\" lat=\"38.1\" lon=\"0.1\"/>\n"
+        + "  <node id=\"22\" lat=\"38.2\" lon=\"0.2\"/>\n"
+        + "  <node id=\"41\" lat=\"38.1\" lon=\"0.4\"/>\n"
+        + "  <node id=\"46\" lat=\"38.6\" lon=\"0.4\"/>\n"
+        + "  <node id=\"55\" lat=\"38.5\" lon=\"0.5\"/>\n"
+        + "  <node id=\"63\" lat=\"38.3\" lon=\"0.6\"/>\n"
+        + "  <node id=\"66\" lat=\"38.6\" lon=\"0.6\"/>\n"
+        + "  <node id=\"77\" lat=\"38.7\" lon=\"0.7\">\n"
+        + "    <tag k=\"name\" v=\"Top Dog\"/>\n"
+        + "  </node>\n"
+        + "  <way id=\"1\">\n"
+        + "    <nd ref=\"11\"/>\n"
+        + "    <nd ref=\"22\"/>\n"
+        + "    <nd ref=\"46\"/>\n"
+        + "    <nd ref=\"66\"/>\n"
+        + "    <tag k=\"highway\" v=\"residential\"/>\n"
+        + "    <tag k=\"name\" v=\"Hearst Avenue\"/>\n"
+        + "  </way>\n"
+        + "  <way id=\"2\">\n"
+        + "    <nd ref=\"66\"/>\n"
+        + "    <nd ref=\"63\"/>\n"
+        + "    <nd ref=\"41\"/>\n"
+        + "    <tag k=\"highway\" v=\"primary\"/>\n"
+        + "    <tag k=\"maxspeed\" v=\"35 mph\"/>\n"
+        + "  </way>\n"
+        + "  <way id=\"3\">\n"
+        + "    <nd ref=\"63\"/>\n"
+        + "    <nd ref=\"55\"/>\n"
+        + "    <tag k=\"highway\" v=\"tertiary\"/>\n"
+        + "    <tag k=\"name\" v=\"Oxford Street\"/>\n"
+        + "  </way>\n"
+        + "  <way id=\"4\">\n"
+        + "    <nd ref=\"55\"/>\n"
+        + "    <nd ref=\"77\"/>\n"
+        + "    <tag k=\"highway\" v=\"footway\"/>\n"
+        + "  </way>\n"
+        + "</osm>\n";
+
+    /** Writes TINY_OSM into dir and returns the path of the file. */
+    public static String writeTiny(File dir) throws IOException {
+        File f = new File(dir, "tiny.osm.xml");
+        Files.write(f.toPath(), TINY_OSM.getBytes(StandardCharsets.UTF_8));
+        return f.getPath();
+    }
+
+    /**
+     * Builds a rows x cols street grid around Berkeley, with node ids 1..rows*cols in row
+     * major order. Each node is nudged off the lattice a little so that paths are unique,
+     * and each edge is dropped with probability holes to make detours. Every fourth row is
+     * a 40 mph arterial; the other streets have the default speed.
+     */
+    public static GraphDB grid(int rows, int cols, double holes, long seed) {
+        Random random = new Random(seed);
+        GraphDB g = new GraphDB();
+        double step = 0.0005;
+        for (int r = 0; r < rows; r += 1) {
+            for (int c = 0; c < cols; c += 1) {
+                g.addNode(gridId(r, c, cols),
+                        MapServer.ROOT_ULLON + c * step + random.nextDouble() * step * 0.3,
+                        MapServer.ROOT_ULLAT - r * step - random.nextDouble() * step * 0.3);
+            }
+        }
+        for (int r = 0; r < rows; r += 1) {
+            for (int c = 0; c < cols; c += 1) {
+                if (c + 1 < cols && random.nextDouble() >= holes) {
+                    g.addEdge(gridId(r, c, cols), gridId(r, c + 1, cols),
+                            r % 4 == 0 ? 40 : GraphDB.DEFAULT_SPEED_MPH);
+                }
+                if (r + 1 < rows && random.nextDouble() >= holes) {
+                    g.addEdge(gridId(r, c, cols), gridId(r + 1, c, cols));
+                }
+            }
+        }
+        g.clean();
+        return g;
+    }
+
+    /**
+     * Builds a graph with no roads and one named node per name, with ids 1..names.length in
+     * order, scattered around Berkeley.
+     */
+    public static GraphDB places(String[] names, long seed) {
+        Random random = new Random(seed);
+        GraphDB g = new GraphDB();
+        for (int i = 0; i < names.length; i += 1) {
+            g.addNode(i + 1, MapServer.ROOT_ULLON + random.nextDouble() * 0.05,
+                    MapServer.ROOT_ULLAT - random.nextDouble() * 0.05);
+            g.addLocation(i + 1, names[i]);
+        }
+        g.clean();
+        return g;
+    }
+
+    /**
+     * Returns n random place names of one to three words, drawn from a small vocabulary so
+     * that many names share prefixes and some repeat.
+     */
+    public static String[] placeNames(int n, long seed) {
+        String[] words = {"Cafe", "Caffe", "Strada", "Top", "Dog", "Peet's", "Coffee",
+            "Berkeley", "Bowl", "Ber", "Library", "Market", "Monterey", "Pizza", "Park",
+            "Tea", "Bank", "Bakery", "School", "Shattuck", "St.", "Telegraph", "Ave"};
+        Random random = new Random(seed);
+        String[] names = new String[n];
+        for (int i = 0; i < n; i += 1) {
+            StringBuilder sb = new StringBuilder(words[random.nextInt(words.length)]);
+            int more = random.nextInt(3);
+            for (int j = 0; j < more; j += 1) {
+                sb.append(' ').append(words[random.nextInt(words.length)]);
+            }
+            if (random.nextInt(10) == 0) {
+                sb.append(' ').append(random.nextInt(100));
+            }
+            names[i] = sb.toString();
+        }
+        return names;
+    }
+
+    /** The OSM id of the grid node in row r and column c. */
+    public static long gridId(int r, int c, int cols) {
+        return (long) r * cols + c + 1;
+    }
+}
@@ -0,0 +1,107 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reports the retained heap per vertex of the CSR GraphDB, next to the same street grid
+ * held the straightforward way, as a HashMap from boxed OSM id to a node object with a
+ * List of boxed neighbor ids. Also reports the memory the nodes on no road take, which a
+ * graph keeps only for OSM changes.
+ * Run with: java -Xmx2g -cp target/classes:target/test-classes GraphMemoryBenchmark [side]
+ */
+public class GraphMemoryBenchmark {
+    /** The straightforward representation the CSR arrays replace. */
+    private static class Node {
+        final long id;
+        final double lon;
+        final double lat;
+        final List<Long> adjacent = new ArrayList<>();
+
+        Node(long id, double lon, double lat) {
+            this.id = id;
+            this.lon = lon;
+            this.lat = lat;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int side = args.length > 0 ? Integer.parseInt(args[0]) : 700;
+        int n = side * side;
+
+        long before = usedHeap();
+        Map<Long, Node> boxed = boxedGrid(side);
+        long boxedBytes = usedHeap() - before;
+        int boxedSize = boxed.size();
+        boxed = null;
+
+        before = usedHeap();
+        GraphDB csr = GraphFixtures.grid(side, side, 0.0, 61);
+        long csrBytes = usedHeap() - before;
+
+        System.out.println(String.format("%d vertices, %d edges", n, 2 * side * (side - 1)));
+        System.out.println(String.format("HashMap<Long, Node>: %8.1f bytes/vertex",
+                (double) boxedBytes / boxedSize));
+        System.out.println(String.format("CSR GraphDB:         %8.1f bytes/vertex",
+                (double) csrBytes / csr.size()));
+        csr = null;
+        parked();
+    }
+
+    /**
+     * Reports what the nodes on no road cost a graph that keeps them for OSM changes, on a
+     * synthetic city with about the 25,176 vertices and 374,111 such nodes of Berkeley.
+     */
+    private static void parked() throws IOException {
+        File osm = File.createTempFile("city", ".osm");
+        osm.deleteOnExit();
+        SyntheticOsm.write(osm, 159, 374_111, 61);
+        long before = usedHeap();
+        GraphDB g = new GraphDB(osm.getPath());
+        long withParked = usedHeap() - before;
+        int parked = g.parkedCount();
+        g.dropParked();
+        long withoutParked = usedHeap() - before;
+        System.out.println(String.format("%d vertices, %d parked nodes: graph %.1f MB, "
+                + "%.1f MB with parked nodes (%.1f bytes each)", g.size(), parked,
+                withoutParked / 1e6, withParked / 1e6,
+                (double) (withParked - withoutParked) / parked));
+    }
+
+    private static Map<Long, Node> boxedGrid(int side) {
+        Map<Long, Node> nodes = new HashMap<>();
+        for (int r = 0; r < side; r += 1) {
+            for (int c = 0; c < side; c += 1) {
+                long id = GraphFixtures.gridId(r, c, side);
+                nodes.put(id, new Node(id, c * 0.0005, r * 0.0005));
+            }
+        }
+        for (int r = 0; r < side; r += 1) {
+            for (int c = 0; c < side; c += 1) {
+                long v = GraphFixtures.gridId(r, c, side);
+                if (c + 1 < side) {
+                    connect(nodes, v, GraphFixtures.gridId(r, c + 1, side));
+                }
+                if (r + 1 < side) {
+                    connect(nodes, v, GraphFixtures.gridId(r + 1, c, side));
+                }
+            }
+        }
+        return nodes;
+    }
+
+    private static void connect(Map<Long, Node> nodes, long v, long w) {
+        nodes.get(v).adjacent.add(w);
+        nodes.get(w).adjacent.add(v);
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 5; i += 1) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
@@ -0,0 +1,43 @@
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Measures OSM ingest throughput, in MB of file per second, for the SAX handler and for
+ * the streaming OsmReader, on plain and gzipped input. The Berkeley extract is about
+ * 400k nodes; the default synthetic city, side 1000, is 16M nodes and 1.7 GB of XML, over
+ * ten times the Berkeley file. Side 370 gives 2.1M nodes, about five times it, for a
+ * quicker run.
+ * Run with: java -Xmx4g -cp target/classes:target/test-classes IngestBenchmark [side]
+ */
+public class IngestBenchmark {
+    public static void main(String[] args) throws IOException {
+        int side = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        File xml = File.createTempFile("city", ".osm.xml");
+        File gz = File.createTempFile("city", ".osm.xml.gz");
+        xml.deleteOnExit();
+        gz.deleteOnExit();
+        SyntheticOsm.write(xml, side, 15 * side * side, 61);
+        SyntheticOsm.write(gz, side, 15 * side * side, 61);
+        System.out.println(String.format("%d nodes: %.1f MB XML, %.1f MB gzipped",
+                16L * side * side, xml.length() / 1e6, gz.length() / 1e6));
+
+        for (int round = 0; round < 2; round += 1) {
+            report("SAX        xml", xml, () -> GraphDB.parseWithSax(xml.getPath()));
+            report("OsmReader  xml", xml, () -> new GraphDB(xml.getPath()));
+            report("SAX        gz ", gz, () -> GraphDB.parseWithSax(gz.getPath()));
+            report("OsmReader  gz ", gz, () -> new GraphDB(gz.getPath()));
+        }
+    }
+
+    private interface Load {
+        GraphDB load();
+    }
+
+    private static void report(String label, File f, Load load) {
+        long start = System.nanoTime();
+        GraphDB g = load.load();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("%s %7.2f s %8.1f MB/s  (%d vertices)", label,
+                seconds, f.length() / 1e6 / seconds, g.size()));
+    }
+}
@@ -0,0 +1,43 @@
+import java.util.Random;
+
+/**
+ * Measures Router.isochrone for a range of time budgets on a synthetic grid, showing that
+ * the cost follows the number of vertices reached rather than the size of the graph, and
+ * how long the hull of each result takes on top.
+ * Run from proj3/ with:
+ * java -cp target/classes:target/test-classes IsochroneBenchmark [side] [queries]
+ */
+public class IsochroneBenchmark {
+    public static void main(String[] args) {
+        int side = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        GraphDB g = GraphFixtures.grid(side, side, 0.15, 61);
+        Random random = new Random(4);
+        int[] starts = new int[queries];
+        for (int i = 0; i < queries; i += 1) {
+            starts[i] = random.nextInt(g.size());
+        }
+        System.out.println(String.format("%d isochrones per budget on a %d-vertex grid:",
+                queries, g.size()));
+
+        for (int round = 0; round < 2; round += 1) {
+            for (double minutes : new double[] {0.5, 1, 2, 5, 10}) {
+                long reached = 0;
+                long start = System.nanoTime();
+                for (int s : starts) {
+                    reached += Router.isochrone(g, s, minutes).size();
+                }
+                double searchUs = (System.nanoTime() - start) / 1e3 / queries;
+
+                start = System.nanoTime();
+                for (int s : starts) {
+                    Router.isochrone(g, s, minutes).hull(g);
+                }
+                double hullUs = (System.nanoTime() - start) / 1e3 / queries - searchUs;
+                System.out.println(String.format("  %4.1f min: %8d vertices  search %9.1f us"
+                        + "  (%5.1f ns/vertex)  hull +%8.1f us", minutes, reached / queries,
+                        searchUs, searchUs * 1e3 / Math.max(1, reached / queries), hullUs));
+            }
+        }
+    }
+}
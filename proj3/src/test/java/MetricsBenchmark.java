@@ -0,0 +1,45 @@
+/**
+ * Measures the cost of timing a phase with Metrics: a pair of System.nanoTime() calls and
+ * one LatencyHistogram.record, from one thread and from several threads recording into the
+ * same histogram at once. The per-phase overhead should stay far below the microseconds
+ * the cheapest timed phase, closest(), takes.
+ * Run from proj3/ with:
+ * java -cp target/classes:target/test-classes MetricsBenchmark [threads] [records]
+ */
+public class MetricsBenchmark {
+    public static void main(String[] args) throws Exception {
+        int threadCount = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int records = args.length > 1 ? Integer.parseInt(args[1]) : 5_000_000;
+        Metrics metrics = new Metrics();
+        System.out.println(String.format("%d timed records per thread, %d cores:", records,
+                Runtime.getRuntime().availableProcessors()));
+
+        for (int round = 0; round < 3; round += 1) {
+            for (int threads : new int[] {1, threadCount}) {
+                Thread[] workers = new Thread[threads];
+                for (int t = 0; t < threads; t += 1) {
+                    workers[t] = new Thread(() -> {
+                        for (int i = 0; i < records; i += 1) {
+                            long start = System.nanoTime();
+                            metrics.record(Metrics.Phase.CLOSEST, start);
+                        }
+                    });
+                }
+                long start = System.nanoTime();
+                for (Thread worker : workers) {
+                    worker.start();
+                }
+                for (Thread worker : workers) {
+                    worker.join();
+                }
+                double ns = (double) (System.nanoTime() - start) / records / threads;
+                System.out.println(String.format("  %2d threads: %6.1f ns per timed phase",
+                        threads, ns));
+            }
+        }
+        long start = System.nanoTime();
+        int bytes = metrics.scrape().length();
+        System.out.println(String.format("  scrape: %d bytes in %.2f ms", bytes,
+                (System.nanoTime() - start) / 1e6));
+    }
+}
@@ -0,0 +1,113 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Compares applying OSM changes of a few sizes with parsing the whole extract again, and
+ * reports the route latency seen by readers of the live graph while a writer applies
+ * changes and swaps them in, against the latency with no writer, on a synthetic city.
+ * Run from proj3/ with:
+ * java -Xmx2g -cp target/classes:target/test-classes OsmChangeBenchmark [side]
+ */
+public class OsmChangeBenchmark {
+    private static final int ROUTES = 2000;
+    private static volatile GraphDB live;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int side = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        File osm = File.createTempFile("city", ".osm");
+        osm.deleteOnExit();
+        SyntheticOsm.write(osm, side, 4 * side * side, 61);
+        long start = System.nanoTime();
+        GraphDB g = new GraphDB(osm.getPath());
+        System.out.println(String.format("%d vertices, %d parked nodes: full rebuild %.0f ms",
+                g.size(), g.parkedCount(), (System.nanoTime() - start) / 1e6));
+
+        Random random = new Random(2);
+        for (int size : new int[] {1, 10, 100, 1000}) {
+            long[] nanos = new long[20];
+            for (int i = 0; i < nanos.length; i += 1) {
+                OsmChange change = change(g, side, size, random);
+                long t0 = System.nanoTime();
+                g.apply(change);
+                nanos[i] = System.nanoTime() - t0;
+            }
+            Arrays.sort(nanos);
+            System.out.println(String.format("  apply %4d changes: p50 %7.2f ms  max %7.2f ms",
+                    size, nanos[nanos.length / 2] / 1e6, nanos[nanos.length - 1] / 1e6));
+        }
+
+        live = g;
+        read("no writer", null);
+        AtomicBoolean done = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            Random r = new Random(3);
+            int applied = 0;
+            while (!done.get()) {
+                live = live.apply(change(live, side, 10, r));
+                applied += 1;
+            }
+            System.out.println(String.format("  (%d changes swapped in)", applied));
+        });
+        read("writer", writer);
+        done.set(true);
+        writer.join();
+    }
+
+    /**
+     * Returns a change of about size elements, like a replication diff: moved nodes,
+     * retagged roads, and new roads through new nodes.
+     */
+    private static OsmChange change(GraphDB g, int side, int size, Random random) {
+        OsmChange change = new OsmChange();
+        for (int i = 0; i < size; i += 1) {
+            int v = random.nextInt(g.size());
+            switch (i % 4) {
+                case 0:
+                case 1:
+                    if (g.id(v) % 100 != 0) {
+                        change.putNode(g.id(v), g.lonAt(v) + (random.nextDouble() - 0.5) * 1e-5,
+                                g.latAt(v), null);
+                    }
+                    break;
+                case 2:
+                    int row = random.nextInt(side);
+                    long[] refs = new long[side];
+                    for (int c = 0; c < side; c += 1) {
+                        refs[c] = (long) row * side + c + 1;
+                    }
+                    change.putWay(row + 1, refs, side, 5 + 5 * random.nextInt(8),
+                            "Row " + row + " Street");
+                    break;
+                default:
+                    long id = 1_000_000_000L + random.nextInt(1_000_000);
+                    change.putNode(id, g.lonAt(v) + 1e-4, g.latAt(v), null);
+                    change.putWay(id, new long[] {g.id(v), id}, 2, 25, "");
+                    break;
+            }
+        }
+        return change;
+    }
+
+    /** Routes between random vertices of the live graph, with writer running if given. */
+    private static void read(String label, Thread writer) {
+        if (writer != null) {
+            writer.start();
+        }
+        Random random = new Random(4);
+        long[] nanos = new long[ROUTES];
+        for (int i = 0; i < ROUTES; i += 1) {
+            long t0 = System.nanoTime();
+            GraphDB g = live;
+            Router.shortestPath(g, random.nextInt(g.size()), random.nextInt(g.size()),
+                    Router.Algorithm.ASTAR);
+            nanos[i] = System.nanoTime() - t0;
+        }
+        Arrays.sort(nanos);
+        System.out.println(String.format("  reader, %-9s p50 %7.2f ms  p99 %7.2f ms  "
+                + "max %7.2f ms", label, nanos[ROUTES / 2] / 1e6, nanos[ROUTES * 99 / 100] / 1e6,
+                nanos[ROUTES - 1] / 1e6));
+    }
+}
@@ -0,0 +1,72 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Reports the partitioning time and resident overlay size of a PartitionedGraph, and the
+ * latency percentiles and cells read of routing over it against plain A* over the whole
+ * graph, with a warm cache and with a cold one, on a synthetic grid.
+ * Run from proj3/ with:
+ * java -cp target/classes:target/test-classes PartitionBenchmark [side] [cellSize]
+ */
+public class PartitionBenchmark {
+    private static final int QUERIES = 1000;
+
+    public static void main(String[] args) throws IOException {
+        int side = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        int cellSize = args.length > 1 ? Integer.parseInt(args[1])
+            : PartitionedGraph.DEFAULT_CELL_SIZE;
+        GraphDB g = GraphFixtures.grid(side, side, 0.15, 61);
+        long graphBytes = 8L * g.size() * 3 + 4L * (g.size() + 1)
+            + 12L * g.edgeEnd(g.size() - 1);
+
+        File source = File.createTempFile("partition", ".osm");
+        File file = new File(source.getPath() + GraphSnapshot.PARTITION_SUFFIX);
+        source.deleteOnExit();
+        file.deleteOnExit();
+        long start = System.nanoTime();
+        PartitionedGraph pg = GraphSnapshot.loadPartition(g, source.getPath(), cellSize,
+            PartitionedGraph.DEFAULT_CACHE_BYTES);
+        System.out.println(String.format("%dx%d grid: %d vertices, partitioned in %.2f s into "
+                + "%d cells, %d overlay nodes, %d KB overlay over a %d KB graph", side, side,
+            g.size(), (System.nanoTime() - start) / 1e9, pg.cellCount(), pg.overlaySize(),
+            pg.overlayBytes() >> 10, graphBytes >> 10));
+
+        Random random = new Random(4);
+        int[][] queries = new int[QUERIES][];
+        for (int i = 0; i < QUERIES; i += 1) {
+            queries[i] = new int[]{random.nextInt(g.size()), random.nextInt(g.size())};
+        }
+        time(g, pg, queries, Router.Algorithm.ASTAR, false);
+        time(g, pg, queries, Router.Algorithm.PARTITIONED, false);
+        time(g, pg, queries, Router.Algorithm.PARTITIONED, true);
+        pg.close();
+    }
+
+    private static void time(GraphDB g, PartitionedGraph pg, int[][] queries,
+                             Router.Algorithm algorithm, boolean cold) {
+        for (int[] q : queries) {
+            Router.shortestPath(g, q[0], q[1], algorithm);
+        }
+        long[] nanos = new long[QUERIES];
+        long settled = 0;
+        long misses = 0;
+        for (int i = 0; i < QUERIES; i += 1) {
+            if (cold) {
+                pg.clearCells();
+            }
+            long before = pg.misses();
+            long t0 = System.nanoTime();
+            Router.shortestPath(g, queries[i][0], queries[i][1], algorithm);
+            nanos[i] = System.nanoTime() - t0;
+            settled += Router.lastSettledCount();
+            misses += pg.misses() - before;
+        }
+        Arrays.sort(nanos);
+        System.out.println(String.format("  %-11s %-4s %9.0f settled %6.1f cells read  "
+                + "p50 %8.3f ms  p99 %8.3f ms", algorithm, cold ? "cold" : "warm",
+            (double) settled / QUERIES, (double) misses / QUERIES, nanos[QUERIES / 2] / 1e6,
+            nanos[QUERIES * 99 / 100] / 1e6));
+    }
+}
@@ -0,0 +1,113 @@
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+import javax.imageio.ImageIO;
+
+/**
+ * A synthetic thundering herd against /raster's rendering: in each wave, every client asks
+ * for the same 3x4-tile default view at once, as when a page is shared or a server comes
+ * back up. Rendering composites decoded noise tiles and encodes the PNG, the CPU-heavy
+ * part of /raster. Compares the CPU time and wall time of the herd rendering every request
+ * with the herd going through a RasterCache.
+ * Run from proj3/ with:
+ * java -cp target/classes:target/test-classes RasterHerdBenchmark [clients] [waves]
+ */
+public class RasterHerdBenchmark {
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int waves = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        Random random = new Random(61);
+        BufferedImage[] tiles = new BufferedImage[12];
+        for (int i = 0; i < tiles.length; i += 1) {
+            tiles[i] = noise(random);
+        }
+        String[][] grid = new String[3][4];
+        for (int r = 0; r < 3; r += 1) {
+            for (int c = 0; c < 4; c += 1) {
+                grid[r][c] = Integer.toString(r * 4 + c);
+            }
+        }
+        TileCompositor compositor = new TileCompositor(name -> tiles[Integer.parseInt(name)],
+                ForkJoinPool.commonPool());
+        Supplier<byte[]> render = () -> encode(compositor.compositeSequential(grid));
+        System.out.println(String.format("%d clients x %d waves of one identical raster, "
+                + "%d cores:", clients, waves, Runtime.getRuntime().availableProcessors()));
+
+        for (int round = 0; round < 2; round += 1) {
+            double[] direct = herd(clients, waves, render);
+            RasterCache cache = new RasterCache();
+            double[] cached = herd(clients, waves, () -> cache.get("default", render));
+            System.out.println(String.format("  uncached: %8.0f ms CPU %7.0f ms wall", direct[0],
+                    direct[1]));
+            System.out.println(String.format("  cached:   %8.0f ms CPU %7.0f ms wall   "
+                    + "(%.1f%% CPU saved; %d rendered, %d coalesced, %d hits)", cached[0],
+                    cached[1], 100 * (1 - cached[0] / direct[0]), cache.misses(),
+                    cache.coalesced(), cache.hits()));
+        }
+    }
+
+    /** Runs the herd and returns {CPU ms summed over the clients, wall ms}. */
+    private static double[] herd(int clients, int waves, Supplier<byte[]> request)
+            throws InterruptedException {
+        ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        CyclicBarrier wave = new CyclicBarrier(clients);
+        long[] cpu = new long[clients];
+        Thread[] threads = new Thread[clients];
+        for (int t = 0; t < clients; t += 1) {
+            int i = t;
+            threads[t] = new Thread(() -> {
+                long start = mx.getCurrentThreadCpuTime();
+                try {
+                    for (int w = 0; w < waves; w += 1) {
+                        wave.await();
+                        request.get();
+                    }
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+                cpu[i] = mx.getCurrentThreadCpuTime() - start;
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double wallMs = (System.nanoTime() - start) / 1e6;
+        long total = 0;
+        for (long c : cpu) {
+            total += c;
+        }
+        return new double[] {total / 1e6, wallMs};
+    }
+
+    private static BufferedImage noise(Random random) {
+        BufferedImage img = new BufferedImage(MapServer.TILE_SIZE, MapServer.TILE_SIZE,
+                BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < MapServer.TILE_SIZE; y += 1) {
+            for (int x = 0; x < MapServer.TILE_SIZE; x += 1) {
+                img.setRGB(x, y, random.nextInt(1 << 24) & 0xf0f0f0);
+            }
+        }
+        return img;
+    }
+
+    private static byte[] encode(BufferedImage img) {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try {
+            ImageIO.write(img, "png", os);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return os.toByteArray();
+    }
+}
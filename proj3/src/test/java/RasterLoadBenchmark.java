@@ -0,0 +1,140 @@
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+
+/**
+ * A bursty load of distinct rasters against the two ways MapServer can render them: on
+ * the request threads (the default), and with compositing and encoding sent to a
+ * ComputePool (mapserver.compute.threads). Requests arrive in bursts onto a pool of request
+ * threads as large as Jetty's default, each reading 12 tiles with a simulated blocking read
+ * before rendering them. Reports the rasters answered per second before a client would have
+ * given up, latency percentiles of all answered rasters, measured from arrival, the 503s the
+ * compute pool sends, and the rasters answered too late. The default burst is more than
+ * the cores can render between bursts.
+ * Run from proj3/ with:
+ * java -cp target/classes:target/test-classes RasterLoadBenchmark [burst] [readMs]
+ */
+public class RasterLoadBenchmark {
+    private static final int REQUEST_THREADS = 200;
+    private static final int BURSTS = 4;
+    private static final long BURST_GAP_MS = 1500;
+    private static final long CLIENT_TIMEOUT_MS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int burst = args.length > 0 ? Integer.parseInt(args[0]) : 12 * cores;
+        long readMs = args.length > 1 ? Long.parseLong(args[1]) : 2;
+        Random random = new Random(61);
+        BufferedImage[] tiles = new BufferedImage[12];
+        for (int i = 0; i < tiles.length; i += 1) {
+            tiles[i] = noise(random);
+        }
+        TileCompositor compositor = new TileCompositor(name -> tiles[Integer.parseInt(name)],
+                ForkJoinPool.commonPool());
+        String[][] grid = new String[3][4];
+        for (int r = 0; r < 3; r += 1) {
+            for (int c = 0; c < 4; c += 1) {
+                grid[r][c] = Integer.toString(r * 4 + c);
+            }
+        }
+        System.out.println(String.format("%d bursts of %d rasters, %d ms per tile read, "
+                + "%d request threads, %d cores:", BURSTS, burst, readMs, REQUEST_THREADS,
+                cores));
+
+        for (int round = 0; round < 2; round += 1) {
+            run("request threads", burst, () -> {
+                read(grid, readMs);
+                return encode(compositor.composite(grid));
+            });
+            ComputePool pool = new ComputePool(cores, 4 * cores);
+            run(String.format("compute pool %d+%d", cores, 4 * cores), burst, () -> {
+                read(grid, readMs);
+                return pool.call(() -> encode(compositor.compositeSequential(grid)));
+            });
+            pool.shutdown();
+        }
+    }
+
+    private interface Request {
+        byte[] serve();
+    }
+
+    private static void run(String label, int burst, Request request)
+            throws InterruptedException {
+        ExecutorService server = Executors.newFixedThreadPool(REQUEST_THREADS);
+        int total = BURSTS * burst;
+        long[] nanos = new long[total];
+        AtomicInteger answered = new AtomicInteger();
+        AtomicInteger busy = new AtomicInteger();
+        long start = System.nanoTime();
+        for (int b = 0; b < BURSTS; b += 1) {
+            for (int i = 0; i < burst; i += 1) {
+                long arrived = System.nanoTime();
+                server.execute(() -> {
+                    try {
+                        request.serve();
+                        nanos[answered.getAndIncrement()] = System.nanoTime() - arrived;
+                    } catch (RejectedExecutionException e) {
+                        busy.incrementAndGet();
+                    }
+                });
+            }
+            Thread.sleep(BURST_GAP_MS);
+        }
+        server.shutdown();
+        server.awaitTermination(1, TimeUnit.HOURS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        int n = answered.get();
+        long[] latencies = Arrays.copyOf(nanos, n);
+        Arrays.sort(latencies);
+        int late = 0;
+        for (long latency : latencies) {
+            late += latency > TimeUnit.MILLISECONDS.toNanos(CLIENT_TIMEOUT_MS) ? 1 : 0;
+        }
+        System.out.println(String.format("  %-20s %5.1f in time/s  p50 %7.1f ms  p99 %7.1f ms"
+                + "  max %7.1f ms  %4d 503s  %4d after %d ms", label, (n - late) / seconds,
+                latencies[n / 2] / 1e6, latencies[n * 99 / 100] / 1e6, latencies[n - 1] / 1e6,
+                busy.get(), late, CLIENT_TIMEOUT_MS));
+    }
+
+    /** Simulates the blocking reads of a raster's tiles, which take no CPU. */
+    private static void read(String[][] grid, long readMs) {
+        try {
+            Thread.sleep(readMs * grid.length * grid[0].length);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static BufferedImage noise(Random random) {
+        BufferedImage img = new BufferedImage(MapServer.TILE_SIZE, MapServer.TILE_SIZE,
+                BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < MapServer.TILE_SIZE; y += 1) {
+            for (int x = 0; x < MapServer.TILE_SIZE; x += 1) {
+                img.setRGB(x, y, random.nextInt(1 << 24) & 0xf0f0f0);
+            }
+        }
+        return img;
+    }
+
+    private static byte[] encode(BufferedImage img) {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try {
+            ImageIO.write(img, "png", os);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return os.toByteArray();
+    }
+}
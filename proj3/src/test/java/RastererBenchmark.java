@@ -0,0 +1,95 @@
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Load test for Rasterer.getMapRaster. Queries are the ones in raster_params.txt, each
+ * jittered by a random pan and zoom so that every depth of the pyramid gets exercised, and
+ * the p50/p99 latency of a single call is reported.
+ * Run from proj3/ with: java -cp target/classes:target/test-classes RastererBenchmark [n]
+ */
+public class RastererBenchmark {
+    private static final String PARAMS_FILE = "raster_params.txt";
+    private static final int DEFAULT_QUERIES = 1_000_000;
+
+    public static void main(String[] args) throws IOException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_QUERIES;
+        List<Map<String, Double>> base = baseQueries();
+        List<Map<String, Double>> queries = new ArrayList<>();
+        Random random = new Random(61);
+        for (int i = 0; i < 4096; i += 1) {
+            queries.add(jitter(base.get(i % base.size()), random));
+        }
+
+        Rasterer rasterer = new Rasterer();
+        long[] nanos = new long[n];
+        /* The first pass over the queries is warmup and is not recorded. */
+        for (int i = 0; i < queries.size() * 20; i += 1) {
+            rasterer.getMapRaster(queries.get(i % queries.size()));
+        }
+        int tiles = 0;
+        for (int i = 0; i < n; i += 1) {
+            long start = System.nanoTime();
+            Map<String, Object> r = rasterer.getMapRaster(queries.get(i % queries.size()));
+            nanos[i] = System.nanoTime() - start;
+            tiles += ((String[][]) r.get("render_grid")).length;
+        }
+        Arrays.sort(nanos);
+        System.out.println(String.format("%d queries (%d base, %d grid rows returned)", n,
+                base.size(), tiles));
+        System.out.println(String.format("p50 %.2f us, p99 %.2f us, max %.2f us",
+                nanos[n / 2] / 1e3, nanos[(int) (n * 0.99)] / 1e3, nanos[n - 1] / 1e3));
+    }
+
+    /** Reads raster_params.txt, or falls back to the root box if it is not present. */
+    private static List<Map<String, Double>> baseQueries() throws IOException {
+        List<Map<String, Double>> queries = new ArrayList<>();
+        Path path = Paths.get(PARAMS_FILE);
+        if (Files.exists(path)) {
+            List<String> lines = Files.readAllLines(path, Charset.defaultCharset());
+            for (int i = 2; i + 5 < lines.size(); i += 6) {
+                queries.add(query(Double.parseDouble(lines.get(i)),
+                        Double.parseDouble(lines.get(i + 1)),
+                        Double.parseDouble(lines.get(i + 2)),
+                        Double.parseDouble(lines.get(i + 3)),
+                        Double.parseDouble(lines.get(i + 4)),
+                        Double.parseDouble(lines.get(i + 5))));
+            }
+        } else {
+            System.out.println(PARAMS_FILE + " not found, using the root box.");
+            queries.add(query(MapServer.ROOT_ULLON, MapServer.ROOT_ULLAT, MapServer.ROOT_LRLON,
+                    MapServer.ROOT_LRLAT, 1000, 800));
+        }
+        return queries;
+    }
+
+    /** Pans a query by up to half its size and zooms it by up to a factor of 16. */
+    private static Map<String, Double> jitter(Map<String, Double> q, Random random) {
+        double w = q.get("lrlon") - q.get("ullon");
+        double h = q.get("ullat") - q.get("lrlat");
+        double scale = Math.pow(2, random.nextInt(9) - 4);
+        double ullon = q.get("ullon") + (random.nextDouble() - 0.5) * w;
+        double ullat = q.get("ullat") + (random.nextDouble() - 0.5) * h;
+        return query(ullon, ullat, ullon + w * scale, ullat - h * scale, q.get("w"), q.get("h"));
+    }
+
+    private static Map<String, Double> query(double ullon, double ullat, double lrlon,
+                                             double lrlat, double w, double h) {
+        Map<String, Double> params = new HashMap<>();
+        params.put("ullon", ullon);
+        params.put("ullat", ullat);
+        params.put("lrlon", lrlon);
+        params.put("lrlat", lrlat);
+        params.put("w", w);
+        params.put("h", h);
+        return params;
+    }
+}
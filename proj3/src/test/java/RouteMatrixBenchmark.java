@@ -0,0 +1,45 @@
+import java.util.Random;
+
+/**
+ * Compares Router.distanceMatrix with the naive loop that /route clients run today, one
+ * closest() lookup pair and one A* search per cell, for a 100 x 100 matrix on a synthetic
+ * grid. distanceMatrix runs its sources on the common ForkJoinPool, so its speedup also
+ * scales with the number of cores.
+ * Run from proj3/ with:
+ * java -cp target/classes:target/test-classes RouteMatrixBenchmark [side] [n]
+ */
+public class RouteMatrixBenchmark {
+    public static void main(String[] args) {
+        int side = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        int n = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        GraphDB g = GraphFixtures.grid(side, side, 0.15, 61);
+        Random random = new Random(8);
+        double[][] sources = new double[n][];
+        double[][] targets = new double[n][];
+        for (int i = 0; i < n; i += 1) {
+            int s = random.nextInt(g.size());
+            int t = random.nextInt(g.size());
+            sources[i] = new double[]{g.lonAt(s), g.latAt(s)};
+            targets[i] = new double[]{g.lonAt(t), g.latAt(t)};
+        }
+        System.out.println(String.format("%dx%d matrix on a %d-vertex grid, %d cores:", n, n,
+                g.size(), Runtime.getRuntime().availableProcessors()));
+
+        for (int round = 0; round < 2; round += 1) {
+            long start = System.nanoTime();
+            Router.distanceMatrix(g, sources, targets);
+            double matrixMs = (System.nanoTime() - start) / 1e6;
+
+            start = System.nanoTime();
+            for (double[] s : sources) {
+                for (double[] t : targets) {
+                    Router.shortestPath(g, s[0], s[1], t[0], t[1]);
+                }
+            }
+            double naiveMs = (System.nanoTime() - start) / 1e6;
+            System.out.println(String.format("  distanceMatrix %8.1f ms (%7.0f cells/s)   "
+                    + "naive loop %8.1f ms (%7.0f cells/s)", matrixMs, n * n / matrixMs * 1e3,
+                    naiveMs, n * n / naiveMs * 1e3));
+        }
+    }
+}
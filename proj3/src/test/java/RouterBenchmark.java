@@ -0,0 +1,86 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the Router algorithms by vertices settled and latency per query, on the routes
+ * of path_params.txt over the Berkeley graph (when the data files are present) and on
+ * random routes over a large synthetic grid. Each graph gets k ALT landmarks. CH is left
+ * out, since the graphs have no hierarchy attached; ContractionBenchmark covers it.
+ * Run from proj3/ with:
+ * java -cp target/classes:target/test-classes RouterBenchmark [side] [landmarks]
+ */
+public class RouterBenchmark {
+    private static final String OSM_DB_PATH = "../library-sp18/data/berkeley-2018.osm.xml";
+    private static final String PARAMS_FILE = "path_params.txt";
+
+    public static void main(String[] args) throws IOException {
+        int side = args.length > 0 ? Integer.parseInt(args[0]) : 600;
+        int k = args.length > 1 ? Integer.parseInt(args[1]) : Landmarks.DEFAULT_COUNT;
+        if (new File(OSM_DB_PATH).exists()) {
+            GraphDB berkeley = new GraphDB(OSM_DB_PATH);
+            addLandmarks(berkeley, k);
+            compare("path_params.txt on Berkeley", berkeley, pathParams(berkeley));
+        } else {
+            System.out.println(OSM_DB_PATH + " not found, skipping path_params.txt.");
+        }
+
+        GraphDB grid = GraphFixtures.grid(side, side, 0.15, 61);
+        addLandmarks(grid, k);
+        Random random = new Random(9);
+        List<int[]> queries = new ArrayList<>();
+        for (int i = 0; i < 200; i += 1) {
+            queries.add(new int[]{random.nextInt(grid.size()), random.nextInt(grid.size())});
+        }
+        compare(side + "x" + side + " grid", grid, queries);
+    }
+
+    private static void addLandmarks(GraphDB g, int k) {
+        long start = System.nanoTime();
+        Landmarks landmarks = Landmarks.build(g, k);
+        g.setLandmarks(landmarks);
+        System.out.println(String.format("%d landmarks chosen in %.2f s, %d KB", k,
+                (System.nanoTime() - start) / 1e9, landmarks.sizeInBytes() >> 10));
+    }
+
+    /** Runs every algorithm over the queries and prints mean settled vertices and time. */
+    static void compare(String label, GraphDB g, List<int[]> queries) {
+        System.out.println(label + ", " + g.size() + " vertices, " + queries.size()
+                + " routes:");
+        for (Router.Algorithm algorithm : Router.Algorithm.values()) {
+            if (algorithm == Router.Algorithm.CH && g.hierarchy() == null) {
+                continue;
+            }
+            for (int[] q : queries) {
+                Router.shortestPath(g, q[0], q[1], algorithm);
+            }
+            long settled = 0;
+            long start = System.nanoTime();
+            for (int[] q : queries) {
+                Router.shortestPath(g, q[0], q[1], algorithm);
+                settled += Router.lastSettledCount();
+            }
+            double ms = (System.nanoTime() - start) / 1e6 / queries.size();
+            System.out.println(String.format("  %-14s %10.0f settled %9.3f ms", algorithm,
+                    (double) settled / queries.size(), ms));
+        }
+    }
+
+    private static List<int[]> pathParams(GraphDB g) throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(PARAMS_FILE), Charset.defaultCharset());
+        List<int[]> queries = new ArrayList<>();
+        for (int i = 2; i + 3 < lines.size(); i += 4) {
+            queries.add(new int[]{
+                g.closestIndex(Double.parseDouble(lines.get(i)),
+                        Double.parseDouble(lines.get(i + 1))),
+                g.closestIndex(Double.parseDouble(lines.get(i + 2)),
+                        Double.parseDouble(lines.get(i + 3)))});
+        }
+        return queries;
+    }
+}
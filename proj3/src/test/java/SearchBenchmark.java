@@ -0,0 +1,78 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measures full-name and all-words lookups in the NameIndex of a large synthetic set of
+ * place names, against a linear scan of every location, and how much indexing the names
+ * while the places are added costs.
+ * Run from proj3/ with:
+ * java -cp target/classes:target/test-classes SearchBenchmark [names]
+ */
+public class SearchBenchmark {
+    private static final int QUERIES = 20000;
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        String[] names = GraphFixtures.placeNames(n, 7);
+        long start = System.nanoTime();
+        GraphDB g = GraphFixtures.places(names, 7);
+        double buildS = (System.nanoTime() - start) / 1e9;
+        start = System.nanoTime();
+        NameIndex.Builder rebuilt = new NameIndex.Builder();
+        long[] ids = new long[g.locationCount()];
+        for (int i = 0; i < g.locationCount(); i += 1) {
+            ids[i] = g.locationId(i);
+            rebuilt.add(ids[i], g.locationName(i));
+        }
+        rebuilt.build(ids);
+        System.out.println(String.format("%d names, %d keys, %d words; graph built in %.2f s; "
+                + "indexing the names alone takes %.2f s", n, g.nameIndex().size(),
+                g.nameIndex().tokenCount(), buildS, (System.nanoTime() - start) / 1e9));
+
+        Random random = new Random(3);
+        String[] queries = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i += 1) {
+            queries[i] = names[random.nextInt(n)];
+        }
+        for (boolean allWords : new boolean[] {false, true}) {
+            long[] nanos = new long[QUERIES];
+            long matches = 0;
+            for (int round = 0; round < 2; round += 1) {
+                matches = 0;
+                for (int i = 0; i < QUERIES; i += 1) {
+                    long t0 = System.nanoTime();
+                    long[] found = allWords ? g.nameIndex().allTokens(queries[i])
+                        : g.nameIndex().exact(queries[i]);
+                    nanos[i] = System.nanoTime() - t0;
+                    matches += found.length;
+                }
+            }
+            Arrays.sort(nanos);
+
+            long scanStart = System.nanoTime();
+            int scans = 10;
+            for (int i = 0; i < scans; i += 1) {
+                scan(g, GraphDB.cleanString(queries[i]), allWords);
+            }
+            double scanMs = (System.nanoTime() - scanStart) / 1e6 / scans;
+            System.out.println(String.format("  %-9s index p50 %7.2f us  p99 %7.2f us  "
+                    + "(%.0f matches)   linear scan %8.2f ms", allWords ? "all words" : "exact",
+                    nanos[QUERIES / 2] / 1e3, nanos[QUERIES * 99 / 100] / 1e3,
+                    (double) matches / QUERIES, scanMs));
+        }
+    }
+
+    /** Counts the matches of a cleaned query by cleaning every name, as a baseline. */
+    private static int scan(GraphDB g, String query, boolean allWords) {
+        String[] words = NameIndex.words(query);
+        int matches = 0;
+        for (int i = 0; i < g.locationCount(); i += 1) {
+            String name = GraphDB.cleanString(g.locationName(i));
+            if (allWords ? Arrays.asList(NameIndex.words(name)).containsAll(
+                    Arrays.asList(words)) : name.equals(query)) {
+                matches += 1;
+            }
+        }
+        return matches;
+    }
+}
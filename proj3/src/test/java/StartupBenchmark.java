@@ -0,0 +1,38 @@
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Compares a cold graph load from OSM XML with a load from its binary snapshot.
+ * Run with: java -cp target/classes:target/test-classes StartupBenchmark [osm file] [side]
+ * Without an OSM file, a synthetic city of side x side streets is generated first.
+ */
+public class StartupBenchmark {
+    public static void main(String[] args) throws IOException {
+        File osm;
+        if (args.length > 0) {
+            osm = new File(args[0]);
+        } else {
+            int side = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+            osm = File.createTempFile("synthetic", ".osm.xml");
+            osm.deleteOnExit();
+            SyntheticOsm.write(osm, side, 15 * side * side, 61);
+        }
+        File snapshot = new File(osm.getPath() + GraphSnapshot.SUFFIX);
+        snapshot.delete();
+        snapshot.deleteOnExit();
+
+        long start = System.nanoTime();
+        GraphDB parsed = new GraphDB(osm.getPath());
+        double parseMs = (System.nanoTime() - start) / 1e6;
+        GraphSnapshot.write(parsed, snapshot, osm);
+
+        start = System.nanoTime();
+        GraphDB mapped = GraphSnapshot.read(snapshot, osm);
+        double mapMs = (System.nanoTime() - start) / 1e6;
+
+        System.out.println(String.format("%s: %.1f MB XML, %.1f MB snapshot, %d vertices",
+                osm.getName(), osm.length() / 1e6, snapshot.length() / 1e6, mapped.size()));
+        System.out.println(String.format("XML parse + clean: %8.1f ms", parseMs));
+        System.out.println(String.format("Snapshot mmap:     %8.1f ms", mapMs));
+    }
+}
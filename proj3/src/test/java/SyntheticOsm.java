@@ -0,0 +1,109 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes OSM XML for a synthetic city of arbitrary size, for benchmarks that need more data
+ * than the Berkeley extract. The city is a side x side street grid with one way per row and
+ * per column, some of them footways, plus extraStreetNodes nodes on paths that are never
+ * routable, roughly the proportion of unroutable nodes in the Berkeley extract. Every
+ * hundredth grid node is a named location.
+ */
+public class SyntheticOsm {
+    private static final String[] HIGHWAYS = {"residential", "residential", "tertiary",
+        "secondary", "primary", "footway", "service"};
+    private static final String[] NAMES = {"Cafe", "Library", "Market", "Pizza", "Park",
+        "Books", "Tea", "Bank", "Bakery", "School"};
+
+    /**
+     * Writes the city to file, gzipped if the name ends in .gz.
+     * @param file The file to write.
+     * @param side Number of grid nodes along each side.
+     * @param extraNodes Number of additional nodes that are never part of a road.
+     * @param seed Random seed for coordinates and tags.
+     */
+    public static void write(File file, int side, int extraNodes, long seed) throws IOException {
+        OutputStream os = new FileOutputStream(file);
+        if (file.getName().endsWith(".gz")) {
+            os = new GZIPOutputStream(os, 1 << 16);
+        }
+        Random random = new Random(seed);
+        double step = 0.0009 / Math.max(1, side / 100.0);
+        try (Writer w = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8),
+                1 << 16)) {
+            w.write("<?xml version='1.0' encoding='UTF-8'?>\n<osm version=\"0.6\">\n");
+            long id = 1;
+            for (int r = 0; r < side; r += 1) {
+                for (int c = 0; c < side; c += 1) {
+                    String name = id % 100 != 0 ? null
+                            : NAMES[random.nextInt(NAMES.length)] + " " + (id / 100);
+                    writeNode(w, id, MapServer.ROOT_ULLON + c * step,
+                            MapServer.ROOT_ULLAT - r * step, name, random);
+                    id += 1;
+                }
+            }
+            for (int i = 0; i < extraNodes; i += 1) {
+                writeNode(w, id, MapServer.ROOT_ULLON + random.nextDouble() * side * step,
+                        MapServer.ROOT_ULLAT - random.nextDouble() * side * step, null, random);
+                id += 1;
+            }
+            long wayId = 1;
+            for (int r = 0; r < side; r += 1) {
+                w.write("  <way id=\"" + wayId + "\">\n");
+                for (int c = 0; c < side; c += 1) {
+                    w.write("    <nd ref=\"" + (r * side + c + 1) + "\"/>\n");
+                }
+                writeWayTags(w, "Row " + r, random);
+                wayId += 1;
+            }
+            for (int c = 0; c < side; c += 1) {
+                w.write("  <way id=\"" + wayId + "\">\n");
+                for (int r = 0; r < side; r += 1) {
+                    w.write("    <nd ref=\"" + (r * side + c + 1) + "\"/>\n");
+                }
+                writeWayTags(w, "Column " + c, random);
+                wayId += 1;
+            }
+            w.write("</osm>\n");
+        }
+    }
+
+    private static void writeNode(Writer w, long id, double lon, double lat, String name,
+                                  Random random) throws IOException {
+        lon += (random.nextDouble() - 0.5) * 1e-5;
+        lat += (random.nextDouble() - 0.5) * 1e-5;
+        String attrs = String.format(Locale.ROOT, "id=\"%d\" lat=\"%.7f\" lon=\"%.7f\" "
+                + "version=\"3\" timestamp=\"2018-03-01T00:00:00Z\"", id, lat, lon);
+        if (name != null) {
+            w.write("  <node " + attrs + ">\n    <tag k=\"name\" v=\"" + name + "\"/>\n"
+                    + "  </node>\n");
+        } else {
+            w.write("  <node " + attrs + "/>\n");
+        }
+    }
+
+    private static void writeWayTags(Writer w, String name, Random random) throws IOException {
+        String highway = HIGHWAYS[random.nextInt(HIGHWAYS.length)];
+        w.write("    <tag k=\"highway\" v=\"" + highway + "\"/>\n");
+        w.write("    <tag k=\"name\" v=\"" + name + " Street\"/>\n");
+        if (random.nextInt(3) == 0) {
+            w.write("    <tag k=\"maxspeed\" v=\"" + (20 + 5 * random.nextInt(6)) + " mph\"/>\n");
+        }
+        w.write("  </way>\n");
+    }
+
+    /** Writes a city from the command line: SyntheticOsm file side [extraNodes]. */
+    public static void main(String[] args) throws IOException {
+        int side = Integer.parseInt(args[1]);
+        int extra = args.length > 2 ? Integer.parseInt(args[2]) : 15 * side * side;
+        write(new File(args[0]), side, extra, 61);
+    }
+}
@@ -0,0 +1,139 @@
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that ComputePool runs no more work at once than it has threads, and that it turns
+ * work away once its queue is full rather than letting callers wait without bound.
+ */
+public class TestComputePool {
+    private ComputePool pool;
+
+    @After
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    /** Starts a thread that calls the pool with work that waits for release. */
+    private Thread blocked(CountDownLatch started, CountDownLatch release, List<Throwable> errors) {
+        Thread t = new Thread(() -> {
+            try {
+                pool.call(() -> {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return null;
+                });
+            } catch (RuntimeException e) {
+                synchronized (errors) {
+                    errors.add(e);
+                }
+            }
+        });
+        t.start();
+        return t;
+    }
+
+    @Test
+    public void testCallReturnsAndRethrows() {
+        pool = new ComputePool(2, 2);
+        assertEquals("done", pool.call(() -> "done"));
+        try {
+            pool.call(() -> {
+                throw new IllegalArgumentException("bad");
+            });
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("bad", e.getMessage());
+        }
+        assertEquals(0, pool.rejected());
+    }
+
+    @Test
+    public void testFullPoolRejectsAtOnce() throws Exception {
+        pool = new ComputePool(2, 3);
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Throwable> errors = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 2; i += 1) {
+            threads.add(blocked(started, release, errors));
+        }
+        started.await();
+        for (int i = 0; i < 3; i += 1) {
+            threads.add(blocked(new CountDownLatch(1), release, errors));
+        }
+        while (pool.queued() < 3) {
+            Thread.sleep(1);
+        }
+        long start = System.nanoTime();
+        try {
+            pool.call(() -> "late");
+            fail();
+        } catch (RejectedExecutionException e) {
+            assertTrue(System.nanoTime() - start < 1_000_000_000L);
+        }
+        assertEquals(1, pool.rejected());
+        assertEquals(2, pool.active());
+
+        release.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertTrue(errors.isEmpty());
+        assertEquals("again", pool.call(() -> "again"));
+    }
+
+    @Test
+    public void testConcurrencyBoundedByThreads() throws Exception {
+        pool = new ComputePool(3, 100);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger most = new AtomicInteger();
+        AtomicInteger done = new AtomicInteger();
+        Thread[] callers = new Thread[30];
+        for (int t = 0; t < callers.length; t += 1) {
+            callers[t] = new Thread(() -> pool.call(() -> {
+                most.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                running.decrementAndGet();
+                return done.incrementAndGet();
+            }));
+            callers[t].start();
+        }
+        for (Thread t : callers) {
+            t.join();
+        }
+        assertTrue(most.get() <= 3);
+        assertEquals(callers.length, done.get());
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void testShutdownPoolRejects() {
+        pool = new ComputePool(1, 1);
+        pool.shutdown();
+        pool.call(() -> "late");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNeedsAThread() {
+        new ComputePool(0, 4);
+    }
+}
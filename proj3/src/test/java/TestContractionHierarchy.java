@@ -0,0 +1,95 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that routing over a ContractionHierarchy finds shortest paths in the original
+ * graph, and that hierarchies survive a round trip through GraphSnapshot.
+ */
+public class TestContractionHierarchy {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testMatchesAStarOnGrid() {
+        GraphDB g = GraphFixtures.grid(40, 50, 0.25, 3);
+        g.setHierarchy(ContractionHierarchy.build(g));
+        TestRouterAlgorithms.assertAgreesWithAStar(g, Router.Algorithm.CH, 300);
+    }
+
+    @Test
+    public void testUnpackedPathsUseOriginalEdges() {
+        GraphDB g = GraphFixtures.grid(20, 20, 0.2, 5);
+        g.setHierarchy(ContractionHierarchy.build(g));
+        int[] path = Router.shortestPath(g, 0, g.size() - 1, Router.Algorithm.CH);
+        for (int i = 1; i < path.length; i += 1) {
+            boolean adjacent = false;
+            for (int e = g.edgeStart(path[i - 1]); e < g.edgeEnd(path[i - 1]); e += 1) {
+                adjacent |= g.edgeTarget(e) == path[i];
+            }
+            assertTrue(adjacent);
+        }
+    }
+
+    @Test
+    public void testTinyGraph() throws Exception {
+        GraphDB g = new GraphDB(GraphFixtures.writeTiny(folder.getRoot()));
+        g.setHierarchy(ContractionHierarchy.build(g));
+        for (int s = 0; s < g.size(); s += 1) {
+            for (int t = 0; t < g.size(); t += 1) {
+                assertEquals(TestRouterAlgorithms.length(g,
+                        Router.shortestPath(g, s, t, Router.Algorithm.ASTAR)),
+                    TestRouterAlgorithms.length(g,
+                        Router.shortestPath(g, s, t, Router.Algorithm.CH)), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testLoadHierarchyWritesThenReads() throws Exception {
+        String path = GraphFixtures.writeTiny(folder.getRoot());
+        GraphDB g = GraphSnapshot.load(path);
+        ContractionHierarchy built = GraphSnapshot.loadHierarchy(g, path);
+        assertSame(built, g.hierarchy());
+        File file = new File(path + GraphSnapshot.HIERARCHY_SUFFIX);
+        assertTrue(file.isFile());
+
+        ContractionHierarchy read = GraphSnapshot.readHierarchy(file, new File(path));
+        assertNotNull(read);
+        assertEquals(built.size(), read.size());
+        assertEquals(built.upEdgeCount(), read.upEdgeCount());
+        for (int v = 0; v < built.size(); v += 1) {
+            assertEquals(built.rank(v), read.rank(v));
+            assertEquals(built.upStart(v), read.upStart(v));
+            for (int e = built.upStart(v); e < built.upEnd(v); e += 1) {
+                assertEquals(built.upTarget(e), read.upTarget(e));
+                assertEquals(built.upWeight(e), read.upWeight(e), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testStaleHierarchyIsIgnored() throws Exception {
+        String path = GraphFixtures.writeTiny(folder.getRoot());
+        GraphDB g = GraphSnapshot.load(path);
+        GraphSnapshot.loadHierarchy(g, path);
+        File source = new File(path);
+        assertTrue(source.setLastModified(source.lastModified() + 10000));
+        assertNull(GraphSnapshot.readHierarchy(new File(path + GraphSnapshot.HIERARCHY_SUFFIX),
+            source));
+    }
+
+    @Test
+    public void testWithoutHierarchyFallsBack() {
+        GraphDB g = GraphFixtures.grid(10, 10, 0.1, 2);
+        TestRouterAlgorithms.assertAgreesWithAStar(g, Router.Algorithm.CH, 50);
+    }
+}
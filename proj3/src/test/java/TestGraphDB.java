@@ -0,0 +1,84 @@
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the CSR GraphDB, built from the tiny graph in GraphFixtures, and the int-indexed
+ * router paths on it.
+ */
+public class TestGraphDB {
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+
+    private static GraphDB tiny;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        tiny = new GraphDB(GraphFixtures.writeTiny(folder.getRoot()));
+    }
+
+    @Test
+    public void testCleanDropsUnconnectedNodes() {
+        List<Long> ids = new ArrayList<>();
+        for (long v : tiny.vertices()) {
+            ids.add(v);
+        }
+        assertEquals(Arrays.asList(11L, 22L, 41L, 46L, 55L, 63L, 66L), ids);
+    }
+
+    @Test
+    public void testAdjacentAndCoordinates() {
+        HashSet<Long> actual = new HashSet<>();
+        for (long w : tiny.adjacent(63)) {
+            actual.add(w);
+        }
+        assertEquals(new HashSet<>(Arrays.asList(41L, 55L, 66L)), actual);
+        assertEquals(0.6, tiny.lon(63), 1e-9);
+        assertEquals(38.3, tiny.lat(63), 1e-9);
+        assertEquals(29.715164376934, tiny.distance(22, 46), 1e-5);
+    }
+
+    @Test
+    public void testClosestUsesGreatCircleDistance() {
+        assertEquals(55L, tiny.closest(0.4, 38.51));
+    }
+
+    @Test
+    public void testIndexRoundTrip() {
+        for (int i = 0; i < tiny.size(); i += 1) {
+            assertEquals(i, tiny.index(tiny.id(i)));
+        }
+        assertEquals(-1, tiny.index(77));
+    }
+
+    @Test
+    public void testShortestPath() {
+        assertEquals(Arrays.asList(22L, 46L, 66L),
+                Router.shortestPath(tiny, 0.2, 38.2, 0.6, 38.6));
+        assertEquals(Arrays.asList(41L, 63L, 66L, 46L),
+                Router.shortestPath(tiny, 0.4, 38.1, 0.4, 38.6));
+        assertEquals(Arrays.asList(66L), Router.shortestPath(tiny, 0.6, 38.6, 0.6, 38.6));
+    }
+
+    @Test
+    public void testUnreachableGivesEmptyRoute() {
+        GraphDB g = new GraphDB();
+        g.addNode(1, 0.1, 38.1);
+        g.addNode(2, 0.2, 38.1);
+        g.addNode(3, 0.5, 38.5);
+        g.addNode(4, 0.6, 38.5);
+        g.addEdge(1, 2);
+        g.addEdge(3, 4);
+        g.clean();
+        assertTrue(Router.shortestPath(g, 0.1, 38.1, 0.6, 38.5).isEmpty());
+    }
+}
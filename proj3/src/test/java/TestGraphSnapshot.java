@@ -0,0 +1,132 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Round-trips graphs through GraphSnapshot and checks that stale snapshots are ignored.
+ */
+public class TestGraphSnapshot {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Asserts that two cleaned graphs have identical vertices, edges, locations and parked
+     * nodes.
+     */
+    static void assertSameGraph(GraphDB expected, GraphDB actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int v = 0; v < expected.size(); v += 1) {
+            assertEquals(expected.id(v), actual.id(v));
+            assertEquals(expected.lonAt(v), actual.lonAt(v), 0);
+            assertEquals(expected.latAt(v), actual.latAt(v), 0);
+            assertEquals(expected.edgeStart(v), actual.edgeStart(v));
+            assertEquals(expected.edgeEnd(v), actual.edgeEnd(v));
+            for (int e = expected.edgeStart(v); e < expected.edgeEnd(v); e += 1) {
+                assertEquals(expected.edgeTarget(e), actual.edgeTarget(e));
+                assertEquals(expected.edgeWeight(e), actual.edgeWeight(e), 0);
+                assertEquals(expected.edgeSpeed(e), actual.edgeSpeed(e), 0);
+                assertEquals(expected.edgeBearing(e), actual.edgeBearing(e), 0);
+                assertEquals(expected.edgeWay(e), actual.edgeWay(e));
+                assertEquals(expected.name(expected.edgeName(e)),
+                        actual.name(actual.edgeName(e)));
+            }
+        }
+        assertEquals(expected.wayCount(), actual.wayCount());
+        for (int i = 0; i < expected.wayCount(); i += 1) {
+            assertEquals(expected.wayId(i), actual.wayId(i));
+            assertEquals(expected.name(expected.wayName(i)), actual.name(actual.wayName(i)));
+        }
+        assertEquals(expected.locationCount(), actual.locationCount());
+        for (int i = 0; i < expected.locationCount(); i += 1) {
+            assertEquals(expected.locationId(i), actual.locationId(i));
+            assertEquals(expected.locationLon(i), actual.locationLon(i), 0);
+            assertEquals(expected.locationLat(i), actual.locationLat(i), 0);
+            assertEquals(expected.locationName(i), actual.locationName(i));
+            assertArrayEquals(expected.nameIndex().allTokens(expected.locationName(i)),
+                    actual.nameIndex().allTokens(actual.locationName(i)));
+        }
+        assertEquals(expected.parkedCount(), actual.parkedCount());
+        for (int i = 0; i < expected.parkedCount(); i += 1) {
+            assertEquals(expected.parkedId(i), actual.parkedId(i));
+        }
+    }
+
+    @Test
+    public void testLoadWritesThenReadsSnapshot() throws Exception {
+        String path = GraphFixtures.writeTiny(folder.getRoot());
+        File snapshot = new File(path + GraphSnapshot.SUFFIX);
+
+        GraphDB parsed = GraphSnapshot.load(path);
+        assertTrue(snapshot.isFile());
+        GraphDB mapped = GraphSnapshot.read(snapshot, new File(path));
+        assertNotNull(mapped);
+        assertSameGraph(parsed, mapped);
+        assertEquals(55L, mapped.closest(0.4, 38.51));
+    }
+
+    @Test
+    public void testParkedNodesCanBeDropped() throws Exception {
+        String path = GraphFixtures.writeTiny(folder.getRoot());
+        File snapshot = new File(path + GraphSnapshot.SUFFIX);
+        GraphDB parsed = GraphSnapshot.load(path);
+        assertTrue(parsed.parkedCount() > 0);
+
+        GraphDB mapped = GraphSnapshot.load(path, false);
+        assertEquals(0, mapped.parkedCount());
+        assertEquals(parsed.size(), mapped.size());
+        assertEquals(55L, mapped.closest(0.4, 38.51));
+        try {
+            mapped.apply(new OsmChange());
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("parked"));
+        }
+
+        /* A graph parsed without its parked nodes still writes them to the snapshot. */
+        assertTrue(snapshot.delete());
+        assertEquals(0, GraphSnapshot.load(path, false).parkedCount());
+        assertSameGraph(parsed, GraphSnapshot.read(snapshot, new File(path)));
+    }
+
+    @Test
+    public void testLargerGraphRoundTrip() throws Exception {
+        GraphDB g = GraphFixtures.grid(30, 40, 0.1, 7);
+        File source = folder.newFile("grid.osm.xml");
+        File snapshot = new File(folder.getRoot(), "grid.osm.xml" + GraphSnapshot.SUFFIX);
+        GraphSnapshot.write(g, snapshot, source);
+        assertSameGraph(g, GraphSnapshot.read(snapshot, source));
+    }
+
+    @Test
+    public void testStaleSnapshotIsIgnored() throws Exception {
+        String path = GraphFixtures.writeTiny(folder.getRoot());
+        File source = new File(path);
+        File snapshot = new File(path + GraphSnapshot.SUFFIX);
+        GraphSnapshot.load(path);
+
+        assertTrue(source.setLastModified(source.lastModified() - 10_000));
+        assertNull(GraphSnapshot.read(snapshot, source));
+    }
+
+    @Test
+    public void testWrongVersionIsIgnored() throws Exception {
+        String path = GraphFixtures.writeTiny(folder.getRoot());
+        File snapshot = new File(path + GraphSnapshot.SUFFIX);
+        GraphSnapshot.load(path);
+        try (RandomAccessFile raf = new RandomAccessFile(snapshot, "rw")) {
+            raf.seek(4);
+            raf.writeInt(GraphSnapshot.VERSION + 1);
+        }
+        assertNull(GraphSnapshot.read(snapshot, new File(path)));
+    }
+}
@@ -0,0 +1,43 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks KdTree nearest-vertex queries against a linear scan.
+ */
+public class TestKdTree {
+    @Test
+    public void testMatchesLinearScanOnGrid() {
+        GraphDB g = GraphFixtures.grid(60, 80, 0.2, 11);
+        Random random = new Random(5);
+        for (int i = 0; i < 2000; i += 1) {
+            double lon = MapServer.ROOT_ULLON - 0.005 + random.nextDouble() * 0.05;
+            double lat = MapServer.ROOT_ULLAT + 0.005 - random.nextDouble() * 0.04;
+            assertEquals(g.closestIndexLinear(lon, lat), g.closestIndex(lon, lat));
+        }
+    }
+
+    @Test
+    public void testDuplicatePointsAndTinyTrees() {
+        double[] lons = {1, 1, 1, 2, 2, 0.5};
+        double[] lats = {5, 5, 5, 5, 6, 5};
+        KdTree tree = new KdTree(lons, lats);
+        assertEquals(5, tree.nearest(0.4, 5));
+        assertEquals(4, tree.nearest(2.1, 5.9));
+        assertTrue(tree.nearest(1, 5) <= 2);
+
+        assertEquals(-1, new KdTree(new double[0], new double[0]).nearest(0, 0));
+        assertEquals(0, new KdTree(new double[]{3}, new double[]{4}).nearest(-100, 80));
+    }
+
+    @Test
+    public void testUsesGreatCircleNotDegrees() {
+        /* The TestGraphBuildingTiny trap: 46 is nearer in raw degrees, 55 on the sphere. */
+        double[] lons = {0.4, 0.5};
+        double[] lats = {38.6, 38.5};
+        assertEquals(1, new KdTree(lons, lats).nearest(0.4, 38.51));
+    }
+}
@@ -0,0 +1,86 @@
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks LatencyHistogram bucketing under concurrent recording, and the text format that
+ * Metrics writes for /metrics.
+ */
+public class TestMetrics {
+    @Test
+    public void testBuckets() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(0);
+        h.record(10_000);
+        h.record(10_001);
+        h.record(2_000_000);
+        h.record(60_000_000_000L);
+        assertEquals(2, h.bucket(0));
+        assertEquals(1, h.bucket(1));
+        assertEquals(10_000_000_000L, h.bound(h.bucketCount() - 2));
+        assertEquals(1, h.bucket(h.bucketCount() - 1));
+        assertEquals(5, h.count());
+        assertEquals(60_002_020_001L, h.sumNanos());
+        long[] bounds = LatencyHistogram.BOUNDS_NANOS;
+        for (int i = 1; i < bounds.length; i += 1) {
+            assertTrue(bounds[i - 1] < bounds[i]);
+        }
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        LatencyHistogram h = new LatencyHistogram();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t += 1) {
+            long nanos = 1000L * t * t * t * t * t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10_000; i += 1) {
+                    h.record(nanos);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(80_000, h.count());
+        long sum = 0;
+        for (int t = 0; t < threads.length; t += 1) {
+            sum += 10_000 * 1000L * t * t * t * t * t;
+        }
+        assertEquals(sum, h.sumNanos());
+    }
+
+    @Test
+    public void testScrape() {
+        Metrics metrics = new Metrics();
+        metrics.histogram(Metrics.Phase.CLOSEST).record(30_000);
+        metrics.histogram(Metrics.Phase.CLOSEST).record(3_000_000);
+        AtomicLong hits = new AtomicLong(7);
+        metrics.counter("test_hits_total", "Hits.", hits::get);
+        metrics.gauge("test_ratio", "A ratio.", () -> 0.25);
+        metrics.gauge("test_unknown", "Nothing yet.", () -> Double.NaN);
+        hits.set(9);
+
+        String text = metrics.scrape();
+        assertTrue(text.contains("# TYPE mapserver_phase_seconds histogram\n"));
+        assertTrue(text.contains(
+            "mapserver_phase_seconds_bucket{phase=\"closest\",le=\"2.5E-5\"} 0\n"));
+        assertTrue(text.contains(
+            "mapserver_phase_seconds_bucket{phase=\"closest\",le=\"5.0E-5\"} 1\n"));
+        assertTrue(text.contains(
+            "mapserver_phase_seconds_bucket{phase=\"closest\",le=\"0.005\"} 2\n"));
+        assertTrue(text.contains(
+            "mapserver_phase_seconds_bucket{phase=\"closest\",le=\"+Inf\"} 2\n"));
+        assertTrue(text.contains("mapserver_phase_seconds_sum{phase=\"closest\"} 0.00303\n"));
+        assertTrue(text.contains("mapserver_phase_seconds_count{phase=\"closest\"} 2\n"));
+        assertTrue(text.contains("mapserver_phase_seconds_count{phase=\"png_encode\"} 0\n"));
+        assertTrue(text.contains("# TYPE test_hits_total counter\ntest_hits_total 9\n"));
+        assertTrue(text.contains("# HELP test_ratio A ratio.\n"));
+        assertTrue(text.contains("test_ratio 0.25\n"));
+        assertTrue(text.contains("test_unknown NaN\n"));
+    }
+}
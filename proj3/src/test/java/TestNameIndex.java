@@ -0,0 +1,74 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks NameIndex lookups against a brute-force scan of every location.
+ */
+public class TestNameIndex {
+    /** The ids a linear scan would match, exactly or by containing every query word. */
+    private static long[] bruteForce(GraphDB g, String query, boolean allWords) {
+        String cleaned = GraphDB.cleanString(query);
+        String[] words = NameIndex.words(cleaned);
+        TreeSet<Long> ids = new TreeSet<>();
+        for (int i = 0; i < g.locationCount(); i += 1) {
+            String name = GraphDB.cleanString(g.locationName(i));
+            boolean matches;
+            if (allWords) {
+                matches = words.length > 0
+                    && Arrays.asList(NameIndex.words(name)).containsAll(Arrays.asList(words));
+            } else {
+                matches = !name.isEmpty() && name.equals(cleaned);
+            }
+            if (matches) {
+                ids.add(g.locationId(i));
+            }
+        }
+        return ids.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    @Test
+    public void testMatchesBruteForce() {
+        String[] names = GraphFixtures.placeNames(3000, 1);
+        GraphDB g = GraphFixtures.places(names, 1);
+        NameIndex index = g.nameIndex();
+        String[] queries = {"", "cafe", "Caffe Strada", "top dog", "DOG TOP", "peet's coffee",
+            "ber", "berkeley bowl", "st.", "pizza pizza", "x", "  tea   bank ", "Ave 12"};
+        for (String query : queries) {
+            assertArrayEquals(query, bruteForce(g, query, false), index.exact(query));
+            assertArrayEquals(query, bruteForce(g, query, true), index.allTokens(query));
+        }
+        for (int i = 0; i < 200; i += 1) {
+            assertArrayEquals(names[i], bruteForce(g, names[i], false), index.exact(names[i]));
+            assertArrayEquals(names[i], bruteForce(g, names[i], true),
+                    index.allTokens(names[i]));
+        }
+        for (int i = 0; i < g.locationCount(); i += 1) {
+            assertEquals(i, index.location(g.locationId(i)));
+        }
+        assertEquals(-1, index.location(-5));
+    }
+
+    @Test
+    public void testIntersect() {
+        Random random = new Random(6);
+        for (int trial = 0; trial < 200; trial += 1) {
+            long[] a = random.longs(random.nextInt(20), 0, 100).sorted().distinct().toArray();
+            long[] b = random.longs(random.nextInt(300), 0, 100).sorted().distinct().toArray();
+            long[] expected = Arrays.stream(a).filter(x -> Arrays.binarySearch(b, x) >= 0)
+                .toArray();
+            assertArrayEquals(expected, NameIndex.intersect(a, b));
+        }
+    }
+
+    @Test
+    public void testWords() {
+        assertArrayEquals(new String[]{"top", "dog"}, NameIndex.words(" top  dog "));
+        assertEquals(0, NameIndex.words("").length);
+    }
+}
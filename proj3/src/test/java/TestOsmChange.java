@@ -0,0 +1,428 @@
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that applying an OSM change to a graph gives the graph that parsing the changed
+ * OSM file from scratch would, and that the original graph is left as it was.
+ */
+public class TestOsmChange {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** Stops the poller the MapServer tests start, before their folder is deleted. */
+    @After
+    public void stopWatchingChanges() {
+        MapServer.stopWatchingChanges();
+    }
+
+    /** An OSM extract held in memory, which can be written as a file or changed. */
+    private static class Model {
+        final TreeMap<Long, double[]> nodes = new TreeMap<>();
+        final Map<Long, String> names = new TreeMap<>();
+        final Map<Long, String[]> wayTags = new LinkedHashMap<>();
+        final Map<Long, long[]> wayRefs = new LinkedHashMap<>();
+
+        String xml() {
+            StringBuilder sb = new StringBuilder("<?xml version='1.0' encoding='UTF-8'?>\n"
+                + "<osm version=\"0.6\">\n");
+            for (long id : nodes.keySet()) {
+                node(sb, id);
+            }
+            for (long id : wayRefs.keySet()) {
+                way(sb, id);
+            }
+            return sb.append("</osm>\n").toString();
+        }
+
+        void node(StringBuilder sb, long id) {
+            double[] at = nodes.get(id);
+            sb.append(String.format(Locale.ROOT, "  <node id=\"%d\" lat=\"%.7f\" lon=\"%.7f\"",
+                id, at[1], at[0]));
+            if (names.containsKey(id)) {
+                sb.append(">\n    <tag k=\"name\" v=\"").append(names.get(id))
+                    .append("\"/>\n  </node>\n");
+            } else {
+                sb.append("/>\n");
+            }
+        }
+
+        void way(StringBuilder sb, long id) {
+            sb.append("  <way id=\"").append(id).append("\">\n");
+            for (long ref : wayRefs.get(id)) {
+                sb.append("    <nd ref=\"").append(ref).append("\"/>\n");
+            }
+            String[] tags = wayTags.get(id);
+            sb.append("    <tag k=\"highway\" v=\"").append(tags[0]).append("\"/>\n");
+            if (tags[1] != null) {
+                sb.append("    <tag k=\"name\" v=\"").append(tags[1]).append("\"/>\n");
+            }
+            if (tags[2] != null) {
+                sb.append("    <tag k=\"maxspeed\" v=\"").append(tags[2]).append("\"/>\n");
+            }
+            sb.append("  </way>\n");
+        }
+
+        GraphDB build(File dir, String name) throws IOException {
+            File f = new File(dir, name);
+            Files.write(f.toPath(), xml().getBytes(StandardCharsets.UTF_8));
+            return new GraphDB(f.getPath());
+        }
+    }
+
+    private static final String[] HIGHWAYS = {"residential", "primary", "tertiary", "footway"};
+
+    /** A side x side grid, with a way per row and column and some nodes on no road. */
+    private static Model grid(int side, Random random) {
+        Model model = new Model();
+        for (long id = 1; id <= side * side; id += 1) {
+            long r = (id - 1) / side;
+            long c = (id - 1) % side;
+            model.nodes.put(id, new double[] {MapServer.ROOT_ULLON + c * 0.0005
+                + random.nextDouble() * 1e-4, MapServer.ROOT_ULLAT - r * 0.0005});
+            if (random.nextInt(10) == 0) {
+                model.names.put(id, "Place " + id);
+            }
+        }
+        for (long id = 1000; id < 1030; id += 1) {
+            model.nodes.put(id, new double[] {MapServer.ROOT_ULLON + random.nextDouble() * 0.005,
+                MapServer.ROOT_ULLAT - random.nextDouble() * 0.005});
+            if (id % 3 == 0) {
+                model.names.put(id, "Cafe " + id);
+            }
+        }
+        for (int line = 0; line < 2 * side; line += 1) {
+            long[] refs = new long[side];
+            for (int i = 0; i < side; i += 1) {
+                refs[i] = line < side ? line * side + i + 1 : i * side + (line - side) + 1;
+            }
+            model.wayRefs.put((long) line + 1, refs);
+            model.wayTags.put((long) line + 1, new String[] {HIGHWAYS[random.nextInt(4)],
+                "Street " + line, random.nextInt(3) == 0 ? "35 mph" : null});
+        }
+        return model;
+    }
+
+    /**
+     * Makes random changes to model, of every kind an OSM change file can hold, and returns
+     * them as an osmChange document.
+     */
+    private static String change(Model model, Random random, long nextId) {
+        StringBuilder sb = new StringBuilder("<?xml version='1.0' encoding='UTF-8'?>\n"
+            + "<osmChange version=\"0.6\">\n");
+        List<Long> created = new ArrayList<>();
+        for (int op = 0; op < 40; op += 1) {
+            List<Long> nodeIds = new ArrayList<>(model.nodes.keySet());
+            List<Long> wayIds = new ArrayList<>(model.wayRefs.keySet());
+            long node = nodeIds.get(random.nextInt(nodeIds.size()));
+            long way = wayIds.get(random.nextInt(wayIds.size()));
+            switch (random.nextInt(8)) {
+                case 0:
+                    model.nodes.get(node)[0] += (random.nextDouble() - 0.5) * 1e-4;
+                    model.nodes.get(node)[1] += (random.nextDouble() - 0.5) * 1e-4;
+                    section(sb, "modify").run(() -> model.node(sb, node));
+                    break;
+                case 1:
+                    if (model.names.remove(node) == null) {
+                        model.names.put(node, "Renamed " + node);
+                    }
+                    section(sb, "modify").run(() -> model.node(sb, node));
+                    break;
+                case 2:
+                    model.nodes.remove(node);
+                    model.names.remove(node);
+                    sb.append("  <delete>\n    <node id=\"").append(node)
+                        .append("\"/>\n  </delete>\n");
+                    break;
+                case 3:
+                    long id = nextId + op;
+                    model.nodes.put(id, new double[] {MapServer.ROOT_ULLON
+                        + random.nextDouble() * 0.005, MapServer.ROOT_ULLAT
+                        - random.nextDouble() * 0.005});
+                    if (random.nextBoolean()) {
+                        model.names.put(id, "New " + id);
+                    }
+                    created.add(id);
+                    section(sb, "create").run(() -> model.node(sb, id));
+                    break;
+                case 4:
+                    model.wayRefs.remove(way);
+                    model.wayTags.remove(way);
+                    sb.append("  <delete>\n    <way id=\"").append(way)
+                        .append("\"/>\n  </delete>\n");
+                    break;
+                case 5:
+                    model.wayTags.get(way)[0] = HIGHWAYS[random.nextInt(4)];
+                    model.wayTags.get(way)[1] = random.nextBoolean() ? null : "Renamed " + way;
+                    section(sb, "modify").run(() -> model.way(sb, way));
+                    break;
+                case 6:
+                    long[] refs = model.wayRefs.get(way);
+                    long[] changed = Arrays.copyOfRange(refs, 1, refs.length + 1);
+                    changed[changed.length - 1] = nodeIds.get(random.nextInt(nodeIds.size()));
+                    model.wayRefs.put(way, changed);
+                    section(sb, "modify").run(() -> model.way(sb, way));
+                    break;
+                default:
+                    /* A new road, through new nodes and nodes that may be on no road. */
+                    long newWay = nextId + op;
+                    long[] through = new long[2 + random.nextInt(3)];
+                    for (int i = 0; i < through.length; i += 1) {
+                        through[i] = !created.isEmpty() && random.nextBoolean()
+                            ? created.get(random.nextInt(created.size()))
+                            : nodeIds.get(random.nextInt(nodeIds.size()));
+                    }
+                    model.wayRefs.put(newWay, through);
+                    model.wayTags.put(newWay, new String[] {"residential", "New " + newWay,
+                        null});
+                    section(sb, "create").run(() -> model.way(sb, newWay));
+                    break;
+            }
+        }
+        return sb.append("</osmChange>\n").toString();
+    }
+
+    /** Returns something that wraps what it runs in an element of the given name. */
+    private static Section section(StringBuilder sb, String name) {
+        return body -> {
+            sb.append("  <").append(name).append(">\n");
+            body.run();
+            sb.append("  </").append(name).append(">\n");
+        };
+    }
+
+    private interface Section {
+        void run(Runnable body);
+    }
+
+    /**
+     * Asserts that two graphs have the same vertices, edges, ways, locations and parked
+     * nodes, though they may number their ways and order their edges and locations
+     * differently.
+     */
+    static void assertEquivalent(GraphDB expected, GraphDB actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int v = 0; v < expected.size(); v += 1) {
+            assertEquals(expected.id(v), actual.id(v));
+            assertEquals(expected.lonAt(v), actual.lonAt(v), 0);
+            assertEquals(expected.latAt(v), actual.latAt(v), 0);
+            assertEquals(edges(expected, v), edges(actual, v));
+        }
+        assertEquals(ways(expected), ways(actual));
+        assertEquals(locations(expected), locations(actual));
+        for (int i = 0; i < actual.locationCount(); i += 1) {
+            assertArrayEquals(expected.nameIndex().allTokens(actual.locationName(i)),
+                actual.nameIndex().allTokens(actual.locationName(i)));
+        }
+        assertEquals(expected.parkedCount(), actual.parkedCount());
+        for (int i = 0; i < expected.parkedCount(); i += 1) {
+            assertEquals(expected.parkedId(i), actual.parkedId(i));
+        }
+    }
+
+    private static List<String> edges(GraphDB g, int v) {
+        List<String> edges = new ArrayList<>();
+        for (int e = g.edgeStart(v); e < g.edgeEnd(v); e += 1) {
+            edges.add(g.id(g.edgeTarget(e)) + " " + g.edgeWeight(e) + " " + g.edgeSpeed(e)
+                + " " + g.edgeBearing(e) + " " + g.wayId(g.edgeWay(e)) + " "
+                + g.name(g.edgeName(e)));
+        }
+        Collections.sort(edges);
+        return edges;
+    }
+
+    private static List<String> ways(GraphDB g) {
+        List<String> ways = new ArrayList<>();
+        for (int i = 0; i < g.wayCount(); i += 1) {
+            ways.add(g.wayId(i) + " " + g.name(g.wayName(i)));
+        }
+        Collections.sort(ways);
+        return ways;
+    }
+
+    private static List<String> locations(GraphDB g) {
+        List<String> locations = new ArrayList<>();
+        for (int i = 0; i < g.locationCount(); i += 1) {
+            locations.add(g.locationId(i) + " " + g.locationLon(i) + " " + g.locationLat(i)
+                + " " + g.locationName(i));
+        }
+        Collections.sort(locations);
+        return locations;
+    }
+
+    private static OsmChange parse(String xml) throws IOException {
+        return OsmChange.read(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testApplyMatchesRebuild() throws IOException {
+        Random random = new Random(3);
+        Model model = grid(12, random);
+        GraphDB g = model.build(folder.getRoot(), "base.osm");
+        for (int round = 0; round < 8; round += 1) {
+            OsmChange change = parse(change(model, random, 10_000 * (round + 1)));
+            g = g.apply(change);
+            assertEquivalent(model.build(folder.getRoot(), "round" + round + ".osm"), g);
+        }
+    }
+
+    @Test
+    public void testApplyLeavesOriginalUntouched() throws IOException {
+        Random random = new Random(5);
+        Model model = grid(10, random);
+        GraphDB g = model.build(folder.getRoot(), "base.osm");
+        GraphDB copy = model.build(folder.getRoot(), "copy.osm");
+        int[] before = Router.shortestPath(g, 0, g.size() - 1, Router.Algorithm.ASTAR);
+        GraphDB changed = g.apply(parse(change(model, random, 10_000)));
+        assertNotEquals(0, changed.size());
+        TestGraphSnapshot.assertSameGraph(copy, g);
+        assertArrayEquals(before, Router.shortestPath(g, 0, g.size() - 1,
+            Router.Algorithm.ASTAR));
+    }
+
+    @Test
+    public void testUnchangedPartsAreShared() throws IOException {
+        Random random = new Random(7);
+        GraphDB g = grid(8, random).build(folder.getRoot(), "base.osm");
+        OsmChange speedOnly = parse("<osmChange version=\"0.6\"><modify>"
+            + "<way id=\"3\"><nd ref=\"17\"/><nd ref=\"18\"/><nd ref=\"19\"/>"
+            + "<tag k=\"highway\" v=\"primary\"/><tag k=\"maxspeed\" v=\"50 mph\"/></way>"
+            + "</modify></osmChange>");
+        GraphDB changed = g.apply(speedOnly);
+        assertSame(g.nameIndex(), changed.nameIndex());
+        int v = changed.index(18);
+        boolean found = false;
+        for (int e = changed.edgeStart(v); e < changed.edgeEnd(v); e += 1) {
+            found |= changed.id(changed.edgeTarget(e)) == 17 && changed.edgeSpeed(e) == 50;
+        }
+        assertTrue(found);
+    }
+
+    @Test
+    public void testApplyingTwiceChangesNothingMore() throws IOException {
+        Random random = new Random(11);
+        Model model = grid(10, random);
+        GraphDB g = model.build(folder.getRoot(), "base.osm");
+        OsmChange change = parse(change(model, random, 10_000));
+        GraphDB once = g.apply(change);
+        assertEquivalent(once, once.apply(change));
+    }
+
+    @Test
+    public void testChangedGraphSurvivesSnapshot() throws IOException {
+        Random random = new Random(13);
+        Model model = grid(10, random);
+        GraphDB g = model.build(folder.getRoot(), "base.osm").apply(
+            parse(change(model, random, 10_000)));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        g.writeArrays(new DataOutputStream(bytes));
+        GraphDB read = GraphDB.readArrays(ByteBuffer.wrap(bytes.toByteArray()), true);
+        TestGraphSnapshot.assertSameGraph(g, read);
+        assertTrue(read.parkedCount() > 0);
+    }
+
+    @Test(expected = IOException.class)
+    public void testMissingCoordinateIsAnIOException() throws IOException {
+        parse("<osmChange version=\"0.6\"><modify><node id=\"1\" lat=\"38\"/></modify>"
+            + "</osmChange>");
+    }
+
+    @Test
+    public void testBadChangeFileDoesNotStopLaterOnes() throws IOException {
+        Random random = new Random(17);
+        Model model = grid(6, random);
+        MapServer.initialize(model.build(folder.getRoot(), "base.osm"));
+        File dir = folder.newFolder("changes");
+        Files.write(new File(dir, "1.osc").toPath(), ("<osmChange><modify>"
+            + "<node id=\"x\" lat=\"38\" lon=\"-122\"/></modify></osmChange>")
+            .getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(dir, "2.osc").toPath(), ("<osmChange><delete>"
+            + "<way id=\"1\"/></delete></osmChange>").getBytes(StandardCharsets.UTF_8));
+        MapServer.applyChanges(dir);
+        model.wayRefs.remove(1L);
+        model.wayTags.remove(1L);
+        assertEquivalent(model.build(folder.getRoot(), "changed.osm"), MapServer.graph());
+        GraphDB applied = MapServer.graph();
+        MapServer.applyChanges(dir);
+        assertSame(applied, MapServer.graph());
+    }
+
+    @Test
+    public void testRoutingStructuresAreRebuiltForChangedGraph() throws Exception {
+        Random random = new Random(19);
+        Model model = grid(12, random);
+        GraphDB base = model.build(folder.getRoot(), "base.osm");
+        File dir = folder.newFolder("changes");
+        Files.write(new File(dir, "1.osc").toPath(), change(model, random, 10_000)
+            .getBytes(StandardCharsets.UTF_8));
+        String[][] properties = {{"mapserver.changes", dir.getPath()},
+            {"mapserver.changes.poll.ms", "3600000"}, {"mapserver.landmarks", "4"},
+            {"mapserver.contract", "true"}, {"mapserver.partition", "40"}};
+        for (String[] property : properties) {
+            System.setProperty(property[0], property[1]);
+        }
+        try {
+            MapServer.initialize(base);
+        } finally {
+            for (String[] property : properties) {
+                System.clearProperty(property[0]);
+            }
+        }
+        GraphDB changed = MapServer.graph();
+        assertNotEquals(base, changed);
+        /* The OSM file's structures are not built for a graph that a change replaces. */
+        assertEquals(Router.Algorithm.ASTAR, MapServer.defaultAlgorithm(base));
+        long deadline = System.nanoTime() + 60_000_000_000L;
+        while (changed.partition() == null && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(Router.Algorithm.PARTITIONED, MapServer.defaultAlgorithm(changed));
+        assertTrue(changed.hierarchy() != null && changed.landmarks() != null);
+        assertEquivalent(model.build(folder.getRoot(), "changed.osm"), changed);
+        TestRouterAlgorithms.assertAgreesWithAStar(changed, Router.Algorithm.PARTITIONED, 50);
+        TestRouterAlgorithms.assertAgreesWithAStar(changed, Router.Algorithm.CH, 50);
+    }
+
+    @Test
+    public void testReadKeepsLastChangeOfEachElement() throws IOException {
+        OsmChange change = parse("<osmChange version=\"0.6\">"
+            + "<create><node id=\"1\" lat=\"38\" lon=\"-122\"><tag k=\"name\" v=\"A\"/></node>"
+            + "<way id=\"7\"><nd ref=\"1\"/><nd ref=\"2\"/><tag k=\"highway\" v=\"primary\"/>"
+            + "</way></create>"
+            + "<modify><way id=\"8\"><nd ref=\"1\"/><nd ref=\"2\"/>"
+            + "<tag k=\"highway\" v=\"footway\"/></way></modify>"
+            + "<delete><node id=\"1\"/></delete>"
+            + "</osmChange>");
+        assertTrue(change.nodes().get(1L).deleted);
+        assertFalse(change.ways().get(7L).deleted);
+        assertEquals(40, change.ways().get(7L).speed, 0);
+        assertTrue(change.ways().get(8L).deleted);
+        assertFalse(change.isEmpty());
+    }
+}
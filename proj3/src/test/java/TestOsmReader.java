@@ -0,0 +1,126 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the streaming OsmReader builds exactly the graph the SAX handler builds.
+ */
+public class TestOsmReader {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testTinyMatchesSax() throws Exception {
+        String path = GraphFixtures.writeTiny(folder.getRoot());
+        GraphDB streamed = new GraphDB(path);
+        TestGraphSnapshot.assertSameGraph(GraphDB.parseWithSax(path), streamed);
+        assertEquals(7, streamed.size());
+    }
+
+    @Test
+    public void testSyntheticCityMatchesSax() throws Exception {
+        File osm = folder.newFile("city.osm.xml");
+        SyntheticOsm.write(osm, 40, 500, 3);
+        TestGraphSnapshot.assertSameGraph(GraphDB.parseWithSax(osm.getPath()),
+                new GraphDB(osm.getPath()));
+    }
+
+    @Test
+    public void testReadsGzip() throws Exception {
+        File gz = folder.newFile("tiny.osm.xml.gz");
+        try (OutputStream os = new GZIPOutputStream(new FileOutputStream(gz))) {
+            os.write(GraphFixtures.TINY_OSM.getBytes(StandardCharsets.UTF_8));
+        }
+        TestGraphSnapshot.assertSameGraph(
+                new GraphDB(GraphFixtures.writeTiny(folder.getRoot())),
+                new GraphDB(gz.getPath()));
+    }
+
+    @Test
+    public void testCommentsQuotesAndNumberFormats() throws Exception {
+        String xml = "<?xml version='1.0'?>\n<!-- a <node> in a comment -->\n<osm>\n"
+            + "<node id='1' lat='38' lon='-0.5e-1'/>"
+            + "<node lon=\"0.25\" id=\"2\"\n  lat=\"38.000000000000001\" />"
+            + "<node id=\"3\" lat=\"38.5\" lon=\"0.3\"><tag k=\"name\" v=\"a &amp; b\"/></node>"
+            + "<way id=\"9\"><nd ref=\"1\"/><nd ref=\"2\"/><nd ref=\"3\"/><nd ref=\"404\"/>"
+            + "<tag k='highway' v='living_street'/></way></osm>";
+        File f = folder.newFile("odd.osm.xml");
+        Files.write(f.toPath(), xml.getBytes(StandardCharsets.UTF_8));
+        GraphDB g = new GraphDB(f.getPath());
+        TestGraphSnapshot.assertSameGraph(GraphDB.parseWithSax(f.getPath()), g);
+        assertEquals(3, g.size());
+        assertEquals(-0.05, g.lon(1), 0);
+        assertEquals(38.000000000000001, g.lat(2), 0);
+    }
+
+    @Test
+    public void testNamedNodesBecomeLocations() throws Exception {
+        String xml = "<osm><node id='5' lat='38.1' lon='0.1'>"
+            + "<tag k='amenity' v='cafe'/><tag k='name' v='Caf&#233; &quot;Strada&quot;'/></node>"
+            + "<node id='6' lat='38.2' lon='0.2'/>"
+            + "<way id='1'><nd ref='5'/><nd ref='6'/><tag k='name' v='Not a place'/>"
+            + "<tag k='highway' v='footway'/></way></osm>";
+        File f = folder.newFile("named.osm.xml");
+        Files.write(f.toPath(), xml.getBytes(StandardCharsets.UTF_8));
+        GraphDB g = new GraphDB(f.getPath());
+        TestGraphSnapshot.assertSameGraph(GraphDB.parseWithSax(f.getPath()), g);
+        assertEquals(0, g.size());
+        assertEquals(1, g.locationCount());
+        assertEquals(5, g.locationId(0));
+        assertEquals("Caf\u00e9 \"Strada\"", g.locationName(0));
+        assertEquals(38.1, g.locationLat(0), 0);
+    }
+
+    @Test
+    public void testEdgeSpeeds() throws Exception {
+        String xml = "<osm><node id='1' lat='38.1' lon='0.1'/><node id='2' lat='38.2' lon='0.1'/>"
+            + "<node id='3' lat='38.3' lon='0.1'/><node id='4' lat='38.4' lon='0.1'/>"
+            + "<node id='5' lat='38.5' lon='0.1'/>"
+            + "<way id='1'><nd ref='1'/><nd ref='2'/><tag k='highway' v='motorway'/></way>"
+            + "<way id='2'><nd ref='2'/><nd ref='3'/><tag k='maxspeed' v='50'/>"
+            + "<tag k='highway' v='residential'/></way>"
+            + "<way id='3'><nd ref='3'/><nd ref='4'/><tag k='highway' v='primary'/>"
+            + "<tag k='maxspeed' v='signals'/></way>"
+            + "<way id='4'><nd ref='4'/><nd ref='5'/><tag k='highway' v='secondary'/>"
+            + "<tag k='maxspeed' v='20 knots'/></way></osm>";
+        File f = folder.newFile("speeds.osm.xml");
+        Files.write(f.toPath(), xml.getBytes(StandardCharsets.UTF_8));
+        GraphDB g = new GraphDB(f.getPath());
+        TestGraphSnapshot.assertSameGraph(GraphDB.parseWithSax(f.getPath()), g);
+        assertEquals(65, speedBetween(g, 1, 2), 1e-6);
+        assertEquals(50 * 0.621371, speedBetween(g, 2, 3), 1e-5);
+        assertEquals(40, speedBetween(g, 3, 4), 1e-6);
+        assertEquals(20 * 1.15078, speedBetween(g, 4, 5), 1e-5);
+        assertEquals(speedBetween(g, 2, 3), speedBetween(g, 3, 2), 0);
+
+        GraphDB tiny = new GraphDB(GraphFixtures.writeTiny(folder.getRoot()));
+        assertEquals(35, speedBetween(tiny, 66, 63), 0);
+        assertEquals(25, speedBetween(tiny, 11, 22), 0);
+        assertEquals(30, speedBetween(tiny, 63, 55), 0);
+        int e = edgeBetween(tiny, 66, 63);
+        assertEquals(tiny.edgeWeight(e) / 35 * 60, tiny.edgeMinutes(e), 1e-9);
+    }
+
+    private static int edgeBetween(GraphDB g, long v, long w) {
+        int i = g.index(v);
+        for (int e = g.edgeStart(i); e < g.edgeEnd(i); e += 1) {
+            if (g.id(g.edgeTarget(e)) == w) {
+                return e;
+            }
+        }
+        throw new AssertionError("No edge " + v + " - " + w);
+    }
+
+    private static double speedBetween(GraphDB g, long v, long w) {
+        return g.edgeSpeed(edgeBetween(g, v, w));
+    }
+}
@@ -0,0 +1,174 @@
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that routes over a PartitionedGraph are as short as routes over the whole graph,
+ * and that only the cells a query needs are read.
+ */
+public class TestPartitionedGraph {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private PartitionedGraph pg;
+
+    @After
+    public void close() throws IOException {
+        if (pg != null) {
+            pg.close();
+        }
+    }
+
+    /** Partitions g into cells of at most cellSize vertices, backed by a temporary file. */
+    private PartitionedGraph partition(GraphDB g, int cellSize, long budgetBytes)
+            throws IOException {
+        File source = folder.newFile("source.osm");
+        String dbPath = source.getPath();
+        pg = GraphSnapshot.loadPartition(g, dbPath, cellSize, budgetBytes);
+        assertNotNull(pg);
+        assertTrue(new File(dbPath + GraphSnapshot.PARTITION_SUFFIX).isFile());
+        return pg;
+    }
+
+    @Test
+    public void testPartitionedMatchesAStar() throws IOException {
+        GraphDB g = GraphFixtures.grid(40, 50, 0.25, 3);
+        partition(g, 100, PartitionedGraph.DEFAULT_CACHE_BYTES);
+        assertTrue(pg.cellCount() >= 20);
+        TestRouterAlgorithms.assertAgreesWithAStar(g, Router.Algorithm.PARTITIONED, 300);
+    }
+
+    @Test
+    public void testCoincidentBoundaryVertices() throws IOException {
+        /* Each grid point has two nodes at the same place, zero miles apart: one on the row
+         * streets and one on the column streets, joined by an edge of length 0. */
+        Random random = new Random(12);
+        int side = 20;
+        long twin = side * side;
+        GraphDB g = new GraphDB();
+        for (int r = 0; r < side; r += 1) {
+            for (int c = 0; c < side; c += 1) {
+                double lon = MapServer.ROOT_ULLON + c * 0.0005 + random.nextDouble() * 1e-4;
+                double lat = MapServer.ROOT_ULLAT - r * 0.0005 - random.nextDouble() * 1e-4;
+                long id = GraphFixtures.gridId(r, c, side);
+                g.addNode(id, lon, lat);
+                g.addNode(id + twin, lon, lat);
+                g.addEdge(id, id + twin);
+                if (c > 0) {
+                    g.addEdge(id - 1, id);
+                }
+                if (r > 0) {
+                    g.addEdge(id - side + twin, id + twin);
+                }
+            }
+        }
+        g.clean();
+        partition(g, 40, PartitionedGraph.DEFAULT_CACHE_BYTES);
+        TestRouterAlgorithms.assertAgreesWithAStar(g, Router.Algorithm.PARTITIONED, 300);
+    }
+
+    @Test
+    public void testRouteWithinOneCell() throws IOException {
+        GraphDB g = GraphFixtures.grid(10, 10, 0, 1);
+        partition(g, 1000, PartitionedGraph.DEFAULT_CACHE_BYTES);
+        assertEquals(1, pg.cellCount());
+        assertEquals(0, pg.overlaySize());
+        TestRouterAlgorithms.assertAgreesWithAStar(g, Router.Algorithm.PARTITIONED, 50);
+    }
+
+    @Test
+    public void testClosestAndLocate() throws IOException {
+        GraphDB g = GraphFixtures.grid(30, 30, 0.1, 5);
+        partition(g, 64, PartitionedGraph.DEFAULT_CACHE_BYTES);
+        Random random = new Random(8);
+        for (int i = 0; i < 200; i += 1) {
+            double lon = MapServer.ROOT_ULLON + random.nextDouble() * 0.02 - 0.002;
+            double lat = MapServer.ROOT_ULLAT - random.nextDouble() * 0.02 + 0.002;
+            long v = pg.closest(lon, lat);
+            long id = pg.cell(PartitionedGraph.cellOf(v)).ids[PartitionedGraph.localOf(v)];
+            assertEquals(g.closest(lon, lat), id);
+        }
+        for (int i = 0; i < g.size(); i += 1) {
+            long v = pg.locate(g.id(i), g.lonAt(i), g.latAt(i));
+            assertEquals(g.id(i),
+                    pg.cell(PartitionedGraph.cellOf(v)).ids[PartitionedGraph.localOf(v)]);
+        }
+        assertEquals(-1, pg.locate(-5, g.lonAt(0), g.latAt(0)));
+    }
+
+    @Test
+    public void testPublicRouteMatchesGraphRoute() throws IOException {
+        GraphDB g = GraphFixtures.grid(20, 20, 0.1, 6);
+        partition(g, 50, PartitionedGraph.DEFAULT_CACHE_BYTES);
+        int t = g.size() - 1;
+        List<Long> expected = Router.shortestPath(g, g.lonAt(0), g.latAt(0),
+                g.lonAt(t), g.latAt(t));
+        List<Long> actual = Router.shortestPath(pg, g.lonAt(0), g.latAt(0),
+                g.lonAt(t), g.latAt(t));
+        assertEquals(expected.get(0), actual.get(0));
+        assertEquals(expected.get(expected.size() - 1), actual.get(actual.size() - 1));
+        int[] path = new int[actual.size()];
+        for (int i = 0; i < path.length; i += 1) {
+            path[i] = g.index(actual.get(i));
+        }
+        assertEquals(TestRouterAlgorithms.length(g, Router.shortestPath(g, 0, t,
+                Router.Algorithm.ASTAR)), TestRouterAlgorithms.length(g, path), 1e-9);
+    }
+
+    @Test
+    public void testQueryReadsOnlyNeededCells() throws IOException {
+        /* No holes, so a route along the top row never needs a cell off to the side. */
+        GraphDB g = GraphFixtures.grid(40, 40, 0, 2);
+        partition(g, 25, PartitionedGraph.DEFAULT_CACHE_BYTES);
+        pg.clearCells();
+        long before = pg.misses();
+        long s = pg.locate(g.id(0), g.lonAt(0), g.latAt(0));
+        long t = pg.locate(g.id(3), g.lonAt(3), g.latAt(3));
+        Router.partitioned(pg, s, t);
+        assertTrue(pg.misses() - before <= 4);
+        assertTrue(pg.misses() - before < pg.cellCount() / 10);
+    }
+
+    @Test
+    public void testCacheStaysWithinBudget() throws IOException {
+        GraphDB g = GraphFixtures.grid(30, 30, 0.2, 9);
+        long budget = 20_000;
+        partition(g, 50, budget);
+        Random random = new Random(1);
+        for (int i = 0; i < 100; i += 1) {
+            int a = random.nextInt(g.size());
+            int b = random.nextInt(g.size());
+            Router.shortestPath(g, a, b, Router.Algorithm.PARTITIONED);
+            assertTrue(pg.usedBytes() <= budget);
+        }
+        assertTrue(pg.evictions() > 0);
+    }
+
+    @Test
+    public void testStalePartitionIsRebuilt() throws IOException {
+        GraphDB g = GraphFixtures.grid(10, 10, 0, 1);
+        partition(g, 30, PartitionedGraph.DEFAULT_CACHE_BYTES);
+        File source = new File(folder.getRoot(), "source.osm");
+        File file = new File(source.getPath() + GraphSnapshot.PARTITION_SUFFIX);
+        PartitionedGraph same = GraphSnapshot.readPartition(file, source, 30, 1 << 20);
+        assertNotNull(same);
+        same.close();
+        assertNull(GraphSnapshot.readPartition(file, source, 40, 1 << 20));
+        PartitionedGraph other = GraphSnapshot.loadPartition(g, source.getPath(), 40, 1 << 20);
+        assertEquals(40, other.maxCellSize());
+        assertSame(other, g.partition());
+        pg.close();
+        pg = other;
+    }
+}
@@ -0,0 +1,97 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks PrefixIndex completions against a brute-force scan of every location.
+ */
+public class TestPrefixIndex {
+    /** The completions a linear scan over all locations would give. */
+    private static List<String> bruteForce(GraphDB g, PrefixIndex.Rank rank, String prefix,
+                                           int k) {
+        String cleanedPrefix = GraphDB.cleanString(prefix);
+        Map<String, List<String>> byKey = new HashMap<>();
+        for (int i = 0; i < g.locationCount(); i += 1) {
+            String key = GraphDB.cleanString(g.locationName(i));
+            if (!key.isEmpty() && key.startsWith(cleanedPrefix)) {
+                byKey.computeIfAbsent(key, x -> new ArrayList<>()).add(g.locationName(i));
+            }
+        }
+        List<String> keys = new ArrayList<>(byKey.keySet());
+        Collections.sort(keys);
+        keys.sort((a, b) -> {
+            double sa = rank.score(a, byKey.get(a).size());
+            double sb = rank.score(b, byKey.get(b).size());
+            return sa != sb ? Double.compare(sb, sa) : a.compareTo(b);
+        });
+        Set<String> names = new LinkedHashSet<>();
+        for (String key : keys) {
+            for (String name : byKey.get(key)) {
+                if (names.size() < k) {
+                    names.add(name);
+                }
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+    @Test
+    public void testMatchesBruteForce() {
+        GraphDB g = GraphFixtures.places(GraphFixtures.placeNames(3000, 1), 1);
+        String[] prefixes = {"", "c", "ca", "caf", "Caffe", "b", "BER", "berk", "be r", "t",
+            "top d", "topdog", "peets", "x", "cafe strada", "pizza park pizza", "s", "st"};
+        for (PrefixIndex.Rank rank : PrefixIndex.Rank.values()) {
+            PrefixIndex index = new PrefixIndex(g, rank, 5);
+            for (String prefix : prefixes) {
+                for (int k : new int[]{1, 3, 5, 8, 10000}) {
+                    assertEquals(rank + " " + prefix + " " + k, bruteForce(g, rank, prefix, k),
+                        index.complete(prefix, k));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testExactNames() {
+        String[] names = {"Top Dog", "top dog", "Top Dog!", "Top Dogs", "Cafe Strada"};
+        GraphDB g = GraphFixtures.places(names, 3);
+        PrefixIndex index = new PrefixIndex(g, PrefixIndex.Rank.COUNT, 2);
+        assertArrayEquals(new int[]{0, 1, 2}, index.locationsNamed("TOP DOG"));
+        assertArrayEquals(new int[]{3}, index.locationsNamed("top dogs"));
+        assertEquals(0, index.locationsNamed("top").length);
+        assertEquals(3, index.size());
+        assertEquals(Arrays.asList("Top Dog", "top dog"), index.complete("to", 2));
+        assertEquals(Arrays.asList("Top Dog", "top dog", "Top Dog!", "Top Dogs"),
+            index.complete("to", 4));
+    }
+
+    @Test
+    public void testEmptyAndUnnamed() {
+        PrefixIndex empty = new PrefixIndex(GraphFixtures.places(new String[0], 1),
+            PrefixIndex.Rank.COUNT, 3);
+        assertTrue(empty.complete("a", 3).isEmpty());
+        assertEquals(0, empty.locationsNamed("a").length);
+
+        PrefixIndex punctuation = new PrefixIndex(
+            GraphFixtures.places(new String[]{"7-11", "&", "A"}, 1), PrefixIndex.Rank.COUNT, 3);
+        assertEquals(Arrays.asList("A"), punctuation.complete("", 3));
+    }
+
+    @Test
+    public void testTrieIsCompact() {
+        GraphDB g = GraphFixtures.places(GraphFixtures.placeNames(5000, 2), 2);
+        PrefixIndex index = new PrefixIndex(g, PrefixIndex.Rank.LENGTH, 10);
+        assertTrue(index.nodeCount() < 2 * index.size());
+    }
+}
@@ -0,0 +1,134 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the single-flight, expiry and budget behavior of RasterCache with a fake clock.
+ */
+public class TestRasterCache {
+    private final AtomicLong now = new AtomicLong();
+
+    @Test
+    public void testConcurrentRequestsShareOneRender() throws Exception {
+        RasterCache cache = new RasterCache(1 << 20, 1000, now::get);
+        AtomicInteger renders = new AtomicInteger();
+        CountDownLatch rendering = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        byte[] image = new byte[100];
+        Thread[] threads = new Thread[16];
+        byte[][] results = new byte[threads.length][];
+        for (int t = 0; t < threads.length; t += 1) {
+            int i = t;
+            threads[t] = new Thread(() -> results[i] = cache.get("k", () -> {
+                renders.incrementAndGet();
+                rendering.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return image;
+            }));
+            threads[t].start();
+            if (t == 0) {
+                rendering.await();
+            }
+        }
+        /* Give the others time to find the render in flight. */
+        while (cache.coalesced() < threads.length - 1) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1, renders.get());
+        for (byte[] result : results) {
+            assertSame(image, result);
+        }
+        assertEquals(1, cache.misses());
+        assertEquals(threads.length - 1, cache.coalesced());
+        assertEquals(100, cache.usedBytes());
+    }
+
+    @Test
+    public void testExpiry() {
+        RasterCache cache = new RasterCache(1 << 20, 1000, now::get);
+        byte[] first = cache.get("k", () -> new byte[10]);
+        now.set(999);
+        assertSame(first, cache.get("k", () -> new byte[10]));
+        assertEquals(1, cache.hits());
+        now.set(1000);
+        byte[] second = cache.get("k", () -> new byte[20]);
+        assertEquals(20, second.length);
+        assertEquals(2, cache.misses());
+        assertEquals(20, cache.usedBytes());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testClear() {
+        RasterCache cache = new RasterCache(1 << 20, 1000, now::get);
+        cache.get("k", () -> new byte[10]);
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.usedBytes());
+        assertEquals(20, cache.get("k", () -> new byte[20]).length);
+        assertEquals(2, cache.misses());
+    }
+
+    @Test
+    public void testFailuresAreNotCached() {
+        RasterCache cache = new RasterCache(1 << 20, 1000, now::get);
+        try {
+            cache.get("k", () -> {
+                throw new IllegalStateException("boom");
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("boom", e.getMessage());
+        }
+        assertEquals(0, cache.size());
+        assertEquals(3, cache.get("k", () -> new byte[3]).length);
+    }
+
+    @Test
+    public void testBudget() {
+        RasterCache cache = new RasterCache(100, 1000, now::get);
+        cache.get("a", () -> new byte[60]);
+        /* Does not fit next to a, which has not expired: served but not kept. */
+        cache.get("b", () -> new byte[60]);
+        assertEquals(1, cache.size());
+        assertEquals(60, cache.usedBytes());
+        now.set(1000);
+        /* a has expired, so it makes room. */
+        cache.get("b", () -> new byte[60]);
+        assertEquals(1, cache.size());
+        assertEquals(60, cache.usedBytes());
+        cache.get("b", () -> new byte[1]);
+        assertEquals(1, cache.hits());
+        cache.get("c", () -> new byte[200]);
+        assertEquals(60, cache.usedBytes());
+    }
+
+    @Test
+    public void testFingerprint() {
+        long empty = RasterCache.fingerprint(Collections.emptyList());
+        long a = RasterCache.fingerprint(Arrays.asList(1L, 2L, 3L));
+        assertEquals(a, RasterCache.fingerprint(Arrays.asList(1L, 2L, 3L)));
+        assertNotEquals(a, RasterCache.fingerprint(Arrays.asList(3L, 2L, 1L)));
+        assertNotEquals(a, RasterCache.fingerprint(Arrays.asList(1L, 2L)));
+        assertNotEquals(empty, RasterCache.fingerprint(Collections.singletonList(0L)));
+        assertTrue(empty != 0);
+    }
+}
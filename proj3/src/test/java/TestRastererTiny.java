@@ -0,0 +1,78 @@
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Hand-checkable Rasterer queries that do not need the raster_params.txt fixtures.
+ */
+public class TestRastererTiny {
+    private static final double DELTA = 1e-12;
+    private static final double WIDTH = MapServer.ROOT_LRLON - MapServer.ROOT_ULLON;
+    private static final double HEIGHT = MapServer.ROOT_ULLAT - MapServer.ROOT_LRLAT;
+
+    private final Rasterer rasterer = new Rasterer();
+
+    private static Map<String, Double> query(double ullon, double ullat, double lrlon,
+                                             double lrlat, double w, double h) {
+        Map<String, Double> params = new HashMap<>();
+        params.put("ullon", ullon);
+        params.put("ullat", ullat);
+        params.put("lrlon", lrlon);
+        params.put("lrlat", lrlat);
+        params.put("w", w);
+        params.put("h", h);
+        return params;
+    }
+
+    @Test
+    public void testWholeRootAtTileResolution() {
+        Map<String, Object> r = rasterer.getMapRaster(query(MapServer.ROOT_ULLON,
+                MapServer.ROOT_ULLAT, MapServer.ROOT_LRLON, MapServer.ROOT_LRLAT,
+                MapServer.TILE_SIZE, MapServer.TILE_SIZE));
+        assertTrue((Boolean) r.get("query_success"));
+        assertEquals(0, r.get("depth"));
+        assertArrayEquals(new String[][]{{"d0_x0_y0.png"}}, (String[][]) r.get("render_grid"));
+    }
+
+    @Test
+    public void testLowerRightQuarterAtDepthTwo() {
+        /* Half the root width at a bit under twice the tile width in pixels needs a LonDPP of
+         * a quarter of the root's, i.e. depth 2, covering columns and rows 2 and 3. */
+        double ullon = MapServer.ROOT_ULLON + WIDTH / 2 + 1e-9;
+        double ullat = MapServer.ROOT_ULLAT - HEIGHT / 2 - 1e-9;
+        Map<String, Object> r = rasterer.getMapRaster(query(ullon, ullat,
+                MapServer.ROOT_LRLON - 1e-9, MapServer.ROOT_LRLAT + 1e-9,
+                2 * MapServer.TILE_SIZE - 1, 2 * MapServer.TILE_SIZE - 1));
+        assertEquals(2, r.get("depth"));
+        assertArrayEquals(new String[][]{
+            {"d2_x2_y2.png", "d2_x3_y2.png"},
+            {"d2_x2_y3.png", "d2_x3_y3.png"}}, (String[][]) r.get("render_grid"));
+        assertEquals(MapServer.ROOT_ULLON + WIDTH / 2, (double) r.get("raster_ul_lon"), DELTA);
+        assertEquals(MapServer.ROOT_ULLAT - HEIGHT / 2, (double) r.get("raster_ul_lat"), DELTA);
+        assertEquals(MapServer.ROOT_LRLON, (double) r.get("raster_lr_lon"), DELTA);
+        assertEquals(MapServer.ROOT_LRLAT, (double) r.get("raster_lr_lat"), DELTA);
+    }
+
+    @Test
+    public void testDepthIsCappedAtMaxDepth() {
+        double lon = MapServer.ROOT_ULLON + WIDTH / 3;
+        double lat = MapServer.ROOT_ULLAT - HEIGHT / 3;
+        Map<String, Object> r = rasterer.getMapRaster(query(lon, lat, lon + 1e-6, lat - 1e-6,
+                1000, 1000));
+        assertEquals(Rasterer.MAX_DEPTH, r.get("depth"));
+        assertEquals(1, ((String[][]) r.get("render_grid")).length);
+    }
+
+    @Test
+    public void testQueryOutsideRootFails() {
+        Map<String, Object> r = rasterer.getMapRaster(query(MapServer.ROOT_LRLON + 1,
+                MapServer.ROOT_ULLAT, MapServer.ROOT_LRLON + 2, MapServer.ROOT_LRLAT, 500, 500));
+        assertFalse((Boolean) r.get("query_success"));
+    }
+}
@@ -0,0 +1,78 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks Router.routeDirections on the tiny graph of GraphFixtures, which is small enough
+ * to work out the turns by hand.
+ */
+public class TestRouteDirections {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testTinyRoute() throws Exception {
+        GraphDB g = new GraphDB(GraphFixtures.writeTiny(folder.getRoot()));
+        List<Long> route = Arrays.asList(11L, 22L, 46L, 66L, 63L, 55L);
+        List<Router.NavigationDirection> directions = Router.routeDirections(g, route);
+        assertEquals(3, directions.size());
+
+        /* Hearst Avenue heads north-east and then east; the unnamed primary turns south,
+         * and Oxford Street doubles back to the north-west. */
+        assertDirection(Router.NavigationDirection.START, "Hearst Avenue",
+                g.distance(11, 22) + g.distance(22, 46) + g.distance(46, 66), directions.get(0));
+        assertDirection(Router.NavigationDirection.RIGHT, "", g.distance(66, 63),
+                directions.get(1));
+        assertDirection(Router.NavigationDirection.SHARP_RIGHT, "Oxford Street",
+                g.distance(63, 55), directions.get(2));
+        assertEquals(String.format("Turn right on  and continue for %.3f miles.",
+                g.distance(66, 63)), directions.get(1).toString());
+
+        assertTrue(Router.routeDirections(g, Arrays.asList(22L)).isEmpty());
+    }
+
+    @Test
+    public void testWaysWithTheSameNameAreOneDirection() {
+        GraphDB g = new GraphDB();
+        for (int i = 0; i < 4; i += 1) {
+            g.addNode(i + 1, 0.1 * i, 38);
+        }
+        g.addWay(7, new long[] {1, 2, 3}, 3, 25, "Bancroft Way");
+        g.addWay(8, new long[] {3, 4}, 2, 25, "Bancroft Way");
+        g.addWay(9, new long[] {2, 3}, 2, 25, "Telegraph Avenue");
+        g.clean();
+        List<Router.NavigationDirection> directions = Router.routeDirections(g,
+                Arrays.asList(1L, 2L, 3L, 4L));
+        assertEquals(1, directions.size());
+        assertDirection(Router.NavigationDirection.START, "Bancroft Way",
+                g.distance(1, 2) + g.distance(2, 3) + g.distance(3, 4), directions.get(0));
+    }
+
+    @Test
+    public void testTurn() {
+        assertEquals(Router.NavigationDirection.STRAIGHT, Router.NavigationDirection.turn(15));
+        assertEquals(Router.NavigationDirection.SLIGHT_LEFT,
+                Router.NavigationDirection.turn(-20));
+        assertEquals(Router.NavigationDirection.RIGHT, Router.NavigationDirection.turn(100));
+        assertEquals(Router.NavigationDirection.SHARP_LEFT,
+                Router.NavigationDirection.turn(-101));
+        /* Bearings wrap around: from 170 to -170 degrees is a slight right of 20. */
+        assertEquals(Router.NavigationDirection.SLIGHT_RIGHT,
+                Router.NavigationDirection.turn(-170 - 170));
+        assertEquals(Router.NavigationDirection.STRAIGHT,
+                Router.NavigationDirection.turn(-175 - 175 + 360));
+    }
+
+    private static void assertDirection(int direction, String way, double miles,
+                                        Router.NavigationDirection actual) {
+        assertEquals(direction, actual.direction);
+        assertEquals(way, actual.way);
+        assertEquals(miles, actual.distance, 1e-9);
+    }
+}
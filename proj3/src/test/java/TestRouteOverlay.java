@@ -0,0 +1,110 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the clipping and Douglas-Peucker simplification of RouteOverlay.
+ */
+public class TestRouteOverlay {
+    @Test
+    public void testSimplifyDropsNearlyStraightPoints() {
+        double[] line = {0, 0, 1, 0.1, 2, -0.1, 3, 0, 3, 5, 6, 5};
+        assertArrayEquals(new double[] {0, 0, 3, 0, 3, 5, 6, 5},
+            RouteOverlay.simplify(line, 0.5), 0);
+        assertArrayEquals(line, RouteOverlay.simplify(line, 0.05), 0);
+    }
+
+    @Test
+    public void testSimplifyStaysWithinTolerance() {
+        int n = 5000;
+        double[] line = new double[2 * n];
+        for (int i = 0; i < n; i += 1) {
+            line[2 * i] = i * 0.1;
+            line[2 * i + 1] = 20 * Math.sin(i * 0.01);
+        }
+        double[] simple = RouteOverlay.simplify(line, 0.5);
+        assertTrue(simple.length < line.length / 20);
+        /* Every original point is within the tolerance of the simplified polyline. */
+        for (int i = 0; i < n; i += 1) {
+            double best = Double.POSITIVE_INFINITY;
+            for (int j = 0; j + 3 < simple.length; j += 2) {
+                best = Math.min(best, distance(line[2 * i], line[2 * i + 1], simple[j],
+                    simple[j + 1], simple[j + 2], simple[j + 3]));
+            }
+            assertTrue(best <= 0.5 + 1e-9);
+        }
+    }
+
+    @Test
+    public void testClipSplitsAtEachPass() {
+        /* In, out through the right edge, back in, and out again through the top. */
+        double[] xs = {1, 5, 20, 8, 8};
+        double[] ys = {1, 1, 1, 5, -10};
+        List<double[]> lines = RouteOverlay.clip(xs, ys, xs.length, 0, 0, 10, 10);
+        assertEquals(2, lines.size());
+        assertArrayEquals(new double[] {1, 1, 5, 1, 10, 1}, lines.get(0), 1e-12);
+        double[] second = lines.get(1);
+        assertEquals(10, second[0], 1e-12);
+        assertEquals(1 + 4 * 10.0 / 12, second[1], 1e-12);
+        assertArrayEquals(new double[] {8, 5, 8, 0},
+            Arrays.copyOfRange(second, 2, 6), 1e-12);
+    }
+
+    @Test
+    public void testClipCrossingAndOutside() {
+        double[] xs = {-5, 15, 30};
+        double[] ys = {5, 5, 30};
+        List<double[]> lines = RouteOverlay.clip(xs, ys, 3, 0, 0, 10, 10);
+        assertEquals(1, lines.size());
+        assertArrayEquals(new double[] {0, 5, 10, 5}, lines.get(0), 1e-12);
+        assertEquals(0, RouteOverlay.clip(new double[] {20, 30}, new double[] {20, 30}, 2,
+            0, 0, 10, 10).size());
+    }
+
+    @Test
+    public void testPolylinesOnGraph() {
+        GraphDB g = GraphFixtures.grid(20, 20, 0, 3);
+        int[] path = Router.shortestPath(g, 0, 399, Router.Algorithm.ASTAR);
+        List<Long> route = Router.toIds(g, path);
+        double ullon = g.lonAt(0) - 0.001;
+        double ullat = g.latAt(0) + 0.001;
+        double lrlon = g.lonAt(399) + 0.001;
+        double lrlat = g.latAt(399) - 0.001;
+        /* The whole route fits, so it is one polyline from end to end. */
+        List<double[]> lines = RouteOverlay.polylines(g, route, ullon, ullat, lrlon, lrlat,
+            256, 256, 0, 0);
+        assertEquals(1, lines.size());
+        assertEquals(2 * route.size(), lines.get(0).length);
+        assertEquals((g.lonAt(0) - ullon) / (lrlon - ullon) * 256, lines.get(0)[0], 1e-9);
+        /* A coarse raster needs far fewer points. */
+        double[] coarse = RouteOverlay.polylines(g, route, ullon, ullat, lrlon, lrlat, 64, 64,
+            0, 0.5).get(0);
+        assertTrue(coarse.length < lines.get(0).length);
+        /* A raster of only the top left corner sees only the start. */
+        List<double[]> corner = RouteOverlay.polylines(g, route, ullon, ullat,
+            (ullon + lrlon) / 2, (ullat + lrlat) / 2, 256, 256, 0, 0);
+        assertTrue(corner.size() >= 1);
+        for (double[] line : corner) {
+            for (double c : line) {
+                assertTrue(c >= -1e-9 && c <= 256 + 1e-9);
+            }
+        }
+        assertEquals(0, RouteOverlay.polylines(g, new ArrayList<>(), ullon, ullat, lrlon,
+            lrlat, 256, 256, 0, 0.5).size());
+    }
+
+    private static double distance(double px, double py, double ax, double ay, double bx,
+                                   double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double t = Math.max(0, Math.min(1, ((px - ax) * dx + (py - ay) * dy)
+            / (dx * dx + dy * dy)));
+        return Math.hypot(px - ax - t * dx, py - ay - t * dy);
+    }
+}
@@ -0,0 +1,240 @@
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import spark.Spark;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the bounds of RouteSessions, and that concurrent clients of the server always get
+ * back their own routes, on rasters and overlays as well as from /route.
+ */
+public class TestRouteSessions {
+    private static final int CLIENTS = 64;
+    private static final String TILE_PACK_PROPERTY = "mapserver.tilepack";
+    /** Raster parameters for the area of the test grid, drawn from depth 2 tiles. */
+    private static final String AREA = String.format("ullon=%s&ullat=%s&lrlon=%s&lrlat=%s"
+            + "&w=256&h=256", MapServer.ROOT_ULLON, MapServer.ROOT_ULLAT,
+            MapServer.ROOT_ULLON + 0.03, MapServer.ROOT_ULLAT - 0.03);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** Leaves no graph, tiles or routes of this test behind for later ones. */
+    @After
+    public void resetServer() {
+        MapServer.reset();
+    }
+
+    @Test
+    public void testSessionsAreSeparate() {
+        RouteSessions sessions = new RouteSessions();
+        sessions.put("a", Arrays.asList(1L, 2L, 3L));
+        sessions.put("b", Arrays.asList(4L));
+        assertEquals(Arrays.asList(1L, 2L, 3L), sessions.get("a"));
+        assertEquals(Arrays.asList(4L), sessions.get("b"));
+        assertTrue(sessions.get("c").isEmpty());
+        assertTrue(sessions.get(null).isEmpty());
+        sessions.remove("a");
+        assertTrue(sessions.get("a").isEmpty());
+        assertEquals(Arrays.asList(4L), sessions.get("b"));
+    }
+
+    @Test
+    public void testIdleSessionsAreEvicted() {
+        AtomicLong now = new AtomicLong();
+        RouteSessions sessions = new RouteSessions(1 << 20, 100, now::get);
+        sessions.put("old", Arrays.asList(1L));
+        now.set(60);
+        sessions.put("new", Arrays.asList(2L));
+        now.set(120);
+        assertEquals(Arrays.asList(2L), sessions.get("new"));
+        assertTrue(sessions.get("old").isEmpty());
+        assertEquals(1, sessions.size());
+        assertEquals(1, sessions.evictions());
+        /* Reading a route keeps its session alive. */
+        now.set(210);
+        assertEquals(Arrays.asList(2L), sessions.get("new"));
+        now.set(300);
+        assertEquals(Arrays.asList(2L), sessions.get("new"));
+    }
+
+    @Test
+    public void testBudgetEvictsLeastRecentlyUsed() {
+        long perRoute = RouteSessions.sizeOf(Arrays.asList(1L, 2L));
+        RouteSessions sessions = new RouteSessions(3 * perRoute, Long.MAX_VALUE, () -> 0);
+        sessions.put("a", Arrays.asList(1L, 2L));
+        sessions.put("b", Arrays.asList(3L, 4L));
+        sessions.put("c", Arrays.asList(5L, 6L));
+        sessions.get("a");
+        sessions.put("d", Arrays.asList(7L, 8L));
+        assertTrue(sessions.get("b").isEmpty());
+        assertEquals(Arrays.asList(1L, 2L), sessions.get("a"));
+        assertEquals(3 * perRoute, sessions.usedBytes());
+    }
+
+    /**
+     * Each client asks the server for its routes, keeping the session cookie /route gives
+     * it, and fetches /raster and /route_overlay over the same area after each one. Every
+     * response must be what a lone client gets for the same route.
+     */
+    @Test
+    public void testConcurrentClientsKeepTheirOwnRoutes() throws Exception {
+        GraphDB g = GraphFixtures.grid(60, 60, 0.1, 11);
+        System.setProperty(TILE_PACK_PROPERTY, blankTiles().getPath());
+        try {
+            MapServer.initialize(g);
+        } finally {
+            System.clearProperty(TILE_PACK_PROPERTY);
+        }
+        Spark.port(0);
+        MapServer.serve();
+        Spark.awaitInitialization();
+        int port = Spark.port();
+        ExecutorService pool = Executors.newFixedThreadPool(CLIENTS);
+        try {
+            int rounds = 3;
+            String[][] queries = new String[CLIENTS][rounds];
+            Random random = new Random(5);
+            for (int c = 0; c < CLIENTS; c += 1) {
+                for (int r = 0; r < rounds; r += 1) {
+                    int s;
+                    int t;
+                    do {
+                        s = random.nextInt(g.size());
+                        t = random.nextInt(g.size());
+                    } while (Router.shortestPath(g, s, t, Router.Algorithm.ASTAR).length < 2);
+                    queries[c][r] = String.format("/route?start_lon=%s&start_lat=%s"
+                            + "&end_lon=%s&end_lat=%s", g.lonAt(s), g.latAt(s), g.lonAt(t),
+                            g.latAt(t));
+                }
+            }
+
+            /* The answers a lone client gets, one request at a time. */
+            String[][] expected = new String[CLIENTS][rounds];
+            Set<String> overlays = new HashSet<>();
+            for (int c = 0; c < CLIENTS; c += 1) {
+                Client client = new Client(port);
+                for (int r = 0; r < rounds; r += 1) {
+                    expected[c][r] = client.routeAndRender(queries[c][r]);
+                    overlays.add(expected[c][r]);
+                }
+            }
+            /* So that a client shown another client's route would notice. */
+            assertEquals(CLIENTS * rounds, overlays.size());
+            /* So that the clients below render their own rasters. */
+            MapServer.clearCaches();
+
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int c = 0; c < CLIENTS; c += 1) {
+                final int client = c;
+                results.add(pool.submit((Callable<Integer>) () -> {
+                    Client me = new Client(port);
+                    start.await();
+                    int correct = 0;
+                    for (int r = 0; r < rounds; r += 1) {
+                        if (me.routeAndRender(queries[client][r]).equals(expected[client][r])) {
+                            correct += 1;
+                        }
+                    }
+                    return correct;
+                }));
+            }
+            start.countDown();
+            for (Future<Integer> result : results) {
+                assertEquals(rounds, (int) result.get());
+            }
+        } finally {
+            pool.shutdownNow();
+            Spark.stop();
+        }
+    }
+
+    /** Writes a pack of plain tiles for the top three depths of the tile pyramid. */
+    private File blankTiles() throws IOException {
+        File dir = folder.newFolder("tiles");
+        BufferedImage tile = new BufferedImage(MapServer.TILE_SIZE, MapServer.TILE_SIZE,
+                BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < MapServer.TILE_SIZE; y += 1) {
+            for (int x = 0; x < MapServer.TILE_SIZE; x += 1) {
+                tile.setRGB(x, y, 0xeeeeee);
+            }
+        }
+        for (int d = 0; d <= 2; d += 1) {
+            for (int y = 0; y < 1 << d; y += 1) {
+                for (int x = 0; x < 1 << d; x += 1) {
+                    ImageIO.write(tile, "png", new File(dir, "d" + d + "_x" + x + "_y" + y
+                            + ".png"));
+                }
+            }
+        }
+        File pack = folder.newFile("tiles.pack");
+        TilePack.write(dir, pack);
+        return pack;
+    }
+
+    /** A client of the server on localhost that keeps the session cookie it is given. */
+    private static class Client {
+        private final int port;
+        private String cookie;
+
+        Client(int port) {
+            this.port = port;
+        }
+
+        /**
+         * Asks for a route, then for a raster and the route overlay of the grid's area.
+         * @return The two answers.
+         */
+        String routeAndRender(String route) throws IOException {
+            assertTrue(get(route).contains("\"routing_success\":true"));
+            return get("/raster?" + AREA) + "\n" + get("/route_overlay?" + AREA);
+        }
+
+        private String get(String path) throws IOException {
+            HttpURLConnection conn = (HttpURLConnection)
+                    new URL("http://localhost:" + port + path).openConnection();
+            if (cookie != null) {
+                conn.setRequestProperty("Cookie", cookie);
+            }
+            assertEquals(200, conn.getResponseCode());
+            String set = conn.getHeaderField("Set-Cookie");
+            if (set != null) {
+                cookie = set.split(";", 2)[0];
+            }
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try (InputStream in = conn.getInputStream()) {
+                byte[] buffer = new byte[8192];
+                for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                    body.write(buffer, 0, n);
+                }
+            }
+            return new String(body.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
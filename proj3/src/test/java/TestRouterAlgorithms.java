@@ -0,0 +1,189 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that every Router.Algorithm finds paths as short as plain A* does.
+ */
+public class TestRouterAlgorithms {
+    /** Returns the length in miles of a path of vertex indices. */
+    static double length(GraphDB g, int[] path) {
+        double total = 0;
+        for (int i = 1; i < path.length; i += 1) {
+            double best = Double.POSITIVE_INFINITY;
+            for (int e = g.edgeStart(path[i - 1]); e < g.edgeEnd(path[i - 1]); e += 1) {
+                if (g.edgeTarget(e) == path[i]) {
+                    best = Math.min(best, g.edgeWeight(e));
+                }
+            }
+            total += best;
+        }
+        return total;
+    }
+
+    /** Asserts that algorithm agrees with A* on random queries over a holey grid. */
+    static void assertAgreesWithAStar(GraphDB g, Router.Algorithm algorithm, int queries) {
+        Random random = new Random(17);
+        for (int i = 0; i < queries; i += 1) {
+            int s = random.nextInt(g.size());
+            int t = random.nextInt(g.size());
+            int[] expected = Router.shortestPath(g, s, t, Router.Algorithm.ASTAR);
+            int[] actual = Router.shortestPath(g, s, t, algorithm);
+            assertEquals(expected.length == 0, actual.length == 0);
+            if (actual.length > 0) {
+                assertEquals(s, actual[0]);
+                assertEquals(t, actual[actual.length - 1]);
+                assertEquals(length(g, expected), length(g, actual), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testBidirectionalMatchesAStar() {
+        GraphDB g = GraphFixtures.grid(40, 50, 0.25, 3);
+        assertAgreesWithAStar(g, Router.Algorithm.BIDIRECTIONAL, 300);
+    }
+
+    @Test
+    public void testAltMatchesAStar() {
+        GraphDB g = GraphFixtures.grid(40, 50, 0.25, 3);
+        g.setLandmarks(Landmarks.build(g, 8));
+        assertAgreesWithAStar(g, Router.Algorithm.ALT, 300);
+    }
+
+    @Test
+    public void testLandmarkBoundsNeverOverestimate() {
+        GraphDB g = GraphFixtures.grid(15, 15, 0.3, 8);
+        Landmarks landmarks = Landmarks.build(g, 4);
+        Random random = new Random(2);
+        for (int i = 0; i < 200; i += 1) {
+            int s = random.nextInt(g.size());
+            int t = random.nextInt(g.size());
+            int[] path = Router.shortestPath(g, s, t, Router.Algorithm.ASTAR);
+            double bound = landmarks.lowerBound(s, t);
+            if (path.length == 0) {
+                assertTrue(bound >= 0);
+            } else {
+                assertTrue(bound <= length(g, path));
+            }
+        }
+    }
+
+    @Test
+    public void testBidirectionalOnSingleVertexRoute() {
+        GraphDB g = GraphFixtures.grid(3, 3, 0, 1);
+        assertArrayEquals(new int[]{4}, Router.shortestPath(g, 4, 4,
+                Router.Algorithm.BIDIRECTIONAL));
+    }
+
+    @Test
+    public void testDistanceMatrixMatchesPairwiseRoutes() {
+        GraphDB g = GraphFixtures.grid(30, 30, 0.3, 12);
+        Random random = new Random(4);
+        int[] sources = new int[12];
+        int[] targets = new int[15];
+        for (int i = 0; i < sources.length; i += 1) {
+            sources[i] = random.nextInt(g.size());
+        }
+        for (int j = 0; j < targets.length; j += 1) {
+            targets[j] = random.nextInt(g.size());
+        }
+        targets[3] = targets[7];
+        targets[5] = sources[2];
+        double[][] matrix = Router.distanceMatrix(g, sources, targets);
+        for (int i = 0; i < sources.length; i += 1) {
+            for (int j = 0; j < targets.length; j += 1) {
+                int[] path = Router.shortestPath(g, sources[i], targets[j],
+                        Router.Algorithm.ASTAR);
+                if (path.length == 0) {
+                    assertEquals(Double.POSITIVE_INFINITY, matrix[i][j], 0);
+                } else {
+                    assertEquals(length(g, path), matrix[i][j], 1e-9);
+                }
+            }
+        }
+        assertEquals(0, matrix[2][5], 0);
+    }
+
+    @Test
+    public void testDistanceMatrixSnapsLocations() {
+        GraphDB g = GraphFixtures.grid(5, 5, 0, 1);
+        double[][] corners = {{g.lonAt(0), g.latAt(0)}, {g.lonAt(24), g.latAt(24)}};
+        double[][] matrix = Router.distanceMatrix(g, corners, corners);
+        assertEquals(0, matrix[0][0], 0);
+        assertEquals(matrix[0][1], matrix[1][0], 1e-9);
+        assertEquals(length(g, Router.shortestPath(g, 0, 24, Router.Algorithm.ASTAR)),
+                matrix[0][1], 1e-9);
+    }
+
+    @Test
+    public void testIsochroneMatchesFullDijkstra() {
+        GraphDB g = GraphFixtures.grid(30, 30, 0.15, 11);
+        int n = g.size();
+        int s = 465;
+        /* Travel times from s to every vertex, by a plain array Dijkstra. */
+        double[] minutes = new double[n];
+        Arrays.fill(minutes, Double.POSITIVE_INFINITY);
+        boolean[] done = new boolean[n];
+        minutes[s] = 0;
+        for (int round = 0; round < n; round += 1) {
+            int v = -1;
+            for (int u = 0; u < n; u += 1) {
+                if (!done[u] && (v < 0 || minutes[u] < minutes[v])) {
+                    v = u;
+                }
+            }
+            done[v] = true;
+            for (int e = g.edgeStart(v); e < g.edgeEnd(v); e += 1) {
+                int w = g.edgeTarget(e);
+                minutes[w] = Math.min(minutes[w], minutes[v] + g.edgeMinutes(e));
+            }
+        }
+
+        for (double budget : new double[] {0, 0.5, 2, 1e9}) {
+            Isochrone reached = Router.isochrone(g, s, budget);
+            int expected = 0;
+            for (int v = 0; v < n; v += 1) {
+                expected += minutes[v] <= budget ? 1 : 0;
+            }
+            assertEquals(expected, reached.size());
+            for (int i = 0; i < reached.size(); i += 1) {
+                assertEquals(minutes[reached.vertex(i)], reached.minutes(i), 1e-9);
+                assertTrue(i == 0 || reached.minutes(i - 1) <= reached.minutes(i));
+            }
+        }
+    }
+
+    @Test
+    public void testIsochroneHullContainsReachedVertices() {
+        GraphDB g = GraphFixtures.grid(20, 20, 0.1, 5);
+        Isochrone reached = Router.isochrone(g, g.lonAt(210), g.latAt(210), 1);
+        double[][] hull = reached.hull(g);
+        assertTrue(hull.length >= 3);
+        for (int i = 0; i < reached.size(); i += 1) {
+            double x = g.lonAt(reached.vertex(i));
+            double y = g.latAt(reached.vertex(i));
+            for (int j = 0; j < hull.length; j += 1) {
+                double[] a = hull[j];
+                double[] b = hull[(j + 1) % hull.length];
+                double cross = (b[0] - a[0]) * (y - a[1]) - (b[1] - a[1]) * (x - a[0]);
+                assertTrue(cross >= -1e-15);
+            }
+        }
+        assertEquals(1, Router.isochrone(g, 0, 0).hull(g).length);
+    }
+
+    @Test
+    public void testParseAlgorithm() {
+        assertEquals(Router.Algorithm.BIDIRECTIONAL, Router.Algorithm.parse("bidirectional"));
+        assertEquals(Router.Algorithm.ASTAR, Router.Algorithm.parse(null));
+        assertEquals(Router.Algorithm.ASTAR, Router.Algorithm.parse("nonsense"));
+        assertEquals(Router.Algorithm.ALT, Router.Algorithm.parse("nonsense",
+                Router.Algorithm.ALT));
+    }
+}
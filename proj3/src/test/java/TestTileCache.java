@@ -0,0 +1,75 @@
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks the LRU bookkeeping of TileCache on a handful of small generated tiles.
+ */
+public class TestTileCache {
+    private static final int SIDE = 16;
+    private static final long TILE_BYTES = 4L * SIDE * SIDE;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String[] paths;
+
+    @Before
+    public void setUp() throws Exception {
+        paths = new String[4];
+        for (int i = 0; i < paths.length; i += 1) {
+            BufferedImage img = new BufferedImage(SIDE, SIDE, BufferedImage.TYPE_INT_RGB);
+            img.setRGB(0, 0, i);
+            File f = folder.newFile("d1_x" + i + "_y0.png");
+            ImageIO.write(img, "png", f);
+            paths[i] = f.getPath();
+        }
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        TileCache cache = new TileCache(10 * TILE_BYTES);
+        BufferedImage first = cache.get(paths[0]);
+        assertNotNull(first);
+        assertSame(first, cache.get(paths[0]));
+        cache.get(paths[1]);
+        assertEquals(1, cache.hits());
+        assertEquals(2, cache.misses());
+        assertEquals(2, cache.size());
+        assertEquals(2 * TILE_BYTES, cache.usedBytes());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        TileCache cache = new TileCache(2 * TILE_BYTES);
+        BufferedImage zero = cache.get(paths[0]);
+        cache.get(paths[1]);
+        /* Touch tile 0 so that tile 1 becomes the eldest. */
+        cache.get(paths[0]);
+        cache.get(paths[2]);
+        assertEquals(1, cache.evictions());
+        assertEquals(2, cache.size());
+        assertSame(zero, cache.get(paths[0]));
+
+        long missesBefore = cache.misses();
+        cache.get(paths[1]);
+        assertEquals(missesBefore + 1, cache.misses());
+    }
+
+    @Test
+    public void testMissingFileIsNotCached() {
+        TileCache cache = new TileCache(TILE_BYTES);
+        assertNull(cache.get(folder.getRoot().getPath() + "/nope.png"));
+        assertEquals(0, cache.size());
+    }
+}
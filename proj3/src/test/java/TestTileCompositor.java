@@ -0,0 +1,97 @@
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Checks that the parallel compositing path draws exactly what the sequential one does,
+ * and that it splits even a single row of tiles.
+ */
+public class TestTileCompositor {
+    private static final int ROWS = 5;
+    private static final int COLS = 7;
+
+    /** Builds a grid of tiles filled with a color unique to each tile. */
+    private static Map<String, BufferedImage> makeTiles(String[][] grid) {
+        Map<String, BufferedImage> tiles = new HashMap<>();
+        for (int r = 0; r < grid.length; r += 1) {
+            for (int c = 0; c < grid[r].length; c += 1) {
+                grid[r][c] = "d3_x" + c + "_y" + r + ".png";
+                BufferedImage tile = new BufferedImage(MapServer.TILE_SIZE, MapServer.TILE_SIZE,
+                        BufferedImage.TYPE_INT_RGB);
+                int rgb = (r * 40) << 16 | (c * 30) << 8 | 0x7f;
+                for (int y = 0; y < MapServer.TILE_SIZE; y += 1) {
+                    for (int x = 0; x < MapServer.TILE_SIZE; x += 1) {
+                        tile.setRGB(x, y, rgb ^ (x * y));
+                    }
+                }
+                tiles.put(grid[r][c], tile);
+            }
+        }
+        return tiles;
+    }
+
+    private static void assertParallelMatchesSequential(int rows, int cols) {
+        String[][] grid = new String[rows][cols];
+        Map<String, BufferedImage> tiles = makeTiles(grid);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        BufferedImage expected;
+        BufferedImage actual;
+        try {
+            TileCompositor compositor = new TileCompositor(tiles::get, pool);
+            expected = compositor.compositeSequential(grid);
+            actual = compositor.compositeParallel(grid);
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(cols * MapServer.TILE_SIZE, actual.getWidth());
+        assertEquals(rows * MapServer.TILE_SIZE, actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y += 1) {
+            for (int x = 0; x < expected.getWidth(); x += 1) {
+                assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void testParallelMatchesSequential() {
+        assertParallelMatchesSequential(ROWS, COLS);
+        assertParallelMatchesSequential(1, COLS);
+        assertParallelMatchesSequential(ROWS, 1);
+    }
+
+    /** The tiles of a single row are drawn by more than one thread. */
+    @Test
+    public void testSingleRowIsSplit() throws Exception {
+        String[][] grid = new String[1][COLS];
+        Map<String, BufferedImage> tiles = makeTiles(grid);
+        /* Each tile waits until a second one is being drawn at the same time. */
+        CountDownLatch together = new CountDownLatch(2);
+        AtomicBoolean alone = new AtomicBoolean();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            new TileCompositor(name -> {
+                together.countDown();
+                try {
+                    if (!together.await(10, TimeUnit.SECONDS)) {
+                        alone.set(true);
+                    }
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return tiles.get(name);
+            }, pool).compositeParallel(grid);
+        } finally {
+            pool.shutdown();
+        }
+        assertFalse(alone.get());
+    }
+}
@@ -0,0 +1,116 @@
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a TilePack serves exactly the bytes and images of the directory it packed.
+ */
+public class TestTilePack {
+    private static final int SIDE = 16;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = folder.newFolder("imgs");
+        for (int i = 0; i < 5; i += 1) {
+            BufferedImage img = new BufferedImage(SIDE, SIDE, BufferedImage.TYPE_INT_RGB);
+            img.setRGB(i, i, 0x123456 * (i + 1));
+            ImageIO.write(img, "png", new File(dir, "d2_x" + i + "_y" + (4 - i) + ".png"));
+        }
+        Files.write(new File(dir, "notes.txt").toPath(), new byte[] {1, 2, 3});
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        File packFile = folder.newFile("tiles.pack");
+        assertEquals(5, TilePack.write(dir, packFile));
+        TilePack pack = TilePack.open(packFile);
+        assertEquals(5, pack.size());
+        for (int i = 0; i < 5; i += 1) {
+            File tile = new File(dir, "d2_x" + i + "_y" + (4 - i) + ".png");
+            ByteBuffer bytes = pack.bytes(tile.getName());
+            assertTrue(bytes.isReadOnly());
+            byte[] actual = new byte[bytes.remaining()];
+            bytes.get(actual);
+            assertArrayEquals(Files.readAllBytes(tile.toPath()), actual);
+
+            BufferedImage expected = ImageIO.read(tile);
+            BufferedImage decoded = pack.image(tile.getName());
+            assertEquals(expected.getWidth(), decoded.getWidth());
+            assertEquals(expected.getRGB(i, i), decoded.getRGB(i, i));
+            assertEquals(expected.getRGB(0, SIDE - 1 - i), decoded.getRGB(0, SIDE - 1 - i));
+        }
+        assertNull(pack.bytes("notes.txt"));
+        assertNull(pack.image("d9_x0_y0.png"));
+    }
+
+    @Test
+    public void testTileCacheLoadsFromPack() throws Exception {
+        File packFile = folder.newFile("tiles.pack");
+        TilePack.write(dir, packFile);
+        TilePack pack = TilePack.open(packFile);
+        TileCache cache = new TileCache(TileCache.DEFAULT_BUDGET_BYTES, pack::image);
+        BufferedImage first = cache.get("d2_x1_y3.png");
+        assertEquals(SIDE, first.getWidth());
+        assertEquals(first, cache.get("d2_x1_y3.png"));
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsOtherFiles() throws Exception {
+        File notPack = new File(dir, "notes.txt");
+        TilePack.open(notPack);
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsTruncatedPack() throws Exception {
+        File packFile = folder.newFile("tiles.pack");
+        TilePack.write(dir, packFile);
+        try (RandomAccessFile raf = new RandomAccessFile(packFile, "rw")) {
+            raf.setLength(raf.length() - 10);
+        }
+        TilePack.open(packFile);
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsCorruptTileCount() throws Exception {
+        File packFile = folder.newFile("tiles.pack");
+        TilePack.write(dir, packFile);
+        try (RandomAccessFile raf = new RandomAccessFile(packFile, "rw")) {
+            raf.seek(8);
+            raf.writeInt(Integer.MAX_VALUE);
+        }
+        TilePack.open(packFile);
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsCorruptNameLength() throws Exception {
+        File packFile = folder.newFile("tiles.pack");
+        TilePack.write(dir, packFile);
+        /* Read as a signed short, this length would be negative. */
+        try (RandomAccessFile raf = new RandomAccessFile(packFile, "rw")) {
+            raf.seek(12);
+            raf.writeShort(0xffff);
+        }
+        TilePack.open(packFile);
+    }
+}
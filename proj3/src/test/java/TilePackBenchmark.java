@@ -0,0 +1,117 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+/**
+ * Compares fetching tiles from a directory of PNG files with fetching them from a TilePack
+ * of the same files, both as raw bytes and decoded. Each layout is timed twice: a cold pass
+ * right after opening it and a warm pass over the same tiles. When run as root the page
+ * cache is dropped before each cold pass; otherwise the files are cached by the OS, and
+ * the cold pass measures only opening and faulting in the mapping.
+ * Run from proj3/ with:
+ * java -cp target/classes:target/test-classes TilePackBenchmark [tiles] [imageDirectory]
+ */
+public class TilePackBenchmark {
+    public static void main(String[] args) throws IOException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        File dir = args.length > 1 ? new File(args[1]) : generate(count);
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".png"));
+        File packFile = File.createTempFile("tiles", ".pack");
+        packFile.deleteOnExit();
+        TilePack.write(dir, packFile);
+        String[] names = new String[files.length];
+        long bytes = 0;
+        for (int i = 0; i < files.length; i += 1) {
+            names[i] = files[i].getName();
+            bytes += files[i].length();
+        }
+        System.out.println(String.format("%d tiles, %.1f MB, page cache %s:", names.length,
+                bytes / 1e6, canDropCaches() ? "dropped before cold passes" : "not dropped"));
+
+        for (String pass : new String[] {"cold", "warm"}) {
+            dropCaches(pass);
+            long start = System.nanoTime();
+            long sum = 0;
+            for (File f : files) {
+                sum += Files.readAllBytes(f.toPath()).length;
+            }
+            report("directory bytes", pass, start, names.length, sum);
+
+            dropCaches(pass);
+            start = System.nanoTime();
+            TilePack pack = TilePack.open(packFile);
+            sum = 0;
+            for (String name : names) {
+                ByteBuffer tile = pack.bytes(name);
+                for (int i = 0; i < tile.limit(); i += 4096) {
+                    sum += tile.get(i);
+                }
+                sum += tile.remaining();
+            }
+            report("pack bytes", pass, start, names.length, sum);
+
+            dropCaches(pass);
+            start = System.nanoTime();
+            for (File f : files) {
+                sum += ImageIO.read(f).getWidth();
+            }
+            report("directory decode", pass, start, names.length, sum);
+
+            dropCaches(pass);
+            start = System.nanoTime();
+            pack = TilePack.open(packFile);
+            for (String name : names) {
+                sum += pack.image(name).getWidth();
+            }
+            report("pack decode", pass, start, names.length, sum);
+        }
+    }
+
+    /** Writes count noisy 256x256 tiles to a temporary directory. */
+    private static File generate(int count) throws IOException {
+        File dir = Files.createTempDirectory("tiles").toFile();
+        Random random = new Random(3);
+        BufferedImage img = new BufferedImage(MapServer.TILE_SIZE, MapServer.TILE_SIZE,
+                BufferedImage.TYPE_INT_RGB);
+        for (int i = 0; i < count; i += 1) {
+            for (int y = 0; y < img.getHeight(); y += 1) {
+                for (int x = 0; x < img.getWidth(); x += 1) {
+                    int shade = 200 + random.nextInt(8) + (x / 32 + y / 32 + i) % 4 * 10;
+                    img.setRGB(x, y, shade << 16 | shade << 8 | 220);
+                }
+            }
+            File tile = new File(dir, "d7_x" + i % 128 + "_y" + i / 128 + ".png");
+            ImageIO.write(img, "png", tile);
+            tile.deleteOnExit();
+        }
+        dir.deleteOnExit();
+        return dir;
+    }
+
+    private static void report(String what, String pass, long start, int n, long sum) {
+        double ms = (System.nanoTime() - start) / 1e6;
+        System.out.println(String.format("  %-16s %s %8.1f ms  %7.1f us/tile   (%d)", what,
+                pass, ms, ms * 1e3 / n, sum % 10));
+    }
+
+    private static boolean canDropCaches() {
+        return new File("/proc/sys/vm/drop_caches").canWrite();
+    }
+
+    /** Empties the OS page cache before a cold pass, if allowed to. */
+    private static void dropCaches(String pass) {
+        if (!pass.equals("cold") || !canDropCaches()) {
+            return;
+        }
+        try (FileWriter w = new FileWriter("/proc/sys/vm/drop_caches")) {
+            w.write("1");
+        } catch (IOException e) {
+            return;
+        }
+    }
+}